@@ -23,17 +23,49 @@ import static net.paissad.jcamstream.JCSConstants.JCS_NAME;
 import static net.paissad.jcamstream.JCSConstants.JCS_VERSION;
 
 import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
 import java.util.List;
 
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.slf4j.Logger;
 
+import net.paissad.jcamstream.configuration.CameraConfig;
+import net.paissad.jcamstream.configuration.JCSConf;
+import net.paissad.jcamstream.configuration.JCSConfListener;
+import net.paissad.jcamstream.configuration.JCSSettings;
+import net.paissad.jcamstream.configuration.UploadConfig;
 import net.paissad.jcamstream.factory.JCSLoggerFactory;
 import net.paissad.jcamstream.logging.LogColorConverter;
 import net.paissad.jcamstream.logging.LogDirDefiner;
 import net.paissad.jcamstream.logging.LogFileNameDefiner;
 import net.paissad.jcamstream.logging.LogReloader;
+import net.paissad.jcamstream.media.capture.Camera;
+import net.paissad.jcamstream.media.capture.CaptureScheduler;
+import net.paissad.jcamstream.media.frame.FrameSource;
+import net.paissad.jcamstream.media.frame.TestPatternFrameSource;
+import net.paissad.jcamstream.media.frame.V4L2FrameSource;
+import net.paissad.jcamstream.media.motion.MotionDetectorStage;
+import net.paissad.jcamstream.media.motion.MotionEvent;
+import net.paissad.jcamstream.media.motion.MotionListener;
+import net.paissad.jcamstream.media.motion.MotionTriggeredRecorder;
+import net.paissad.jcamstream.media.recorder.CatalogStore;
+import net.paissad.jcamstream.media.recorder.Recording;
+import net.paissad.jcamstream.media.recorder.RecordingCatalog;
+import net.paissad.jcamstream.media.recorder.RecordingListener;
+import net.paissad.jcamstream.media.recorder.RetentionManager;
+import net.paissad.jcamstream.media.recorder.StorageWriter;
+import net.paissad.jcamstream.upload.DedupeDestination;
+import net.paissad.jcamstream.upload.FTPDestination;
+import net.paissad.jcamstream.upload.MirrorDestination;
+import net.paissad.jcamstream.upload.SFTPDestination;
+import net.paissad.jcamstream.upload.UploadDestination;
+import net.paissad.jcamstream.upload.UploadQueue;
+import net.paissad.jcamstream.utils.BandwidthShaper;
+import net.paissad.jcamstream.utils.FTPUploader;
+import net.paissad.jcamstream.utils.SSHSessionManager;
+import net.paissad.jcamstream.utils.UploadProgress;
 
 /**
  * @author Papa Issa DIAKHATE (paissad)
@@ -41,9 +73,15 @@ import net.paissad.jcamstream.logging.LogReloader;
  */
 public class JCS {
 
-    private static File         logfile    = null;
-    private static File         configFile = null;
-    private static List<String> arguments  = null;
+    /**
+     * How often the configuration file is checked while uploading, for the
+     * changes of the rates, in milliseconds.
+     */
+    private static final long   CONFIG_WATCH_INTERVAL = 5000;
+
+    private static File         logfile               = null;
+    private static File         configFile            = null;
+    private static List<String> arguments             = null;
 
     private static Logger       logger;
 
@@ -66,10 +104,234 @@ public class JCS {
         logger = JCSLoggerFactory.getLogger(JCS.class);
 
         logger.info("Starting {} ({})", JCS_NAME, JCS_VERSION);
-        logger.trace("a trace message ...");
-        logger.error("error stuff ...");
-        logger.warn("Don't bother for this warning !");
-        logger.debug("ok");
+
+        try {
+            JCSConf.setConfigFile(getConfigFile());
+        } catch (IOException ioe) {
+            logger.error("Unable to read the configuration file " + getConfigFile(), ioe);
+            System.exit(EXIT_ERROR);
+        }
+        try {
+            JCSConf.startWatching(CONFIG_WATCH_INTERVAL);
+        } catch (IOException ioe) {
+            logger.warn("Unable to watch the configuration file, its changes need a restart", ioe);
+        }
+        startCapture();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Starts the capture of the cameras of the configuration file, and waits
+     * until the application is stopped.
+     */
+    private static void startCapture() {
+        List<CameraConfig> cameras = JCSConf.getCameras();
+        if (cameras.isEmpty()) {
+            logger.warn("No camera is configured (key 'cameras').");
+            return;
+        }
+
+        final CaptureScheduler scheduler = new CaptureScheduler(JCSConf.getCaptureWorkers());
+        // The recordings all go to one directory, so one device.
+        final StorageWriter storage = new StorageWriter(JCSConf.getRecordingsDir().getName(),
+                JCSConf.getStorageQueueSize(), (long) (JCSConf.getStorageSyncInterval() * 1000),
+                JCSConf.getStorageSyncSize());
+        final RetentionManager retention = new RetentionManager(JCSConf.getRecordingsDir(),
+                new RecordingCatalog());
+        retention.setQuota(JCSConf.getRetentionQuota());
+        retention.setMinFreeSpace(JCSConf.getRetentionFreeSpace());
+        retention.setEventsLast(JCSConf.isRetentionEventsLast());
+        retention.setStore(new CatalogStore(JCSConf.getDataDir(), JCSConf.getRecordingsDir()));
+        final BandwidthShaper shaper = new BandwidthShaper(JCSConf.getUploadRate());
+        final UploadQueue uploads = createUploadQueue(shaper);
+        RecordingListener listener = retention;
+        if (uploads != null) {
+            listener = new RecordingListener() {
+                @Override
+                public void recordingClosed(File file) {
+                    retention.recordingClosed(file);
+                    uploads.enqueue(file);
+                }
+            };
+        }
+        for (CameraConfig camera : cameras) {
+            logger.info("Adding the camera {}", camera);
+            Camera added = scheduler.addCamera(camera.getName(), createSource(camera),
+                    camera.getMaxFrameRate());
+            added.setMask(camera.getMask());
+            added.setPreEventFrames(camera.getPreEventFrames());
+            added.setStorageWriter(storage);
+            added.setRecordingListener(listener);
+            retention.setQuota(camera.getName(), camera.getQuota());
+        }
+
+        MotionDetectorStage motionDetector = new MotionDetectorStage();
+        motionDetector.addListener(new MotionListener() {
+            @Override
+            public void motionStarted(MotionEvent event) {
+                logger.info("Motion started : {}", event);
+            }
+
+            @Override
+            public void motionEnded(MotionEvent event) {
+                logger.info("Motion ended : {}", event);
+            }
+        });
+        final MotionTriggeredRecorder motionRecorder = new MotionTriggeredRecorder(scheduler,
+                JCSConf.getRecordingsDir(), (long) (JCSConf.getMotionLinger() * 1000));
+        motionDetector.addListener(motionRecorder);
+        scheduler.addProcessor(motionDetector);
+
+        storage.start();
+        retention.start(RetentionManager.DEFAULT_INTERVAL);
+        if (uploads != null) {
+            try {
+                uploads.start();
+            } catch (IOException ioe) {
+                // The capture goes on, without the uploads.
+                logger.error("Unable to start the uploads", ioe);
+            }
+            watchUploadRates(shaper);
+        }
+        try {
+            scheduler.start();
+        } catch (IOException ioe) {
+            logger.error(ioe.getMessage());
+            System.exit(EXIT_ERROR);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread("capture-shutdown") {
+            @Override
+            public void run() {
+                motionRecorder.close();
+                scheduler.stop();
+                try {
+                    storage.stop();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                // Once the last recordings are closed, for the catalog.
+                retention.stop();
+                if (uploads != null) {
+                    uploads.stop();
+                    logger.info("Uploads : {}", shaper);
+                }
+            }
+        });
+        try {
+            scheduler.awaitTermination();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The queue of the uploads of the configuration file, or
+     *         <code>null</code> if there is no destination.
+     */
+    private static UploadQueue createUploadQueue(BandwidthShaper shaper) {
+        List<UploadConfig> destinations = JCSConf.getUploads();
+        if (destinations.isEmpty())
+            return null;
+        FileFilter events = new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                Recording recording = Recording.fromFile(file);
+                return recording != null && recording.isEvent();
+            }
+        };
+        UploadQueue queue = new UploadQueue(JCSConf.getDataDir());
+        for (UploadConfig destination : destinations) {
+            logger.info("Adding the upload destination {}", destination);
+            shaper.setRate(destination.getName(), destination.getRate());
+            UploadDestination created = createDestination(destination, shaper);
+            queue.addDestination(deduplicate(created, destination),
+                    destination.isEventsOnly() ? events : null);
+        }
+        return queue;
+    }
+
+    /**
+     * @return The destination of the configuration. The progress of the
+     *         uploads to a FTP server is saved in the data directory, so that
+     *         they are resumed after a restart.
+     */
+    static UploadDestination createDestination(UploadConfig config, BandwidthShaper shaper) {
+        switch (config.getType()) {
+        case FTP:
+            String password = (config.getPassword() != null) ? config.getPassword() : "";
+            FTPUploader uploader = new FTPUploader(config.getUser(), password, config.getHost(),
+                    config.getPort(), config.getDir(), config.getSessions());
+            uploader.setShaper(shaper, config.getName());
+            File saved = new File(JCSConf.getDataDir(), "ftp-" + config.getName() + ".progress");
+            try {
+                uploader.setProgress(new UploadProgress(saved));
+            } catch (IOException ioe) {
+                logger.error("Unable to read the upload progress of " + config.getName()
+                        + ", uploading the files from their start", ioe);
+            }
+            return new FTPDestination(config.getName(), uploader);
+        case SFTP:
+            SSHSessionManager manager = new SSHSessionManager(config.getUser(),
+                    config.getPassword(), config.getHost(), config.getPort(),
+                    config.getSessions());
+            manager.setShaper(shaper, config.getName());
+            return new SFTPDestination(config.getName(), manager, config.getDir(),
+                    config.getSessions());
+        default:
+            return new MirrorDestination(config.getName(), new File(config.getDir()),
+                    JCSConf.getRecordingsDir(), config.getSessions());
+        }
+    }
+
+    /**
+     * @return The destination behind its deduplication if the configuration
+     *         asks for one, the destination itself otherwise or if the index
+     *         cannot be opened.
+     */
+    private static UploadDestination deduplicate(UploadDestination destination,
+            UploadConfig config) {
+        if (config.getDedupe() == UploadConfig.Dedupe.NONE)
+            return destination;
+        File directory = new File(JCSConf.getDataDir(), "dedupe" + File.separator
+                + config.getName());
+        DedupeDestination deduplicated = new DedupeDestination(destination, directory,
+                config.getDedupe() == UploadConfig.Dedupe.PERCEPTUAL);
+        try {
+            deduplicated.open();
+            return deduplicated;
+        } catch (IOException ioe) {
+            logger.error("Unable to open the dedupe index of " + config.getName()
+                    + ", uploading all the files", ioe);
+            return destination;
+        }
+    }
+
+    /**
+     * Follows the changes of the configuration file, so that the rates of the
+     * uploads may be changed without stopping the capture.
+     */
+    private static void watchUploadRates(final BandwidthShaper shaper) {
+        JCSConf.addListener(new JCSConfListener() {
+            @Override
+            public void configurationChanged(JCSSettings oldSettings, JCSSettings newSettings) {
+                shaper.setGlobalRate(newSettings.getUploadRate());
+                for (UploadConfig destination : newSettings.getUploads())
+                    shaper.setRate(destination.getName(), destination.getRate());
+                logger.info("Upload rate set to {} B/s", shaper.getGlobalRate());
+            }
+        });
+    }
+
+    private static FrameSource createSource(CameraConfig camera) {
+        if (CameraConfig.TEST_PATTERN_DEVICE.equals(camera.getDevice())) {
+            double frameRate = (camera.getMaxFrameRate() > 0) ? camera.getMaxFrameRate() : 30;
+            return new TestPatternFrameSource(camera.getWidth(), camera.getHeight(),
+                    camera.getPixelFormat(), frameRate, -1);
+        }
+        return new V4L2FrameSource(camera.getDevice(), camera.getWidth(), camera.getHeight(),
+                camera.getPixelFormat());
     }
 
     // _________________________________________________________________________
@@ -0,0 +1,224 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.configuration;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import net.paissad.jcamstream.media.frame.FrameMask;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+import net.paissad.jcamstream.media.recorder.PreEventBuffer;
+
+/**
+ * The settings of one camera, read from the keys
+ * <code>camera.&lt;name&gt;.*</code> of the configuration file:
+ * 
+ * <pre>
+ * camera.front.device = /dev/video0
+ * camera.front.width = 1280
+ * camera.front.height = 720
+ * camera.front.format = YUYV
+ * camera.front.fps = 15
+ * camera.front.roi = 0,200,1280,520
+ * camera.front.exclude = 900,200,380,150 ; 0,600,200,120
+ * camera.front.preevent = 5
+ * camera.front.preevent.max = 64
+ * camera.front.quota = 20000
+ * </pre>
+ * 
+ * The regions of interest (<code>roi</code>, the whole frame by default) and
+ * the excluded regions are rectangles <code>x,y,width,height</code> in
+ * pixels, separated by semicolons. The pre-event buffer keeps the seconds
+ * (<code>preevent</code>, 0 by default) before a recording, at the frame rate
+ * cap of the camera or {@value #DEFAULT_FRAME_RATE} fps, within a memory
+ * bound in megabytes (<code>preevent.max</code>, {@value #DEFAULT_PREEVENT_MAX}
+ * by default). The recordings of the camera may take at most
+ * <code>quota</code> megabytes on the disk, the oldest ones being deleted
+ * (no limit by default).
+ * <p>
+ * The device {@value #TEST_PATTERN_DEVICE} stands for a synthetic source,
+ * when there is no camera to test with.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public final class CameraConfig {
+
+    /** The device name of the synthetic source. */
+    public static final String TEST_PATTERN_DEVICE  = "test-pattern";
+
+    static final String        CAMERA_PREFIX        = "camera.";
+
+    private static final int   DEFAULT_WIDTH        = 640;
+    private static final int   DEFAULT_HEIGHT       = 480;
+    /** The frame rate assumed to size the pre-event buffer without a cap. */
+    private static final int   DEFAULT_FRAME_RATE   = 30;
+    /** In megabytes. */
+    private static final int   DEFAULT_PREEVENT_MAX = 64;
+
+    private final String       name;
+    private final String       device;
+    private final int          width;
+    private final int          height;
+    private final PixelFormat  pixelFormat;
+    private final double       maxFrameRate;
+    private final FrameMask    mask;
+    private final int          preEventFrames;
+    private final long         quota;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param name
+     *            - The name of the camera.
+     * @param props
+     *            - The properties of the configuration file.
+     * @throws IllegalArgumentException
+     *             - If a value is not valid.
+     */
+    CameraConfig(final String name, final Properties props) {
+        String prefix = CAMERA_PREFIX + name + ".";
+        this.name = name;
+        this.device = props.getProperty(prefix + "device", "/dev/video0").trim();
+        this.width = Integer.parseInt(props.getProperty(prefix + "width", String.valueOf(DEFAULT_WIDTH))
+                .trim());
+        this.height = Integer.parseInt(props.getProperty(prefix + "height",
+                String.valueOf(DEFAULT_HEIGHT)).trim());
+        this.pixelFormat = PixelFormat.valueOf(props.getProperty(prefix + "format",
+                PixelFormat.YUYV.name()).trim().toUpperCase());
+        this.maxFrameRate = Double.parseDouble(props.getProperty(prefix + "fps", "0").trim());
+        if (width <= 0 || height <= 0 || maxFrameRate < 0)
+            throw new IllegalArgumentException("Invalid settings for the camera " + name);
+
+        List<Rectangle> include = parseRegions(props.getProperty(prefix + "roi", ""));
+        List<Rectangle> exclude = parseRegions(props.getProperty(prefix + "exclude", ""));
+        this.mask = (include.isEmpty() && exclude.isEmpty()) ? null : new FrameMask(width, height,
+                include, exclude);
+
+        double preEvent = Double.parseDouble(props.getProperty(prefix + "preevent", "0").trim());
+        long preEventMax = Long.parseLong(props.getProperty(prefix + "preevent.max",
+                String.valueOf(DEFAULT_PREEVENT_MAX)).trim()) * 1024 * 1024;
+        if (preEvent < 0 || preEventMax < 0)
+            throw new IllegalArgumentException("Invalid pre-event settings for the camera " + name);
+        double frameRate = (maxFrameRate > 0) ? maxFrameRate : DEFAULT_FRAME_RATE;
+        long frames = (long) Math.ceil(preEvent * frameRate);
+        long maxFrames = preEventMax
+                / PreEventBuffer.getMemorySize(1, pixelFormat.getFrameSize(width, height));
+        this.preEventFrames = (int) Math.min(frames, maxFrames);
+
+        this.quota = Long.parseLong(props.getProperty(prefix + "quota", "0").trim()) * 1024 * 1024;
+        if (quota < 0)
+            throw new IllegalArgumentException("Invalid quota for the camera " + name);
+    }
+
+    // _________________________________________________________________________
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The path of the device, or {@value #TEST_PATTERN_DEVICE}.
+     */
+    public String getDevice() {
+        return device;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * @return The maximum number of frames per second, 0 if there is no cap.
+     */
+    public double getMaxFrameRate() {
+        return maxFrameRate;
+    }
+
+    /**
+     * @return The part of the frames to look at, <code>null</code> for the
+     *         whole frames.
+     */
+    public FrameMask getMask() {
+        return mask;
+    }
+
+    /**
+     * @return The number of frames of the pre-event buffer, 0 for none.
+     */
+    public int getPreEventFrames() {
+        return preEventFrames;
+    }
+
+    /**
+     * @return The space the recordings of the camera may take, in bytes, 0
+     *         if there is no limit.
+     */
+    public long getQuota() {
+        return quota;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + device + ", " + width + "x" + height + " " + pixelFormat
+                + ((maxFrameRate > 0) ? ", " + maxFrameRate + " fps max" : "")
+                + ((mask != null) ? ", " + mask : "")
+                + ((preEventFrames > 0) ? ", " + preEventFrames + " frames of pre-event" : "")
+                + ((quota > 0) ? ", quota " + quota / 1024 / 1024 + " MB" : "") + ")";
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @param value
+     *            - Rectangles <code>x,y,width,height</code> separated by
+     *            semicolons.
+     * @return The rectangles.
+     * @throws IllegalArgumentException
+     *             - If a rectangle is not valid.
+     */
+    private static List<Rectangle> parseRegions(final String value) {
+        List<Rectangle> regions = new ArrayList<Rectangle>();
+        for (String region : value.split(";")) {
+            if (region.trim().length() == 0)
+                continue;
+            String[] fields = region.split(",");
+            if (fields.length != 4)
+                throw new IllegalArgumentException("Invalid region : " + region.trim());
+            int x = Integer.parseInt(fields[0].trim());
+            int y = Integer.parseInt(fields[1].trim());
+            int w = Integer.parseInt(fields[2].trim());
+            int h = Integer.parseInt(fields[3].trim());
+            if (x < 0 || y < 0 || w <= 0 || h <= 0)
+                throw new IllegalArgumentException("Invalid region : " + region.trim());
+            regions.add(new Rectangle(x, y, w, h));
+        }
+        return regions;
+    }
+}
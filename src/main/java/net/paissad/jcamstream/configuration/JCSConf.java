@@ -21,50 +21,77 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashSet;
+import java.io.InputStream;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.io.filefilter.NameFileFilter;
+import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
+import org.apache.commons.io.monitor.FileAlterationMonitor;
+import org.apache.commons.io.monitor.FileAlterationObserver;
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+import net.paissad.jcamstream.logging.LogDirDefiner;
 
 /**
  * This class contains convenient methods that read the main configuration file
  * of the application.
+ * <p>
+ * The settings are parsed once each time the file is read and published as
+ * an immutable {@link JCSSettings}, so the getters only read a volatile field.
+ * The file can also be watched, see {@link #startWatching(long)}, so that a
+ * running daemon picks up its changes without a restart.
+ * </p>
  * 
  * @author Papa Issa DIAKHATE (paissad)
  * 
  */
 public class JCSConf {
 
-    private static final String SMTP_HOST_KEY           = "mail.smtp.host";
-    private static final String SMTP_USER_KEY           = "mail.smtp.user";
-    private static final String SMTP_PASSWORD_KEY       = "mail.smtp.password";
-    private static final String SMTP_PORT_KEY           = "mail.smtp.port";
-    private static final String SMTP_AUTH_KEY           = "mail.smtp.auth";
-    private static final String SMTP_USE_STARTTLS_KEY   = "mail.smtp.starttls.enable";
-    private static final String SMTP_USE_SSL_KEY        = "mail.smtp.ssl.enable";
-    private static final String MAIL_SUBJECT_KEY        = "mail.subject";
-    private static final String MAIL_RECIPIENTS_TO_KEY  = "mail.recipients.to";
-    private static final String MAIL_RECIPIENTS_CC_KEY  = "mail.recipients.cc";
-    private static final String MAIL_RECIPIENTS_BCC_KEY = "mail.recipients.bcc";
+    private static Logger                      logger    = JCSLoggerFactory.getLogger(JCSConf.class);
 
-    private static final int    DEFAULT_SMTP_PORT       = 25;
-    private static final String RECIPIENTS_SEPARATOR    = ",";
+    private static File                        configFile;
+    private static volatile JCSSettings        settings;
 
-    private static File         configFile;
-    private static Properties   props;
+    private static final List<JCSConfListener> listeners = new CopyOnWriteArrayList<JCSConfListener>();
+    private static FileAlterationMonitor       monitor;
 
     private JCSConf() throws IOException {
         loadConfig();
     }
 
-    private static void loadConfig() throws IOException {
-        props = new Properties();
-        BufferedInputStream bis = new BufferedInputStream(new FileInputStream(getConfigFile()));
+    private static synchronized void loadConfig() throws IOException {
+        Properties props = new Properties();
+        InputStream bis = new BufferedInputStream(new FileInputStream(getConfigFile()));
+        JCSSettings newSettings;
         try {
             props.load(bis);
+            newSettings = new JCSSettings(props);
         } catch (IOException ioe) {
-            // String errMsg = "Error while loading the configuration file";
-            // TODO: logger
+            logger.error("Error while loading the configuration file " + getConfigFile(), ioe);
             throw new IOException(ioe);
+        } catch (IllegalArgumentException iae) {
+            logger.error("Error while loading the configuration file " + getConfigFile(), iae);
+            throw new IOException(iae);
+        } finally {
+            bis.close();
+        }
+
+        JCSSettings oldSettings = settings;
+        if (newSettings.equals(oldSettings)) {
+            logger.debug("The configuration file {} did not change.", getConfigFile());
+            return;
+        }
+        settings = newSettings;
+        for (JCSConfListener listener : listeners) {
+            try {
+                listener.configurationChanged(oldSettings, newSettings);
+            } catch (RuntimeException re) {
+                logger.error("A configuration listener failed : " + listener, re);
+            }
         }
     }
 
@@ -83,20 +110,132 @@ public class JCSConf {
      *             - Si problème lors de lecture/ouverture du fichier spécifié.
      */
     public static void setConfigFile(File configFile) throws IOException {
-        JCSConf.configFile = configFile;
+        boolean watching;
+        long interval = 0;
+        synchronized (JCSConf.class) {
+            watching = (monitor != null);
+            if (watching)
+                interval = monitor.getInterval();
+            JCSConf.configFile = configFile;
+        }
         loadConfig(); // Do not forget to re-read the configuration file.
+        if (watching) {
+            stopWatching();
+            startWatching(interval);
+        }
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Starts watching the configuration file in a daemon thread. The file is
+     * read again each time it is modified, and the listeners are notified if
+     * its settings changed. When the file cannot be read, or is invalid, the
+     * previous settings are kept.
+     * 
+     * @param intervalMillis
+     *            - How often the modification date of the file is checked.
+     * @throws IOException
+     *             - If the watcher cannot be started.
+     * @see #stopWatching()
+     * @see #addListener(JCSConfListener)
+     */
+    public static synchronized void startWatching(long intervalMillis) throws IOException {
+        if (monitor != null) {
+            logger.info("The configuration file is already watched.");
+            return;
+        }
+        File file = getConfigFile().getAbsoluteFile();
+        FileAlterationObserver observer = new FileAlterationObserver(
+                file.getParentFile(), new NameFileFilter(file.getName()));
+        observer.addListener(new FileAlterationListenerAdaptor() {
+            @Override
+            public void onFileCreate(File file) {
+                reload();
+            }
+
+            @Override
+            public void onFileChange(File file) {
+                reload();
+            }
+        });
+
+        FileAlterationMonitor newMonitor = new FileAlterationMonitor(intervalMillis, observer);
+        try {
+            newMonitor.start();
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        monitor = newMonitor;
+        logger.info("Watching the configuration file {} every {} ms.", file, intervalMillis);
     }
 
+    /**
+     * Stops watching the configuration file.
+     * 
+     * @see #startWatching(long)
+     */
+    public static synchronized void stopWatching() {
+        if (monitor == null)
+            return;
+        try {
+            monitor.stop();
+        } catch (Exception e) {
+            logger.warn("Error while stopping the watcher of the configuration file.", e);
+        }
+        monitor = null;
+    }
+
+    private static void reload() {
+        logger.info("The configuration file {} was modified, reading it again.", getConfigFile());
+        try {
+            loadConfig();
+        } catch (IOException ioe) {
+            logger.warn("Keeping the previous settings.");
+        }
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Registers a listener notified each time the configuration file is read
+     * with new settings.
+     * 
+     * @param listener
+     *            - The listener to add.
+     */
+    public static void addListener(JCSConfListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener
+     *            - The listener to remove.
+     */
+    public static void removeListener(JCSConfListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return The current settings, that is an immutable copy of the
+     *         configuration file as it was last read.
+     */
+    public static final JCSSettings getSettings() {
+        return settings;
+    }
+
+    // _________________________________________________________________________
+
     public static final String getSmtpHost() {
-        return props.getProperty(SMTP_HOST_KEY);
+        return settings.getSmtpHost();
     }
 
     public static final String getSmtpUser() {
-        return props.getProperty(SMTP_USER_KEY);
+        return settings.getSmtpUser();
     }
 
     public static final String getSmtpPassword() {
-        return props.getProperty(SMTP_PASSWORD_KEY);
+        return settings.getSmtpPassword();
     }
 
     /**
@@ -104,72 +243,149 @@ public class JCSConf {
      *         SMTP port (usually 25) if the value was not set.
      */
     public static final int getSmtpPort() {
-        String val = props.getProperty(SMTP_PORT_KEY);
-        return (val != null) ? (Integer.parseInt(val)) : DEFAULT_SMTP_PORT;
+        return settings.getSmtpPort();
     }
 
     public static final boolean isSmtpAuth() {
-        String val = props.getProperty(SMTP_AUTH_KEY, "");
-        return val.equals("true");
+        return settings.isSmtpAuth();
     }
 
     public static final boolean isUseSmtpSTARTTLS() {
-        String val = props.getProperty(SMTP_USE_STARTTLS_KEY, "");
-        return val.equals("true");
+        return settings.isUseSmtpSTARTTLS();
     }
 
     public static final boolean isUseSmtpSSL() {
-        String val = props.getProperty(SMTP_USE_SSL_KEY, "");
-        return val.equals("true");
+        return settings.isUseSmtpSSL();
     }
 
     public static final String getMailSubject() {
-        return props.getProperty(MAIL_SUBJECT_KEY);
+        return settings.getMailSubject();
     }
 
     /**
      * Retrieve the set of recipients of type 'TO' from the configuration file.
      * 
-     * @return The list of recipients stored into the configuration file.
+     * @return The unmodifiable set of recipients stored into the configuration
+     *         file.
      */
     public static final Set<String> getMailRecipientsTO() {
-        String val = props.getProperty(MAIL_RECIPIENTS_TO_KEY, "");
-
-        Set<String> recipients = new HashSet<String>();
-        String[] array = val.split(RECIPIENTS_SEPARATOR);
-        for (String aRecipient : array)
-            recipients.add(aRecipient.trim());
-        return recipients;
+        return settings.getMailRecipientsTO();
     }
 
     /**
      * Retrieve the set of recipients of type 'CC' from the configuration file.
      * 
-     * @return The list of recipients stored into the configuration file.
+     * @return The unmodifiable set of recipients stored into the configuration
+     *         file.
      */
     public static final Set<String> getMailRecipientsCC() {
-        String val = props.getProperty(MAIL_RECIPIENTS_CC_KEY, "");
-
-        Set<String> recipients = new HashSet<String>();
-        String[] array = val.split(RECIPIENTS_SEPARATOR);
-        for (String aRecipient : array)
-            recipients.add(aRecipient.trim());
-        return recipients;
+        return settings.getMailRecipientsCC();
     }
 
     /**
      * Retrieve the set of recipients of type 'BCC' from the configuration file.
      * 
-     * @return The list of recipients stored into the configuration file.
+     * @return The unmodifiable set of recipients stored into the configuration
+     *         file.
      */
     public static final Set<String> getMailRecipientsBCC() {
-        String val = props.getProperty(MAIL_RECIPIENTS_BCC_KEY, "");
+        return settings.getMailRecipientsBCC();
+    }
+
+    /**
+     * @return The unmodifiable list of the cameras of the configuration file.
+     */
+    public static final List<CameraConfig> getCameras() {
+        return settings.getCameras();
+    }
+
+    public static final int getCaptureWorkers() {
+        return settings.getCaptureWorkers();
+    }
+
+    public static final File getRecordingsDir() {
+        return settings.getRecordingsDir();
+    }
+
+    /**
+     * @return How long a recording goes on after the motion ended, in
+     *         seconds.
+     */
+    public static final double getMotionLinger() {
+        return settings.getMotionLinger();
+    }
+
+    /**
+     * @return The memory of the queue of each recording, in bytes.
+     */
+    public static final long getStorageQueueSize() {
+        return settings.getStorageQueueSize();
+    }
+
+    /**
+     * @return The maximum time between two syncs of the recordings, in
+     *         seconds.
+     */
+    public static final double getStorageSyncInterval() {
+        return settings.getStorageSyncInterval();
+    }
+
+    /**
+     * @return The maximum number of bytes written between two syncs of the
+     *         recordings.
+     */
+    public static final long getStorageSyncSize() {
+        return settings.getStorageSyncSize();
+    }
+
+    /**
+     * @return The space all the recordings may take, in bytes, 0 if there is
+     *         no limit.
+     */
+    public static final long getRetentionQuota() {
+        return settings.getRetentionQuota();
+    }
+
+    /**
+     * @return The free space kept on the disk of the recordings, in bytes.
+     */
+    public static final long getRetentionFreeSpace() {
+        return settings.getRetentionFreeSpace();
+    }
 
-        Set<String> recipients = new HashSet<String>();
-        String[] array = val.split(RECIPIENTS_SEPARATOR);
-        for (String aRecipient : array)
-            recipients.add(aRecipient.trim());
-        return recipients;
+    public static final boolean isRetentionEventsLast() {
+        return settings.isRetentionEventsLast();
+    }
+
+    /**
+     * @return The directory of the data kept between two runs, the directory
+     *         <code>data</code> next to the directory of the logs by default.
+     */
+    public static final File getDataDir() {
+        File dataDir = settings.getDataDir();
+        if (dataDir != null)
+            return dataDir;
+        File logDir = LogDirDefiner.getCurrentLogDir();
+        if (logDir == null)
+            return new File(System.getProperty("user.home"), ".jcamstream" + File.separator
+                    + "data");
+        File parent = logDir.getAbsoluteFile().getParentFile();
+        return new File((parent != null) ? parent : logDir, "data");
+    }
+
+    /**
+     * @return The destinations of the recordings uploaded, none by default.
+     */
+    public static final List<UploadConfig> getUploads() {
+        return settings.getUploads();
+    }
+
+    /**
+     * @return The number of bytes per second of all the uploads, 0 (no limit)
+     *         by default.
+     */
+    public static final long getUploadRate() {
+        return settings.getUploadRate();
     }
 
 }
@@ -0,0 +1,41 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.configuration;
+
+/**
+ * Listener notified when the main configuration file is read again with
+ * different settings.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ * @see JCSConf#addListener(JCSConfListener)
+ */
+public interface JCSConfListener {
+
+    /**
+     * Called after the new settings are published, from the thread which
+     * read the configuration file.
+     * 
+     * @param oldSettings
+     *            - The previous settings, <code>null</code> for the first read
+     *            of the file.
+     * @param newSettings
+     *            - The settings which are now returned by {@link JCSConf}.
+     */
+    public void configurationChanged(JCSSettings oldSettings, JCSSettings newSettings);
+}
@@ -0,0 +1,369 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.configuration;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * An immutable copy of the settings of the main configuration file, with the
+ * values already converted to their types. The instances are built by
+ * {@link JCSConf} each time the configuration file is read, so that the
+ * getters never parse anything.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public final class JCSSettings {
+
+    static final String         SMTP_HOST_KEY           = "mail.smtp.host";
+    static final String         SMTP_USER_KEY           = "mail.smtp.user";
+    static final String         SMTP_PASSWORD_KEY       = "mail.smtp.password";
+    static final String         SMTP_PORT_KEY           = "mail.smtp.port";
+    static final String         SMTP_AUTH_KEY           = "mail.smtp.auth";
+    static final String         SMTP_USE_STARTTLS_KEY   = "mail.smtp.starttls.enable";
+    static final String         SMTP_USE_SSL_KEY        = "mail.smtp.ssl.enable";
+    static final String         MAIL_SUBJECT_KEY        = "mail.subject";
+    static final String         MAIL_RECIPIENTS_TO_KEY  = "mail.recipients.to";
+    static final String         MAIL_RECIPIENTS_CC_KEY  = "mail.recipients.cc";
+    static final String         MAIL_RECIPIENTS_BCC_KEY = "mail.recipients.bcc";
+    static final String         CAMERAS_KEY             = "cameras";
+    static final String         CAPTURE_WORKERS_KEY     = "capture.workers";
+    static final String         RECORDINGS_DIR_KEY      = "recordings.dir";
+    static final String         MOTION_LINGER_KEY       = "motion.linger";
+    static final String         STORAGE_QUEUE_KEY       = "storage.queue";
+    static final String         STORAGE_SYNC_TIME_KEY   = "storage.sync.interval";
+    static final String         STORAGE_SYNC_SIZE_KEY   = "storage.sync.size";
+    static final String         RETENTION_QUOTA_KEY     = "retention.quota";
+    static final String         RETENTION_FREE_KEY      = "retention.free";
+    static final String         RETENTION_EVENTS_KEY    = "retention.events.last";
+    static final String         DATA_DIR_KEY            = "data.dir";
+    static final String         UPLOADS_KEY             = "uploads";
+    static final String         UPLOAD_RATE_KEY         = "upload.rate";
+
+    private static final int    DEFAULT_SMTP_PORT       = 25;
+    private static final String RECIPIENTS_SEPARATOR    = ",";
+    private static final String DEFAULT_RECORDINGS_DIR  = "recordings";
+    private static final double DEFAULT_MOTION_LINGER   = 10;
+    private static final double DEFAULT_STORAGE_QUEUE   = 32;
+    private static final double DEFAULT_SYNC_INTERVAL   = 5;
+    private static final double DEFAULT_SYNC_SIZE       = 16;
+    private static final double DEFAULT_RETENTION_FREE  = 1024;
+    private static final long   KILOBYTE                = 1024;
+    private static final long   MEGABYTE                = 1024 * 1024;
+
+    private final Properties         properties;
+
+    private final String             smtpHost;
+    private final String             smtpUser;
+    private final String             smtpPassword;
+    private final int                smtpPort;
+    private final boolean            smtpAuth;
+    private final boolean            useSmtpSTARTTLS;
+    private final boolean            useSmtpSSL;
+    private final String             mailSubject;
+    private final Set<String>        mailRecipientsTO;
+    private final Set<String>        mailRecipientsCC;
+    private final Set<String>        mailRecipientsBCC;
+    private final List<CameraConfig> cameras;
+    private final int                captureWorkers;
+    private final File               recordingsDir;
+    private final double             motionLinger;
+    private final long               storageQueueSize;
+    private final double             storageSyncInterval;
+    private final long               storageSyncSize;
+    private final long               retentionQuota;
+    private final long               retentionFreeSpace;
+    private final boolean            retentionEventsLast;
+    private final File               dataDir;
+    private final List<UploadConfig> uploads;
+    private final long               uploadRate;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param props
+     *            - The properties read from the configuration file. They are
+     *            copied, later changes of <code>props</code> are not seen.
+     * @throws IllegalArgumentException
+     *             - If the value of a numeric setting is not a number, or
+     *             the settings of a camera are not valid.
+     */
+    JCSSettings(final Properties props) {
+        properties = new Properties();
+        properties.putAll(props);
+
+        smtpHost = props.getProperty(SMTP_HOST_KEY);
+        smtpUser = props.getProperty(SMTP_USER_KEY);
+        smtpPassword = props.getProperty(SMTP_PASSWORD_KEY);
+        String port = props.getProperty(SMTP_PORT_KEY, "").trim();
+        smtpPort = (port.length() != 0) ? Integer.parseInt(port) : DEFAULT_SMTP_PORT;
+        smtpAuth = props.getProperty(SMTP_AUTH_KEY, "").equals("true");
+        useSmtpSTARTTLS = props.getProperty(SMTP_USE_STARTTLS_KEY, "").equals("true");
+        useSmtpSSL = props.getProperty(SMTP_USE_SSL_KEY, "").equals("true");
+        mailSubject = props.getProperty(MAIL_SUBJECT_KEY);
+        mailRecipientsTO = parseRecipients(props.getProperty(MAIL_RECIPIENTS_TO_KEY, ""));
+        mailRecipientsCC = parseRecipients(props.getProperty(MAIL_RECIPIENTS_CC_KEY, ""));
+        mailRecipientsBCC = parseRecipients(props.getProperty(MAIL_RECIPIENTS_BCC_KEY, ""));
+        cameras = parseCameras(props);
+        String workers = props.getProperty(CAPTURE_WORKERS_KEY, "").trim();
+        captureWorkers = (workers.length() != 0) ? Integer.parseInt(workers) : Runtime.getRuntime()
+                .availableProcessors();
+        recordingsDir = new File(props.getProperty(RECORDINGS_DIR_KEY, DEFAULT_RECORDINGS_DIR).trim());
+        String linger = props.getProperty(MOTION_LINGER_KEY, "").trim();
+        motionLinger = (linger.length() != 0) ? Double.parseDouble(linger) : DEFAULT_MOTION_LINGER;
+        storageQueueSize = (long) (parseDouble(props, STORAGE_QUEUE_KEY, DEFAULT_STORAGE_QUEUE)
+                * MEGABYTE);
+        storageSyncInterval = parseDouble(props, STORAGE_SYNC_TIME_KEY, DEFAULT_SYNC_INTERVAL);
+        storageSyncSize = (long) (parseDouble(props, STORAGE_SYNC_SIZE_KEY, DEFAULT_SYNC_SIZE)
+                * MEGABYTE);
+        retentionQuota = (long) (parseDouble(props, RETENTION_QUOTA_KEY, 0) * MEGABYTE);
+        retentionFreeSpace = (long) (parseDouble(props, RETENTION_FREE_KEY, DEFAULT_RETENTION_FREE)
+                * MEGABYTE);
+        retentionEventsLast = !props.getProperty(RETENTION_EVENTS_KEY, "").trim().equals("false");
+        String data = props.getProperty(DATA_DIR_KEY, "").trim();
+        dataDir = (data.length() != 0) ? new File(data) : null;
+        uploads = parseUploads(props);
+        uploadRate = (long) (parseDouble(props, UPLOAD_RATE_KEY, 0) * KILOBYTE);
+    }
+
+    private static double parseDouble(final Properties props, final String key,
+            final double defaultValue) {
+        String value = props.getProperty(key, "").trim();
+        return (value.length() != 0) ? Double.parseDouble(value) : defaultValue;
+    }
+
+    private static Set<String> parseRecipients(final String val) {
+        Set<String> recipients = new HashSet<String>();
+        String[] array = val.split(RECIPIENTS_SEPARATOR);
+        for (String aRecipient : array)
+            recipients.add(aRecipient.trim());
+        return Collections.unmodifiableSet(recipients);
+    }
+
+    private static List<CameraConfig> parseCameras(final Properties props) {
+        List<CameraConfig> list = new ArrayList<CameraConfig>();
+        for (String name : props.getProperty(CAMERAS_KEY, "").split(",")) {
+            name = name.trim();
+            if (name.length() != 0)
+                list.add(new CameraConfig(name, props));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    private static List<UploadConfig> parseUploads(final Properties props) {
+        List<UploadConfig> list = new ArrayList<UploadConfig>();
+        for (String name : props.getProperty(UPLOADS_KEY, "").split(",")) {
+            name = name.trim();
+            if (name.length() != 0)
+                list.add(new UploadConfig(name, props));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @param key
+     *            - The key of a setting.
+     * @return The raw value of the setting, or <code>null</code> if it is not
+     *         set.
+     */
+    public String getProperty(final String key) {
+        return properties.getProperty(key);
+    }
+
+    public String getSmtpHost() {
+        return smtpHost;
+    }
+
+    public String getSmtpUser() {
+        return smtpUser;
+    }
+
+    public String getSmtpPassword() {
+        return smtpPassword;
+    }
+
+    /**
+     * @return The port specified into the configuration file, or the default
+     *         SMTP port (usually 25) if the value was not set.
+     */
+    public int getSmtpPort() {
+        return smtpPort;
+    }
+
+    public boolean isSmtpAuth() {
+        return smtpAuth;
+    }
+
+    public boolean isUseSmtpSTARTTLS() {
+        return useSmtpSTARTTLS;
+    }
+
+    public boolean isUseSmtpSSL() {
+        return useSmtpSSL;
+    }
+
+    public String getMailSubject() {
+        return mailSubject;
+    }
+
+    /**
+     * @return The unmodifiable set of recipients of type 'TO'.
+     */
+    public Set<String> getMailRecipientsTO() {
+        return mailRecipientsTO;
+    }
+
+    /**
+     * @return The unmodifiable set of recipients of type 'CC'.
+     */
+    public Set<String> getMailRecipientsCC() {
+        return mailRecipientsCC;
+    }
+
+    /**
+     * @return The unmodifiable set of recipients of type 'BCC'.
+     */
+    public Set<String> getMailRecipientsBCC() {
+        return mailRecipientsBCC;
+    }
+
+    /**
+     * @return The unmodifiable list of the cameras named by the key
+     *         <code>cameras</code>, in the same order.
+     */
+    public List<CameraConfig> getCameras() {
+        return cameras;
+    }
+
+    /**
+     * @return The number of threads shared by the cameras for the processing
+     *         of the frames, the number of processors by default.
+     */
+    public int getCaptureWorkers() {
+        return captureWorkers;
+    }
+
+    /**
+     * @return The directory of the recordings triggered by motion.
+     */
+    public File getRecordingsDir() {
+        return recordingsDir;
+    }
+
+    /**
+     * @return How long a recording goes on after the motion ended, in
+     *         seconds.
+     */
+    public double getMotionLinger() {
+        return motionLinger;
+    }
+
+    /**
+     * @return The memory of the queue of each recording written behind the
+     *         capture, in bytes.
+     */
+    public long getStorageQueueSize() {
+        return storageQueueSize;
+    }
+
+    /**
+     * @return The maximum time between two syncs of the recordings, in
+     *         seconds, 0 to not sync on time.
+     */
+    public double getStorageSyncInterval() {
+        return storageSyncInterval;
+    }
+
+    /**
+     * @return The maximum number of bytes written between two syncs of the
+     *         recordings, 0 to not sync on size.
+     */
+    public long getStorageSyncSize() {
+        return storageSyncSize;
+    }
+
+    /**
+     * @return The space all the recordings may take, in bytes, 0 if there is
+     *         no limit.
+     */
+    public long getRetentionQuota() {
+        return retentionQuota;
+    }
+
+    /**
+     * @return The free space kept on the disk of the recordings, in bytes.
+     */
+    public long getRetentionFreeSpace() {
+        return retentionFreeSpace;
+    }
+
+    /**
+     * @return Whether the continuous recordings are deleted before the events.
+     */
+    public boolean isRetentionEventsLast() {
+        return retentionEventsLast;
+    }
+
+    /**
+     * @return The directory of the data kept between two runs, such as the
+     *         catalog of the recordings, <code>null</code> if it is not set.
+     */
+    public File getDataDir() {
+        return dataDir;
+    }
+
+    /**
+     * @return The unmodifiable list of the destinations of the uploads named
+     *         by the key <code>uploads</code>, in the same order.
+     */
+    public List<UploadConfig> getUploads() {
+        return uploads;
+    }
+
+    /**
+     * @return The number of bytes per second of all the uploads, 0 for no
+     *         limit.
+     */
+    public long getUploadRate() {
+        return uploadRate;
+    }
+
+    // _________________________________________________________________________
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof JCSSettings))
+            return false;
+        return properties.equals(((JCSSettings) obj).properties);
+    }
+
+    @Override
+    public int hashCode() {
+        return properties.hashCode();
+    }
+}
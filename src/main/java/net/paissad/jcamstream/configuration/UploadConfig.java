@@ -0,0 +1,221 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.configuration;
+
+import java.util.Properties;
+
+/**
+ * The settings of one destination of the uploads, read from the keys
+ * <code>upload.&lt;name&gt;.*</code> of the configuration file:
+ * 
+ * <pre>
+ * upload.offsite.type = sftp
+ * upload.offsite.host = backup.example.org
+ * upload.offsite.port = 22
+ * upload.offsite.user = jcs
+ * upload.offsite.password =
+ * upload.offsite.dir = /srv/recordings
+ * upload.offsite.sessions = 2
+ * upload.offsite.events = true
+ * upload.offsite.rate = 512
+ * upload.offsite.dedupe = perceptual
+ * </pre>
+ * 
+ * The <code>type</code> is <code>ftp</code>, <code>sftp</code> or
+ * <code>mirror</code>, a local directory. The <code>host</code> is required
+ * by the servers, the default port of the protocol being used if the
+ * <code>port</code> is not set, and the SFTP destinations authenticate with
+ * the keys of the user when there is no <code>password</code>. The
+ * <code>dir</code> is the directory of the server or the local directory.
+ * At most <code>sessions</code> files ({@value #DEFAULT_SESSIONS} by default)
+ * are uploaded at once, and only the recordings triggered by motion are
+ * uploaded, unless <code>events</code> is <code>false</code>. The uploads to
+ * the destination are limited to <code>rate</code> KB per second, if set.
+ * The images already uploaded are not uploaded again if <code>dedupe</code>
+ * is <code>exact</code>, or <code>perceptual</code> to also skip the images
+ * of a same scene, see {@link Dedupe}.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public final class UploadConfig {
+
+    /**
+     * The kinds of destinations.
+     */
+    public static enum Type {
+        FTP, SFTP, MIRROR
+    }
+
+    /**
+     * How the images already uploaded are recognized.
+     */
+    public static enum Dedupe {
+        /** All the files are uploaded. */
+        NONE,
+        /** By the hash of their content. */
+        EXACT,
+        /** By the hash of their content, or by their perceptual hash. */
+        PERCEPTUAL
+    }
+
+    static final String      UPLOAD_PREFIX    = "upload.";
+
+    private static final int DEFAULT_SESSIONS = 2;
+    private static final int KILOBYTE         = 1024;
+
+    private final String     name;
+    private final Type       type;
+    private final String     host;
+    private final int        port;
+    private final String     user;
+    private final String     password;
+    private final String     dir;
+    private final int        sessions;
+    private final boolean    eventsOnly;
+    private final long       rate;
+    private final Dedupe     dedupe;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param name
+     *            - The name of the destination.
+     * @param props
+     *            - The properties of the configuration file.
+     * @throws IllegalArgumentException
+     *             - If a value is not valid, or a required one is missing.
+     */
+    UploadConfig(final String name, final Properties props) {
+        String prefix = UPLOAD_PREFIX + name + ".";
+        this.name = name;
+        String kind = props.getProperty(prefix + "type", "").trim();
+        if (kind.length() == 0)
+            throw new IllegalArgumentException("No type for the upload destination " + name);
+        this.type = Type.valueOf(kind.toUpperCase());
+        this.host = props.getProperty(prefix + "host", "").trim();
+        String portValue = props.getProperty(prefix + "port", "").trim();
+        this.port = (portValue.length() != 0) ? Integer.parseInt(portValue) : 0;
+        this.user = props.getProperty(prefix + "user", System.getProperty("user.name")).trim();
+        String pass = props.getProperty(prefix + "password", "");
+        this.password = (pass.length() != 0) ? pass : null;
+        this.dir = props.getProperty(prefix + "dir", "").trim();
+        this.sessions = Integer.parseInt(props.getProperty(prefix + "sessions",
+                String.valueOf(DEFAULT_SESSIONS)).trim());
+        this.eventsOnly = !props.getProperty(prefix + "events", "").trim().equals("false");
+        String rateValue = props.getProperty(prefix + "rate", "").trim();
+        this.rate = (rateValue.length() != 0) ? (long) (Double.parseDouble(rateValue) * KILOBYTE)
+                : 0;
+        String dedupeValue = props.getProperty(prefix + "dedupe", "").trim();
+        this.dedupe = (dedupeValue.length() != 0) ? Dedupe.valueOf(dedupeValue.toUpperCase())
+                : Dedupe.NONE;
+
+        if (type != Type.MIRROR && host.length() == 0)
+            throw new IllegalArgumentException("No host for the upload destination " + name);
+        if (dir.length() == 0)
+            throw new IllegalArgumentException("No directory for the upload destination " + name);
+        if (port < 0 || sessions <= 0 || rate < 0)
+            throw new IllegalArgumentException("Invalid settings for the upload destination "
+                    + name);
+    }
+
+    // _________________________________________________________________________
+
+    public String getName() {
+        return name;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The hostname of the server, empty for a mirror.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return The port of the server, 0 for the default port of the protocol.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return The user, the local user by default.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * @return The password of the user, <code>null</code> if it is not set.
+     */
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * @return The directory of the server, or the local directory of a
+     *         mirror.
+     */
+    public String getDir() {
+        return dir;
+    }
+
+    /**
+     * @return The maximum number of files uploaded at once.
+     */
+    public int getSessions() {
+        return sessions;
+    }
+
+    /**
+     * @return Whether only the recordings triggered by motion are uploaded.
+     */
+    public boolean isEventsOnly() {
+        return eventsOnly;
+    }
+
+    /**
+     * @return The number of bytes per second of the uploads, 0 for no limit.
+     */
+    public long getRate() {
+        return rate;
+    }
+
+    /**
+     * @return How the images already uploaded are skipped, not at all by
+     *         default.
+     */
+    public Dedupe getDedupe() {
+        return dedupe;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + type.name().toLowerCase() + " "
+                + ((type != Type.MIRROR) ? user + "@" + host + ((port > 0) ? ":" + port : "") + ":"
+                        : "") + dir + ", " + sessions + " sessions"
+                + (eventsOnly ? ", events only" : "") + ((rate > 0) ? ", " + rate / KILOBYTE
+                + " KB/s" : "") + ((dedupe != Dedupe.NONE) ? ", dedupe "
+                + dedupe.name().toLowerCase() : "") + ")";
+    }
+}
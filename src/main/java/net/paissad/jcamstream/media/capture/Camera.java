@@ -0,0 +1,240 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.capture;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.paissad.jcamstream.media.frame.FrameMask;
+import net.paissad.jcamstream.media.frame.FrameQueue;
+import net.paissad.jcamstream.media.recorder.FrameRecorder;
+import net.paissad.jcamstream.media.recorder.IRecorder;
+import net.paissad.jcamstream.media.recorder.QueuedFrameWriter;
+import net.paissad.jcamstream.media.recorder.RecordingListener;
+import net.paissad.jcamstream.media.recorder.StorageWriter;
+
+/**
+ * A camera driven by a {@link CaptureScheduler}: its recorder, which reads
+ * the frames in a thread of its own, and the queue of the frames waiting for
+ * the shared workers. It also holds the metrics of the camera.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class Camera {
+
+    private final String        name;
+    private final FrameRecorder recorder;
+    private final FrameQueue    queue;
+
+    /** Whether a worker is processing or is about to process the queue. */
+    final AtomicBoolean         scheduled = new AtomicBoolean();
+
+    private volatile FrameMask  mask;
+
+    private volatile long       processedFrames;
+    private volatile long       failedFrames;
+    private volatile long       lastLag;
+    private volatile long       maxLag;
+
+    // _________________________________________________________________________
+
+    Camera(String name, FrameRecorder recorder, FrameQueue queue) {
+        this.name = name;
+        this.recorder = recorder;
+        this.queue = queue;
+    }
+
+    // _________________________________________________________________________
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The recorder of the camera, to record it or to take snapshots.
+     */
+    public IRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * @return The part of the frames the stages look at, <code>null</code>
+     *         for the whole frames.
+     */
+    public FrameMask getMask() {
+        return mask;
+    }
+
+    /**
+     * @param mask
+     *            - The part of the frames the stages look at,
+     *            <code>null</code> for the whole frames. It should be set
+     *            before the scheduler starts, the stages may read it once.
+     */
+    public void setMask(FrameMask mask) {
+        this.mask = mask;
+    }
+
+    /**
+     * @param frames
+     *            - The number of frames kept before a recording starts, 0
+     *            for none.
+     * @see FrameRecorder#setPreEventFrames(int)
+     */
+    public void setPreEventFrames(int frames) {
+        recorder.setPreEventFrames(frames);
+    }
+
+    /**
+     * @param storage
+     *            - The thread writing the recordings of the camera,
+     *            <code>null</code> to write them from its capture thread.
+     * @see FrameRecorder#setStorageWriter(StorageWriter)
+     */
+    public void setStorageWriter(StorageWriter storage) {
+        recorder.setStorageWriter(storage);
+    }
+
+    /**
+     * @param listener
+     *            - Told when a recording of the camera is complete, or
+     *            <code>null</code>.
+     * @see FrameRecorder#setRecordingListener(RecordingListener)
+     */
+    public void setRecordingListener(RecordingListener listener) {
+        recorder.setRecordingListener(listener);
+    }
+
+    /**
+     * @return The number of frames of the recording in progress waiting to be
+     *         written, 0 if nothing is recorded.
+     */
+    public int getWriteQueueDepth() {
+        QueuedFrameWriter writer = recorder.getWriteQueue();
+        return (writer == null) ? 0 : writer.getQueueDepth();
+    }
+
+    /**
+     * @return The memory taken by the pre-event buffer of the camera, in
+     *         bytes.
+     */
+    public long getPreEventMemory() {
+        return recorder.getPreEventMemory();
+    }
+
+    /**
+     * @return The number of frames read from the camera.
+     */
+    public long getCapturedFrames() {
+        return recorder.getFrameCount();
+    }
+
+    /**
+     * @return The number of frames processed by the workers.
+     */
+    public long getProcessedFrames() {
+        return processedFrames;
+    }
+
+    /**
+     * @return The number of frames dropped because the workers were behind:
+     *         the frames the pool could not hold, and the frames pushed out
+     *         of the queue.
+     */
+    public long getDroppedFrames() {
+        return recorder.getDroppedFrames() + queue.getDropped();
+    }
+
+    /**
+     * @return The number of frames dropped to respect the frame rate cap.
+     */
+    public long getThrottledFrames() {
+        return recorder.getThrottledFrames();
+    }
+
+    /**
+     * @return The number of frames a processor failed on.
+     */
+    public long getFailedFrames() {
+        return failedFrames;
+    }
+
+    /**
+     * @return The number of frames waiting for a worker.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return The age in milliseconds of the last frame when a worker took
+     *         it, that is how far behind the capture the processing is.
+     */
+    public long getLastLag() {
+        return lastLag;
+    }
+
+    /**
+     * @return The highest lag seen, in milliseconds.
+     */
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    @Override
+    public String toString() {
+        return name + " : captured=" + getCapturedFrames() + ", processed=" + processedFrames
+                + ", dropped=" + getDroppedFrames() + ", throttled=" + getThrottledFrames()
+                + ", failed=" + failedFrames + ", queue=" + getQueueDepth() + "/"
+                + queue.getCapacity() + ", lag=" + lastLag + " ms (max " + maxLag + " ms)"
+                + ((getPreEventMemory() > 0) ? ", preevent=" + getPreEventMemory() / 1024 + " KB" : "")
+                + writeQueue();
+    }
+
+    private String writeQueue() {
+        QueuedFrameWriter writer = recorder.getWriteQueue();
+        return (writer == null) ? "" : ", recording " + writer;
+    }
+
+    // _________________________________________________________________________
+
+    FrameRecorder getFrameRecorder() {
+        return recorder;
+    }
+
+    FrameQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Called by the worker which took a frame, the worker of a camera being
+     * only one at a time.
+     */
+    void frameTaken(long lag) {
+        lastLag = lag;
+        if (lag > maxLag)
+            maxLag = lag;
+    }
+
+    void frameProcessed(boolean failed) {
+        if (failed)
+            failedFrames++;
+        else
+            processedFrames++;
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.capture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+import net.paissad.jcamstream.media.frame.BackpressurePolicy;
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.FrameListener;
+import net.paissad.jcamstream.media.frame.FrameQueue;
+import net.paissad.jcamstream.media.frame.FrameSource;
+import net.paissad.jcamstream.media.recorder.FrameRecorder;
+
+/**
+ * Drives the capture of several cameras.
+ * <p>
+ * Each camera is read by its own {@link FrameRecorder}, in a thread of its
+ * own, so that a slow or stalled device never delays the others. The frames
+ * are then queued for the {@link FrameProcessor}s, which run on a fixed pool
+ * of workers shared by all the cameras: when a camera has frames waiting, one
+ * worker takes a few of them in order, then gives way to the other cameras.
+ * So the frames of a camera are processed one at a time, and the CPU heavy
+ * stages never use more threads than there are workers, whatever the number
+ * of cameras.
+ * </p>
+ * <p>
+ * When the workers are behind, the queue of a camera drops its oldest frames.
+ * The metrics of each camera (frames captured, processed, dropped, lag and
+ * depth of the queue) are available from {@link #getCameras()}, and logged
+ * periodically.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class CaptureScheduler {
+
+    /** The default number of frames waiting for the workers, per camera. */
+    public static final int            DEFAULT_QUEUE_CAPACITY = 4;
+
+    /** The number of frames a worker processes before giving way. */
+    private static final int           BATCH_SIZE             = 4;
+
+    private static Logger              logger                 = JCSLoggerFactory
+                                                                      .getLogger(CaptureScheduler.class);
+
+    private final int                  workers;
+    private final int                  queueCapacity;
+    private final Map<String, Camera>  cameras                = new LinkedHashMap<String, Camera>();
+    private final List<FrameProcessor> processors             = new CopyOnWriteArrayList<FrameProcessor>();
+
+    private volatile ExecutorService   executor;
+    private ScheduledExecutorService   statsLogger;
+    private long                       statsInterval          = 60;
+    private CountDownLatch             stopped;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param workers
+     *            - The number of threads processing the frames of all the
+     *            cameras.
+     */
+    public CaptureScheduler(int workers) {
+        this(workers, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param workers
+     *            - The number of threads processing the frames of all the
+     *            cameras.
+     * @param queueCapacity
+     *            - The number of frames of a camera which may wait for the
+     *            workers.
+     */
+    public CaptureScheduler(int workers, int queueCapacity) {
+        if (workers <= 0)
+            throw new IllegalArgumentException("The number of workers must be positive : " + workers);
+        // The pool of a recorder must hold the queue, the frame being
+        // processed, the frame being captured and the latest one.
+        if (queueCapacity <= 0 || queueCapacity + 3 > FrameRecorder.DEFAULT_POOL_SIZE)
+            throw new IllegalArgumentException("Invalid queue capacity : " + queueCapacity);
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Adds a camera. The cameras are added before the scheduler is started.
+     * 
+     * @param name
+     *            - The name of the camera, used in the logs.
+     * @param source
+     *            - The source of the frames of the camera.
+     * @param maxFrameRate
+     *            - The maximum number of frames per second processed or
+     *            recorded for this camera, 0 for no cap.
+     * @return The camera.
+     */
+    public synchronized Camera addCamera(String name, FrameSource source, double maxFrameRate) {
+        if (executor != null)
+            throw new IllegalStateException("The scheduler is already started.");
+        if (cameras.containsKey(name))
+            throw new IllegalArgumentException("There is already a camera named " + name);
+
+        FrameRecorder recorder = new FrameRecorder(source, FrameRecorder.DEFAULT_POOL_SIZE,
+                BackpressurePolicy.DROP_OLDEST);
+        recorder.setMaxFrameRate(maxFrameRate);
+        final Camera camera = new Camera(name, recorder, new FrameQueue(queueCapacity,
+                BackpressurePolicy.DROP_OLDEST));
+        recorder.addListener(new FrameListener() {
+            public void frameCaptured(FrameBuffer frame) {
+                enqueue(camera, frame);
+            }
+        });
+        cameras.put(name, camera);
+        return camera;
+    }
+
+    /**
+     * Adds a stage run on each frame of each camera, after the stages
+     * already added.
+     */
+    public void addProcessor(FrameProcessor processor) {
+        processors.add(processor);
+    }
+
+    public void removeProcessor(FrameProcessor processor) {
+        processors.remove(processor);
+    }
+
+    /**
+     * @param seconds
+     *            - The period of the logs of the metrics of the cameras, 0 to
+     *            not log them. Taken into account when the scheduler starts.
+     */
+    public void setStatsInterval(long seconds) {
+        this.statsInterval = seconds;
+    }
+
+    /**
+     * @return The cameras, in the order they were added.
+     */
+    public synchronized List<Camera> getCameras() {
+        return Collections.unmodifiableList(new ArrayList<Camera>(cameras.values()));
+    }
+
+    /**
+     * @param name
+     *            - The name of a camera.
+     * @return The camera, or <code>null</code> if there is none of this name.
+     */
+    public synchronized Camera getCamera(String name) {
+        return cameras.get(name);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Starts the workers and the capture of all the cameras. A camera which
+     * cannot be opened is logged and skipped.
+     * 
+     * @throws IOException
+     *             If no camera could be started.
+     */
+    public synchronized void start() throws IOException {
+        if (executor != null)
+            throw new IllegalStateException("The scheduler is already started.");
+
+        executor = Executors.newFixedThreadPool(workers, new NamedThreadFactory("capture-worker"));
+        stopped = new CountDownLatch(1);
+
+        int started = 0;
+        for (Camera camera : cameras.values()) {
+            FrameRecorder recorder = camera.getFrameRecorder();
+            try {
+                recorder.start();
+                recorder.getFramePool().addQueue(camera.getQueue());
+                started++;
+            } catch (IOException e) {
+                logger.error("Unable to start the camera " + camera.getName(), e);
+            }
+        }
+        if (started == 0 && !cameras.isEmpty()) {
+            stop();
+            throw new IOException("None of the " + cameras.size() + " cameras could be started.");
+        }
+
+        if (statsInterval > 0) {
+            statsLogger = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+                    "capture-stats"));
+            statsLogger.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    logStats();
+                }
+            }, statsInterval, statsInterval, TimeUnit.SECONDS);
+        }
+        logger.info("{} cameras started, {} workers.", started, workers);
+    }
+
+    /**
+     * Stops the capture of all the cameras and the workers, the frames still
+     * queued are dropped.
+     */
+    public synchronized void stop() {
+        if (executor == null)
+            return;
+        for (Camera camera : cameras.values()) {
+            camera.getFrameRecorder().stop();
+        }
+        if (statsLogger != null) {
+            statsLogger.shutdownNow();
+            statsLogger = null;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS))
+                logger.warn("The workers did not stop within 10 seconds.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        for (Camera camera : cameras.values()) {
+            camera.getQueue().clear();
+        }
+        logStats();
+        stopped.countDown();
+    }
+
+    /**
+     * Waits until the scheduler is stopped.
+     * 
+     * @throws InterruptedException
+     */
+    public void awaitTermination() throws InterruptedException {
+        CountDownLatch latch;
+        synchronized (this) {
+            latch = stopped;
+        }
+        if (latch != null)
+            latch.await();
+    }
+
+    /**
+     * Logs the metrics of each camera.
+     */
+    public void logStats() {
+        for (Camera camera : getCameras()) {
+            logger.info("Camera {}", camera);
+        }
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Called from the capture thread of the camera.
+     */
+    private void enqueue(final Camera camera, FrameBuffer frame) {
+        try {
+            camera.getQueue().offer(frame.retain());
+        } catch (InterruptedException e) {
+            // Never happens, the queue drops its oldest frames.
+            Thread.currentThread().interrupt();
+            return;
+        }
+        schedule(camera);
+    }
+
+    private void schedule(final Camera camera) {
+        if (!camera.scheduled.compareAndSet(false, true))
+            return;
+        ExecutorService current = executor;
+        if (current == null) {
+            camera.scheduled.set(false);
+            return;
+        }
+        try {
+            current.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain(camera);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Rejected, the scheduler is stopping.
+            camera.scheduled.set(false);
+        }
+    }
+
+    /**
+     * Processes a few frames of a camera, then gives way to the other cameras.
+     */
+    private void drain(Camera camera) {
+        FrameQueue queue = camera.getQueue();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            FrameBuffer frame = queue.poll();
+            if (frame == null)
+                break;
+            camera.frameTaken(System.currentTimeMillis() - frame.getTimestamp());
+            boolean failed = false;
+            try {
+                for (FrameProcessor processor : processors) {
+                    processor.process(camera, frame);
+                }
+            } catch (Exception e) {
+                failed = true;
+                logger.error("Unable to process the frame " + frame.getSequence() + " of the camera "
+                        + camera.getName(), e);
+            } finally {
+                frame.release();
+            }
+            camera.frameProcessed(failed);
+        }
+        camera.scheduled.set(false);
+        if (queue.size() > 0)
+            schedule(camera);
+    }
+
+    // _________________________________________________________________________
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String        prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
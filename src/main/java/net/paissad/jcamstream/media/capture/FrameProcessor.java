@@ -0,0 +1,45 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.capture;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+
+/**
+ * A CPU heavy stage of the pipeline, such as encoding or motion detection,
+ * run by the shared workers of a {@link CaptureScheduler}.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public interface FrameProcessor {
+
+    /**
+     * Processes one frame. The frames of a camera are processed one at a
+     * time and in order, but the frames of different cameras are processed
+     * concurrently, by any worker.
+     * 
+     * @param camera
+     *            - The camera the frame comes from.
+     * @param frame
+     *            - The frame, which must be retained to be kept after this
+     *            call.
+     * @throws Exception
+     *             The error is logged, and the next frames are processed.
+     */
+    public void process(Camera camera, FrameBuffer frame) throws Exception;
+}
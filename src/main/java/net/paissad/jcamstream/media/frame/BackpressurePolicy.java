@@ -0,0 +1,44 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+/**
+ * What to do with a new frame when the pipeline cannot take it, because the
+ * {@link FramePool} is exhausted or a {@link FrameQueue} is full.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * Drops the oldest frame waiting to be processed to make room for the new
+     * one. The latest images are kept, which is usually what matters for a
+     * live camera.
+     */
+    DROP_OLDEST,
+
+    /** Drops the new frame, the frames already queued are kept. */
+    DROP_NEWEST,
+
+    /**
+     * Waits until there is room for the new frame. Nothing is lost, but the
+     * capture is slowed down to the pace of the slowest stage.
+     */
+    BLOCK;
+}
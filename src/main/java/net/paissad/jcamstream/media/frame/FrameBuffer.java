@@ -0,0 +1,189 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One raw frame and its metadata. The data is held in a direct
+ * {@link ByteBuffer} which is allocated once and reused for the following
+ * frames.
+ * <p>
+ * A frame leased from a {@link FramePool} is reference counted, so that it can
+ * be handed over from one stage of the pipeline to the next ones (capture,
+ * encoding, detection, upload) without being copied: each stage which keeps
+ * the frame calls {@link #retain()}, then {@link #release()} when it is done
+ * with it, and the buffer goes back to its pool after the last release.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FrameBuffer {
+
+    private final ByteBuffer    data;
+    private final int           width;
+    private final int           height;
+    private final PixelFormat   pixelFormat;
+    private final FramePool     pool;
+    private final AtomicInteger references = new AtomicInteger();
+
+    private long                sequence;
+    private long                timestamp;
+
+    // _________________________________________________________________________
+
+    /**
+     * Allocates a frame buffer.
+     * 
+     * @param width
+     *            - The width of the frames, in pixels.
+     * @param height
+     *            - The height of the frames, in pixels.
+     * @param pixelFormat
+     *            - The layout of the frames.
+     */
+    public FrameBuffer(int width, int height, PixelFormat pixelFormat) {
+        this(null, width, height, pixelFormat);
+    }
+
+    FrameBuffer(FramePool pool, int width, int height, PixelFormat pixelFormat) {
+        this.pool = pool;
+        this.width = width;
+        this.height = height;
+        this.pixelFormat = pixelFormat;
+        this.data = ByteBuffer.allocateDirect(pixelFormat.getFrameSize(width, height));
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Adds a reference to this frame, which is not given back to its pool
+     * until the matching {@link #release()}.
+     * 
+     * @return This frame.
+     */
+    public FrameBuffer retain() {
+        if (references.getAndIncrement() <= 0 && pool != null) {
+            references.getAndDecrement();
+            throw new IllegalStateException("The frame was already released.");
+        }
+        return this;
+    }
+
+    /**
+     * Removes a reference to this frame. After the last one, the frame goes
+     * back to its pool and must not be used anymore.
+     */
+    public void release() {
+        int count = references.decrementAndGet();
+        if (count < 0) {
+            references.incrementAndGet();
+            throw new IllegalStateException("The frame was released too many times.");
+        }
+        if (count == 0 && pool != null)
+            pool.recycle(this);
+    }
+
+    /**
+     * @return The number of references to this frame.
+     */
+    public int getReferenceCount() {
+        return references.get();
+    }
+
+    /**
+     * Called by the pool when the frame is leased.
+     */
+    void lease() {
+        references.set(1);
+    }
+
+    /**
+     * Reads the next frame of a source into this buffer.
+     * 
+     * @param source
+     *            - The source to read.
+     * @param sequence
+     *            - The number of the frame.
+     * @return <code>true</code> if a frame was read, <code>false</code> if the
+     *         source has no more frames.
+     * @throws IOException
+     */
+    public boolean readFrom(FrameSource source, long sequence) throws IOException {
+        data.clear();
+        if (!source.readFrame(data))
+            return false;
+        this.sequence = sequence;
+        this.timestamp = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Copies another frame and its metadata into this buffer.
+     * 
+     * @param frame
+     *            - The frame to copy, of the same size and format.
+     */
+    public void copyFrom(FrameBuffer frame) {
+        ByteBuffer src = frame.data.duplicate();
+        data.clear();
+        data.put(src);
+        data.flip();
+        this.sequence = frame.sequence;
+        this.timestamp = frame.timestamp;
+    }
+
+    /**
+     * @return The frame data. Its position is 0 and its limit the size of the
+     *         frame. Use {@link ByteBuffer#duplicate()} to read it from
+     *         several threads.
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * @return The number of the frame in its source, starting at 0.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return The time at which the frame was captured, in milliseconds since
+     *         the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+/**
+ * Listener notified of each frame captured by a recorder.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public interface FrameListener {
+
+    /**
+     * Called from the capture thread for each frame. The call must be short
+     * since it delays the capture. To process the frame later or in another
+     * thread, call {@link FrameBuffer#retain()} and release it when done, for
+     * example by offering it to a {@link FrameQueue}. Otherwise the frame
+     * must not be used after this call, its buffer goes back to the pool.
+     * 
+     * @param frame
+     *            - The frame which was just captured.
+     */
+    public void frameCaptured(FrameBuffer frame);
+}
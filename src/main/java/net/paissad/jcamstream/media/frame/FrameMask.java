@@ -0,0 +1,254 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The part of the frames of a camera which is looked at: the regions of
+ * interest, minus the excluded regions (a street, trees in the wind).
+ * <p>
+ * The mask is compiled once into runs of active pixels, row by row, so that
+ * the stages iterate the spans of a row instead of testing each pixel. The
+ * spans of the row <code>y</code> are the indexes from
+ * <code>getFirstSpan(y)</code> to <code>getFirstSpan(y + 1) - 1</code>, each
+ * one covering the pixels from <code>getSpanStart(i)</code> to
+ * <code>getSpanEnd(i) - 1</code>.
+ * </p>
+ * <p>
+ * A mask is immutable.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public final class FrameMask {
+
+    private final int   width;
+    private final int   height;
+    /** The index of the first span of each row, and the number of spans. */
+    private final int[] firstSpans;
+    private final int[] starts;
+    private final int[] ends;
+    private final int   activePixels;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param width
+     *            - The width of the frames.
+     * @param height
+     *            - The height of the frames.
+     * @param include
+     *            - The regions of interest, the whole frame if empty. The
+     *            parts outside of the frame are ignored.
+     * @param exclude
+     *            - The regions which are not looked at, even inside a region
+     *            of interest.
+     */
+    public FrameMask(int width, int height, List<Rectangle> include, List<Rectangle> exclude) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid size : " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+
+        if (include.isEmpty())
+            include = Collections.singletonList(new Rectangle(0, 0, width, height));
+
+        // One row at a time, the spans being collected in growing arrays.
+        boolean[] row = new boolean[width];
+        int[] spanStarts = new int[height];
+        int[] spanEnds = new int[height];
+        int span = 0;
+        int pixels = 0;
+        this.firstSpans = new int[height + 1];
+        for (int y = 0; y < height; y++) {
+            firstSpans[y] = span;
+            Arrays.fill(row, false);
+            for (Rectangle region : include) {
+                fill(row, y, region, true);
+            }
+            for (Rectangle region : exclude) {
+                fill(row, y, region, false);
+            }
+            for (int x = 0; x < width;) {
+                if (!row[x]) {
+                    x++;
+                    continue;
+                }
+                if (span == spanStarts.length) {
+                    spanStarts = Arrays.copyOf(spanStarts, span * 2);
+                    spanEnds = Arrays.copyOf(spanEnds, span * 2);
+                }
+                spanStarts[span] = x;
+                while (x < width && row[x])
+                    x++;
+                spanEnds[span] = x;
+                pixels += spanEnds[span] - spanStarts[span];
+                span++;
+            }
+        }
+        firstSpans[height] = span;
+        this.starts = Arrays.copyOf(spanStarts, span);
+        this.ends = Arrays.copyOf(spanEnds, span);
+        this.activePixels = pixels;
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @return A mask letting the whole frame through.
+     */
+    public static FrameMask full(int width, int height) {
+        List<Rectangle> none = Collections.emptyList();
+        return new FrameMask(width, height, none, none);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Compiles the mask for a grid of cells, such as the one of a motion
+     * detector. A cell is active if its centre is.
+     * 
+     * @param cellSize
+     *            - The size in pixels of the cells.
+     * @return The mask of the grid, <code>(width / cellSize)</code> cells
+     *         wide and <code>(height / cellSize)</code> cells high.
+     */
+    public FrameMask scale(int cellSize) {
+        int gridWidth = width / cellSize;
+        int gridHeight = height / cellSize;
+        List<Rectangle> include = new ArrayList<Rectangle>();
+        for (int gy = 0; gy < gridHeight; gy++) {
+            int centreY = gy * cellSize + cellSize / 2;
+            for (int gx = 0; gx < gridWidth;) {
+                int from = gx;
+                while (gx < gridWidth && isActive(gx * cellSize + cellSize / 2, centreY))
+                    gx++;
+                if (gx > from) {
+                    include.add(new Rectangle(from, gy, gx - from, 1));
+                } else {
+                    gx++;
+                }
+            }
+        }
+        if (include.isEmpty()) {
+            // Nothing is active, and an empty list would mean the whole grid.
+            return new FrameMask(gridWidth, gridHeight, include, Collections.singletonList(new Rectangle(0,
+                    0, gridWidth, gridHeight)));
+        }
+        return new FrameMask(gridWidth, gridHeight, include, Collections.<Rectangle> emptyList());
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return <code>true</code> if the pixel is active.
+     */
+    public boolean isActive(int x, int y) {
+        if (y < 0 || y >= height)
+            return false;
+        for (int i = firstSpans[y]; i < firstSpans[y + 1]; i++) {
+            if (x >= starts[i] && x < ends[i])
+                return true;
+        }
+        return false;
+    }
+
+    // _________________________________________________________________________
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param y
+     *            - A row, from 0 to the height (included).
+     * @return The index of the first span of the row.
+     */
+    public int getFirstSpan(int y) {
+        return firstSpans[y];
+    }
+
+    public int getSpanCount() {
+        return starts.length;
+    }
+
+    /**
+     * @param span
+     * @return The first pixel of the span.
+     */
+    public int getSpanStart(int span) {
+        return starts[span];
+    }
+
+    /**
+     * @param span
+     * @return The pixel after the last one of the span.
+     */
+    public int getSpanEnd(int span) {
+        return ends[span];
+    }
+
+    public int getActivePixels() {
+        return activePixels;
+    }
+
+    /**
+     * @return The part of the frame which is active, from 0 to 1.
+     */
+    public double getActiveFraction() {
+        return activePixels / ((double) width * height);
+    }
+
+    /**
+     * @return <code>true</code> if the whole frame is active.
+     */
+    public boolean isFull() {
+        return activePixels == width * height;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + " mask, " + starts.length + " spans, "
+                + String.format("%.0f", getActiveFraction() * 100) + "% active";
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Sets the pixels of a region in one row.
+     */
+    private static void fill(boolean[] row, int y, Rectangle region, boolean value) {
+        if (y < region.y || y >= region.y + region.height)
+            return;
+        int from = Math.max(0, region.x);
+        int to = Math.min(row.length, region.x + region.width);
+        for (int x = from; x < to; x++) {
+            row[x] = value;
+        }
+    }
+}
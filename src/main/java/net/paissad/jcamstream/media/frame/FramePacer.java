@@ -0,0 +1,74 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds back the frames of a source which would otherwise deliver them as
+ * fast as it can, so that it runs at the rate of a camera.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+class FramePacer {
+
+    private final long period;
+    private long       deadline;
+
+    /**
+     * @param frameRate
+     *            - The number of frames per second, 0 to not hold back the
+     *            frames.
+     */
+    FramePacer(double frameRate) {
+        this.period = (frameRate > 0) ? (long) (1000000000L / frameRate) : 0;
+    }
+
+    /**
+     * Waits until it is time to deliver the next frame.
+     * 
+     * @throws InterruptedIOException
+     *             If the thread is interrupted while waiting.
+     */
+    void await() throws InterruptedIOException {
+        if (period == 0)
+            return;
+        long now = System.nanoTime();
+        if (deadline == 0 || now - deadline > period) {
+            // First frame, or too late to catch up.
+            deadline = now;
+            return;
+        }
+        long wait = deadline - now;
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the next frame.");
+            }
+        }
+        deadline += period;
+    }
+
+    void reset() {
+        deadline = 0;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed set of {@link FrameBuffer}s allocated once, off the heap, and leased
+ * to the capture for each frame, so that the pipeline does not allocate
+ * anything per frame.
+ * <p>
+ * A leased frame holds one reference and goes back to the pool when its last
+ * reference is released. When all the frames are leased, the
+ * {@link BackpressurePolicy} of the pool decides what {@link #acquire()} does:
+ * <ul>
+ * <li>{@link BackpressurePolicy#DROP_OLDEST}: the oldest frame waiting in one
+ * of the queues added with {@link #addQueue(FrameQueue)} is dropped to free
+ * its buffer. If no queued frame can be dropped, the new frame is dropped.</li>
+ * <li>{@link BackpressurePolicy#DROP_NEWEST}: the new frame is dropped,
+ * {@link #acquire()} returns <code>null</code>.</li>
+ * <li>{@link BackpressurePolicy#BLOCK}: {@link #acquire()} waits for a frame
+ * to be released.</li>
+ * </ul>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FramePool {
+
+    private final int                     capacity;
+    private final BackpressurePolicy      policy;
+    private final ArrayDeque<FrameBuffer> free;
+    private final List<FrameQueue>        queues  = new CopyOnWriteArrayList<FrameQueue>();
+
+    private final AtomicLong              hits    = new AtomicLong();
+    private final AtomicLong              misses  = new AtomicLong();
+    private final AtomicLong              dropped = new AtomicLong();
+    private int                           peakLeased;
+
+    // _________________________________________________________________________
+
+    /**
+     * Allocates all the frames of the pool.
+     * 
+     * @param capacity
+     *            - The number of frames.
+     * @param width
+     *            - The width of the frames.
+     * @param height
+     *            - The height of the frames.
+     * @param pixelFormat
+     *            - The layout of the frames.
+     * @param policy
+     *            - What to do when all the frames are leased.
+     */
+    public FramePool(int capacity, int width, int height, PixelFormat pixelFormat,
+            BackpressurePolicy policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity must be positive : " + capacity);
+        this.capacity = capacity;
+        this.policy = policy;
+        this.free = new ArrayDeque<FrameBuffer>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            free.add(new FrameBuffer(this, width, height, pixelFormat));
+        }
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Leases a frame, applying the backpressure policy if none is free.
+     * 
+     * @return A frame holding one reference, or <code>null</code> if the new
+     *         frame has to be dropped.
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting for a frame.
+     */
+    public FrameBuffer acquire() throws InterruptedException {
+        FrameBuffer frame = poll();
+        if (frame != null) {
+            hits.incrementAndGet();
+            return frame;
+        }
+        misses.incrementAndGet();
+
+        switch (policy) {
+        case BLOCK:
+            synchronized (this) {
+                while (free.isEmpty())
+                    wait();
+                return lease(free.poll());
+            }
+        case DROP_OLDEST:
+            // Outside of the lock of the pool, since dropping a queued frame
+            // releases it into this pool.
+            while (reclaimOldest()) {
+                frame = poll();
+                if (frame != null)
+                    return frame;
+            }
+            dropped.incrementAndGet();
+            return null;
+        default:
+            dropped.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Lets the pool drop the frames waiting in a queue when it is exhausted
+     * and its policy is {@link BackpressurePolicy#DROP_OLDEST}.
+     * 
+     * @param queue
+     *            - A queue holding frames of this pool.
+     */
+    public void addQueue(FrameQueue queue) {
+        queues.add(queue);
+    }
+
+    public void removeQueue(FrameQueue queue) {
+        queues.remove(queue);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return The number of frames of the pool.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return The number of frames currently leased.
+     */
+    public synchronized int getLeased() {
+        return capacity - free.size();
+    }
+
+    /**
+     * @return The highest number of frames leased at the same time.
+     */
+    public synchronized int getPeakLeased() {
+        return peakLeased;
+    }
+
+    /**
+     * @return The number of leases satisfied at once by a free frame.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of leases requested while no frame was free.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of new frames dropped because no frame was free.
+     *         The queued frames dropped to make room are counted by their
+     *         queue.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "FramePool [leased=" + getLeased() + "/" + capacity + ", peak=" + getPeakLeased()
+                + ", hits=" + getHits() + ", misses=" + getMisses() + ", dropped=" + getDropped()
+                + ", policy=" + policy + "]";
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Called by a frame after its last reference was released.
+     */
+    synchronized void recycle(FrameBuffer frame) {
+        free.push(frame);
+        notifyAll();
+    }
+
+    private synchronized FrameBuffer poll() {
+        FrameBuffer frame = free.poll();
+        return (frame == null) ? null : lease(frame);
+    }
+
+    /**
+     * Must be called while holding the lock of the pool.
+     */
+    private FrameBuffer lease(FrameBuffer frame) {
+        frame.lease();
+        int leased = capacity - free.size();
+        if (leased > peakLeased)
+            peakLeased = leased;
+        return frame;
+    }
+
+    /**
+     * Drops the oldest frame waiting in the queues.
+     * 
+     * @return <code>false</code> if no queue had a frame to drop.
+     */
+    private boolean reclaimOldest() {
+        FrameQueue oldest = null;
+        long oldestSequence = Long.MAX_VALUE;
+        for (FrameQueue queue : queues) {
+            long sequence = queue.getOldestSequence();
+            if (sequence < oldestSequence) {
+                oldestSequence = sequence;
+                oldest = queue;
+            }
+        }
+        return oldest != null && oldest.dropOldest();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue handing frames over from one stage of the pipeline to the
+ * next one. The queue owns one reference of each frame it holds: the frame is
+ * released if it is dropped, otherwise the reference goes to the stage which
+ * takes the frame, and which must release it when it is done.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FrameQueue {
+
+    private final int                     capacity;
+    private final BackpressurePolicy      policy;
+    private final ArrayDeque<FrameBuffer> frames;
+
+    private long                          offered;
+    private long                          dropped;
+    private int                           peakSize;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param capacity
+     *            - The maximum number of frames waiting in the queue.
+     * @param policy
+     *            - What to do with a new frame when the queue is full.
+     */
+    public FrameQueue(int capacity, BackpressurePolicy policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity must be positive : " + capacity);
+        this.capacity = capacity;
+        this.policy = policy;
+        this.frames = new ArrayDeque<FrameBuffer>(capacity);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Adds a frame at the end of the queue. The reference of the caller is
+     * transferred to the queue, so call {@link FrameBuffer#retain()} first to
+     * keep using the frame.
+     * 
+     * @param frame
+     *            - The frame to queue.
+     * @return <code>false</code> if the new frame was dropped.
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting for room.
+     */
+    public boolean offer(FrameBuffer frame) throws InterruptedException {
+        FrameBuffer droppedFrame = null;
+        synchronized (this) {
+            offered++;
+            if (frames.size() == capacity) {
+                switch (policy) {
+                case BLOCK:
+                    while (frames.size() == capacity)
+                        wait();
+                    break;
+                case DROP_OLDEST:
+                    droppedFrame = frames.poll();
+                    dropped++;
+                    break;
+                default:
+                    dropped++;
+                    droppedFrame = frame;
+                    frame = null;
+                    break;
+                }
+            }
+            if (frame != null) {
+                frames.add(frame);
+                if (frames.size() > peakSize)
+                    peakSize = frames.size();
+                notifyAll();
+            }
+        }
+        // Released outside of the lock, since it may go back to its pool.
+        if (droppedFrame != null)
+            droppedFrame.release();
+        return frame != null;
+    }
+
+    /**
+     * Removes the first frame of the queue, waiting for one if it is empty.
+     * 
+     * @return The frame, whose reference now belongs to the caller.
+     * @throws InterruptedException
+     */
+    public synchronized FrameBuffer take() throws InterruptedException {
+        while (frames.isEmpty())
+            wait();
+        FrameBuffer frame = frames.poll();
+        notifyAll();
+        return frame;
+    }
+
+    /**
+     * Removes the first frame of the queue, if any.
+     * 
+     * @return The frame, whose reference now belongs to the caller, or
+     *         <code>null</code> if the queue is empty.
+     */
+    public synchronized FrameBuffer poll() {
+        FrameBuffer frame = frames.poll();
+        if (frame != null)
+            notifyAll();
+        return frame;
+    }
+
+    /**
+     * Removes the first frame of the queue, waiting for one at most the given
+     * time.
+     * 
+     * @return The frame, whose reference now belongs to the caller, or
+     *         <code>null</code> if the time elapsed.
+     * @throws InterruptedException
+     */
+    public synchronized FrameBuffer poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (frames.isEmpty()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return null;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        FrameBuffer frame = frames.poll();
+        notifyAll();
+        return frame;
+    }
+
+    /**
+     * Drops the oldest frame of the queue.
+     * 
+     * @return <code>false</code> if the queue was empty.
+     */
+    public boolean dropOldest() {
+        FrameBuffer frame;
+        synchronized (this) {
+            frame = frames.poll();
+            if (frame == null)
+                return false;
+            dropped++;
+            notifyAll();
+        }
+        frame.release();
+        return true;
+    }
+
+    /**
+     * Drops all the frames of the queue.
+     */
+    public void clear() {
+        while (dropOldest()) {
+            // Drops the next one.
+        }
+    }
+
+    // _________________________________________________________________________
+
+    public synchronized int size() {
+        return frames.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The highest number of frames which waited in the queue at the
+     *         same time.
+     */
+    public synchronized int getPeakSize() {
+        return peakSize;
+    }
+
+    /**
+     * @return The number of frames offered to the queue.
+     */
+    public synchronized long getOffered() {
+        return offered;
+    }
+
+    /**
+     * @return The number of frames dropped, new or queued.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FrameQueue [size=" + frames.size() + "/" + capacity + ", peak=" + peakSize
+                + ", offered=" + offered + ", dropped=" + dropped + ", policy=" + policy + "]";
+    }
+
+    /**
+     * @return The sequence of the first frame of the queue, or
+     *         {@link Long#MAX_VALUE} if it is empty.
+     */
+    synchronized long getOldestSequence() {
+        FrameBuffer frame = frames.peek();
+        return (frame == null) ? Long.MAX_VALUE : frame.getSequence();
+    }
+}
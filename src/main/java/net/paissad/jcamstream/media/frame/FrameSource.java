@@ -0,0 +1,77 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A source of raw frames, a video device or a stand-in for it.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public interface FrameSource {
+
+    /**
+     * Opens the source. The size and the format of the frames are known once
+     * the source is opened.
+     * 
+     * @throws IOException
+     */
+    public void open() throws IOException;
+
+    /**
+     * Reads the next frame, waiting for it if necessary.
+     * 
+     * @param dst
+     *            - The buffer to fill, its capacity must be at least
+     *            {@link #getFrameSize()}. The frame is written from the
+     *            start of the buffer, and on return the position is 0 and the
+     *            limit is the size of the frame.
+     * @return <code>true</code> if a frame was read, <code>false</code> if
+     *         the source has no more frames.
+     * @throws IOException
+     */
+    public boolean readFrame(ByteBuffer dst) throws IOException;
+
+    /**
+     * Closes the source.
+     */
+    public void close();
+
+    /**
+     * @return The width of the frames, in pixels.
+     */
+    public int getWidth();
+
+    /**
+     * @return The height of the frames, in pixels.
+     */
+    public int getHeight();
+
+    /**
+     * @return The layout of the frames.
+     */
+    public PixelFormat getPixelFormat();
+
+    /**
+     * @return The size of one frame, in bytes.
+     */
+    public int getFrameSize();
+}
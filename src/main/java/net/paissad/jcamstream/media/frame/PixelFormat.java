@@ -0,0 +1,105 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+/**
+ * The layouts of the raw frames handled by the capture pipeline.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public enum PixelFormat {
+
+    /** Packed 4:2:2, Y0 U Y1 V for each pair of pixels. */
+    YUYV('Y', 'U', 'Y', 'V'),
+
+    /** Planar 4:2:0, the Y plane then one plane of interleaved U and V. */
+    NV12('N', 'V', '1', '2'),
+
+    /** 8 bits luminance only. */
+    GRAY('G', 'R', 'E', 'Y'),
+
+    /** Packed R G B, 8 bits each. */
+    RGB24('R', 'G', 'B', '3');
+
+    private final int fourcc;
+
+    private PixelFormat(char a, char b, char c, char d) {
+        this.fourcc = a | (b << 8) | (c << 16) | (d << 24);
+    }
+
+    /**
+     * @return The four character code of this format, as used by V4L2.
+     */
+    public int getFourcc() {
+        return fourcc;
+    }
+
+    /**
+     * @param width
+     *            - The width of the frame, in pixels.
+     * @param height
+     *            - The height of the frame, in pixels.
+     * @return The size in bytes of one frame of this format.
+     */
+    public int getFrameSize(int width, int height) {
+        switch (this) {
+        case YUYV:
+            return width * height * 2;
+        case NV12:
+            return width * height * 3 / 2;
+        case GRAY:
+            return width * height;
+        case RGB24:
+            return width * height * 3;
+        default:
+            throw new IllegalStateException("Unknown pixel format " + this);
+        }
+    }
+
+    /**
+     * @param width
+     *            - The width of the frame, in pixels.
+     * @return The size in bytes of one row of the first plane of a frame of
+     *         this format.
+     */
+    public int getBytesPerLine(int width) {
+        switch (this) {
+        case YUYV:
+            return width * 2;
+        case RGB24:
+            return width * 3;
+        default:
+            return width;
+        }
+    }
+
+    /**
+     * @param fourcc
+     *            - A four character code.
+     * @return The format having this code, or <code>null</code> if the code is
+     *         not supported.
+     */
+    public static PixelFormat fromFourcc(int fourcc) {
+        for (PixelFormat format : values()) {
+            if (format.fourcc == fourcc)
+                return format;
+        }
+        return null;
+    }
+}
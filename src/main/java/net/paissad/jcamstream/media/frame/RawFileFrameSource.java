@@ -0,0 +1,144 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Source reading raw frames stored one after the other in a file, as dumped
+ * from a camera (for example with <code>v4l2-ctl --stream-to</code>). The file
+ * is read through its channel directly into the buffer of the frame.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class RawFileFrameSource implements FrameSource {
+
+    private final File        file;
+    private final int         width;
+    private final int         height;
+    private final PixelFormat pixelFormat;
+    private final boolean     loop;
+    private final FramePacer  pacer;
+
+    private FileInputStream   in;
+    private FileChannel       channel;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param file
+     *            - The file containing the frames.
+     * @param width
+     *            - The width of the frames.
+     * @param height
+     *            - The height of the frames.
+     * @param pixelFormat
+     *            - The layout of the frames.
+     * @param frameRate
+     *            - The number of frames per second, 0 to read them as fast as
+     *            possible.
+     * @param loop
+     *            - Whether to start again from the first frame at the end of
+     *            the file.
+     */
+    public RawFileFrameSource(File file, int width, int height, PixelFormat pixelFormat,
+            double frameRate, boolean loop) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.pixelFormat = pixelFormat;
+        this.loop = loop;
+        this.pacer = new FramePacer(frameRate);
+    }
+
+    // _________________________________________________________________________
+
+    @Override
+    public void open() throws IOException {
+        if (file.length() < getFrameSize())
+            throw new IOException("The file " + file + " does not contain a whole frame.");
+        in = new FileInputStream(file);
+        channel = in.getChannel();
+        pacer.reset();
+    }
+
+    @Override
+    public boolean readFrame(ByteBuffer dst) throws IOException {
+        if (channel == null)
+            throw new IOException("The source is not opened.");
+        pacer.await();
+
+        dst.clear();
+        dst.limit(getFrameSize());
+        while (dst.hasRemaining()) {
+            if (channel.read(dst) < 0) {
+                // A truncated last frame is dropped.
+                if (!loop)
+                    return false;
+                channel.position(0);
+                dst.clear();
+                dst.limit(getFrameSize());
+            }
+        }
+        dst.flip();
+        return true;
+    }
+
+    @Override
+    public void close() {
+        channel = null;
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing was written.
+            }
+            in = null;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+
+    @Override
+    public int getFrameSize() {
+        return pixelFormat.getFrameSize(width, height);
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath();
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Synthetic source of frames, used instead of a camera for the tests and the
+ * benchmarks. It produces colour bars scrolling horizontally, with a bright
+ * square moving over them so that each frame differs from the previous one.
+ * <p>
+ * The pattern is rendered once when the source is opened. A frame is then
+ * only a copy of a slice of it for each row, so the cost of the source stays
+ * small next to the cost of what consumes its frames.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class TestPatternFrameSource implements FrameSource {
+
+    /** White, yellow, cyan, green, magenta, red, blue, black. */
+    private static final int[] BARS = { 0xFFFFFF, 0xFFFF00, 0x00FFFF, 0x00FF00, 0xFF00FF,
+            0xFF0000, 0x0000FF, 0x000000 };
+
+    private final int          width;
+    private final int          height;
+    private final PixelFormat  pixelFormat;
+    private final long         frameCount;
+    private final FramePacer   pacer;
+
+    /** Two periods of the bars for one row, so that any slice is contiguous. */
+    private byte[]             row;
+    /** One row of the square. */
+    private byte[]             square;
+    private int                squareSize;
+    private int                rowSize;
+    private long               sequence;
+    private boolean            opened;
+
+    // _________________________________________________________________________
+
+    /**
+     * Creates a source producing frames as fast as they are read, with no end.
+     * 
+     * @param width
+     *            - The width of the frames.
+     * @param height
+     *            - The height of the frames.
+     * @param pixelFormat
+     *            - {@link PixelFormat#YUYV} or {@link PixelFormat#GRAY}.
+     */
+    public TestPatternFrameSource(int width, int height, PixelFormat pixelFormat) {
+        this(width, height, pixelFormat, 0, -1);
+    }
+
+    /**
+     * @param width
+     *            - The width of the frames.
+     * @param height
+     *            - The height of the frames.
+     * @param pixelFormat
+     *            - {@link PixelFormat#YUYV} or {@link PixelFormat#GRAY}.
+     * @param frameRate
+     *            - The number of frames per second, 0 to produce them as fast
+     *            as they are read.
+     * @param frameCount
+     *            - The number of frames to produce, -1 for no end.
+     */
+    public TestPatternFrameSource(int width, int height, PixelFormat pixelFormat,
+            double frameRate, long frameCount) {
+        if (pixelFormat != PixelFormat.YUYV && pixelFormat != PixelFormat.GRAY)
+            throw new IllegalArgumentException("Unsupported pixel format : " + pixelFormat);
+        if (width <= 0 || height <= 0 || (width & 1) != 0)
+            throw new IllegalArgumentException("Invalid frame size : " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.pixelFormat = pixelFormat;
+        this.frameCount = frameCount;
+        this.pacer = new FramePacer(frameRate);
+    }
+
+    // _________________________________________________________________________
+
+    @Override
+    public void open() throws IOException {
+        int bytesPerPixel = (pixelFormat == PixelFormat.YUYV) ? 2 : 1;
+        rowSize = width * bytesPerPixel;
+        row = new byte[rowSize * 2];
+        int barWidth = Math.max(2, (width / BARS.length) & ~1);
+        for (int x = 0; x < width * 2; x += 2) {
+            int rgb = BARS[(x % width) / barWidth % BARS.length];
+            putPixels(row, x * bytesPerPixel, rgb);
+        }
+
+        squareSize = Math.max(2, (height / 8) & ~1);
+        square = new byte[Math.min(squareSize, width) * bytesPerPixel];
+        for (int x = 0; x < square.length / bytesPerPixel; x += 2) {
+            putPixels(square, x * bytesPerPixel, 0xFFFFFF);
+        }
+        sequence = 0;
+        pacer.reset();
+        opened = true;
+    }
+
+    @Override
+    public boolean readFrame(ByteBuffer dst) throws IOException {
+        if (!opened)
+            throw new IOException("The source is not opened.");
+        if (frameCount >= 0 && sequence >= frameCount)
+            return false;
+        pacer.await();
+
+        int bytesPerPixel = rowSize / width;
+        // Scrolls by an even number of pixels so that YUYV pairs stay aligned.
+        int scroll = (int) ((sequence * 4) % width) * bytesPerPixel;
+        int squareX = (int) ((sequence * 8) % Math.max(1, width - square.length / bytesPerPixel)) & ~1;
+        int squareY = (int) ((sequence * 2) % Math.max(1, height - squareSize));
+
+        dst.clear();
+        dst.limit(getFrameSize());
+        for (int y = 0; y < height; y++) {
+            dst.put(row, scroll, rowSize);
+        }
+        for (int y = squareY; y < squareY + squareSize && y < height; y++) {
+            dst.position(y * rowSize + squareX * bytesPerPixel);
+            dst.put(square);
+        }
+        dst.position(0);
+        sequence++;
+        return true;
+    }
+
+    @Override
+    public void close() {
+        opened = false;
+        row = null;
+        square = null;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+
+    @Override
+    public int getFrameSize() {
+        return pixelFormat.getFrameSize(width, height);
+    }
+
+    @Override
+    public String toString() {
+        return "test-pattern " + width + "x" + height + " " + pixelFormat;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Writes two pixels of the same colour.
+     */
+    private void putPixels(byte[] dst, int offset, int rgb) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        // ITU-R BT.601, studio swing.
+        byte y = (byte) (16 + ((66 * r + 129 * g + 25 * b + 128) >> 8));
+        if (pixelFormat == PixelFormat.GRAY) {
+            dst[offset] = y;
+            dst[offset + 1] = y;
+        } else {
+            dst[offset] = y;
+            dst[offset + 1] = (byte) (128 + ((-38 * r - 74 * g + 112 * b + 128) >> 8));
+            dst[offset + 2] = y;
+            dst[offset + 3] = (byte) (128 + ((112 * r - 94 * g - 18 * b + 128) >> 8));
+        }
+    }
+}
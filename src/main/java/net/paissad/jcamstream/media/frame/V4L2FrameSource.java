@@ -0,0 +1,217 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+
+import com.sun.jna.Library;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+
+/**
+ * Source reading the frames of a Video4Linux2 device (<code>/dev/videoN</code>)
+ * with the read() I/O method, through the C library with JNA.
+ * <p>
+ * The format is negotiated with <code>VIDIOC_S_FMT</code> when the device is
+ * opened, the driver may choose another size than the requested one. Each
+ * frame is then read by the driver straight into the direct buffer given to
+ * {@link #readFrame(ByteBuffer)}, without any copy on the Java heap.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class V4L2FrameSource implements FrameSource {
+
+    private static final int  O_RDWR                      = 2;
+    private static final int  EINTR                       = 4;
+    private static final int  EAGAIN                      = 11;
+
+    private static final int  V4L2_BUF_TYPE_VIDEO_CAPTURE = 1;
+    private static final int  V4L2_FIELD_NONE             = 1;
+
+    /**
+     * The union of struct v4l2_format holds pointers, so it is aligned on 8
+     * bytes on 64 bits systems.
+     */
+    private static final int  FORMAT_UNION_OFFSET         = Pointer.SIZE == 8 ? 8 : 4;
+    private static final int  FORMAT_SIZE                 = FORMAT_UNION_OFFSET + 200;
+
+    /** _IOWR('V', 5, struct v4l2_format) */
+    private static final int  VIDIOC_S_FMT                = (3 << 30) | (FORMAT_SIZE << 16)
+                                                                  | ('V' << 8) | 5;
+
+    private static Logger     logger                      = JCSLoggerFactory
+                                                                  .getLogger(V4L2FrameSource.class);
+
+    /** Definition (incomplete) of the C library. */
+    interface CLibrary extends Library {
+
+        CLibrary INSTANCE = (CLibrary) Native.loadLibrary("c", CLibrary.class);
+
+        int open(String path, int flags);
+
+        int close(int fd);
+
+        int ioctl(int fd, NativeLong request, Pointer arg);
+
+        NativeLong read(int fd, ByteBuffer buf, NativeLong count);
+    }
+
+    private final String      device;
+    private int               width;
+    private int               height;
+    private PixelFormat       pixelFormat;
+
+    private int               fd                          = -1;
+    private NativeLong        readCount;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param device
+     *            - The path of the device, for example
+     *            <code>/dev/video0</code>.
+     * @param width
+     *            - The requested width of the frames.
+     * @param height
+     *            - The requested height of the frames.
+     * @param pixelFormat
+     *            - The requested layout of the frames.
+     */
+    public V4L2FrameSource(String device, int width, int height, PixelFormat pixelFormat) {
+        this.device = device;
+        this.width = width;
+        this.height = height;
+        this.pixelFormat = pixelFormat;
+    }
+
+    // _________________________________________________________________________
+
+    @Override
+    public void open() throws IOException {
+        final CLibrary libc;
+        try {
+            libc = CLibrary.INSTANCE;
+        } catch (UnsatisfiedLinkError e) {
+            throw new IOException("Unable to load the C library : " + e.getMessage());
+        }
+
+        fd = libc.open(device, O_RDWR);
+        if (fd < 0)
+            throw new IOException("Unable to open " + device + " (errno " + Native.getLastError() + ")");
+
+        try {
+            Memory format = new Memory(FORMAT_SIZE);
+            format.clear();
+            format.setInt(0, V4L2_BUF_TYPE_VIDEO_CAPTURE);
+            format.setInt(FORMAT_UNION_OFFSET, width);
+            format.setInt(FORMAT_UNION_OFFSET + 4, height);
+            format.setInt(FORMAT_UNION_OFFSET + 8, pixelFormat.getFourcc());
+            format.setInt(FORMAT_UNION_OFFSET + 12, V4L2_FIELD_NONE);
+            if (libc.ioctl(fd, new NativeLong(VIDIOC_S_FMT), format) < 0)
+                throw new IOException("VIDIOC_S_FMT failed on " + device + " (errno "
+                        + Native.getLastError() + ")");
+
+            width = format.getInt(FORMAT_UNION_OFFSET);
+            height = format.getInt(FORMAT_UNION_OFFSET + 4);
+            int fourcc = format.getInt(FORMAT_UNION_OFFSET + 8);
+            int bytesPerLine = format.getInt(FORMAT_UNION_OFFSET + 16);
+            pixelFormat = PixelFormat.fromFourcc(fourcc);
+            if (pixelFormat == null)
+                throw new IOException("The device " + device + " does not support the requested format.");
+            if (bytesPerLine != 0 && bytesPerLine != pixelFormat.getBytesPerLine(width))
+                throw new IOException("Padded rows are not supported (" + bytesPerLine
+                        + " bytes per line).");
+
+            readCount = new NativeLong(getFrameSize());
+            logger.info("{} opened : {}x{} {}", new Object[] { device, width, height, pixelFormat });
+
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean readFrame(ByteBuffer dst) throws IOException {
+        if (fd < 0)
+            throw new IOException("The device is not opened.");
+        if (!dst.isDirect())
+            throw new IllegalArgumentException("The frames are read into direct buffers only.");
+
+        dst.clear();
+        while (true) {
+            long count = CLibrary.INSTANCE.read(fd, dst, readCount).longValue();
+            if (count > 0) {
+                dst.clear();
+                dst.limit((int) count);
+                return true;
+            }
+            if (count == 0)
+                return false;
+
+            int errno = Native.getLastError();
+            if (errno != EINTR && errno != EAGAIN)
+                throw new IOException("Unable to read a frame from " + device + " (errno " + errno + ")");
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("Interrupted while reading a frame.");
+        }
+    }
+
+    @Override
+    public void close() {
+        if (fd >= 0) {
+            CLibrary.INSTANCE.close(fd);
+            fd = -1;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+
+    @Override
+    public int getFrameSize() {
+        return pixelFormat.getFrameSize(width, height);
+    }
+
+    @Override
+    public String toString() {
+        return device;
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.motion;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.FrameMask;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+
+/**
+ * Detects motion in the frames of one camera, by comparing each frame with a
+ * running model of the background.
+ * <p>
+ * The frame is not compared pixel by pixel: its luma is averaged over a grid
+ * of square cells (16x16 pixels by default), sampling one pixel out of two in
+ * each direction. A cell changes when its average differs from the one of the
+ * background by more than the threshold, which filters out most of the noise
+ * of the sensor. A changed cell with no changed neighbour is ignored. There
+ * is motion when enough cells changed, and the bounding region of the changed
+ * cells tells where.
+ * </p>
+ * <p>
+ * The background follows slow changes, such as the daylight, with a running
+ * average of the grids. A change of most of the cells at once is taken as a
+ * change of lighting (lights switched on, exposure of the camera) rather than
+ * motion, and the background is reset.
+ * </p>
+ * <p>
+ * Motion starts once it is seen in several consecutive frames, and ends after
+ * a number of frames without it, and the {@link MotionListener}s are notified
+ * of both. Apart from these events, nothing is allocated per frame: the grids
+ * are primitive arrays allocated with the detector.
+ * </p>
+ * <p>
+ * Parts of the frames can be left out with a {@link FrameMask}, compiled for
+ * the grid: only the spans of active cells are read and compared.
+ * </p>
+ * <p>
+ * A detector is not thread safe, the frames of a camera must be processed one
+ * at a time, as the {@link net.paissad.jcamstream.media.capture.CaptureScheduler}
+ * does.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class MotionDetector {
+
+    public static final int            DEFAULT_CELL_SIZE = 16;
+
+    /** One pixel out of SAMPLE_STEP is read, in both directions. */
+    private static final int           SAMPLE_STEP       = 2;
+
+    private final String               name;
+    private final int                  width;
+    private final int                  height;
+    private final PixelFormat          pixelFormat;
+    private final int                  cellSize;
+    private final int                  gridWidth;
+    private final int                  gridHeight;
+    private final int                  samplesPerCell;
+
+    /** The average luma of each cell of the current frame. */
+    private final int[]                luma;
+    /** The luma of each cell of the background, times 256. */
+    private final int[]                background;
+    /** 1 for the cells which changed in the current frame. */
+    private final byte[]               changed;
+
+    private final List<MotionListener> listeners         = new CopyOnWriteArrayList<MotionListener>();
+
+    /** The cells which are looked at. */
+    private FrameMask                  mask;
+
+    private int                        threshold         = 15;
+    private int                        minCells          = 2;
+    private int                        learningShift     = 5;
+    private int                        triggerFrames     = 2;
+    private int                        quietFrames       = 15;
+    private int                        lightingPercent   = 60;
+
+    private boolean                    initialized;
+    private int                        changedCells;
+    private int                        minX, minY, maxX, maxY;
+
+    private boolean                    inMotion;
+    private int                        motionFrames;
+    private int                        stillFrames;
+    private long                       startTime;
+    private long                       startSequence;
+    private long                       lastMotionTime;
+    private int                        unionMinX, unionMinY, unionMaxX, unionMaxY;
+    private int                        peakCells;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param name
+     *            - The name of the camera, given to the events.
+     * @param width
+     *            - The width of the frames.
+     * @param height
+     *            - The height of the frames.
+     * @param pixelFormat
+     *            - The layout of the frames.
+     * @param cellSize
+     *            - The size in pixels of the cells of the grid, an even
+     *            number. The pixels beyond the last whole cell of a row or a
+     *            column are not looked at.
+     */
+    public MotionDetector(String name, int width, int height, PixelFormat pixelFormat, int cellSize) {
+        if (cellSize < SAMPLE_STEP || cellSize % SAMPLE_STEP != 0)
+            throw new IllegalArgumentException("Invalid cell size : " + cellSize);
+        if (width < cellSize || height < cellSize)
+            throw new IllegalArgumentException("The frames are smaller than a cell.");
+        this.name = name;
+        this.width = width;
+        this.height = height;
+        this.pixelFormat = pixelFormat;
+        this.cellSize = cellSize;
+        this.gridWidth = width / cellSize;
+        this.gridHeight = height / cellSize;
+        this.samplesPerCell = (cellSize / SAMPLE_STEP) * (cellSize / SAMPLE_STEP);
+
+        int cells = gridWidth * gridHeight;
+        this.luma = new int[cells];
+        this.background = new int[cells];
+        this.changed = new byte[cells];
+        this.mask = FrameMask.full(gridWidth, gridHeight);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Compares a frame with the background, and updates the background.
+     * 
+     * @param frame
+     *            - The frame, of the size and the format of the detector.
+     * @return <code>true</code> if the frame shows motion, whether or not the
+     *         motion is confirmed yet.
+     */
+    public boolean process(FrameBuffer frame) {
+        if (frame.getWidth() != width || frame.getHeight() != height
+                || frame.getPixelFormat() != pixelFormat)
+            throw new IllegalArgumentException("The frame does not match the detector.");
+
+        if (mask.getActivePixels() == 0)
+            return false;
+
+        sampleLuma(frame.getData());
+        if (!initialized) {
+            resetBackground();
+            initialized = true;
+            return false;
+        }
+
+        compare();
+        boolean lightingChange = changedCells * 100 >= lightingPercent * mask.getActivePixels();
+        if (lightingChange) {
+            resetBackground();
+            changedCells = 0;
+        } else {
+            updateBackground();
+        }
+        boolean motion = changedCells >= minCells;
+        track(motion, frame);
+        return motion;
+    }
+
+    /**
+     * Restricts the detection to a part of the frames. The background is
+     * learned again from the next frame.
+     * 
+     * @param frameMask
+     *            - The mask of the frames, whose size is the one of the
+     *            detector. A cell of the grid is looked at if its centre is
+     *            active.
+     */
+    public void setMask(FrameMask frameMask) {
+        if (frameMask.getWidth() != width || frameMask.getHeight() != height)
+            throw new IllegalArgumentException("The mask does not match the detector.");
+        this.mask = frameMask.scale(cellSize);
+        Arrays.fill(changed, (byte) 0);
+        initialized = false;
+    }
+
+    public void addListener(MotionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MotionListener listener) {
+        listeners.remove(listener);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @param threshold
+     *            - The difference of average luma (0 to 255) above which a
+     *            cell changed. 15 by default.
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param minCells
+     *            - The number of cells which must change for a frame to show
+     *            motion. 2 by default.
+     */
+    public void setMinCells(int minCells) {
+        this.minCells = Math.max(1, minCells);
+    }
+
+    /**
+     * @param learningShift
+     *            - The background moves by 1/2^learningShift of the
+     *            difference with each frame. 5 by default, about 1.5 seconds
+     *            at 15 fps.
+     */
+    public void setLearningShift(int learningShift) {
+        this.learningShift = learningShift;
+    }
+
+    /**
+     * @param triggerFrames
+     *            - The number of consecutive frames with motion needed to
+     *            start a motion event. 2 by default.
+     */
+    public void setTriggerFrames(int triggerFrames) {
+        this.triggerFrames = Math.max(1, triggerFrames);
+    }
+
+    /**
+     * @param quietFrames
+     *            - The number of consecutive frames without motion which end
+     *            a motion event. 15 by default.
+     */
+    public void setQuietFrames(int quietFrames) {
+        this.quietFrames = Math.max(1, quietFrames);
+    }
+
+    /**
+     * @param percent
+     *            - The percentage of changed cells taken as a change of
+     *            lighting rather than motion. 60 by default.
+     */
+    public void setLightingChangePercent(int percent) {
+        this.lightingPercent = percent;
+    }
+
+    // _________________________________________________________________________
+
+    public String getName() {
+        return name;
+    }
+
+    public int getGridWidth() {
+        return gridWidth;
+    }
+
+    public int getGridHeight() {
+        return gridHeight;
+    }
+
+    /**
+     * @return The number of cells which changed in the last frame.
+     */
+    public int getChangedCells() {
+        return changedCells;
+    }
+
+    /**
+     * @return <code>true</code> between the start and the end of a motion
+     *         event.
+     */
+    public boolean isInMotion() {
+        return inMotion;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Averages the luma of the frame over the active cells of the grid.
+     */
+    private void sampleLuma(ByteBuffer data) {
+        int[] sums = luma;
+        FrameMask cells = mask;
+        int step = SAMPLE_STEP;
+        int cell = cellSize;
+        boolean rgb = (pixelFormat == PixelFormat.RGB24);
+        // The luma of YUYV is every other byte, the one of GRAY and NV12 is
+        // the first plane.
+        int bytesPerPixel = rgb ? 3 : (pixelFormat == PixelFormat.YUYV) ? 2 : 1;
+        int stride = width * bytesPerPixel;
+        int delta = step * bytesPerPixel;
+        int cellBytes = cell * bytesPerPixel;
+
+        for (int gy = 0; gy < gridHeight; gy++) {
+            int row = gy * gridWidth;
+            int firstSpan = cells.getFirstSpan(gy);
+            int lastSpan = cells.getFirstSpan(gy + 1);
+            for (int s = firstSpan; s < lastSpan; s++) {
+                for (int i = row + cells.getSpanStart(s), end = row + cells.getSpanEnd(s); i < end; i++) {
+                    sums[i] = 0;
+                }
+            }
+            for (int y = gy * cell, yEnd = y + cell; y < yEnd; y += step) {
+                int offset = y * stride;
+                for (int s = firstSpan; s < lastSpan; s++) {
+                    int gx = cells.getSpanStart(s);
+                    int p = offset + gx * cellBytes;
+                    for (int i = row + gx, end = row + cells.getSpanEnd(s); i < end; i++) {
+                        int sum = 0;
+                        if (rgb) {
+                            for (int pEnd = p + cellBytes; p < pEnd; p += delta) {
+                                sum += (77 * (data.get(p) & 0xFF) + 150 * (data.get(p + 1) & 0xFF) + 29 * (data
+                                        .get(p + 2) & 0xFF)) >> 8;
+                            }
+                        } else {
+                            for (int pEnd = p + cellBytes; p < pEnd; p += delta) {
+                                sum += data.get(p) & 0xFF;
+                            }
+                        }
+                        sums[i] += sum;
+                    }
+                }
+            }
+            for (int s = firstSpan; s < lastSpan; s++) {
+                for (int i = row + cells.getSpanStart(s), end = row + cells.getSpanEnd(s); i < end; i++) {
+                    sums[i] /= samplesPerCell;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the changed cells, and computes the bounding region of the ones
+     * which have a changed neighbour.
+     */
+    private void compare() {
+        int[] lumas = luma;
+        int[] backgrounds = background;
+        byte[] flags = changed;
+        FrameMask cells = mask;
+        int limit = threshold;
+        for (int gy = 0; gy < gridHeight; gy++) {
+            int row = gy * gridWidth;
+            for (int s = cells.getFirstSpan(gy), last = cells.getFirstSpan(gy + 1); s < last; s++) {
+                for (int i = row + cells.getSpanStart(s), end = row + cells.getSpanEnd(s); i < end; i++) {
+                    int difference = lumas[i] - (backgrounds[i] >> 8);
+                    flags[i] = (byte) ((difference > limit || difference < -limit) ? 1 : 0);
+                }
+            }
+        }
+
+        int count = 0;
+        minX = gridWidth;
+        minY = gridHeight;
+        maxX = -1;
+        maxY = -1;
+        for (int gy = 0; gy < gridHeight; gy++) {
+            int row = gy * gridWidth;
+            for (int s = cells.getFirstSpan(gy), last = cells.getFirstSpan(gy + 1); s < last; s++) {
+                for (int gx = cells.getSpanStart(s), end = cells.getSpanEnd(s); gx < end; gx++) {
+                    int i = row + gx;
+                    if (flags[i] == 0)
+                        continue;
+                    boolean connected = (gx > 0 && flags[i - 1] != 0)
+                            || (gx < gridWidth - 1 && flags[i + 1] != 0)
+                            || (gy > 0 && flags[i - gridWidth] != 0)
+                            || (gy < gridHeight - 1 && flags[i + gridWidth] != 0);
+                    if (!connected)
+                        continue;
+                    count++;
+                    if (gx < minX)
+                        minX = gx;
+                    if (gx > maxX)
+                        maxX = gx;
+                    if (gy < minY)
+                        minY = gy;
+                    if (gy > maxY)
+                        maxY = gy;
+                }
+            }
+        }
+        changedCells = count;
+    }
+
+    private void updateBackground() {
+        int[] lumas = luma;
+        int[] backgrounds = background;
+        byte[] flags = changed;
+        FrameMask cells = mask;
+        int shift = learningShift;
+        for (int gy = 0; gy < gridHeight; gy++) {
+            int row = gy * gridWidth;
+            for (int s = cells.getFirstSpan(gy), last = cells.getFirstSpan(gy + 1); s < last; s++) {
+                for (int i = row + cells.getSpanStart(s), end = row + cells.getSpanEnd(s); i < end; i++) {
+                    // What moves is learned slower, so that it does not fade
+                    // into the background, while what stopped moving ends up
+                    // in it.
+                    backgrounds[i] += ((lumas[i] << 8) - backgrounds[i]) >> (flags[i] == 0 ? shift
+                            : shift + 2);
+                }
+            }
+        }
+    }
+
+    private void resetBackground() {
+        for (int i = 0; i < luma.length; i++) {
+            background[i] = luma[i] << 8;
+        }
+    }
+
+    /**
+     * Starts or ends the motion events.
+     */
+    private void track(boolean motion, FrameBuffer frame) {
+        if (motion) {
+            stillFrames = 0;
+            if (motionFrames++ == 0 && !inMotion) {
+                startTime = frame.getTimestamp();
+                startSequence = frame.getSequence();
+                unionMinX = minX;
+                unionMinY = minY;
+                unionMaxX = maxX;
+                unionMaxY = maxY;
+                peakCells = 0;
+            }
+            unionMinX = Math.min(unionMinX, minX);
+            unionMinY = Math.min(unionMinY, minY);
+            unionMaxX = Math.max(unionMaxX, maxX);
+            unionMaxY = Math.max(unionMaxY, maxY);
+            peakCells = Math.max(peakCells, changedCells);
+            lastMotionTime = frame.getTimestamp();
+
+            if (!inMotion && motionFrames >= triggerFrames) {
+                inMotion = true;
+                MotionEvent event = new MotionEvent(name, startTime, 0, startSequence, minX * cellSize,
+                        minY * cellSize, (maxX - minX + 1) * cellSize, (maxY - minY + 1) * cellSize,
+                        changedCells);
+                for (MotionListener listener : listeners) {
+                    listener.motionStarted(event);
+                }
+            }
+
+        } else {
+            motionFrames = 0;
+            if (inMotion && ++stillFrames >= quietFrames) {
+                inMotion = false;
+                MotionEvent event = new MotionEvent(name, startTime, lastMotionTime, startSequence,
+                        unionMinX * cellSize, unionMinY * cellSize, (unionMaxX - unionMinX + 1)
+                                * cellSize, (unionMaxY - unionMinY + 1) * cellSize, peakCells);
+                for (MotionListener listener : listeners) {
+                    listener.motionEnded(event);
+                }
+            }
+        }
+    }
+}
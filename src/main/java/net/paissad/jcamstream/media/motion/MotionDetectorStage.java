@@ -0,0 +1,115 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.motion;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.paissad.jcamstream.media.capture.Camera;
+import net.paissad.jcamstream.media.capture.FrameProcessor;
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+
+/**
+ * Stage of a {@link net.paissad.jcamstream.media.capture.CaptureScheduler}
+ * which detects motion in the frames of all its cameras, with one
+ * {@link MotionDetector} per camera created on its first frame, restricted
+ * to the mask of the camera if it has one.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class MotionDetectorStage implements FrameProcessor {
+
+    private final ConcurrentMap<Camera, MotionDetector> detectors = new ConcurrentHashMap<Camera, MotionDetector>();
+    private final List<MotionListener>                  listeners = new CopyOnWriteArrayList<MotionListener>();
+    private final int                                   cellSize;
+    private final int                                   threshold;
+
+    /** Forwards the events of all the detectors to the listeners. */
+    private final MotionListener                        forwarder = new MotionListener() {
+                                                                      @Override
+                                                                      public void motionStarted(MotionEvent event) {
+                                                                          for (MotionListener l : listeners) {
+                                                                              l.motionStarted(event);
+                                                                          }
+                                                                      }
+
+                                                                      @Override
+                                                                      public void motionEnded(MotionEvent event) {
+                                                                          for (MotionListener l : listeners) {
+                                                                              l.motionEnded(event);
+                                                                          }
+                                                                      }
+                                                                  };
+
+    // _________________________________________________________________________
+
+    public MotionDetectorStage() {
+        this(MotionDetector.DEFAULT_CELL_SIZE, 15);
+    }
+
+    /**
+     * @param cellSize
+     *            - The size of the cells of the detectors.
+     * @param threshold
+     *            - The threshold of the detectors.
+     * @see MotionDetector#setThreshold(int)
+     */
+    public MotionDetectorStage(int cellSize, int threshold) {
+        this.cellSize = cellSize;
+        this.threshold = threshold;
+    }
+
+    // _________________________________________________________________________
+
+    @Override
+    public void process(Camera camera, FrameBuffer frame) throws Exception {
+        MotionDetector detector = detectors.get(camera);
+        if (detector == null) {
+            detector = new MotionDetector(camera.getName(), frame.getWidth(), frame.getHeight(),
+                    frame.getPixelFormat(), cellSize);
+            detector.setThreshold(threshold);
+            if (camera.getMask() != null)
+                detector.setMask(camera.getMask());
+            detector.addListener(forwarder);
+            // The frames of a camera are processed one at a time, so no other
+            // detector can be created for it meanwhile.
+            detectors.put(camera, detector);
+        }
+        detector.process(frame);
+    }
+
+    public void addListener(MotionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MotionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param camera
+     * @return The detector of the camera, or <code>null</code> if no frame of
+     *         it was processed yet.
+     */
+    public MotionDetector getDetector(Camera camera) {
+        return detectors.get(camera);
+    }
+}
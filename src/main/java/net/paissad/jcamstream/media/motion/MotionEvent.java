@@ -0,0 +1,123 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.motion;
+
+/**
+ * A period of motion seen by a {@link MotionDetector}, with the region of the
+ * frame where it happened. Instances are immutable, they are created only
+ * when the motion starts and when it ends.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public final class MotionEvent {
+
+    private final String source;
+    private final long   startTime;
+    private final long   endTime;
+    private final long   startSequence;
+    private final int    x;
+    private final int    y;
+    private final int    width;
+    private final int    height;
+    private final int    peakCells;
+
+    // _________________________________________________________________________
+
+    MotionEvent(String source, long startTime, long endTime, long startSequence, int x, int y,
+            int width, int height, int peakCells) {
+        this.source = source;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.startSequence = startSequence;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.peakCells = peakCells;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return The name of the camera.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return The timestamp of the first frame of the motion, in milliseconds
+     *         since the epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return The timestamp of the last frame with motion, or 0 if the motion
+     *         has not ended yet.
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return The sequence of the frame which triggered the motion.
+     */
+    public long getStartSequence() {
+        return startSequence;
+    }
+
+    /**
+     * @return The left side of the bounding region, in pixels.
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * @return The top side of the bounding region, in pixels.
+     */
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The highest number of cells of the grid which changed in one
+     *         frame.
+     */
+    public int getPeakCells() {
+        return peakCells;
+    }
+
+    @Override
+    public String toString() {
+        return "MotionEvent [" + source + ", region=" + width + "x" + height + "+" + x + "+" + y
+                + ", peak=" + peakCells + " cells"
+                + ((endTime != 0) ? ", duration=" + (endTime - startTime) + " ms" : "") + "]";
+    }
+}
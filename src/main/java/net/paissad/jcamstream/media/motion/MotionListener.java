@@ -0,0 +1,47 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.motion;
+
+/**
+ * Listener notified when a {@link MotionDetector} sees motion start and end.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public interface MotionListener {
+
+    /**
+     * Called from the thread processing the frames, as soon as the motion is
+     * confirmed.
+     * 
+     * @param event
+     *            - The motion, whose region is the one of the frame which
+     *            triggered it.
+     */
+    public void motionStarted(MotionEvent event);
+
+    /**
+     * Called from the thread processing the frames, once no motion was seen
+     * for a while.
+     * 
+     * @param event
+     *            - The motion, whose region covers all the regions seen while
+     *            it lasted.
+     */
+    public void motionEnded(MotionEvent event);
+}
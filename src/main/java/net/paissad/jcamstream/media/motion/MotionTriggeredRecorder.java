@@ -0,0 +1,153 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.motion;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+import net.paissad.jcamstream.media.capture.Camera;
+import net.paissad.jcamstream.media.capture.CaptureScheduler;
+
+/**
+ * Records the cameras of a {@link CaptureScheduler} while they see motion.
+ * <p>
+ * A recording starts with the motion, and with the frames of the pre-event
+ * buffer of the camera if it has one. It goes on until the motion ends plus
+ * a linger time: if motion starts again meanwhile, the same recording goes
+ * on. The recordings are named after the camera and the time the motion
+ * started, such as <code>front-20111024-183512.jcsf</code>.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class MotionTriggeredRecorder implements MotionListener {
+
+    private static Logger                  logger       = JCSLoggerFactory
+                                                                .getLogger(MotionTriggeredRecorder.class);
+
+    private final CaptureScheduler         scheduler;
+    private final File                     directory;
+    private final long                     linger;
+    private final ScheduledExecutorService timer;
+
+    /** The token of the pending stop of each camera being recorded. */
+    private final Map<String, Object>      pendingStops = new HashMap<String, Object>();
+
+    // _________________________________________________________________________
+
+    /**
+     * @param scheduler
+     *            - The scheduler of the cameras.
+     * @param directory
+     *            - The directory of the recordings, created if needed.
+     * @param linger
+     *            - How long the recording goes on after the motion ended, in
+     *            milliseconds.
+     */
+    public MotionTriggeredRecorder(CaptureScheduler scheduler, File directory, long linger) {
+        this.scheduler = scheduler;
+        this.directory = directory;
+        this.linger = linger;
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "motion-linger");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // _________________________________________________________________________
+
+    @Override
+    public synchronized void motionStarted(MotionEvent event) {
+        String name = event.getSource();
+        if (pendingStops.remove(name) != null) {
+            // Still within the linger time of the previous motion.
+            logger.debug("The recording of {} goes on.", name);
+            return;
+        }
+        Camera camera = scheduler.getCamera(name);
+        if (camera == null)
+            return;
+
+        File file = new File(directory, String.format("%s-%tY%<tm%<td-%<tH%<tM%<tS.jcsf", name,
+                event.getStartTime()));
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Unable to create the directory " + directory);
+            camera.getRecorder().startRecording(file);
+        } catch (IllegalStateException e) {
+            logger.warn("{} is already being recorded.", name);
+        } catch (Exception e) {
+            logger.error("Unable to record " + name + " into " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized void motionEnded(MotionEvent event) {
+        final String name = event.getSource();
+        final Object token = new Object();
+        pendingStops.put(name, token);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                stopRecording(name, token);
+            }
+        }, linger, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the pending recordings at once, and the timer.
+     */
+    public synchronized void close() {
+        timer.shutdownNow();
+        for (String name : pendingStops.keySet()) {
+            Camera camera = scheduler.getCamera(name);
+            if (camera != null)
+                camera.getRecorder().stopRecording();
+        }
+        pendingStops.clear();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Stops the recording of a camera, unless the motion started again since
+     * the stop was scheduled.
+     */
+    private synchronized void stopRecording(String name, Object token) {
+        if (pendingStops.get(name) != token)
+            return;
+        pendingStops.remove(name);
+        Camera camera = scheduler.getCamera(name);
+        if (camera != null)
+            camera.getRecorder().stopRecording();
+    }
+}
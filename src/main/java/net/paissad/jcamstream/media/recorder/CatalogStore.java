@@ -0,0 +1,411 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+
+/**
+ * Keeps a {@link RecordingCatalog} on the disk, so that it is loaded when the
+ * application starts instead of listing the directories of the recordings.
+ * <p>
+ * Each change of the catalog is appended to a log. Once the log holds
+ * enough changes, the whole catalog is written into a snapshot and the log
+ * starts over, so loading the catalog reads the snapshot, then replays the
+ * few changes of the log. Both files start with an epoch, increased by each
+ * snapshot: a log whose epoch is not the one of the snapshot is older than
+ * it, and ignored.
+ * </p>
+ * <p>
+ * A lock file exists while the store is open. If it is still there when the
+ * store is loaded, the application was not stopped properly, and the last
+ * changes may be missing: see {@link #isRecovered()}.
+ * </p>
+ * <p>
+ * The paths of the recordings are saved relative to the directory of the
+ * recordings.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class CatalogStore {
+
+    public static final String SNAPSHOT_NAME           = "catalog.snapshot";
+    public static final String LOG_NAME                = "catalog.log";
+    public static final String LOCK_NAME               = "catalog.lock";
+    /** The default number of changes logged before a snapshot is written. */
+    public static final int    DEFAULT_COMPACT_CHANGES = 100000;
+
+    /** "JCSC" */
+    static final int           MAGIC                   = 0x4A435343;
+    static final int           VERSION                 = 1;
+    private static final byte  ADD                     = 1;
+    private static final byte  REMOVE                  = 2;
+    private static final int   BUFFER_SIZE             = 64 * 1024;
+
+    private static Logger      logger                  = JCSLoggerFactory
+                                                               .getLogger(CatalogStore.class);
+
+    private final File         directory;
+    private final File         recordings;
+    private final String       recordingsPath;
+    private int                compactChanges          = DEFAULT_COMPACT_CHANGES;
+
+    private long               epoch;
+    private DataOutputStream   log;
+    private int                logChanges;
+    private boolean            recovered;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param directory
+     *            - The directory of the files of the store, created if
+     *            needed.
+     * @param recordings
+     *            - The directory of the recordings.
+     */
+    public CatalogStore(File directory, File recordings) {
+        this.directory = directory;
+        this.recordings = recordings;
+        this.recordingsPath = recordings.getPath() + File.separator;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Loads the catalog saved, and opens the store for the next changes.
+     * 
+     * @param catalog
+     *            - The catalog to fill.
+     * @return <code>false</code> if there was no catalog saved.
+     * @throws IOException
+     *             If the files of the store cannot be read or written.
+     */
+    public synchronized boolean load(RecordingCatalog catalog) throws IOException {
+        if (log != null)
+            throw new IllegalStateException("The catalog store is already open.");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create the directory " + directory);
+
+        File lock = new File(directory, LOCK_NAME);
+        recovered = lock.exists();
+        if (!recovered && !lock.createNewFile())
+            throw new IOException("Unable to create " + lock);
+
+        // The names of the cameras, shared by their recordings.
+        Map<String, String> cameras = new HashMap<String, String>();
+        boolean loaded = readSnapshot(catalog, cameras);
+        boolean complete = true;
+        if (loaded) {
+            try {
+                complete = replayLog(catalog, cameras);
+            } catch (FileNotFoundException e) {
+                // Nothing was logged since the snapshot.
+            }
+        }
+        if (!loaded || !complete || logChanges > 0) {
+            // Starts over from a snapshot, which also drops a torn log.
+            compact(catalog);
+        } else {
+            openLog(true);
+        }
+        return loaded;
+    }
+
+    /**
+     * Logs a recording added to the catalog.
+     * 
+     * @throws IOException
+     */
+    public synchronized void logAdd(Recording recording) throws IOException {
+        checkOpen();
+        log.writeByte(ADD);
+        writeRecording(log, recording);
+        logChanges++;
+    }
+
+    /**
+     * Logs a recording removed from the catalog.
+     * 
+     * @throws IOException
+     */
+    public synchronized void logRemove(File file) throws IOException {
+        checkOpen();
+        log.writeByte(REMOVE);
+        log.writeUTF(toPath(file));
+        logChanges++;
+    }
+
+    /**
+     * Writes the changes logged to the disk, and a snapshot of the catalog if
+     * the log is long enough.
+     * 
+     * @param catalog
+     *            - The catalog, for the snapshot.
+     * @throws IOException
+     */
+    public synchronized void flush(RecordingCatalog catalog) throws IOException {
+        checkOpen();
+        log.flush();
+        if (logChanges >= compactChanges)
+            compact(catalog);
+    }
+
+    /**
+     * Writes a snapshot of the catalog, and starts a new log.
+     * 
+     * @throws IOException
+     */
+    public synchronized void compact(RecordingCatalog catalog) throws IOException {
+        long start = System.currentTimeMillis();
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+        epoch++;
+        File snapshot = new File(directory, SNAPSHOT_NAME);
+        File temp = new File(directory, SNAPSHOT_NAME + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+        int count = 0;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(epoch);
+            for (Recording recording : catalog.getRecordings()) {
+                out.writeByte(ADD);
+                writeRecording(out, recording);
+                count++;
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        // The snapshot replaces the previous one at once.
+        if (!temp.renameTo(snapshot)) {
+            snapshot.delete();
+            if (!temp.renameTo(snapshot))
+                throw new IOException("Unable to replace " + snapshot);
+        }
+        openLog(false);
+        logger.debug("Snapshot of {} recordings written in {} ms", count, System.currentTimeMillis()
+                - start);
+    }
+
+    /**
+     * Writes a snapshot of the catalog and closes the store.
+     * 
+     * @throws IOException
+     */
+    public synchronized void close(RecordingCatalog catalog) throws IOException {
+        if (log == null)
+            return;
+        compact(catalog);
+        log.close();
+        log = null;
+        new File(directory, LOCK_NAME).delete();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @param changes
+     *            - The number of changes logged before a snapshot is written.
+     */
+    public synchronized void setCompactChanges(int changes) {
+        compactChanges = Math.max(1, changes);
+    }
+
+    /**
+     * @return <code>true</code> if the store was not closed the last time,
+     *         so that the recordings closed just before may be missing from
+     *         the catalog loaded.
+     */
+    public synchronized boolean isRecovered() {
+        return recovered;
+    }
+
+    /**
+     * @return The number of changes logged since the last snapshot.
+     */
+    public synchronized int getLogChanges() {
+        return logChanges;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogStore [" + directory + ", epoch=" + epoch + "]";
+    }
+
+    // _________________________________________________________________________
+
+    private void checkOpen() {
+        if (log == null)
+            throw new IllegalStateException("The catalog store is not open.");
+    }
+
+    /**
+     * @return <code>false</code> if there is no snapshot.
+     */
+    private boolean readSnapshot(RecordingCatalog catalog, Map<String, String> cameras)
+            throws IOException {
+        File snapshot = new File(directory, SNAPSHOT_NAME);
+        if (!snapshot.isFile())
+            return false;
+        DataInputStream in = open(snapshot);
+        try {
+            epoch = in.readLong();
+            while (readChange(in, catalog, cameras)) {
+                // Reads the next one.
+            }
+        } catch (EOFException e) {
+            throw new IOException(snapshot + " is truncated.");
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    /**
+     * @return <code>false</code> if the log ends with a change partly
+     *         written.
+     */
+    private boolean replayLog(RecordingCatalog catalog, Map<String, String> cameras)
+            throws IOException {
+        File file = new File(directory, LOG_NAME);
+        DataInputStream in = open(file);
+        logChanges = 0;
+        try {
+            if (in.readLong() != epoch) {
+                logger.warn("{} is older than the snapshot, it is ignored.", file);
+                return true;
+            }
+            while (readChange(in, catalog, cameras))
+                logChanges++;
+            return true;
+        } catch (EOFException e) {
+            logger.warn("The last change of {} is incomplete, it is ignored.", file);
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    private DataInputStream open(File file) throws IOException {
+        InputStream stream = new FileInputStream(file);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + " is not a catalog.");
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    private void openLog(boolean append) throws IOException {
+        File file = new File(directory, LOG_NAME);
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append),
+                BUFFER_SIZE));
+        if (!append) {
+            log.writeInt(MAGIC);
+            log.writeInt(VERSION);
+            log.writeLong(epoch);
+            log.flush();
+            logChanges = 0;
+        }
+    }
+
+    /**
+     * @return <code>false</code> at the end of the file.
+     * @throws EOFException
+     *             If the change is incomplete.
+     */
+    private boolean readChange(DataInputStream in, RecordingCatalog catalog,
+            Map<String, String> cameras) throws IOException {
+        int type = in.read();
+        switch (type) {
+        case -1:
+            return false;
+        case ADD:
+            File file = toFile(in.readUTF());
+            String camera = share(cameras, in.readUTF());
+            long start = in.readLong();
+            long end = in.readLong();
+            long size = in.readLong();
+            boolean event = in.readBoolean();
+            catalog.add(new Recording(file, camera, start, end, size, event));
+            return true;
+        case REMOVE:
+            catalog.remove(toFile(in.readUTF()));
+            return true;
+        default:
+            throw new IOException("Invalid change " + type + " in the catalog.");
+        }
+    }
+
+    private static String share(Map<String, String> names, String name) {
+        String shared = names.get(name);
+        if (shared == null) {
+            shared = name;
+            names.put(name, name);
+        }
+        return shared;
+    }
+
+    private void writeRecording(DataOutputStream out, Recording recording) throws IOException {
+        out.writeUTF(toPath(recording.getFile()));
+        out.writeUTF(recording.getCamera());
+        out.writeLong(recording.getStart());
+        out.writeLong(recording.getEnd());
+        out.writeLong(recording.getSize());
+        out.writeBoolean(recording.isEvent());
+    }
+
+    private String toPath(File file) {
+        String path = file.getPath();
+        return path.startsWith(recordingsPath) ? path.substring(recordingsPath.length()) : path;
+    }
+
+    private File toFile(String path) {
+        return new File(path).isAbsolute() ? new File(path) : new File(recordings, path);
+    }
+}
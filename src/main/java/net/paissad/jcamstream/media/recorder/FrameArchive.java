@@ -0,0 +1,257 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The segments written by a {@link SegmentedFrameWriter} in a directory, to
+ * play back or export a part of the recording. The segment holding a time is
+ * found from the names of the segments, and the frame from its
+ * {@link SegmentIndex}, so only that segment is opened.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FrameArchive {
+
+    private final File   directory;
+    private final String prefix;
+
+    /** The start times of the segments, sorted. */
+    private long[]       starts   = new long[0];
+    private File[]       segments = new File[0];
+
+    // _________________________________________________________________________
+
+    /**
+     * @param directory
+     *            - The directory of the segments.
+     * @param prefix
+     *            - The prefix of the names of the segments.
+     */
+    public FrameArchive(File directory, String prefix) {
+        this.directory = directory;
+        this.prefix = prefix;
+        refresh();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Lists the segments again, to see those written since the archive was
+     * created.
+     */
+    public synchronized void refresh() {
+        final String start = prefix + "-";
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName();
+                return name.startsWith(start) && name.endsWith(SegmentedFrameWriter.SEGMENT_EXTENSION)
+                        && file.isFile();
+            }
+        });
+        if (files == null)
+            files = new File[0];
+
+        long[] times = new long[files.length];
+        int count = 0;
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                times[count] = Long.parseLong(name.substring(start.length(), name.length()
+                        - SegmentedFrameWriter.SEGMENT_EXTENSION.length()));
+                files[count++] = file;
+            } catch (NumberFormatException e) {
+                // Not a segment.
+            }
+        }
+
+        // Sorts the segments by their start time.
+        final long[] keys = Arrays.copyOf(times, count);
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long x = keys[a];
+                long y = keys[b];
+                return (x < y) ? -1 : ((x == y) ? 0 : 1);
+            }
+        });
+        long[] sortedStarts = new long[count];
+        File[] sorted = new File[count];
+        for (int i = 0; i < count; i++) {
+            sortedStarts[i] = keys[order[i]];
+            sorted[i] = files[order[i]];
+        }
+        starts = sortedStarts;
+        segments = sorted;
+    }
+
+    /**
+     * @return The number of segments.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @param time
+     *            - A time, in milliseconds since the epoch.
+     * @return The index of the segment which may hold the frames recorded at
+     *         the time: the last one started at or before it, or the first
+     *         one. -1 if there is no segment.
+     */
+    public synchronized int findSegment(long time) {
+        if (starts.length == 0)
+            return -1;
+        int i = Arrays.binarySearch(starts, time);
+        if (i < 0)
+            i = -i - 2;
+        return Math.max(i, 0);
+    }
+
+    /**
+     * @param i
+     *            - The index of a segment.
+     * @return The file of the segment.
+     */
+    public synchronized File getSegment(int i) {
+        return segments[i];
+    }
+
+    /**
+     * Opens the recording at a time.
+     * 
+     * @param time
+     *            - A time, in milliseconds since the epoch.
+     * @return A reader of the segment holding the first frame recorded at or
+     *         after the time, positioned on that frame, or <code>null</code>
+     *         if there is none. It must be closed by the caller.
+     * @throws IOException
+     */
+    public FrameStreamReader seek(long time) throws IOException {
+        int count = getSegmentCount();
+        for (int i = Math.max(findSegment(time), 0); i < count; i++) {
+            FrameStreamReader reader = open(i, time);
+            if (reader != null)
+                return reader;
+        }
+        return null;
+    }
+
+    /**
+     * Copies a part of the recording into a single file.
+     * 
+     * @param from
+     *            - The time of the first frame to copy, in milliseconds since
+     *            the epoch.
+     * @param to
+     *            - The time at which to stop, excluded.
+     * @param file
+     *            - The file to write, in the {@link FrameStreamWriter} format.
+     * @return The number of frames copied, 0 if there is no frame in the range
+     *         and then the file is not created.
+     * @throws IOException
+     */
+    public int export(long from, long to, File file) throws IOException {
+        int count = getSegmentCount();
+        int segment = Math.max(findSegment(from), 0);
+        FrameStreamReader reader = null;
+        for (; segment < count && reader == null; segment++) {
+            reader = open(segment, from);
+        }
+        if (reader == null)
+            return 0;
+
+        FrameStreamWriter writer = null;
+        int frames = 0;
+        try {
+            ByteBuffer header = ByteBuffer.allocateDirect(FrameStreamWriter.RECORD_HEADER);
+            ByteBuffer data = ByteBuffer.allocateDirect(reader.getFrameSize());
+            ByteBuffer[] record = new ByteBuffer[] { header, data };
+            while (true) {
+                while (!reader.readFrame(data)) {
+                    // The end of a segment, the range goes on in the next one.
+                    reader.close();
+                    reader = null;
+                    if (segment >= count)
+                        return frames;
+                    reader = new FrameStreamReader(getSegment(segment++), false);
+                    reader.open();
+                }
+                long timestamp = reader.getTimestamp();
+                if (timestamp >= to)
+                    return frames;
+                if (timestamp < from)
+                    continue;
+
+                if (writer == null) {
+                    writer = new FrameStreamWriter(file, reader.getWidth(), reader.getHeight(),
+                            reader.getPixelFormat());
+                }
+                header.clear();
+                header.putLong(timestamp).putInt(data.remaining()).flip();
+                writer.writeRecords(record, 2, FrameStreamWriter.RECORD_HEADER + data.remaining(), 1);
+                frames++;
+            }
+        } finally {
+            if (reader != null)
+                reader.close();
+            if (writer != null)
+                writer.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new File(directory, prefix).getPath();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return A reader of the segment positioned on its first frame recorded
+     *         at or after the time, or <code>null</code> if there is none.
+     */
+    private FrameStreamReader open(int segment, long time) throws IOException {
+        File file = getSegment(segment);
+        SegmentIndex index = SegmentIndex.read(file);
+        int frame = index.find(time);
+        if (frame == index.size())
+            return null;
+        FrameStreamReader reader = new FrameStreamReader(file, false);
+        reader.open();
+        try {
+            reader.seek(index.getOffset(frame));
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+        return reader;
+    }
+}
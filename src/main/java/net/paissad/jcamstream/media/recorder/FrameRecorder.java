@@ -0,0 +1,668 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+import net.paissad.jcamstream.media.frame.BackpressurePolicy;
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.FrameListener;
+import net.paissad.jcamstream.media.frame.FramePool;
+import net.paissad.jcamstream.media.frame.FrameSource;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+import net.paissad.jcamstream.utils.CommonUtils;
+import net.paissad.jcamstream.utils.ImageConverter;
+
+/**
+ * Recorder reading the frames of a {@link FrameSource} in its own capture
+ * thread.
+ * <p>
+ * Everything the capture needs is allocated once when the recorder is
+ * started: the {@link FramePool} of direct buffers the frames are read into,
+ * and the image used for the snapshots, so the capture loop does not allocate
+ * anything per frame. Each frame is leased from the pool, given to the
+ * listeners which may retain it to hand it over to other stages, and kept as
+ * the latest frame for the snapshots until the next one is captured.
+ * </p>
+ * <p>
+ * When the pool is exhausted because the other stages hold all its frames,
+ * its {@link BackpressurePolicy} applies: with
+ * {@link BackpressurePolicy#DROP_OLDEST} or
+ * {@link BackpressurePolicy#DROP_NEWEST}, a frame which cannot be leased is
+ * still read from the source, so that the device does not stall, but it is
+ * not delivered.
+ * </p>
+ * <p>
+ * The recordings are written with a {@link FrameStreamWriter}, or into
+ * segments with a {@link SegmentedFrameWriter} when the recording is a
+ * directory. When a {@link StorageWriter} is set, they are written behind the
+ * capture by its thread, so that the capture does not wait for the disk.
+ * When a pre-event buffer is set, the last frames are kept in a
+ * {@link PreEventBuffer} while nothing is recorded, and a recording starts
+ * with them.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FrameRecorder implements IRecorder {
+
+    /** The default number of frames of the pool. */
+    public static final int           DEFAULT_POOL_SIZE = 8;
+    /** The prefix of the segments of the recordings into a directory. */
+    public static final String        SEGMENT_PREFIX    = "segment";
+    /** How long a stop waits for the capture thread, in milliseconds. */
+    public static final long          STOP_TIMEOUT      = 2000;
+
+    private static Logger             logger            = JCSLoggerFactory
+                                                                .getLogger(FrameRecorder.class);
+
+    private final FrameSource         source;
+    private final int                 poolSize;
+    private final BackpressurePolicy  policy;
+    private final List<FrameListener> listeners         = new CopyOnWriteArrayList<FrameListener>();
+
+    /**
+     * Guards the latest frame, the writer, the pre-event buffer and the
+     * listener of the recordings.
+     */
+    private final Object              lock              = new Object();
+    private FrameBuffer               latest;
+    private FrameWriter               writer;
+    private int                       preEventFrames;
+    private PreEventBuffer            preEvent;
+    private RecordingListener         recordingListener;
+    /** Whether a capture thread may still read the source. */
+    private boolean                   capturing;
+    /** Whether the capture thread closes the source when it ends. */
+    private boolean                   closeOnExit;
+
+    private FramePool                 pool;
+    /** Where the frames which cannot be leased are read, to be dropped. */
+    private FrameBuffer               discard;
+
+    /** Guards the snapshot buffers. */
+    private final Object              snapshotLock      = new Object();
+    private BufferedImage             snapshotImage;
+    private int[]                     snapshotPixels;
+    private final ImageConverter      snapshotConverter = new ImageConverter();
+
+    private Thread                    thread;
+    private volatile boolean          running;
+    private volatile long             frameCount;
+    private volatile long             throttledFrames;
+    /** The minimum time between two delivered frames, 0 for no cap. */
+    private volatile long             frameInterval;
+    private volatile long             segmentDuration;
+    private volatile long             segmentSize;
+    private volatile StorageWriter    storage;
+
+    // _________________________________________________________________________
+
+    /**
+     * Creates a recorder with a pool of {@link #DEFAULT_POOL_SIZE} frames,
+     * which drops the oldest frames when it is exhausted.
+     * 
+     * @param source
+     *            - The source of the frames. It is opened when the recorder
+     *            is started, and closed when it is stopped.
+     */
+    public FrameRecorder(FrameSource source) {
+        this(source, DEFAULT_POOL_SIZE, BackpressurePolicy.DROP_OLDEST);
+    }
+
+    /**
+     * @param source
+     *            - The source of the frames. It is opened when the recorder
+     *            is started, and closed when it is stopped.
+     * @param poolSize
+     *            - The number of frames of the pool, at least 2 since the
+     *            latest frame is kept for the snapshots.
+     * @param policy
+     *            - What to do when the pool is exhausted.
+     */
+    public FrameRecorder(FrameSource source, int poolSize, BackpressurePolicy policy) {
+        if (poolSize < 2)
+            throw new IllegalArgumentException("The pool needs at least 2 frames : " + poolSize);
+        this.source = source;
+        this.poolSize = poolSize;
+        this.policy = policy;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Opens the source and starts the capture thread. Does nothing if the
+     * capture is already running.
+     * 
+     * @throws IOException
+     *             If the source cannot be opened.
+     */
+    public void start() throws IOException {
+        start(null);
+    }
+
+    /**
+     * Opens the source and starts the capture thread if it is not running.
+     * 
+     * @param recordFile
+     *            - The file to record into, or <code>null</code>. If the
+     *            capture is not running yet, the recording starts with its
+     *            first frame.
+     * @throws IOException
+     */
+    private synchronized void start(File recordFile) throws IOException {
+        if (running) {
+            if (recordFile != null)
+                openWriter(recordFile);
+            return;
+        }
+        if (thread != null) {
+            // The previous capture ended by itself at the end of the source.
+            stop();
+        }
+        synchronized (lock) {
+            if (capturing)
+                throw new IOException("The previous capture of " + source + " is still stopping.");
+        }
+
+        source.open();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        PixelFormat format = source.getPixelFormat();
+
+        pool = new FramePool(poolSize, width, height, format, policy);
+        discard = (policy == BackpressurePolicy.BLOCK) ? null : new FrameBuffer(width, height, format);
+        synchronized (lock) {
+            allocatePreEvent();
+        }
+        if (recordFile != null) {
+            try {
+                openWriter(recordFile);
+            } catch (IOException e) {
+                source.close();
+                throw e;
+            }
+        }
+        synchronized (snapshotLock) {
+            snapshotImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            snapshotPixels = ((DataBufferInt) snapshotImage.getRaster().getDataBuffer()).getData();
+        }
+
+        frameCount = 0;
+        throttledFrames = 0;
+        synchronized (lock) {
+            capturing = true;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                captureLoop();
+            }
+        }, "capture-" + source);
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Capture of {} started.", source);
+    }
+
+    /**
+     * Stops the recording if any, stops the capture thread and closes the
+     * source.
+     * <p>
+     * The capture thread is waited for at most {@link #STOP_TIMEOUT} ms: a
+     * camera may block it in a native read which an interrupt does not
+     * break. It then closes the source itself when the read returns, the
+     * source not being closed under a read in progress.
+     * </p>
+     */
+    public synchronized void stop() {
+        stopRecording();
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+            boolean stalled;
+            synchronized (lock) {
+                stalled = capturing;
+                closeOnExit = stalled;
+                if (latest != null)
+                    latest.release();
+                latest = null;
+                if (preEvent != null)
+                    preEvent.clear();
+            }
+            if (stalled) {
+                logger.warn("The capture of {} did not stop within {} ms, its source is closed "
+                        + "when the current read returns.", source, STOP_TIMEOUT);
+            } else {
+                source.close();
+                logger.info("Capture of {} stopped after {} frames.", source, frameCount);
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the capture thread is running.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return The number of frames read from the source since the recorder
+     *         was started, the dropped ones included.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return The number of frames read from the source but not delivered
+     *         because the pool was exhausted.
+     */
+    public long getDroppedFrames() {
+        FramePool current = pool;
+        return (current == null) ? 0 : current.getDropped();
+    }
+
+    /**
+     * Caps the rate of the frames delivered to the listeners and recorded.
+     * The source is still read at its own rate, the frames in excess are
+     * dropped as soon as they are read.
+     * 
+     * @param maxFrameRate
+     *            - The maximum number of frames per second, 0 for no cap.
+     */
+    public void setMaxFrameRate(double maxFrameRate) {
+        frameInterval = (maxFrameRate > 0) ? (long) (1000000000L / maxFrameRate) : 0;
+    }
+
+    /**
+     * @return The maximum number of frames per second, 0 if there is no cap.
+     */
+    public double getMaxFrameRate() {
+        long interval = frameInterval;
+        return (interval > 0) ? 1e9 / interval : 0;
+    }
+
+    /**
+     * @return The number of frames dropped to respect the frame rate cap.
+     */
+    public long getThrottledFrames() {
+        return throttledFrames;
+    }
+
+    /**
+     * @return The pool of the frames, whose metrics tell how far the other
+     *         stages are behind the capture, or <code>null</code> if the
+     *         recorder was never started.
+     */
+    public FramePool getFramePool() {
+        return pool;
+    }
+
+    /**
+     * Keeps the last frames while nothing is recorded, so that a recording
+     * starts with them. The memory of the buffer is allocated at once, when
+     * the capture starts or at once if it is running, and it is
+     * <code>frames * (frame size + 12)</code> bytes.
+     * 
+     * @param frames
+     *            - The number of frames kept, 0 for none.
+     * @see PreEventBuffer#getMemorySize(int, int)
+     */
+    public void setPreEventFrames(int frames) {
+        synchronized (lock) {
+            preEventFrames = Math.max(0, frames);
+            if (running)
+                allocatePreEvent();
+        }
+    }
+
+    public int getPreEventFrames() {
+        return preEventFrames;
+    }
+
+    /**
+     * @return The memory taken by the pre-event buffer, in bytes, 0 if there
+     *         is none.
+     */
+    public long getPreEventMemory() {
+        synchronized (lock) {
+            return (preEvent == null) ? 0 : preEvent.getMemorySize();
+        }
+    }
+
+    /**
+     * Sets when the recordings into a directory start a new segment. Applies
+     * to the next recording.
+     * 
+     * @param duration
+     *            - The duration of a segment in milliseconds, 0 for no limit.
+     * @param size
+     *            - The maximum size of a segment in bytes, 0 for no limit.
+     */
+    public void setSegments(long duration, long size) {
+        segmentDuration = Math.max(0, duration);
+        segmentSize = Math.max(0, size);
+    }
+
+    public long getSegmentDuration() {
+        return segmentDuration;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @param storage
+     *            - The thread writing the recordings, <code>null</code> to
+     *            write them from the capture thread. Applies to the next
+     *            recording.
+     */
+    public void setStorageWriter(StorageWriter storage) {
+        this.storage = storage;
+    }
+
+    public StorageWriter getStorageWriter() {
+        return storage;
+    }
+
+    /**
+     * @param listener
+     *            - Told when a recording or a segment is complete, or
+     *            <code>null</code>. Applies to the next recording.
+     */
+    public void setRecordingListener(RecordingListener listener) {
+        synchronized (lock) {
+            recordingListener = listener;
+        }
+    }
+
+    /**
+     * @return The queue of the recording in progress, or <code>null</code> if
+     *         nothing is recorded or the recording is not written behind the
+     *         capture.
+     */
+    public QueuedFrameWriter getWriteQueue() {
+        synchronized (lock) {
+            return (writer instanceof QueuedFrameWriter) ? (QueuedFrameWriter) writer : null;
+        }
+    }
+
+    public void addListener(FrameListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(FrameListener listener) {
+        listeners.remove(listener);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Starts the capture if it is not running yet, and writes the frames
+     * into the file until {@link #stopRecording()} is called. The recording
+     * starts with the frames of the pre-event buffer, if any.
+     * <p>
+     * If the file is a directory, the frames are written into segments named
+     * <code>segment-&lt;time&gt;.jcsf</code>, which a {@link FrameArchive}
+     * reads.
+     * </p>
+     * 
+     * @see #setSegments(long, long)
+     */
+    @Override
+    public void startRecording(File file) throws IOException {
+        start(file);
+    }
+
+    @Override
+    public void stopRecording() {
+        synchronized (lock) {
+            closeWriter();
+        }
+    }
+
+    /**
+     * Saves the latest frame captured as an image. The format of the image is
+     * given by the extension of the file (png, jpg, bmp ...).
+     */
+    @Override
+    public void getSnapShot(File file) throws IOException {
+        String extension = CommonUtils.getFilenameExtension(file.getName());
+        String formatName = (extension.length() > 1) ? extension.substring(1) : "png";
+
+        FrameBuffer frame;
+        synchronized (lock) {
+            if (latest == null)
+                throw new IOException("No frame has been captured yet.");
+            frame = latest.retain();
+        }
+        try {
+            synchronized (snapshotLock) {
+                toRgb(frame, snapshotPixels);
+                if (!ImageIO.write(snapshotImage, formatName, file))
+                    throw new IOException("No image writer for the format " + formatName);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    // _________________________________________________________________________
+
+    private void captureLoop() {
+        long sequence = 0;
+        long nextDue = 0;
+        try {
+            while (running) {
+                FrameBuffer frame = pool.acquire();
+                if (frame == null) {
+                    // Dropped, but still read so that the source goes on.
+                    if (!discard.readFrom(source, sequence))
+                        break;
+                    frameCount = ++sequence;
+                    continue;
+                }
+                try {
+                    // Stopped meanwhile, the read having outlasted the stop.
+                    if (!frame.readFrom(source, sequence) || !running)
+                        break;
+                    frameCount = ++sequence;
+
+                    long interval = frameInterval;
+                    if (interval > 0) {
+                        long now = System.nanoTime();
+                        // Tolerates the jitter of the source.
+                        if (now - nextDue < -interval / 8) {
+                            throttledFrames++;
+                            continue;
+                        }
+                        nextDue = (now - nextDue > interval) ? now + interval : nextDue + interval;
+                    }
+                    deliver(frame);
+                } finally {
+                    frame.release();
+                }
+            }
+            if (running)
+                logger.info("No more frames from {}", source);
+
+        } catch (InterruptedException e) {
+            // Stopped while waiting for a frame of the pool.
+        } catch (IOException e) {
+            if (running)
+                logger.error("Unable to read a frame from " + source, e);
+        } finally {
+            running = false;
+            boolean close;
+            synchronized (lock) {
+                closeWriter();
+                capturing = false;
+                close = closeOnExit;
+                closeOnExit = false;
+            }
+            if (close) {
+                source.close();
+                logger.info("Capture of {} stopped after {} frames.", source, frameCount);
+            }
+        }
+    }
+
+    private void deliver(FrameBuffer frame) {
+        for (FrameListener listener : listeners) {
+            listener.frameCaptured(frame);
+        }
+
+        FrameBuffer previous;
+        synchronized (lock) {
+            if (writer != null) {
+                try {
+                    writer.write(frame);
+                } catch (IOException e) {
+                    logger.error("Unable to write the frame, the recording is stopped.", e);
+                    closeWriter();
+                }
+            } else if (preEvent != null) {
+                preEvent.add(frame);
+            }
+            previous = latest;
+            latest = frame.retain();
+        }
+        if (previous != null)
+            previous.release();
+    }
+
+    private void openWriter(File file) throws IOException {
+        synchronized (lock) {
+            if (writer != null)
+                throw new IllegalStateException("Already recording.");
+            FrameWriter target;
+            if (file.isDirectory()) {
+                SegmentedFrameWriter segments = new SegmentedFrameWriter(file, SEGMENT_PREFIX,
+                        source.getWidth(), source.getHeight(), source.getPixelFormat(),
+                        segmentDuration, segmentSize);
+                segments.setListener(recordingListener);
+                target = segments;
+            } else {
+                FrameStreamWriter stream = new FrameStreamWriter(file, source.getWidth(),
+                        source.getHeight(), source.getPixelFormat());
+                stream.setListener(recordingListener);
+                target = stream;
+            }
+            StorageWriter device = storage;
+            if (device != null) {
+                try {
+                    target = device.open(target, source.getFrameSize(), preEventFrames);
+                } catch (RuntimeException e) {
+                    target.close();
+                    throw e;
+                }
+            }
+            writer = target;
+            if (preEvent != null) {
+                try {
+                    int frames = preEvent.writeTo(writer);
+                    logger.debug("{} frames of pre-event written into {}", frames, file);
+                } catch (IOException e) {
+                    closeWriter();
+                    throw e;
+                }
+            }
+        }
+        logger.info("Recording into {}", file);
+    }
+
+    /**
+     * Must be called while holding {@link #lock}, once the source is open.
+     */
+    private void allocatePreEvent() {
+        int frameSize = source.getFrameSize();
+        if (preEventFrames == 0) {
+            preEvent = null;
+        } else if (preEvent == null || preEvent.getCapacity() != preEventFrames
+                || preEvent.getFrameSize() != frameSize) {
+            preEvent = new PreEventBuffer(preEventFrames, frameSize);
+            logger.info("Pre-event buffer of {} : {} frames, {} KB", new Object[] { source,
+                    preEventFrames, preEvent.getMemorySize() / 1024 });
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     */
+    private void closeWriter() {
+        if (writer == null)
+            return;
+        try {
+            writer.close();
+            logger.info("Recording stopped, {} frames written.", writer.getFrameCount());
+        } catch (IOException e) {
+            logger.error("Unable to close the recording.", e);
+        }
+        writer = null;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Converts a frame into the RGB pixels of the snapshot image. Must be
+     * called while holding {@link #snapshotLock}.
+     */
+    private void toRgb(FrameBuffer frame, int[] rgb) {
+        ByteBuffer data = frame.getData();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+
+        switch (frame.getPixelFormat()) {
+        case YUYV:
+            snapshotConverter.yuyvToRgb(data, width, height, rgb);
+            break;
+        case NV12:
+            snapshotConverter.nv12ToRgb(data, width, height, rgb);
+            break;
+        case GRAY:
+            snapshotConverter.grayToRgb(data, width * height, rgb);
+            break;
+        case RGB24:
+            snapshotConverter.rgb24ToRgb(data, width * height, rgb);
+            break;
+        default:
+            throw new IllegalStateException("Unknown pixel format " + frame.getPixelFormat());
+        }
+    }
+}
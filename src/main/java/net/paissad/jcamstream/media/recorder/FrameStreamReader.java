@@ -0,0 +1,203 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import net.paissad.jcamstream.media.frame.FrameSource;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+
+/**
+ * Source replaying a recording written by {@link FrameStreamWriter}, as fast
+ * as its frames are read. Used to run the processing stages on recorded
+ * clips.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FrameStreamReader implements FrameSource {
+
+    private final File       file;
+    private final boolean    loop;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(FrameStreamWriter.HEADER_SIZE);
+
+    private FileInputStream  in;
+    private FileChannel      channel;
+    private int              width;
+    private int              height;
+    private PixelFormat      pixelFormat;
+    private long             timestamp;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param file
+     *            - The recording to read.
+     * @param loop
+     *            - Whether to start again from the first frame at the end of
+     *            the recording.
+     */
+    public FrameStreamReader(File file, boolean loop) {
+        this.file = file;
+        this.loop = loop;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Opens the recording and reads its header.
+     * 
+     * @throws IOException
+     *             If the file is not a recording.
+     */
+    @Override
+    public void open() throws IOException {
+        in = new FileInputStream(file);
+        channel = in.getChannel();
+        try {
+            if (!readFully(header, FrameStreamWriter.HEADER_SIZE)
+                    || header.getInt() != FrameStreamWriter.MAGIC)
+                throw new IOException(file + " is not a recording.");
+            int version = header.getInt();
+            if (version != FrameStreamWriter.VERSION)
+                throw new IOException("Unsupported version of recording : " + version);
+            width = header.getInt();
+            height = header.getInt();
+            int fourcc = header.getInt();
+            pixelFormat = PixelFormat.fromFourcc(fourcc);
+            if (pixelFormat == null)
+                throw new IOException("Unsupported pixel format : " + Integer.toHexString(fourcc));
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean readFrame(ByteBuffer dst) throws IOException {
+        if (channel == null)
+            throw new IOException("The source is not opened.");
+        if (!readFully(header, FrameStreamWriter.RECORD_HEADER)) {
+            if (!loop)
+                return false;
+            channel.position(FrameStreamWriter.HEADER_SIZE);
+            if (!readFully(header, FrameStreamWriter.RECORD_HEADER))
+                return false;
+        }
+        timestamp = header.getLong();
+        int length = header.getInt();
+        if (length != getFrameSize())
+            throw new IOException("Invalid frame length " + length + " in " + file);
+
+        dst.clear();
+        dst.limit(length);
+        if (!readFully(dst, length))
+            throw new EOFException("Truncated frame in " + file);
+        return true;
+    }
+
+    /**
+     * Moves to a record, so that it is the next frame read.
+     * 
+     * @param offset
+     *            - The offset of the record from the start of the file, as
+     *            given by the index of a segment.
+     * @throws IOException
+     */
+    public void seek(long offset) throws IOException {
+        if (channel == null)
+            throw new IOException("The source is not opened.");
+        if (offset < FrameStreamWriter.HEADER_SIZE)
+            throw new IllegalArgumentException("Invalid offset : " + offset);
+        channel.position(offset);
+    }
+
+    @Override
+    public void close() {
+        channel = null;
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing was written.
+            }
+            in = null;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+
+    @Override
+    public int getFrameSize() {
+        return pixelFormat.getFrameSize(width, height);
+    }
+
+    /**
+     * @return The time at which the last frame read was recorded, in
+     *         milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Reads exactly <code>length</code> bytes into the buffer, which is then
+     * flipped.
+     * 
+     * @return <code>false</code> if the end of the file was reached before
+     *         the first byte.
+     */
+    private boolean readFully(ByteBuffer buffer, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == 0)
+                    return false;
+                throw new EOFException("Truncated record in " + file);
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+}
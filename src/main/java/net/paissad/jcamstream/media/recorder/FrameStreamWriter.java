@@ -0,0 +1,175 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+
+/**
+ * Writes raw frames into a file.
+ * <p>
+ * The file starts with a header of 20 bytes: the magic number "JCSF", the
+ * version of the format, the width, the height and the fourcc of the pixel
+ * format, as big endian ints. Each frame follows as a record: its timestamp
+ * (long, milliseconds since the epoch), the length of its data (int), then the
+ * data itself.
+ * </p>
+ * <p>
+ * The header of a record and the data of the frame are written together with
+ * one gathering write, straight from the direct buffer of the frame.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FrameStreamWriter implements FrameWriter {
+
+    /** "JCSF" */
+    public static final int        MAGIC         = 0x4A435346;
+    public static final int        VERSION       = 1;
+    public static final int        HEADER_SIZE   = 20;
+    public static final int        RECORD_HEADER = 12;
+
+    private final File             file;
+    private final FileOutputStream out;
+    private final FileChannel      channel;
+    private final ByteBuffer       recordHeader  = ByteBuffer.allocateDirect(RECORD_HEADER);
+    private final ByteBuffer[]     record        = new ByteBuffer[2];
+
+    private long                   frameCount;
+    private long                   bytesWritten;
+    private RecordingListener      listener;
+    private boolean                closed;
+
+    // _________________________________________________________________________
+
+    /**
+     * Creates the file and writes its header.
+     * 
+     * @param file
+     *            - The file to create, it is overwritten if it exists.
+     * @param width
+     *            - The width of the frames.
+     * @param height
+     *            - The height of the frames.
+     * @param pixelFormat
+     *            - The layout of the frames.
+     * @throws IOException
+     */
+    public FrameStreamWriter(File file, int width, int height, PixelFormat pixelFormat)
+            throws IOException {
+        this.file = file;
+        out = new FileOutputStream(file);
+        channel = out.getChannel();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height)
+                    .putInt(pixelFormat.getFourcc());
+            header.flip();
+            writeFully(new ByteBuffer[] { header }, HEADER_SIZE);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    // _________________________________________________________________________
+
+    @Override
+    public void write(FrameBuffer frame) throws IOException {
+        ByteBuffer data = frame.getData();
+        int length = data.remaining();
+        int position = data.position();
+
+        recordHeader.clear();
+        recordHeader.putLong(frame.getTimestamp()).putInt(length);
+        recordHeader.flip();
+        record[0] = recordHeader;
+        record[1] = data;
+        try {
+            writeFully(record, RECORD_HEADER + length);
+        } finally {
+            data.position(position);
+            record[1] = null;
+        }
+        frameCount++;
+    }
+
+    @Override
+    public void writeRecords(ByteBuffer[] buffers, int count, long length, int frames) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            remaining -= channel.write(buffers, 0, count);
+        }
+        bytesWritten += length;
+        frameCount += frames;
+    }
+
+    @Override
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * @param listener
+     *            - Told when the file is closed, or <code>null</code>.
+     */
+    public void setListener(RecordingListener listener) {
+        this.listener = listener;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        out.close();
+        if (listener != null)
+            listener.recordingClosed(file);
+    }
+
+    // _________________________________________________________________________
+
+    private void writeFully(ByteBuffer[] buffers, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+        bytesWritten += length;
+    }
+}
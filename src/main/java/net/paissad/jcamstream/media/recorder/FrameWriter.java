@@ -0,0 +1,85 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+
+/**
+ * Destination of the frames of a recording, in the record format of
+ * {@link FrameStreamWriter}.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public interface FrameWriter {
+
+    /**
+     * Appends one frame.
+     * 
+     * @param frame
+     *            - The frame to write.
+     * @throws IOException
+     */
+    public void write(FrameBuffer frame) throws IOException;
+
+    /**
+     * Appends records already in the format of the file, such as the ones of
+     * a {@link PreEventBuffer}.
+     * 
+     * @param buffers
+     *            - The records, from the position to the limit of each
+     *            buffer, a record never spanning two buffers. The positions
+     *            are moved to the limits.
+     * @param count
+     *            - The number of buffers used.
+     * @param length
+     *            - The total number of bytes.
+     * @param frames
+     *            - The number of records.
+     * @throws IOException
+     */
+    public void writeRecords(ByteBuffer[] buffers, int count, long length, int frames) throws IOException;
+
+    /**
+     * @return The number of frames written.
+     */
+    public long getFrameCount();
+
+    /**
+     * @return The number of bytes written, the headers included.
+     */
+    public long getBytesWritten();
+
+    /**
+     * Forces what was written so far onto the storage device, as
+     * {@link java.nio.channels.FileChannel#force(boolean)} does.
+     * 
+     * @throws IOException
+     */
+    public void sync() throws IOException;
+
+    /**
+     * Closes the recording.
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException;
+}
@@ -0,0 +1,227 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+
+/**
+ * Ring of the last frames of a camera, kept so that a recording started when
+ * something happens also holds the seconds before it.
+ * <p>
+ * The frames are kept as records of the {@link FrameStreamWriter} format, in
+ * one direct buffer of fixed size slots allocated up front: its size, given
+ * by {@link #getMemorySize()}, does not change while the buffer is used. When
+ * the ring is full, the new frame replaces the oldest one.
+ * </p>
+ * <p>
+ * The records are written into a recording as they are, with one gathering
+ * write of the (at most two) contiguous parts of the ring, without going
+ * through the heap.
+ * </p>
+ * <p>
+ * A buffer is not thread safe.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class PreEventBuffer {
+
+    private final int          capacity;
+    private final int          frameSize;
+    private final int          slotSize;
+    private final ByteBuffer   memory;
+    /** The view used to copy the frames into the slots. */
+    private final ByteBuffer   input;
+    /** The views of the two parts of the ring, written together. */
+    private final ByteBuffer[] parts = new ByteBuffer[2];
+    private final long[]       timestamps;
+
+    /** The slot of the next frame. */
+    private int                head;
+    private int                size;
+    private long               droppedFrames;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param capacity
+     *            - The number of frames kept.
+     * @param frameSize
+     *            - The size in bytes of each frame.
+     */
+    public PreEventBuffer(int capacity, int frameSize) {
+        if (capacity <= 0 || frameSize <= 0)
+            throw new IllegalArgumentException("Invalid pre-event buffer : " + capacity + " frames of "
+                    + frameSize + " bytes");
+        if (getMemorySize(capacity, frameSize) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The pre-event buffer would exceed 2 GB.");
+        this.capacity = capacity;
+        this.frameSize = frameSize;
+        this.slotSize = FrameStreamWriter.RECORD_HEADER + frameSize;
+        this.memory = ByteBuffer.allocateDirect((int) getMemorySize(capacity, frameSize));
+        this.input = memory.duplicate();
+        this.parts[0] = memory.duplicate();
+        this.parts[1] = memory.duplicate();
+        this.timestamps = new long[capacity];
+    }
+
+    /**
+     * @param frames
+     *            - A number of frames.
+     * @param frameSize
+     *            - The size in bytes of each frame.
+     * @return The memory taken by a buffer of these frames.
+     */
+    public static long getMemorySize(int frames, int frameSize) {
+        return (long) frames * (FrameStreamWriter.RECORD_HEADER + frameSize);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Copies a frame into the ring, in place of the oldest one if it is full.
+     * 
+     * @param frame
+     *            - The frame, which can be released once this method
+     *            returns.
+     */
+    public void add(FrameBuffer frame) {
+        ByteBuffer data = frame.getData();
+        int length = data.remaining();
+        if (length != frameSize)
+            throw new IllegalArgumentException("The frame has " + length + " bytes instead of "
+                    + frameSize);
+
+        int slot = head * slotSize;
+        memory.putLong(slot, frame.getTimestamp());
+        memory.putInt(slot + 8, length);
+        int position = data.position();
+        input.limit(slot + slotSize).position(slot + FrameStreamWriter.RECORD_HEADER);
+        input.put(data);
+        data.position(position);
+
+        timestamps[head] = frame.getTimestamp();
+        head = (head + 1 == capacity) ? 0 : head + 1;
+        if (size < capacity) {
+            size++;
+        } else {
+            droppedFrames++;
+        }
+    }
+
+    /**
+     * Writes the frames into a recording, from the oldest one, and empties
+     * the buffer.
+     * 
+     * @param writer
+     *            - The recording.
+     * @return The number of frames written.
+     * @throws IOException
+     */
+    public int writeTo(FrameWriter writer) throws IOException {
+        int frames = size;
+        if (frames == 0)
+            return 0;
+        int oldest = oldest();
+        int count;
+        if (oldest + frames <= capacity) {
+            parts[0].limit((oldest + frames) * slotSize).position(oldest * slotSize);
+            count = 1;
+        } else {
+            parts[0].limit(capacity * slotSize).position(oldest * slotSize);
+            parts[1].limit(head * slotSize).position(0);
+            count = 2;
+        }
+        writer.writeRecords(parts, count, (long) frames * slotSize, frames);
+        clear();
+        return frames;
+    }
+
+    /**
+     * Forgets the frames.
+     */
+    public void clear() {
+        size = 0;
+        head = 0;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return The number of frames in the buffer.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of frames the buffer can hold.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The size in bytes of each frame.
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return The memory taken by the buffer, in bytes.
+     */
+    public long getMemorySize() {
+        return memory.capacity();
+    }
+
+    /**
+     * @return The time between the oldest and the newest frame, in
+     *         milliseconds.
+     */
+    public long getDuration() {
+        if (size == 0)
+            return 0;
+        int newest = (head == 0) ? capacity - 1 : head - 1;
+        return timestamps[newest] - timestamps[oldest()];
+    }
+
+    /**
+     * @return The number of frames pushed out of the ring by newer ones.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public String toString() {
+        return size + "/" + capacity + " frames (" + (getMemorySize() / 1024) + " KB, "
+                + getDuration() + " ms)";
+    }
+
+    // _________________________________________________________________________
+
+    private int oldest() {
+        int oldest = head - size;
+        return (oldest < 0) ? oldest + capacity : oldest;
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+
+/**
+ * Recording written behind the capture by the thread of a
+ * {@link StorageWriter}, created by {@link StorageWriter#open}.
+ * <p>
+ * The frames are copied as records of the {@link FrameStreamWriter} format
+ * into a ring of fixed size slots, in one direct buffer allocated with the
+ * writer, and the thread of the storage writes the filled slots into the
+ * recording with one gathering write of the (at most two) contiguous parts of
+ * the ring. Queuing a frame never waits: when the ring is full because the
+ * device is behind, the new frame is dropped and counted.
+ * </p>
+ * <p>
+ * There is one thread queuing the frames, and the one of the storage writing
+ * them: the ring is shared through the volatile counters of the frames
+ * queued and written.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class QueuedFrameWriter implements FrameWriter {
+
+    private final StorageWriter  storage;
+    private final FrameWriter    target;
+    private final int            capacity;
+    private final int            frameSize;
+    private final int            slotSize;
+    private final ByteBuffer     memory;
+    /** The view used to copy the frames into the slots. */
+    private final ByteBuffer     input;
+    /** The views of the two parts of the ring, written together. */
+    private final ByteBuffer[]   parts  = new ByteBuffer[2];
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    /** The number of frames queued, written by the queuing thread only. */
+    private volatile long        queued;
+    /** The number of frames written, by the thread of the storage only. */
+    private volatile long        written;
+    private volatile long        bytesWritten;
+    private volatile long        droppedFrames;
+    private volatile int         peakDepth;
+    private volatile boolean     closing;
+    private volatile IOException failure;
+    /** The bytes written since the last sync. */
+    private long                 unsynced;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param storage
+     *            - The storage whose thread writes the frames.
+     * @param target
+     *            - The recording the frames are written into.
+     * @param capacity
+     *            - The number of frames which may wait to be written.
+     * @param frameSize
+     *            - The size in bytes of each frame.
+     */
+    QueuedFrameWriter(StorageWriter storage, FrameWriter target, int capacity, int frameSize) {
+        if (capacity <= 0 || frameSize <= 0)
+            throw new IllegalArgumentException("Invalid write queue : " + capacity + " frames of "
+                    + frameSize + " bytes");
+        if (PreEventBuffer.getMemorySize(capacity, frameSize) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The write queue would exceed 2 GB.");
+        this.storage = storage;
+        this.target = target;
+        this.capacity = capacity;
+        this.frameSize = frameSize;
+        this.slotSize = FrameStreamWriter.RECORD_HEADER + frameSize;
+        this.memory = ByteBuffer.allocateDirect((int) PreEventBuffer.getMemorySize(capacity, frameSize));
+        this.input = memory.duplicate();
+        this.parts[0] = memory.duplicate();
+        this.parts[1] = memory.duplicate();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Copies the frame into the queue, or drops it if the queue is full.
+     * 
+     * @throws IOException
+     *             If the recording failed or was closed.
+     */
+    @Override
+    public void write(FrameBuffer frame) throws IOException {
+        checkOpen();
+        ByteBuffer data = frame.getData();
+        int length = data.remaining();
+        if (length != frameSize)
+            throw new IllegalArgumentException("The frame has " + length + " bytes instead of "
+                    + frameSize);
+        int slot = reserve();
+        if (slot < 0)
+            return;
+
+        memory.putLong(slot, frame.getTimestamp());
+        memory.putInt(slot + 8, length);
+        int position = data.position();
+        input.limit(slot + slotSize).position(slot + FrameStreamWriter.RECORD_HEADER);
+        input.put(data);
+        data.position(position);
+        publish();
+    }
+
+    /**
+     * Copies the records into the queue, dropping the ones which do not fit.
+     * 
+     * @throws IOException
+     *             If the recording failed or was closed.
+     */
+    @Override
+    public void writeRecords(ByteBuffer[] buffers, int count, long length, int frames) throws IOException {
+        checkOpen();
+        for (int b = 0; b < count; b++) {
+            ByteBuffer buffer = buffers[b];
+            int end = buffer.limit();
+            for (int position = buffer.position(); position < end; position += slotSize) {
+                int recordLength = buffer.getInt(position + 8);
+                if (recordLength != frameSize)
+                    throw new IllegalArgumentException("The record has " + recordLength
+                            + " bytes instead of " + frameSize);
+                int slot = reserve();
+                if (slot < 0)
+                    continue;
+                buffer.limit(position + slotSize).position(position);
+                input.limit(slot + slotSize).position(slot);
+                input.put(buffer);
+                buffer.limit(end);
+                publish();
+            }
+            buffer.position(end);
+        }
+    }
+
+    /**
+     * @return The number of frames queued, written or still waiting.
+     */
+    @Override
+    public long getFrameCount() {
+        return queued;
+    }
+
+    /**
+     * @return The number of bytes written into the recording.
+     */
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Does nothing, the storage syncs the recording at its own pace and when
+     * it is closed.
+     */
+    @Override
+    public void sync() {
+        // The thread of the storage syncs.
+    }
+
+    /**
+     * Lets the storage write the frames still queued then close the
+     * recording. Does not wait, see {@link #awaitClose(long, TimeUnit)}.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        storage.signal();
+    }
+
+    /**
+     * Waits until the recording is closed by the storage.
+     * 
+     * @return <code>false</code> if the time elapsed first.
+     * @throws InterruptedException
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        return closed.await(timeout, unit);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return The number of frames waiting to be written.
+     */
+    public int getQueueDepth() {
+        return (int) (queued - written);
+    }
+
+    /**
+     * @return The highest number of frames which waited at the same time.
+     */
+    public int getPeakDepth() {
+        return peakDepth;
+    }
+
+    /**
+     * @return The number of frames the queue can hold.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of frames dropped because the queue was full.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return The number of frames written into the recording.
+     */
+    public long getWrittenFrames() {
+        return written;
+    }
+
+    /**
+     * @return The memory taken by the queue, in bytes.
+     */
+    public long getMemorySize() {
+        return memory.capacity();
+    }
+
+    /**
+     * @return The error which stopped the recording, or <code>null</code>.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return "queue=" + getQueueDepth() + "/" + capacity + ", peak=" + peakDepth + ", written="
+                + written + ", dropped=" + droppedFrames;
+    }
+
+    // _________________________________________________________________________
+
+    private void checkOpen() throws IOException {
+        if (failure != null)
+            throw new IOException("The recording failed.", failure);
+        if (closing)
+            throw new IOException("The recording is closed.");
+    }
+
+    /**
+     * @return The offset of the next free slot, -1 if the queue is full and
+     *         the frame dropped.
+     */
+    private int reserve() {
+        long depth = queued - written;
+        if (depth == capacity) {
+            droppedFrames++;
+            return -1;
+        }
+        if (depth + 1 > peakDepth)
+            peakDepth = (int) depth + 1;
+        return (int) (queued % capacity) * slotSize;
+    }
+
+    /**
+     * Makes the frame copied into the reserved slot visible to the storage.
+     */
+    private void publish() {
+        queued++;
+        storage.signal();
+    }
+
+    // _________________________________________________________________________
+    // Called by the thread of the storage.
+
+    /**
+     * Writes the frames queued.
+     * 
+     * @return The number of bytes written.
+     */
+    long drain() {
+        long last = queued;
+        long first = written;
+        int frames = (int) (last - first);
+        if (frames == 0)
+            return 0;
+        if (failure != null) {
+            // The frames queued before the failure was seen are dropped.
+            written = last;
+            return 0;
+        }
+
+        int oldest = (int) (first % capacity);
+        int count;
+        if (oldest + frames <= capacity) {
+            parts[0].limit((oldest + frames) * slotSize).position(oldest * slotSize);
+            count = 1;
+        } else {
+            parts[0].limit(capacity * slotSize).position(oldest * slotSize);
+            parts[1].limit((oldest + frames - capacity) * slotSize).position(0);
+            count = 2;
+        }
+        long length = (long) frames * slotSize;
+        try {
+            target.writeRecords(parts, count, length, frames);
+        } catch (IOException e) {
+            fail(e);
+            written = last;
+            return 0;
+        }
+        written = last;
+        bytesWritten += length;
+        unsynced += length;
+        return length;
+    }
+
+    /**
+     * Syncs the recording if something was written since the last sync.
+     * 
+     * @return <code>false</code> if there was nothing to sync.
+     */
+    boolean syncWritten() {
+        if (unsynced == 0 || failure != null)
+            return false;
+        try {
+            target.sync();
+        } catch (IOException e) {
+            fail(e);
+        }
+        unsynced = 0;
+        return true;
+    }
+
+    /**
+     * @return Whether the recording was closed and all its frames written.
+     */
+    boolean isDone() {
+        // Reads the flag before the counter, the frames being queued before
+        // the recording is closed.
+        return closing && queued == written;
+    }
+
+    /**
+     * Closes the recording. Must be called once it is done.
+     */
+    void finish() {
+        if (failure == null) {
+            syncWritten();
+            try {
+                target.close();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        closed.countDown();
+    }
+
+    /**
+     * Stops the recording after an error: it is closed, and the next frames
+     * queued are refused.
+     */
+    private void fail(IOException e) {
+        storage.failed(this, e);
+        failure = e;
+        try {
+            target.close();
+        } catch (IOException ignored) {
+            // The recording already failed.
+        }
+    }
+}
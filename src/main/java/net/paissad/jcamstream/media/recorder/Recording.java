@@ -0,0 +1,195 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A recording on the disk, as known by a {@link RecordingCatalog}: a file
+ * recorded when motion was seen (an event), named
+ * <code>&lt;camera&gt;-yyyyMMdd-HHmmss.jcsf</code>, or a segment of a
+ * continuous recording, <code>&lt;camera&gt;/segment-&lt;time&gt;.jcsf</code>.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class Recording {
+
+    /** Orders the recordings from the oldest. */
+    public static final Comparator<Recording> BY_START     = new StartComparator();
+
+    private static final Pattern              EVENT_NAME   = Pattern
+                                                                   .compile("(.+)-(\\d{8}-\\d{6})\\.jcsf");
+    private static final Pattern              SEGMENT_NAME = Pattern.compile(FrameRecorder.SEGMENT_PREFIX
+                                                                   + "-(\\d+)\\.jcsf");
+    private static final String               EVENT_FORMAT = "yyyyMMdd-HHmmss";
+
+    private final File                        file;
+    private final String                      camera;
+    private final long                        start;
+    private final long                        end;
+    private final long                        size;
+    private final boolean                     event;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param file
+     *            - The file of the recording.
+     * @param camera
+     *            - The name of the camera.
+     * @param start
+     *            - The time of the first frame, in milliseconds since the
+     *            epoch.
+     * @param end
+     *            - The time of the last frame.
+     * @param size
+     *            - The size of the file, in bytes.
+     * @param event
+     *            - Whether it was recorded because of an event, rather than
+     *            continuously.
+     */
+    public Recording(File file, String camera, long start, long end, long size, boolean event) {
+        this.file = file;
+        this.camera = camera;
+        this.start = start;
+        this.end = end;
+        this.size = size;
+        this.event = event;
+    }
+
+    /**
+     * Describes a recording from its name and the attributes of its file,
+     * without reading it.
+     * 
+     * @param file
+     *            - The file of a recording.
+     * @return The recording, or <code>null</code> if the file is not named
+     *         like a recording or does not exist.
+     */
+    public static Recording fromFile(File file) {
+        String name = file.getName();
+        String camera;
+        long start;
+        boolean event;
+
+        Matcher matcher = SEGMENT_NAME.matcher(name);
+        if (matcher.matches()) {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent == null)
+                return null;
+            camera = parent.getName();
+            start = Long.parseLong(matcher.group(1));
+            event = false;
+        } else {
+            matcher = EVENT_NAME.matcher(name);
+            if (!matcher.matches())
+                return null;
+            camera = matcher.group(1);
+            try {
+                start = new SimpleDateFormat(EVENT_FORMAT).parse(matcher.group(2)).getTime();
+            } catch (ParseException e) {
+                return null;
+            }
+            event = true;
+        }
+
+        // The last write is the time of the last frame.
+        long end = file.lastModified();
+        if (end == 0)
+            return null;
+        return new Recording(file, camera, start, Math.max(start, end), file.length(), event);
+    }
+
+    // _________________________________________________________________________
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getCamera() {
+        return camera;
+    }
+
+    /**
+     * @return The time of the first frame, in milliseconds since the epoch.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return The time of the last frame, in milliseconds since the epoch.
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return The size of the file, in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return Whether it was recorded because of an event, rather than
+     *         continuously.
+     */
+    public boolean isEvent() {
+        return event;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof Recording))
+            return false;
+        Recording other = (Recording) obj;
+        return file.equals(other.file) && start == other.start && end == other.end
+                && size == other.size && event == other.event && camera.equals(other.camera);
+    }
+
+    @Override
+    public int hashCode() {
+        return file.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return file + " (" + camera + ", " + size / 1024 + " KB" + (event ? ", event" : "") + ")";
+    }
+
+    // _________________________________________________________________________
+
+    private static class StartComparator implements Comparator<Recording> {
+
+        @Override
+        public int compare(Recording a, Recording b) {
+            if (a.start != b.start)
+                return (a.start < b.start) ? -1 : 1;
+            return a.file.compareTo(b.file);
+        }
+    }
+}
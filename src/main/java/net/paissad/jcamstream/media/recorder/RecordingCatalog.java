@@ -0,0 +1,203 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Index in memory of the recordings on the disk, so that the oldest ones and
+ * the space taken by each camera are known without listing the directories.
+ * <p>
+ * The recordings of each camera are kept in two sets sorted by their start
+ * time, one for the events and one for the continuous recordings, so finding
+ * the oldest recording costs a few lookups whatever the number of recordings.
+ * </p>
+ * <p>
+ * A catalog is thread safe.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class RecordingCatalog {
+
+    private final Map<File, Recording> recordings = new HashMap<File, Recording>();
+    private final Map<String, Camera>  cameras    = new TreeMap<String, Camera>();
+    private long                       totalSize;
+
+    // _________________________________________________________________________
+
+    /**
+     * Adds a recording, or updates it if its file is already known.
+     * 
+     * @return The previous recording of the file, or <code>null</code>.
+     */
+    public synchronized Recording add(Recording recording) {
+        Recording previous = remove(recording.getFile());
+        recordings.put(recording.getFile(), recording);
+        Camera camera = cameras.get(recording.getCamera());
+        if (camera == null) {
+            camera = new Camera();
+            cameras.put(recording.getCamera(), camera);
+        }
+        camera.set(recording).add(recording);
+        camera.size += recording.getSize();
+        totalSize += recording.getSize();
+        return previous;
+    }
+
+    /**
+     * @return The recording of the file removed, or <code>null</code> if it
+     *         was not known.
+     */
+    public synchronized Recording remove(File file) {
+        Recording recording = recordings.remove(file);
+        if (recording == null)
+            return null;
+        Camera camera = cameras.get(recording.getCamera());
+        camera.set(recording).remove(recording);
+        camera.size -= recording.getSize();
+        totalSize -= recording.getSize();
+        if (camera.events.isEmpty() && camera.others.isEmpty())
+            cameras.remove(recording.getCamera());
+        return recording;
+    }
+
+    /**
+     * @return The recording of the file, or <code>null</code> if it is not
+     *         known.
+     */
+    public synchronized Recording get(File file) {
+        return recordings.get(file);
+    }
+
+    /**
+     * Forgets all the recordings.
+     */
+    public synchronized void clear() {
+        recordings.clear();
+        cameras.clear();
+        totalSize = 0;
+    }
+
+    /**
+     * @param camera
+     *            - A camera, or <code>null</code> for all of them.
+     * @param eventsLast
+     *            - Whether to look at the events only when there is no
+     *            continuous recording left.
+     * @return The oldest recording, or <code>null</code> if there is none.
+     */
+    public synchronized Recording getOldest(String camera, boolean eventsLast) {
+        Collection<Camera> candidates;
+        if (camera == null) {
+            candidates = cameras.values();
+        } else {
+            Camera one = cameras.get(camera);
+            candidates = (one == null) ? Collections.<Camera> emptyList() : Collections
+                    .singletonList(one);
+        }
+
+        Recording oldest = null;
+        for (Camera candidate : candidates) {
+            if (!candidate.others.isEmpty())
+                oldest = older(oldest, candidate.others.first());
+        }
+        if (!eventsLast || oldest == null) {
+            for (Camera candidate : candidates) {
+                if (!candidate.events.isEmpty())
+                    oldest = older(oldest, candidate.events.first());
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * @return All the recordings, from the oldest.
+     */
+    public synchronized List<Recording> getRecordings() {
+        List<Recording> list = new ArrayList<Recording>(recordings.values());
+        Collections.sort(list, Recording.BY_START);
+        return list;
+    }
+
+    /**
+     * @return The number of recordings.
+     */
+    public synchronized int size() {
+        return recordings.size();
+    }
+
+    /**
+     * @return The size of all the recordings, in bytes.
+     */
+    public synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return The size of the recordings of a camera, in bytes.
+     */
+    public synchronized long getSize(String camera) {
+        Camera one = cameras.get(camera);
+        return (one == null) ? 0 : one.size;
+    }
+
+    /**
+     * @return The names of the cameras which have recordings, sorted.
+     */
+    public synchronized List<String> getCameras() {
+        return new ArrayList<String>(cameras.keySet());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RecordingCatalog [recordings=" + recordings.size() + ", cameras=" + cameras.size()
+                + ", size=" + totalSize / 1024 / 1024 + " MB]";
+    }
+
+    // _________________________________________________________________________
+
+    private static Recording older(Recording a, Recording b) {
+        if (a == null)
+            return b;
+        return (Recording.BY_START.compare(a, b) <= 0) ? a : b;
+    }
+
+    /**
+     * The recordings of a camera.
+     */
+    private static class Camera {
+
+        final TreeSet<Recording> events = new TreeSet<Recording>(Recording.BY_START);
+        final TreeSet<Recording> others = new TreeSet<Recording>(Recording.BY_START);
+        long                     size;
+
+        TreeSet<Recording> set(Recording recording) {
+            return recording.isEvent() ? events : others;
+        }
+    }
+}
@@ -0,0 +1,479 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+
+/**
+ * Deletes the oldest recordings of a directory to keep the space they take
+ * under quotas, global or per camera, and to keep free space on the disk.
+ * <p>
+ * The recordings are known from a {@link RecordingCatalog}: the directory is
+ * listed once when the manager starts, in small batches, then the recordings
+ * are added as they are closed, the manager being the
+ * {@link RecordingListener} of the recorders. With a {@link CatalogStore},
+ * the catalog is loaded from the disk instead, and the directory is listed
+ * only when the store is new or was not closed properly. When the events are
+ * kept last, the continuous recordings are deleted first, from the oldest,
+ * and the events only when there is no continuous recording left.
+ * </p>
+ * <p>
+ * Everything runs in one background thread of low priority, which pauses
+ * between two deletions and between two batches of the listing, so that it
+ * does not compete with the capture and the recordings for the disk. The
+ * recordings modified recently are never deleted, since they may still be
+ * written.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class RetentionManager implements RecordingListener {
+
+    /** The default time between two checks of the quotas, in milliseconds. */
+    public static final long                 DEFAULT_INTERVAL = 60 * 1000L;
+
+    private static Logger                    logger           = JCSLoggerFactory
+                                                                      .getLogger(RetentionManager.class);
+
+    private final File                       directory;
+    private final RecordingCatalog           catalog;
+    private final Map<String, Long>          cameraQuotas     = new ConcurrentHashMap<String, Long>();
+    /** The recordings closed since the last check. */
+    private final Queue<File>                closed           = new ConcurrentLinkedQueue<File>();
+
+    private volatile long                    quota;
+    private volatile long                    minFreeSpace;
+    private volatile boolean                 eventsLast       = true;
+    private volatile long                    minAge           = 60 * 1000L;
+    private volatile long                    deletePause      = 50;
+    private volatile int                     scanBatch        = 256;
+    private volatile long                    scanPause        = 20;
+
+    private ScheduledExecutorService         executor;
+    private CatalogStore                     store;
+    private volatile boolean                 scanned;
+    private volatile long                    deletedFiles;
+    private volatile long                    deletedBytes;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param directory
+     *            - The directory of the recordings.
+     * @param catalog
+     *            - The catalog of the recordings, filled by the manager.
+     */
+    public RetentionManager(File directory, RecordingCatalog catalog) {
+        this.directory = directory;
+        this.catalog = catalog;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Starts the background thread, which lists the directory then checks
+     * the quotas periodically.
+     * 
+     * @param interval
+     *            - The time between two checks, in milliseconds.
+     */
+    public synchronized void start(long interval) {
+        if (executor != null)
+            return;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "retention");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch (InterruptedException e) {
+                    // Stopped.
+                } catch (RuntimeException e) {
+                    logger.error("Unable to apply the retention of " + directory, e);
+                }
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+        logger.info("Retention of {} started : {}", directory, this);
+    }
+
+    /**
+     * Stops the background thread, and closes the store of the catalog with
+     * the recordings closed meanwhile.
+     */
+    public synchronized void stop() {
+        if (executor == null)
+            return;
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS))
+                logger.warn("The retention of {} is still running.", directory);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        if (store != null && scanned) {
+            addClosed();
+            try {
+                store.close(catalog);
+            } catch (IOException e) {
+                logger.error("Unable to save the catalog of " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Adds the recording to the catalog at the next check.
+     */
+    @Override
+    public void recordingClosed(File file) {
+        closed.add(file);
+    }
+
+    /**
+     * Lists the directory if it was not done yet, adds the recordings closed
+     * meanwhile to the catalog, and deletes the oldest recordings until the
+     * quotas are met.
+     * 
+     * @throws InterruptedException
+     *             If the manager is stopped meanwhile.
+     */
+    public void check() throws InterruptedException {
+        if (!scanned) {
+            if (!load()) {
+                scan();
+                compact();
+            }
+            scanned = true;
+        }
+        addClosed();
+
+        for (Map.Entry<String, Long> entry : cameraQuotas.entrySet()) {
+            String camera = entry.getKey();
+            while (catalog.getSize(camera) > entry.getValue()) {
+                if (!delete(catalog.getOldest(camera, eventsLast))) {
+                    logger.warn("The recordings of {} exceed their quota.", camera);
+                    break;
+                }
+            }
+        }
+        while (isOverQuota()) {
+            if (!delete(catalog.getOldest(null, eventsLast))) {
+                logger.warn("The recordings of {} exceed their quota.", directory);
+                break;
+            }
+        }
+        flush();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @param bytes
+     *            - The space all the recordings may take, 0 for no limit.
+     */
+    public void setQuota(long bytes) {
+        quota = Math.max(0, bytes);
+    }
+
+    public long getQuota() {
+        return quota;
+    }
+
+    /**
+     * @param camera
+     *            - The name of a camera.
+     * @param bytes
+     *            - The space its recordings may take, 0 for no limit.
+     */
+    public void setQuota(String camera, long bytes) {
+        if (bytes > 0)
+            cameraQuotas.put(camera, bytes);
+        else
+            cameraQuotas.remove(camera);
+    }
+
+    /**
+     * @param bytes
+     *            - The free space kept on the disk of the recordings, 0 to not
+     *            look at it.
+     */
+    public void setMinFreeSpace(long bytes) {
+        minFreeSpace = Math.max(0, bytes);
+    }
+
+    public long getMinFreeSpace() {
+        return minFreeSpace;
+    }
+
+    /**
+     * @param eventsLast
+     *            - Whether to delete the events only when there is no
+     *            continuous recording left, rather than the oldest
+     *            recordings whatever they are. <code>true</code> by default.
+     */
+    public void setEventsLast(boolean eventsLast) {
+        this.eventsLast = eventsLast;
+    }
+
+    /**
+     * @param millis
+     *            - How long after its last modification a recording may be
+     *            deleted, one minute by default.
+     */
+    public void setMinAge(long millis) {
+        minAge = Math.max(0, millis);
+    }
+
+    /**
+     * Bounds the disk activity of the manager.
+     * 
+     * @param deletePause
+     *            - The pause after each deletion, in milliseconds.
+     * @param scanBatch
+     *            - The number of files listed between two pauses.
+     * @param scanPause
+     *            - The pause between two batches of the listing, in
+     *            milliseconds.
+     */
+    public void setPauses(long deletePause, int scanBatch, long scanPause) {
+        this.deletePause = Math.max(0, deletePause);
+        this.scanBatch = Math.max(1, scanBatch);
+        this.scanPause = Math.max(0, scanPause);
+    }
+
+    /**
+     * @param store
+     *            - The store where the catalog is saved, to be set before the
+     *            manager starts.
+     */
+    public synchronized void setStore(CatalogStore store) {
+        this.store = store;
+    }
+
+    public RecordingCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * @return Whether the directory was listed.
+     */
+    public boolean isScanned() {
+        return scanned;
+    }
+
+    /**
+     * @return The number of recordings deleted.
+     */
+    public long getDeletedFiles() {
+        return deletedFiles;
+    }
+
+    /**
+     * @return The size of the recordings deleted, in bytes.
+     */
+    public long getDeletedBytes() {
+        return deletedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return directory + " : quota=" + quota / 1024 / 1024 + " MB, cameras=" + cameraQuotas
+                + ", free=" + minFreeSpace / 1024 / 1024 + " MB, eventsLast=" + eventsLast
+                + ", deleted=" + deletedFiles + " (" + deletedBytes / 1024 / 1024 + " MB), "
+                + catalog;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Loads the catalog from the store.
+     * 
+     * @return <code>false</code> if the directory has to be listed.
+     */
+    private boolean load() {
+        CatalogStore current = store;
+        if (current == null)
+            return false;
+        long start = System.currentTimeMillis();
+        try {
+            boolean loaded = current.load(catalog);
+            logger.info("{} recordings loaded from {} in {} ms", new Object[] { catalog.size(),
+                    current, System.currentTimeMillis() - start });
+            if (loaded && current.isRecovered())
+                logger.warn("{} was not closed, {} is listed again.", current, directory);
+            return loaded && !current.isRecovered();
+        } catch (IOException e) {
+            dropStore(e);
+            catalog.clear();
+            return false;
+        }
+    }
+
+    private void compact() {
+        CatalogStore current = store;
+        if (current == null)
+            return;
+        try {
+            current.compact(catalog);
+        } catch (IOException e) {
+            dropStore(e);
+        }
+    }
+
+    private void flush() {
+        CatalogStore current = store;
+        if (current == null)
+            return;
+        try {
+            current.flush(catalog);
+        } catch (IOException e) {
+            dropStore(e);
+        }
+    }
+
+    /**
+     * Goes on without the store, the directory being listed again at the next
+     * start since the store is not closed.
+     */
+    private synchronized void dropStore(IOException e) {
+        logger.error("Unable to save the catalog of " + directory + " to " + store, e);
+        store = null;
+    }
+
+    private void addClosed() {
+        File file;
+        while ((file = closed.poll()) != null) {
+            Recording recording = Recording.fromFile(file);
+            if (recording != null)
+                add(recording);
+        }
+    }
+
+    private void add(Recording recording) {
+        catalog.add(recording);
+        CatalogStore current = store;
+        if (current == null)
+            return;
+        try {
+            current.logAdd(recording);
+        } catch (IOException e) {
+            dropStore(e);
+        }
+    }
+
+    private void remove(File file) {
+        catalog.remove(file);
+        CatalogStore current = store;
+        if (current == null)
+            return;
+        try {
+            current.logRemove(file);
+        } catch (IOException e) {
+            dropStore(e);
+        }
+    }
+
+    /**
+     * Adds the recordings of the directory and its sub directories to the
+     * catalog, pausing between batches of files.
+     */
+    private void scan() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        Deque<File> directories = new ArrayDeque<File>();
+        directories.add(directory);
+        int listed = 0;
+        File current;
+        while ((current = directories.poll()) != null) {
+            File[] files = current.listFiles();
+            if (files == null)
+                continue;
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    directories.add(file);
+                } else if (catalog.get(file) == null) {
+                    Recording recording = Recording.fromFile(file);
+                    if (recording != null)
+                        add(recording);
+                }
+                if (++listed % scanBatch == 0 && scanPause > 0)
+                    Thread.sleep(scanPause);
+            }
+        }
+        logger.info("{} recordings found in {} in {} ms", new Object[] { catalog.size(), directory,
+                System.currentTimeMillis() - start });
+    }
+
+    private boolean isOverQuota() {
+        if (quota > 0 && catalog.getTotalSize() > quota)
+            return true;
+        // The space of a directory which does not exist yet is 0.
+        return minFreeSpace > 0 && directory.isDirectory()
+                && directory.getUsableSpace() < minFreeSpace;
+    }
+
+    /**
+     * Deletes a recording and its index, then pauses.
+     * 
+     * @return <code>false</code> if there was no recording, or if it is too
+     *         recent to be deleted.
+     */
+    private boolean delete(Recording recording) throws InterruptedException {
+        if (recording == null || System.currentTimeMillis() - recording.getEnd() < minAge)
+            return false;
+        File file = recording.getFile();
+        remove(file);
+        if (file.delete() || !file.exists()) {
+            File index = SegmentIndex.indexFile(file);
+            if (index.exists() && !index.delete())
+                logger.warn("Unable to delete {}", index);
+            deletedFiles++;
+            deletedBytes += recording.getSize();
+            logger.debug("Deleted {}", recording);
+        } else {
+            // Forgotten, so that it is not tried again and again.
+            logger.error("Unable to delete the recording {}", file);
+        }
+        if (deletePause > 0)
+            Thread.sleep(deletePause);
+        return true;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The index of a segment of a {@link SegmentedFrameWriter}: the timestamp and
+ * the offset in the segment of each of its frames.
+ * <p>
+ * It is saved next to the segment, with the extension
+ * {@value #INDEX_EXTENSION}: a header of 8 bytes, the magic number "JCSI" and
+ * the version, then 16 bytes per frame, the timestamp and the offset as big
+ * endian longs. Without this file, for instance when the recording was
+ * interrupted, the index is rebuilt from the headers of the records.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+class SegmentIndex {
+
+    static final String INDEX_EXTENSION = ".idx";
+    /** "JCSI" */
+    static final int    MAGIC           = 0x4A435349;
+    static final int    VERSION         = 1;
+    static final int    HEADER_SIZE     = 8;
+    static final int    ENTRY_SIZE      = 16;
+
+    private long[]      timestamps      = new long[256];
+    private long[]      offsets         = new long[256];
+    private int         size;
+
+    // _________________________________________________________________________
+
+    void add(long timestamp, long offset) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        timestamps[size] = timestamp;
+        offsets[size] = offset;
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    long getOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * @param time
+     *            - A time, in milliseconds since the epoch.
+     * @return The index of the first frame recorded at or after the time, or
+     *         the size of the index if there is none.
+     */
+    int find(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @param segment
+     *            - A segment.
+     * @return The file of the index of the segment.
+     */
+    static File indexFile(File segment) {
+        String name = segment.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(segment.getParentFile(), ((dot < 0) ? name : name.substring(0, dot))
+                + INDEX_EXTENSION);
+    }
+
+    /**
+     * Saves the index next to its segment.
+     * 
+     * @throws IOException
+     */
+    void write(File segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + size * ENTRY_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        for (int i = 0; i < size; i++) {
+            buffer.putLong(timestamps[i]).putLong(offsets[i]);
+        }
+        buffer.flip();
+        FileOutputStream out = new FileOutputStream(indexFile(segment));
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the index of a segment, or rebuilds it from the segment if it was
+     * not saved.
+     * 
+     * @param segment
+     *            - A segment.
+     * @return The index.
+     * @throws IOException
+     */
+    static SegmentIndex read(File segment) throws IOException {
+        File file = indexFile(segment);
+        if (!file.isFile())
+            return rebuild(segment);
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long length = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Reads the whole file.
+            }
+            buffer.flip();
+            if (length < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || (length - HEADER_SIZE) % ENTRY_SIZE != 0)
+                throw new IOException(file + " is not a segment index.");
+
+            SegmentIndex index = new SegmentIndex();
+            int entries = (int) ((length - HEADER_SIZE) / ENTRY_SIZE);
+            index.timestamps = new long[Math.max(entries, 1)];
+            index.offsets = new long[Math.max(entries, 1)];
+            for (int i = 0; i < entries; i++) {
+                index.timestamps[i] = buffer.getLong();
+                index.offsets[i] = buffer.getLong();
+            }
+            index.size = entries;
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Rebuilds the index of a segment from the headers of its records. A
+     * truncated last record is left out.
+     */
+    static SegmentIndex rebuild(File segment) throws IOException {
+        SegmentIndex index = new SegmentIndex();
+        FileInputStream in = new FileInputStream(segment);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(FrameStreamWriter.RECORD_HEADER);
+            long offset = FrameStreamWriter.HEADER_SIZE;
+            while (offset + FrameStreamWriter.RECORD_HEADER <= size) {
+                header.clear();
+                while (header.hasRemaining()) {
+                    if (channel.read(header, offset + header.position()) < 0)
+                        throw new IOException("Unexpected end of " + segment);
+                }
+                header.flip();
+                long timestamp = header.getLong();
+                int length = header.getInt();
+                if (length < 0 || offset + FrameStreamWriter.RECORD_HEADER + length > size)
+                    break;
+                index.add(timestamp, offset);
+                offset += FrameStreamWriter.RECORD_HEADER + length;
+            }
+        } finally {
+            in.close();
+        }
+        return index;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+
+/**
+ * Writes a recording as a series of segments, each one a file of the
+ * {@link FrameStreamWriter} format with its {@link SegmentIndex}, so that
+ * the recording can be uploaded and deleted piece by piece, and a part of it
+ * found without reading the others (see {@link FrameArchive}).
+ * <p>
+ * A new segment starts when the current one reaches its maximum size, or when
+ * a frame crosses a multiple of the maximum duration (so that with one minute
+ * segments, each one starts on a minute). The segments are named after the
+ * timestamp of their first frame: <code>&lt;prefix&gt;-&lt;milliseconds
+ * since the epoch&gt;.jcsf</code>.
+ * </p>
+ * <p>
+ * The frames are raw, so each one can be decoded on its own and any frame
+ * may start a segment.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class SegmentedFrameWriter implements FrameWriter {
+
+    public static final String SEGMENT_EXTENSION = ".jcsf";
+
+    private static Logger      logger            = JCSLoggerFactory
+                                                         .getLogger(SegmentedFrameWriter.class);
+
+    private final File         directory;
+    private final String       prefix;
+    private final int          width;
+    private final int          height;
+    private final PixelFormat  pixelFormat;
+    private final long         maxDuration;
+    private final long         maxSize;
+
+    private FrameStreamWriter  segment;
+    private File               segmentFile;
+    /** The time at which the current segment ends. */
+    private long               segmentEnd;
+    private final SegmentIndex index             = new SegmentIndex();
+    /** The view of a run of records written to one segment. */
+    private final ByteBuffer[] run               = new ByteBuffer[1];
+
+    private long               frameCount;
+    private long               bytesWritten;
+    private int                segmentCount;
+    private RecordingListener  listener;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param directory
+     *            - The directory of the segments, created if needed.
+     * @param prefix
+     *            - The prefix of the names of the segments.
+     * @param width
+     *            - The width of the frames.
+     * @param height
+     *            - The height of the frames.
+     * @param pixelFormat
+     *            - The layout of the frames.
+     * @param maxDuration
+     *            - The duration of a segment in milliseconds, 0 for no
+     *            limit.
+     * @param maxSize
+     *            - The maximum size of a segment in bytes, 0 for no limit. A
+     *            segment holds at least one frame.
+     * @throws IOException
+     *             If the directory cannot be created.
+     */
+    public SegmentedFrameWriter(File directory, String prefix, int width, int height,
+            PixelFormat pixelFormat, long maxDuration, long maxSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create the directory " + directory);
+        this.directory = directory;
+        this.prefix = prefix;
+        this.width = width;
+        this.height = height;
+        this.pixelFormat = pixelFormat;
+        this.maxDuration = maxDuration;
+        this.maxSize = maxSize;
+    }
+
+    // _________________________________________________________________________
+
+    @Override
+    public void write(FrameBuffer frame) throws IOException {
+        long timestamp = frame.getTimestamp();
+        prepare(timestamp, FrameStreamWriter.RECORD_HEADER + frame.getData().remaining(), 0);
+        index.add(timestamp, segment.getBytesWritten());
+        segment.write(frame);
+        frameCount++;
+    }
+
+    @Override
+    public void writeRecords(ByteBuffer[] buffers, int count, long length, int frames) throws IOException {
+        for (int b = 0; b < count; b++) {
+            ByteBuffer buffer = buffers[b];
+            int start = buffer.position();
+            int position = start;
+            int end = buffer.limit();
+            while (position < end) {
+                long timestamp = buffer.getLong(position);
+                int size = FrameStreamWriter.RECORD_HEADER + buffer.getInt(position + 8);
+                int pending = position - start;
+                if (needsNewSegment(timestamp, size, pending)) {
+                    writeRun(buffer, start, position);
+                    start = position;
+                    pending = 0;
+                    prepare(timestamp, size, 0);
+                }
+                index.add(timestamp, segment.getBytesWritten() + pending);
+                position += size;
+            }
+            writeRun(buffer, start, end);
+            buffer.position(end);
+        }
+    }
+
+    @Override
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten + ((segment == null) ? 0 : segment.getBytesWritten());
+    }
+
+    /**
+     * @return The number of segments started.
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @param listener
+     *            - Told when each segment is closed, or <code>null</code>.
+     */
+    public void setListener(RecordingListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void sync() throws IOException {
+        if (segment != null)
+            segment.sync();
+    }
+
+    /**
+     * Closes the current segment and saves its index.
+     */
+    @Override
+    public void close() throws IOException {
+        closeSegment();
+    }
+
+    // _________________________________________________________________________
+
+    private boolean needsNewSegment(long timestamp, int size, int pending) {
+        if (segment == null)
+            return true;
+        if (maxDuration > 0 && timestamp >= segmentEnd)
+            return true;
+        long written = segment.getBytesWritten() + pending;
+        return maxSize > 0 && written + size > maxSize && written > FrameStreamWriter.HEADER_SIZE;
+    }
+
+    /**
+     * Starts a new segment if the record does not fit in the current one.
+     */
+    private void prepare(long timestamp, int size, int pending) throws IOException {
+        if (!needsNewSegment(timestamp, size, pending))
+            return;
+        closeSegment();
+
+        File file = new File(directory, prefix + "-" + timestamp + SEGMENT_EXTENSION);
+        for (long name = timestamp + 1; file.exists(); name++) {
+            // Two segments started within the same millisecond.
+            file = new File(directory, prefix + "-" + name + SEGMENT_EXTENSION);
+        }
+        segment = new FrameStreamWriter(file, width, height, pixelFormat);
+        segmentFile = file;
+        segmentEnd = (maxDuration > 0) ? (timestamp / maxDuration + 1) * maxDuration : Long.MAX_VALUE;
+        segmentCount++;
+        logger.debug("New segment {}", file);
+    }
+
+    private void writeRun(ByteBuffer buffer, int from, int to) throws IOException {
+        if (to == from)
+            return;
+        ByteBuffer view = buffer.duplicate();
+        view.limit(to).position(from);
+        run[0] = view;
+        int frames = index.size() - (int) segment.getFrameCount();
+        try {
+            segment.writeRecords(run, 1, to - from, frames);
+        } finally {
+            run[0] = null;
+        }
+        frameCount += frames;
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment == null)
+            return;
+        try {
+            // The segment is complete on the disk before the next one starts.
+            segment.sync();
+            segment.close();
+            index.write(segmentFile);
+            if (listener != null)
+                listener.recordingClosed(segmentFile);
+        } finally {
+            bytesWritten += segment.getBytesWritten();
+            segment = null;
+            index.clear();
+        }
+    }
+}
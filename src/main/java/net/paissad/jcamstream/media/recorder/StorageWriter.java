@@ -0,0 +1,317 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+
+/**
+ * Thread writing the recordings of one storage device, so that the capture
+ * never waits for the disk: a slow SD card or network mount only fills the
+ * queues of its recordings, and frames are dropped once a queue is full.
+ * <p>
+ * Each recording opened with {@link #open(FrameWriter, int, int)} gets a
+ * {@link QueuedFrameWriter}, which the capture fills. The thread writes what
+ * was queued with gathering writes, and forces the data onto the device
+ * (fsync) when the given number of bytes was written or the given time
+ * elapsed since the last sync, whichever comes first, and when a recording is
+ * closed. Syncing less often costs less on flash memory, at the price of the
+ * frames lost on a power cut.
+ * </p>
+ * <p>
+ * Use one storage writer per device: two of them on the same device would
+ * compete for it.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class StorageWriter {
+
+    /** The default memory of the queue of a recording, in bytes. */
+    public static final long              DEFAULT_QUEUE_SIZE = 32L * 1024 * 1024;
+
+    private static Logger                 logger             = JCSLoggerFactory
+                                                                     .getLogger(StorageWriter.class);
+
+    private final String                  name;
+    private final long                    queueSize;
+    private final long                    syncInterval;
+    private final long                    syncSize;
+    private final List<QueuedFrameWriter> writers            = new CopyOnWriteArrayList<QueuedFrameWriter>();
+
+    private Thread                        thread;
+    private volatile Thread               parked;
+    private volatile boolean              running;
+
+    // Metrics, written by the thread only.
+    private volatile long                 bytesWritten;
+    private volatile long                 syncCount;
+    private volatile long                 maxSyncTime;
+    private volatile long                 failures;
+    /** The frames dropped by the recordings already closed. */
+    private volatile long                 closedDrops;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param name
+     *            - The name of the device, used for the thread and the logs.
+     * @param queueSize
+     *            - The memory of the queue of each recording, in bytes. The
+     *            queue holds at least 2 frames.
+     * @param syncInterval
+     *            - The maximum time between two syncs, in milliseconds, 0 to
+     *            not sync on time.
+     * @param syncSize
+     *            - The maximum number of bytes written between two syncs, 0
+     *            to not sync on size.
+     */
+    public StorageWriter(String name, long queueSize, long syncInterval, long syncSize) {
+        if (queueSize <= 0)
+            throw new IllegalArgumentException("Invalid queue size : " + queueSize);
+        this.name = name;
+        this.queueSize = queueSize;
+        this.syncInterval = Math.max(0, syncInterval);
+        this.syncSize = Math.max(0, syncSize);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Starts the thread. Does nothing if it is already running.
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "storage-" + name);
+        thread.start();
+        logger.info("Storage writer {} started.", name);
+    }
+
+    /**
+     * Closes the recordings once their queued frames are written, and stops
+     * the thread.
+     * 
+     * @throws InterruptedException
+     *             If interrupted while waiting for the thread.
+     */
+    public void stop() throws InterruptedException {
+        Thread stopped;
+        synchronized (this) {
+            if (!running)
+                return;
+            running = false;
+            stopped = thread;
+            thread = null;
+        }
+        LockSupport.unpark(stopped);
+        stopped.join();
+        logger.info("Storage writer {} stopped : {}", name, this);
+    }
+
+    /**
+     * Opens a recording written by the thread.
+     * 
+     * @param target
+     *            - The recording, which belongs to the storage from now on.
+     *            It is synced and closed by the thread.
+     * @param frameSize
+     *            - The size in bytes of each frame.
+     * @param minFrames
+     *            - The minimum number of frames of the queue, such as the
+     *            size of the pre-event buffer written at once when the
+     *            recording starts.
+     * @return The writer queuing the frames of the recording.
+     * @throws IllegalStateException
+     *             If the storage writer is not running.
+     */
+    public QueuedFrameWriter open(FrameWriter target, int frameSize, int minFrames) {
+        long frames = queueSize / (FrameStreamWriter.RECORD_HEADER + frameSize);
+        frames = Math.max(Math.max(frames, minFrames), 2);
+        QueuedFrameWriter writer = new QueuedFrameWriter(this, target, (int) Math.min(frames,
+                Integer.MAX_VALUE), frameSize);
+        synchronized (this) {
+            if (!running)
+                throw new IllegalStateException("The storage writer " + name + " is not running.");
+            writers.add(writer);
+        }
+        logger.debug("Queue of {} frames, {} KB, opened on {}", new Object[] {
+                writer.getCapacity(), writer.getMemorySize() / 1024, name });
+        return writer;
+    }
+
+    // _________________________________________________________________________
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of recordings being written.
+     */
+    public int getWriterCount() {
+        return writers.size();
+    }
+
+    /**
+     * @return The number of frames waiting to be written, in all the queues.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (QueuedFrameWriter writer : writers)
+            depth += writer.getQueueDepth();
+        return depth;
+    }
+
+    /**
+     * @return The number of frames dropped because a queue was full.
+     */
+    public long getDroppedFrames() {
+        long dropped = closedDrops;
+        for (QueuedFrameWriter writer : writers)
+            dropped += writer.getDroppedFrames();
+        return dropped;
+    }
+
+    /**
+     * @return The number of bytes written.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return The number of syncs of the recordings.
+     */
+    public long getSyncCount() {
+        return syncCount;
+    }
+
+    /**
+     * @return The longest time taken by a sync, in milliseconds.
+     */
+    public long getMaxSyncTime() {
+        return maxSyncTime;
+    }
+
+    /**
+     * @return The number of recordings stopped by an error.
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return name + " : recordings=" + getWriterCount() + ", queued=" + getQueueDepth()
+                + ", dropped=" + getDroppedFrames() + ", written=" + bytesWritten / 1024
+                + " KB, syncs=" + syncCount + " (max " + maxSyncTime + " ms), failures=" + failures;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Wakes the thread up, without waiting.
+     */
+    void signal() {
+        Thread waiting = parked;
+        if (waiting != null)
+            LockSupport.unpark(waiting);
+    }
+
+    void failed(QueuedFrameWriter writer, IOException e) {
+        failures++;
+        logger.error("Unable to write a recording on " + name + ", it is stopped.", e);
+    }
+
+    private void writeLoop() {
+        parked = Thread.currentThread();
+        long unsynced = 0;
+        long lastSync = System.currentTimeMillis();
+        while (true) {
+            boolean stopping = !running;
+            long written = 0;
+            for (QueuedFrameWriter writer : writers) {
+                if (stopping)
+                    writer.close();
+                written += writer.drain();
+            }
+            bytesWritten += written;
+            unsynced += written;
+
+            long now = System.currentTimeMillis();
+            if (unsynced > 0
+                    && ((syncSize > 0 && unsynced >= syncSize) || (syncInterval > 0 && now - lastSync >= syncInterval))) {
+                for (QueuedFrameWriter writer : writers)
+                    sync(writer);
+                unsynced = 0;
+                lastSync = now;
+            }
+
+            for (QueuedFrameWriter writer : writers) {
+                if (writer.isDone()) {
+                    long start = System.nanoTime();
+                    writer.finish();
+                    updateSyncTime(start);
+                    writers.remove(writer);
+                    closedDrops += writer.getDroppedFrames();
+                    logger.debug("Recording closed on {} : {}", name, writer);
+                }
+            }
+            if (stopping && writers.isEmpty())
+                break;
+
+            if (written == 0) {
+                if (unsynced > 0 && syncInterval > 0) {
+                    long wait = lastSync + syncInterval - now;
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(wait, 1)));
+                } else if (!stopping) {
+                    LockSupport.park(this);
+                }
+            }
+        }
+        parked = null;
+    }
+
+    private void sync(QueuedFrameWriter writer) {
+        long start = System.nanoTime();
+        if (writer.syncWritten())
+            updateSyncTime(start);
+    }
+
+    private void updateSyncTime(long start) {
+        long time = (System.nanoTime() - start) / 1000000L;
+        syncCount++;
+        if (time > maxSyncTime)
+            maxSyncTime = time;
+    }
+}
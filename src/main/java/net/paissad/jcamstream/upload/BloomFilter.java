@@ -0,0 +1,105 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+/**
+ * A Bloom filter of 64-bit keys: tells whether a key may have been added,
+ * or was surely not.
+ * <p>
+ * The keys are expected to be hashes already; the bits of a key are chosen
+ * by double hashing of two mixes of it.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+final class BloomFilter {
+
+    private final long[] bits;
+    private final long   size;
+    private final int    hashes;
+    private final long   capacity;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param capacity
+     *            - The number of keys expected.
+     * @param falsePositives
+     *            - The rate of false positives wanted once the filter holds
+     *            <code>capacity</code> keys, such as 0.01.
+     */
+    BloomFilter(long capacity, double falsePositives) {
+        this.capacity = Math.max(1, capacity);
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-this.capacity * Math.log(falsePositives) / (ln2 * ln2));
+        this.bits = new long[(int) Math.max(1, (m + 63) / 64)];
+        this.size = bits.length * 64L;
+        this.hashes = Math.max(1, (int) Math.round((double) size / this.capacity * ln2));
+    }
+
+    // _________________________________________________________________________
+
+    void add(long key) {
+        long h1 = mix(key);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % size;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(long key) {
+        long h1 = mix(key);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % size;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of keys the filter was sized for.
+     */
+    long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The size of the filter in memory, in bytes.
+     */
+    long getMemory() {
+        return bits.length * 8L;
+    }
+
+    /**
+     * The finalizer of MurmurHash3, which spreads each bit of the key over
+     * the whole result.
+     */
+    private static long mix(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+
+/**
+ * Uploads to a destination only the images it does not have yet, such as
+ * the snapshots of a static scene.
+ * <p>
+ * The images are recognized by the hash of their content, and, if wanted,
+ * by their perceptual hash, so that the snapshots of a same scene differing
+ * only by the noise of the sensor are duplicates too: two perceptual hashes
+ * at most {@value #SIMILAR_BITS} bit apart are the same image. The hashes of
+ * the images uploaded are kept in a {@link DedupeIndex}.
+ * </p>
+ * <p>
+ * A duplicate is not uploaded to a server. In a {@link MirrorDestination},
+ * an image with the same content is hard linked to the copy of the first
+ * one, so that the mirror keeps all the names; an image only similar is
+ * copied, the mirror keeping the footage as it was recorded. The other files,
+ * such as the recordings, are uploaded as they are.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class DedupeDestination implements UploadDestination {
+
+    /** The extensions of the files deduplicated. */
+    public static final List<String> IMAGE_EXTENSIONS = Collections.unmodifiableList(Arrays
+                                                              .asList(".jpg", ".jpeg", ".png",
+                                                                      ".bmp", ".gif"));
+    /** The number of bits by which two similar perceptual hashes may differ. */
+    public static final int          SIMILAR_BITS     = 1;
+
+    static final String              INDEX_NAME       = "index";
+    static final String              NAMES_NAME       = "names";
+    /** Keeps the perceptual hashes apart from the hashes of the contents. */
+    private static final long        PERCEPTUAL_TAG   = 0x9e3779b97f4a7c15L;
+
+    private static Logger            logger           = JCSLoggerFactory
+                                                              .getLogger(DedupeDestination.class);
+
+    private final UploadDestination  destination;
+    private final MirrorDestination  mirror;
+    private final boolean            perceptual;
+    private final DedupeIndex        index;
+    /** The copies in the mirror, whose offsets are the values of the index. */
+    private final File               namesFile;
+    private RandomAccessFile         names;
+
+    private final AtomicLong         checked          = new AtomicLong();
+    private final AtomicLong         skipped          = new AtomicLong();
+    private final AtomicLong         linked           = new AtomicLong();
+
+    // _________________________________________________________________________
+
+    /**
+     * @param destination
+     *            - The destination of the files, closed with this one.
+     * @param directory
+     *            - The directory of the index of the destination.
+     * @param perceptual
+     *            - Whether the perceptual hashes of the images are compared
+     *            too, not only their contents.
+     */
+    public DedupeDestination(UploadDestination destination, File directory, boolean perceptual) {
+        this.destination = destination;
+        this.mirror = (destination instanceof MirrorDestination) ? (MirrorDestination) destination
+                : null;
+        this.perceptual = perceptual;
+        this.index = new DedupeIndex(new File(directory, INDEX_NAME));
+        this.namesFile = new File(directory, NAMES_NAME);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Opens the index, before the first upload.
+     * 
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        index.open();
+        if (mirror != null) {
+            synchronized (namesFile) {
+                names = new RandomAccessFile(namesFile, "rw");
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return destination.getName();
+    }
+
+    @Override
+    public int getConcurrency() {
+        return destination.getConcurrency();
+    }
+
+    @Override
+    public void upload(File file) throws IOException {
+        if (!isImage(file)) {
+            destination.upload(file);
+            return;
+        }
+        checked.incrementAndGet();
+        long content = FileHashes.contentHash(file);
+        long image = perceptual ? perceptualHash(file) : FileHashes.NO_HASH;
+        long value = index.get(content);
+        if (value != DedupeIndex.NOT_FOUND) {
+            if (mirror == null) {
+                skip(file);
+                return;
+            }
+            try {
+                mirror.link(file, readName(value));
+                linked.incrementAndGet();
+                return;
+            } catch (IOException ioe) {
+                logger.debug("Unable to link {}, copying it : {}", file, ioe);
+            }
+        } else if (mirror == null && image != FileHashes.NO_HASH
+                && findSimilar(image) != DedupeIndex.NOT_FOUND) {
+            skip(file);
+            return;
+        }
+        destination.upload(file);
+        long name = (mirror != null) ? appendName(mirror.getTarget(file)) : 0;
+        index.put(content, name);
+        if (image != FileHashes.NO_HASH)
+            index.put(image ^ PERCEPTUAL_TAG, name);
+    }
+
+    /**
+     * Syncs the names, then closes the index and the destination.
+     */
+    @Override
+    public void close() {
+        try {
+            synchronized (namesFile) {
+                if (names != null) {
+                    names.getFD().sync();
+                    names.close();
+                    names = null;
+                }
+            }
+            index.close();
+        } catch (IOException ioe) {
+            logger.error("Unable to close the dedupe index of " + destination.getName(), ioe);
+        } finally {
+            destination.close();
+        }
+    }
+
+    // _________________________________________________________________________
+
+    private boolean isImage(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0
+                && IMAGE_EXTENSIONS.contains(name.substring(dot).toLowerCase(Locale.ENGLISH));
+    }
+
+    private void skip(File file) {
+        skipped.incrementAndGet();
+        logger.debug("{} already has {}", destination.getName(), file);
+    }
+
+    /**
+     * @return The perceptual hash of the image, {@link FileHashes#NO_HASH} if
+     *         it cannot be read, its content hash being enough then.
+     */
+    private long perceptualHash(File file) {
+        try {
+            return FileHashes.perceptualHash(file);
+        } catch (IOException ioe) {
+            logger.debug("Unable to read the image {}, comparing its content only : {}", file,
+                    ioe);
+            return FileHashes.NO_HASH;
+        }
+    }
+
+    /**
+     * @return The value of the perceptual hash at most {@link #SIMILAR_BITS}
+     *         bit apart, {@link DedupeIndex#NOT_FOUND} if there is none. The
+     *         hashes looked up are mostly answered by the filter of the index.
+     */
+    private long findSimilar(long image) throws IOException {
+        long value = index.get(image ^ PERCEPTUAL_TAG);
+        for (int bit = 0; bit < 64 && value == DedupeIndex.NOT_FOUND; bit++)
+            value = index.get(image ^ (1L << bit) ^ PERCEPTUAL_TAG);
+        return value;
+    }
+
+    private long appendName(File copy) throws IOException {
+        synchronized (namesFile) {
+            long offset = names.length();
+            names.seek(offset);
+            names.writeUTF(copy.getPath());
+            return offset;
+        }
+    }
+
+    private File readName(long offset) throws IOException {
+        synchronized (namesFile) {
+            names.seek(offset);
+            return new File(names.readUTF());
+        }
+    }
+
+    // _________________________________________________________________________
+
+    public UploadDestination getDestination() {
+        return destination;
+    }
+
+    public DedupeIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return The number of images whose hashes were looked up.
+     */
+    public long getChecked() {
+        return checked.get();
+    }
+
+    /**
+     * @return The number of duplicates not uploaded.
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return The number of duplicates hard linked in the mirror.
+     */
+    public long getLinked() {
+        return linked.get();
+    }
+
+    @Override
+    public String toString() {
+        return destination + " deduplicated" + (perceptual ? " (perceptual)" : "") + " : "
+                + skipped + " skipped, " + linked + " linked of " + checked + " images";
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+
+/**
+ * An on-disk map of 64-bit keys, the hashes of the files a destination
+ * already has, to 64-bit values, which holds millions of entries in little
+ * memory.
+ * <p>
+ * The entries put are kept in memory, then written, sorted by key, into a
+ * new run file once they are {@link #setFlushEntries(int) numerous enough}.
+ * Once there are more than {@link #MAX_RUNS} runs, they are merged into one.
+ * A key is looked up in the runs, from the newest one, behind a
+ * {@link BloomFilter} of all the keys: most of the keys not in the index are
+ * answered without reading the disk. The first key of each block of
+ * {@value #BLOCK_ENTRIES} entries of a run is kept in memory, so that a
+ * lookup reads one block per run. Only the filter, 1.2 bytes per entry it
+ * is sized for, that is up to twice the entries, these keys and the entries
+ * not flushed stay in memory.
+ * </p>
+ * <p>
+ * The runs are written under a temporary name, synced, then renamed. The
+ * entries not flushed yet are lost by a crash, and so, for a deduplication,
+ * uploaded again.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class DedupeIndex {
+
+    /** The value returned for the keys not in the index. */
+    public static final long      NOT_FOUND             = Long.MIN_VALUE;
+    /** The number of runs above which they are merged into one. */
+    public static final int       MAX_RUNS              = 8;
+    public static final int       DEFAULT_FLUSH_ENTRIES = 64 * 1024;
+    public static final long      DEFAULT_CAPACITY      = 1024 * 1024;
+    public static final double    FALSE_POSITIVES       = 0.01;
+
+    private static final String   RUN_PREFIX            = "run-";
+    private static final String   RUN_SUFFIX            = ".idx";
+    /** A key and a value. */
+    private static final int      ENTRY_SIZE            = 16;
+    /** The entries read at once by a lookup, 4 KB. */
+    private static final int      BLOCK_ENTRIES         = 256;
+    private static final int      BUFFER_SIZE           = 64 * 1024;
+
+    private static Logger         logger                = JCSLoggerFactory
+                                                                .getLogger(DedupeIndex.class);
+
+    private final File            directory;
+    private final List<Run>       runs                  = new ArrayList<Run>();
+    private final Map<Long, Long> memory                = new HashMap<Long, Long>();
+    private final ByteBuffer      block                 = ByteBuffer.allocate(BLOCK_ENTRIES
+                                                                * ENTRY_SIZE);
+
+    private BloomFilter           filter;
+    private long                  capacity              = DEFAULT_CAPACITY;
+    private int                   flushEntries          = DEFAULT_FLUSH_ENTRIES;
+    private long                  nextRun;
+    private boolean               open;
+
+    private long                  lookups;
+    private long                  filtered;
+    private long                  diskReads;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param directory
+     *            - The directory of the runs, created if needed.
+     */
+    public DedupeIndex(File directory) {
+        this.directory = directory;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Opens the runs of the directory, and fills the filter with their keys.
+     * 
+     * @throws IOException
+     *             If the runs cannot be read.
+     */
+    public synchronized void open() throws IOException {
+        if (open)
+            throw new IllegalStateException("The dedupe index is already open.");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create the directory " + directory);
+
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(RUN_PREFIX) && name.endsWith(RUN_SUFFIX);
+            }
+        });
+        List<Run> found = new ArrayList<Run>();
+        for (File file : files) {
+            String number = file.getName().substring(RUN_PREFIX.length(),
+                    file.getName().length() - RUN_SUFFIX.length());
+            try {
+                found.add(new Run(file, Long.parseLong(number)));
+            } catch (NumberFormatException nfe) {
+                logger.warn("Ignoring the file {} of the dedupe index", file);
+            }
+        }
+        Collections.sort(found, new Comparator<Run>() {
+            @Override
+            public int compare(Run a, Run b) {
+                return (a.number < b.number) ? -1 : ((a.number == b.number) ? 0 : 1);
+            }
+        });
+        runs.addAll(found);
+        for (Run run : runs)
+            nextRun = Math.max(nextRun, run.number + 1);
+        open = true;
+        if (runs.size() > MAX_RUNS)
+            this.merge();
+        else
+            this.rebuildFilter();
+        logger.debug("Dedupe index {} opened with {} entries in {} runs", new Object[] {
+                directory, this.size(), runs.size() });
+    }
+
+    /**
+     * @param key
+     *            - The key, {@link #NOT_FOUND} excluded.
+     * @return The value of the key, {@link #NOT_FOUND} if it is not in the
+     *         index.
+     * @throws IOException
+     */
+    public synchronized long get(long key) throws IOException {
+        this.checkOpen();
+        lookups++;
+        Long value = memory.get(key);
+        if (value != null)
+            return value;
+        if (!filter.mightContain(key)) {
+            filtered++;
+            return NOT_FOUND;
+        }
+        for (int i = runs.size() - 1; i >= 0; i--) {
+            long found = this.find(runs.get(i), key);
+            if (found != NOT_FOUND)
+                return found;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Adds a key, or replaces its value.
+     * 
+     * @throws IOException
+     *             If the entries could not be flushed.
+     */
+    public synchronized void put(long key, long value) throws IOException {
+        this.checkOpen();
+        if (key == NOT_FOUND)
+            throw new IllegalArgumentException("Invalid key " + key);
+        memory.put(key, value);
+        filter.add(key);
+        if (memory.size() >= flushEntries)
+            this.flush();
+    }
+
+    /**
+     * Writes the entries in memory into a new run.
+     * 
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        this.checkOpen();
+        if (memory.isEmpty())
+            return;
+        long[] keys = new long[memory.size()];
+        int i = 0;
+        for (Long key : memory.keySet())
+            keys[i++] = key;
+        Arrays.sort(keys);
+
+        File file = new File(directory, RUN_PREFIX + nextRun + RUN_SUFFIX);
+        File temp = new File(directory, file.getName() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE));
+            for (long key : keys) {
+                out.writeLong(key);
+                out.writeLong(memory.get(key));
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        this.install(temp, file);
+        Run run = new Run(file, nextRun++);
+        run.scan(null);
+        runs.add(run);
+        memory.clear();
+        if (runs.size() > MAX_RUNS)
+            this.merge();
+    }
+
+    /**
+     * Flushes the entries in memory, then closes the runs.
+     * 
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (!open)
+            return;
+        try {
+            this.flush();
+        } finally {
+            for (Run run : runs)
+                run.close();
+            runs.clear();
+            open = false;
+        }
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Merges all the runs into one, the value of the newest run winning, and
+     * sizes the filter again for the entries.
+     */
+    private void merge() throws IOException {
+        long start = System.nanoTime();
+        File file = new File(directory, RUN_PREFIX + nextRun + RUN_SUFFIX);
+        File temp = new File(directory, file.getName() + ".tmp");
+        int n = runs.size();
+        DataInputStream[] ins = new DataInputStream[n];
+        long[] heads = new long[n];
+        long[] remaining = new long[n];
+        FileOutputStream fos = new FileOutputStream(temp);
+        long count = 0;
+        try {
+            for (int i = 0; i < n; i++) {
+                ins[i] = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                        runs.get(i).file), BUFFER_SIZE));
+                remaining[i] = runs.get(i).count;
+                if (remaining[i] > 0)
+                    heads[i] = ins[i].readLong();
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE));
+            while (true) {
+                int smallest = -1;
+                for (int i = 0; i < n; i++) {
+                    if (remaining[i] > 0 && (smallest < 0 || heads[i] < heads[smallest]))
+                        smallest = i;
+                }
+                if (smallest < 0)
+                    break;
+                long key = heads[smallest];
+                long value = 0;
+                // The runs holding the key, the newest one last.
+                for (int i = 0; i < n; i++) {
+                    if (remaining[i] > 0 && heads[i] == key) {
+                        value = ins[i].readLong();
+                        if (--remaining[i] > 0)
+                            heads[i] = ins[i].readLong();
+                    }
+                }
+                out.writeLong(key);
+                out.writeLong(value);
+                count++;
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+            for (DataInputStream in : ins) {
+                if (in != null)
+                    in.close();
+            }
+        }
+        this.install(temp, file);
+        for (Run run : runs) {
+            run.close();
+            if (!run.file.delete())
+                logger.warn("Unable to delete the merged run {}", run.file);
+        }
+        runs.clear();
+        runs.add(new Run(file, nextRun++));
+        capacity = Math.max(capacity, 2 * (count + flushEntries));
+        this.rebuildFilter();
+        logger.debug("Dedupe index {} merged into {} entries in {} ms", new Object[] {
+                directory, count, (System.nanoTime() - start) / 1000000 });
+    }
+
+    private void install(File temp, File file) throws IOException {
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Fills a new filter with the keys of the runs and of the memory, sized
+     * for twice as many entries as there are at least, and reads the first
+     * keys of the blocks of the runs.
+     */
+    private void rebuildFilter() throws IOException {
+        long count = this.size();
+        capacity = Math.max(capacity, 2 * count);
+        filter = new BloomFilter(capacity, FALSE_POSITIVES);
+        for (Run run : runs)
+            run.scan(filter);
+        for (Long key : memory.keySet())
+            filter.add(key);
+    }
+
+    private long find(Run run, long key) throws IOException {
+        if (run.count == 0 || key < run.fences[0])
+            return NOT_FOUND;
+        int b = Arrays.binarySearch(run.fences, key);
+        if (b < 0)
+            b = -b - 2; // The block of the greatest first key below.
+        long first = (long) b * BLOCK_ENTRIES;
+        int entries = (int) Math.min(BLOCK_ENTRIES, run.count - first);
+
+        block.clear().limit(entries * ENTRY_SIZE);
+        long position = first * ENTRY_SIZE;
+        while (block.hasRemaining()) {
+            if (run.channel.read(block, position + block.position()) < 0)
+                throw new IOException("The run " + run.file + " is truncated");
+        }
+        diskReads++;
+        int low = 0;
+        int high = entries - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long found = block.getLong(middle * ENTRY_SIZE);
+            if (found < key)
+                low = middle + 1;
+            else if (found > key)
+                high = middle - 1;
+            else
+                return block.getLong(middle * ENTRY_SIZE + 8);
+        }
+        return NOT_FOUND;
+    }
+
+    private void checkOpen() {
+        if (!open)
+            throw new IllegalStateException("The dedupe index is not open.");
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return The number of entries, a key put again after a flush being
+     *         counted twice until the runs are merged.
+     */
+    public synchronized long size() {
+        long count = memory.size();
+        for (Run run : runs)
+            count += run.count;
+        return count;
+    }
+
+    /**
+     * @param entries
+     *            - The number of entries kept in memory before they are
+     *            written into a run, {@value #DEFAULT_FLUSH_ENTRIES} by
+     *            default.
+     */
+    public synchronized void setFlushEntries(int entries) {
+        this.flushEntries = Math.max(1, entries);
+    }
+
+    /**
+     * @param entries
+     *            - The number of entries the filter is sized for at the
+     *            opening, {@value #DEFAULT_CAPACITY} by default. It grows
+     *            with the index at each merge.
+     */
+    public synchronized void setCapacity(long entries) {
+        this.capacity = Math.max(1, entries);
+    }
+
+    public synchronized int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * @return The size of the filter in memory, in bytes.
+     */
+    public synchronized long getFilterMemory() {
+        return (filter != null) ? filter.getMemory() : 0;
+    }
+
+    public synchronized long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * @return The number of lookups answered by the filter, without reading
+     *         the runs.
+     */
+    public synchronized long getFiltered() {
+        return filtered;
+    }
+
+    /**
+     * @return The number of blocks read from the runs by the lookups.
+     */
+    public synchronized long getDiskReads() {
+        return diskReads;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DedupeIndex [directory=" + directory + ", entries=" + this.size() + ", runs="
+                + runs.size() + ", filter=" + this.getFilterMemory() + " bytes]";
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * A file of entries sorted by key, read by its channel, with the first
+     * key of each block.
+     */
+    private static class Run {
+
+        private final File             file;
+        private final long             number;
+        private final RandomAccessFile raf;
+        private final FileChannel      channel;
+        /** The entries complete, a torn one at the end being ignored. */
+        private final long             count;
+        private long[]                 fences;
+
+        Run(File file, long number) throws IOException {
+            this.file = file;
+            this.number = number;
+            this.raf = new RandomAccessFile(file, "r");
+            this.channel = raf.getChannel();
+            this.count = raf.length() / ENTRY_SIZE;
+        }
+
+        /**
+         * Reads the first keys of the blocks, and adds all the keys to the
+         * filter if not <code>null</code>.
+         */
+        void scan(BloomFilter filter) throws IOException {
+            long[] firsts = new long[(int) ((count + BLOCK_ENTRIES - 1) / BLOCK_ENTRIES)];
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                    file), BUFFER_SIZE));
+            try {
+                for (long i = 0; i < count; i++) {
+                    long key = in.readLong();
+                    in.readLong();
+                    if (i % BLOCK_ENTRIES == 0)
+                        firsts[(int) (i / BLOCK_ENTRIES)] = key;
+                    if (filter != null)
+                        filter.add(key);
+                }
+            } finally {
+                in.close();
+            }
+            fences = firsts;
+        }
+
+        void close() throws IOException {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.paissad.jcamstream.exception.FTPException;
+import net.paissad.jcamstream.utils.FTPUploader;
+
+/**
+ * Uploads the files to a directory of a FTP server, with a
+ * {@link FTPUploader}.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FTPDestination implements UploadDestination {
+
+    private final String      name;
+    private final FTPUploader uploader;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param name
+     *            - The name of the destination.
+     * @param uploader
+     *            - The uploader, closed with the destination. Its number of
+     *            sessions is the concurrency of the destination.
+     */
+    public FTPDestination(String name, FTPUploader uploader) {
+        this.name = name;
+        this.uploader = uploader;
+    }
+
+    // _________________________________________________________________________
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getConcurrency() {
+        return uploader.getMaxSessions();
+    }
+
+    @Override
+    public void upload(File file) throws IOException {
+        try {
+            uploader.upload(file);
+        } catch (FTPException fe) {
+            throw new IOException(fe.getMessage(), fe);
+        }
+    }
+
+    @Override
+    public void close() {
+        uploader.close();
+    }
+
+    public FTPUploader getUploader() {
+        return uploader;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + uploader + ")";
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The hashes by which the duplicates of a file are recognized.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+final class FileHashes {
+
+    /** The value of {@link #perceptualHash(File)} when it has none. */
+    static final long         NO_HASH     = 0;
+
+    private static final int  BUFFER_SIZE = 64 * 1024;
+    private static final long M           = 0xc6a4a7935bd1e995L;
+    private static final int  R           = 47;
+    /** The cells of the perceptual hash: 9 columns, so 8 differences. */
+    private static final int  COLUMNS     = 9;
+    private static final int  ROWS        = 8;
+
+    private FileHashes() {
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return The 64-bit MurmurHash2 (MurmurHash64A) of the content of the
+     *         file, computed 8 bytes at a time.
+     * @throws IOException
+     */
+    static long contentHash(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long length = channel.size();
+            long h = length * M;
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.remaining() >= 8) {
+                    long k = buffer.getLong();
+                    k *= M;
+                    k ^= k >>> R;
+                    k *= M;
+                    h ^= k;
+                    h *= M;
+                }
+                buffer.compact();
+            }
+            buffer.flip();
+            if (buffer.hasRemaining()) {
+                for (int i = buffer.remaining() - 1; i >= 0; i--)
+                    h ^= (long) (buffer.get(buffer.position() + i) & 0xff) << (8 * i);
+                h *= M;
+            }
+            h ^= h >>> R;
+            h *= M;
+            h ^= h >>> R;
+            return h;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Computes the difference hash of an image: the image is reduced to 9 x 8
+     * cells of their average luminance, and each bit tells whether a cell is
+     * brighter than its left neighbour. The images of a same scene, differing
+     * by the noise of the sensor or by the compression, have the same hash,
+     * or hashes a few bits apart.
+     * 
+     * @return The hash of the image, {@link #NO_HASH} if the file is not an
+     *         image which can be read.
+     * @throws IOException
+     */
+    static long perceptualHash(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null)
+            return NO_HASH;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width < COLUMNS || height < ROWS)
+            return NO_HASH;
+
+        long[] sums = new long[COLUMNS * ROWS];
+        long[] counts = new long[COLUMNS * ROWS];
+        int[] row = new int[width];
+        int[] cellOfColumn = new int[width];
+        for (int x = 0; x < width; x++)
+            cellOfColumn[x] = x * COLUMNS / width;
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellRow = (y * ROWS / height) * COLUMNS;
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                // Luma of BT.601, times 1000.
+                int luma = 299 * ((rgb >> 16) & 0xff) + 587 * ((rgb >> 8) & 0xff) + 114
+                        * (rgb & 0xff);
+                sums[cellRow + cellOfColumn[x]] += luma;
+                counts[cellRow + cellOfColumn[x]]++;
+            }
+        }
+        long hash = 0;
+        for (int y = 0; y < ROWS; y++) {
+            for (int x = 0; x < COLUMNS - 1; x++) {
+                int i = y * COLUMNS + x;
+                hash <<= 1;
+                // The cells differ by a pixel at most: compared as averages.
+                if (sums[i + 1] * counts[i] > sums[i] * counts[i + 1])
+                    hash |= 1;
+            }
+        }
+        // 0 is kept for the files without hash.
+        return (hash != NO_HASH) ? hash : 1L << 63;
+    }
+}
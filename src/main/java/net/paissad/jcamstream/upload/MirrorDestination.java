@@ -0,0 +1,264 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Copies the files into a local directory, such as a disk of its own or a
+ * mounted network share, keeping their path relative to a root directory.
+ * <p>
+ * A file is copied under a temporary name, synced, then renamed: the mirror
+ * never holds a partial copy under the name of the file.
+ * </p>
+ * <p>
+ * The bytes are copied by {@link FileChannel#transferTo}, in the kernel,
+ * without passing through the heap: on Linux, by <code>sendfile</code>, or
+ * by <code>copy_file_range</code> with the recent JVMs, which shares the
+ * blocks (a reflink) on the file systems able to, such as Btrfs or XFS, and
+ * copies on the server with NFS 4.2. The CRC-32 of the copy is then compared
+ * with the one of the file, unless disabled.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class MirrorDestination implements UploadDestination {
+
+    public static final int  DEFAULT_CONCURRENCY = 1;
+
+    private static final int BUFFER_SIZE         = 64 * 1024;
+
+    private final String     name;
+    private final File       directory;
+    private final String     rootPath;
+    private final int        concurrency;
+
+    private volatile boolean verify              = true;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param name
+     *            - The name of the destination.
+     * @param directory
+     *            - The directory of the copies, created if needed.
+     * @param root
+     *            - The directory whose layout is kept, the files out of it
+     *            being copied at the top of the mirror.
+     * @param concurrency
+     *            - The number of files copied at once.
+     */
+    public MirrorDestination(String name, File directory, File root, int concurrency) {
+        this.name = name;
+        this.directory = directory;
+        this.rootPath = root.getAbsolutePath() + File.separator;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    // _________________________________________________________________________
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    @Override
+    public void upload(File file) throws IOException {
+        File target = getTarget(file);
+        File temp = createTemp(target);
+        try {
+            transfer(file, temp);
+            if (verify && checksum(file) != checksum(temp))
+                throw new IOException("The copy of " + file + " differs from the file");
+        } catch (IOException ioe) {
+            temp.delete();
+            throw ioe;
+        }
+        install(temp, target);
+    }
+
+    /**
+     * Makes the copy of the file a hard link to a copy of another file with
+     * the same content, instead of copying it.
+     * <p>
+     * The link is made by the <code>ln</code> command, Java 6 having no API
+     * for it.
+     * </p>
+     * 
+     * @param file
+     *            - The file to upload.
+     * @param copy
+     *            - A copy in the mirror with the same content.
+     * @throws IOException
+     *             If the link cannot be made, such as when the copy was
+     *             deleted, the file system does not know hard links or the
+     *             system has no <code>ln</code> command; the file is to be
+     *             copied then.
+     */
+    public void link(File file, File copy) throws IOException {
+        File target = getTarget(file);
+        if (target.equals(copy))
+            return;
+        File temp = createTemp(target);
+        temp.delete();
+        createLink(temp, copy);
+        install(temp, target);
+    }
+
+    @Override
+    public void close() {
+        // Nothing is kept open.
+    }
+
+    /**
+     * @return The copy of the file in the mirror.
+     */
+    public File getTarget(File file) {
+        String path = file.getAbsolutePath();
+        return path.startsWith(rootPath) ? new File(directory, path.substring(rootPath.length()))
+                : new File(directory, file.getName());
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public boolean isVerify() {
+        return verify;
+    }
+
+    /**
+     * @param verify
+     *            - Whether the checksum of each copy is compared with the one
+     *            of its file, <code>true</code> by default. The file and the
+     *            copy are read again, from the cache of the system most of
+     *            the time.
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + directory + ")";
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return The temporary name of the copy, in its directory created if
+     *         needed.
+     */
+    private static File createTemp(File target) throws IOException {
+        File parent = target.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+            throw new IOException("Unable to create the directory " + parent);
+        return new File(parent, "." + target.getName() + ".tmp");
+    }
+
+    private static void createLink(File link, File file) throws IOException {
+        Process ln = new ProcessBuilder("ln", file.getAbsolutePath(), link.getAbsolutePath())
+                .redirectErrorStream(true).start();
+        try {
+            InputStream out = ln.getInputStream();
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (out.read(buffer) != -1)
+                    ; // Only the exit status tells whether it worked.
+            } finally {
+                out.close();
+            }
+            if (ln.waitFor() != 0 || !link.isFile()) {
+                link.delete();
+                throw new IOException("Unable to link " + link + " to " + file);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            link.delete();
+            throw new InterruptedIOException("Interrupted while linking " + link);
+        } finally {
+            ln.getOutputStream().close();
+            ln.getErrorStream().close();
+            ln.destroy();
+        }
+    }
+
+    private static void install(File temp, File target) throws IOException {
+        if (!temp.renameTo(target)) {
+            target.delete();
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("Unable to replace " + target);
+            }
+        }
+    }
+
+    /**
+     * Copies the file, then syncs the copy.
+     */
+    void transfer(File file, File copy) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileOutputStream out = new FileOutputStream(copy);
+            try {
+                FileChannel source = in.getChannel();
+                FileChannel target = out.getChannel();
+                long size = source.size();
+                long position = 0;
+                while (position < size) {
+                    long n = source.transferTo(position, size - position, target);
+                    if (n <= 0 && source.size() <= position)
+                        break; // Truncated meanwhile.
+                    position += n;
+                }
+                target.force(true);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                crc.update(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.paissad.jcamstream.utils.SSHSessionManager;
+
+/**
+ * Uploads the files to a directory of a SSH server, with a
+ * {@link SSHSessionManager}.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class SFTPDestination implements UploadDestination {
+
+    private final String            name;
+    private final SSHSessionManager manager;
+    private final String            dir;
+    private final int               concurrency;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param name
+     *            - The name of the destination.
+     * @param manager
+     *            - The sessions, closed with the destination.
+     * @param dir
+     *            - The directory of the server, created if needed.
+     * @param concurrency
+     *            - The number of channels of the manager.
+     */
+    public SFTPDestination(String name, SSHSessionManager manager, String dir, int concurrency) {
+        this.name = name;
+        this.manager = manager;
+        this.dir = dir;
+        this.concurrency = concurrency;
+    }
+
+    // _________________________________________________________________________
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    @Override
+    public void upload(File file) throws IOException {
+        manager.upload(file, dir);
+    }
+
+    @Override
+    public void close() {
+        manager.close();
+    }
+
+    public SSHSessionManager getManager() {
+        return manager;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + manager + ")";
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A place where the files of an {@link UploadQueue} are sent: a FTP or SFTP
+ * server, or a local directory.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public interface UploadDestination {
+
+    /**
+     * @return The name of the destination, which identifies it in the
+     *         journal of the queue: it must not change between two runs.
+     */
+    public String getName();
+
+    /**
+     * @return The maximum number of files uploaded at once.
+     */
+    public int getConcurrency();
+
+    /**
+     * Uploads a file, from one of the threads of the queue. May be called by
+     * several threads at once, up to {@link #getConcurrency()}.
+     * 
+     * @param file
+     *            - The file to upload.
+     * @throws IOException
+     *             If the file could not be uploaded, to be tried again later.
+     */
+    public void upload(File file) throws IOException;
+
+    /**
+     * Closes the connections of the destination.
+     */
+    public void close();
+}
@@ -0,0 +1,349 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+
+/**
+ * The journal of an {@link UploadQueue}: an append-only file of the uploads
+ * queued and of the uploads done, so that the uploads still pending are
+ * known again after a restart or a crash.
+ * <p>
+ * The records are appended into a buffer, and written and forced onto the
+ * disk by {@link #sync()}, which the queue calls periodically: queuing
+ * thousands of files costs a few syncs, not one per file. A crash loses the
+ * records appended since the last sync, and a record partly written at the
+ * end of the file is ignored.
+ * </p>
+ * <p>
+ * When the journal holds mostly uploads done, it is rewritten with the
+ * pending ones only, see {@link #compact(Collection)}.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class UploadJournal {
+
+    public static final String JOURNAL_NAME = "uploads.journal";
+
+    /** "JCSU" */
+    static final int           MAGIC        = 0x4A435355;
+    static final int           VERSION      = 1;
+    private static final byte  PENDING      = 1;
+    private static final byte  DONE         = 2;
+    private static final int   BUFFER_SIZE  = 64 * 1024;
+
+    private static Logger      logger       = JCSLoggerFactory.getLogger(UploadJournal.class);
+
+    private final File         directory;
+    private final File         file;
+
+    private FileOutputStream   fileOut;
+    private DataOutputStream   out;
+    private long               nextId       = 1;
+    private int                doneRecords;
+    private boolean            dirty;
+    private volatile long      syncs;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param directory
+     *            - The directory of the journal, created if needed.
+     */
+    public UploadJournal(File directory) {
+        this.directory = directory;
+        this.file = new File(directory, JOURNAL_NAME);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Reads the journal, and opens it for the next records.
+     * 
+     * @return The uploads pending, in the order they were queued.
+     * @throws IOException
+     *             If the journal cannot be read or written.
+     */
+    public synchronized List<Entry> open() throws IOException {
+        if (out != null)
+            throw new IllegalStateException("The upload journal is already open.");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create the directory " + directory);
+
+        Map<Long, Entry> pending = new LinkedHashMap<Long, Entry>();
+        boolean complete = true;
+        doneRecords = 0;
+        if (file.isFile())
+            complete = read(pending);
+        List<Entry> entries = new ArrayList<Entry>(pending.values());
+        if (!complete || doneRecords > 0 || !file.isFile()) {
+            // Starts over with the pending uploads, which also drops a torn
+            // record.
+            compact(entries);
+        } else {
+            openOut();
+        }
+        return entries;
+    }
+
+    /**
+     * Records an upload queued.
+     * 
+     * @param destination
+     *            - The name of the destination.
+     * @param upload
+     *            - The file to upload.
+     * @return The entry of the upload.
+     * @throws IOException
+     */
+    public synchronized Entry append(String destination, File upload) throws IOException {
+        checkOpen();
+        Entry entry = new Entry(nextId++, destination, upload.getAbsoluteFile());
+        out.writeByte(PENDING);
+        out.writeLong(entry.id);
+        out.writeUTF(entry.destination);
+        out.writeUTF(entry.file.getPath());
+        dirty = true;
+        return entry;
+    }
+
+    /**
+     * Records an upload done, or given up.
+     * 
+     * @throws IOException
+     */
+    public synchronized void done(Entry entry) throws IOException {
+        checkOpen();
+        out.writeByte(DONE);
+        out.writeLong(entry.id);
+        doneRecords++;
+        dirty = true;
+    }
+
+    /**
+     * Writes the records appended since the last sync, and forces them onto
+     * the disk. Records may be appended meanwhile.
+     * 
+     * @return <code>false</code> if there was nothing to sync.
+     * @throws IOException
+     */
+    public boolean sync() throws IOException {
+        FileChannel channel;
+        synchronized (this) {
+            if (out == null || !dirty)
+                return false;
+            out.flush();
+            dirty = false;
+            channel = fileOut.getChannel();
+        }
+        // Outside of the lock, the records being appended do not wait for the
+        // disk. A compaction closing the channel meanwhile has synced anyway.
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            if (channel.isOpen())
+                throw e;
+        }
+        syncs++;
+        return true;
+    }
+
+    /**
+     * Rewrites the journal with the pending uploads only.
+     * 
+     * @param pending
+     *            - The uploads not done yet.
+     * @throws IOException
+     */
+    public synchronized void compact(Collection<Entry> pending) throws IOException {
+        long start = System.currentTimeMillis();
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        File temp = new File(directory, JOURNAL_NAME + ".tmp");
+        FileOutputStream tempOut = new FileOutputStream(temp);
+        DataOutputStream data;
+        data = new DataOutputStream(new BufferedOutputStream(tempOut, BUFFER_SIZE));
+        try {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            for (Entry entry : pending) {
+                data.writeByte(PENDING);
+                data.writeLong(entry.id);
+                data.writeUTF(entry.destination);
+                data.writeUTF(entry.file.getPath());
+            }
+            data.flush();
+            tempOut.getFD().sync();
+        } finally {
+            data.close();
+        }
+        // The journal is replaced at once.
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file))
+                throw new IOException("Unable to replace " + file);
+        }
+        openOut();
+        doneRecords = 0;
+        logger.debug("Upload journal compacted to {} entries in {} ms", pending.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Rewrites the journal with the pending uploads, and closes it.
+     * 
+     * @throws IOException
+     */
+    public synchronized void close(Collection<Entry> pending) throws IOException {
+        if (out == null)
+            return;
+        compact(pending);
+        out.close();
+        out = null;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return The number of uploads done recorded since the last compaction.
+     */
+    public synchronized int getDoneRecords() {
+        return doneRecords;
+    }
+
+    /**
+     * @return The number of syncs which wrote something.
+     */
+    public long getSyncs() {
+        return syncs;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadJournal [" + file + ", syncs=" + syncs + "]";
+    }
+
+    // _________________________________________________________________________
+
+    private void checkOpen() {
+        if (out == null)
+            throw new IllegalStateException("The upload journal is not open.");
+    }
+
+    /**
+     * @return <code>false</code> if the journal ends with a record partly
+     *         written.
+     */
+    private boolean read(Map<Long, Entry> pending) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                BUFFER_SIZE));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + " is not an upload journal.");
+            while (true) {
+                int type = in.read();
+                if (type == -1)
+                    return true;
+                long id = in.readLong();
+                nextId = Math.max(nextId, id + 1);
+                if (type == PENDING) {
+                    String destination = in.readUTF();
+                    File upload = new File(in.readUTF());
+                    pending.put(id, new Entry(id, destination, upload));
+                } else if (type == DONE) {
+                    pending.remove(id);
+                    doneRecords++;
+                } else {
+                    throw new IOException("Invalid record " + type + " in " + file);
+                }
+            }
+        } catch (EOFException e) {
+            logger.warn("The last record of {} is incomplete, it is ignored.", file);
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void openOut() throws IOException {
+        fileOut = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+        dirty = false;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * An upload of a file to a destination.
+     */
+    public static final class Entry {
+
+        private final long   id;
+        private final String destination;
+        private final File   file;
+
+        Entry(long id, String destination, File file) {
+            this.id = id;
+            this.destination = destination;
+            this.file = file;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getDestination() {
+            return destination;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        @Override
+        public String toString() {
+            return file + " to " + destination;
+        }
+    }
+}
@@ -0,0 +1,531 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+import net.paissad.jcamstream.upload.UploadJournal.Entry;
+
+/**
+ * Uploads files to several destinations, such as the recordings triggered
+ * by motion to a distant server, and keeps trying until they are sent, even
+ * across restarts.
+ * <p>
+ * Each file queued is recorded into an {@link UploadJournal} before it is
+ * uploaded, and recorded again once uploaded, so the uploads pending when
+ * the application stops or crashes are done at the next start. The journal
+ * is synced every {@link #DEFAULT_SYNC_INTERVAL} ms by default, for all the
+ * files queued meanwhile: a crash may forget the files queued during the
+ * last interval.
+ * </p>
+ * <p>
+ * Each destination uploads at most {@link UploadDestination#getConcurrency()}
+ * files at once, in the order they were queued. When an upload fails, the
+ * destination waits before the next attempt, twice as long after each
+ * failure in a row up to a maximum, since the following files would most
+ * likely fail too. The file failed is queued again behind the others, so
+ * that a file the destination always rejects does not hold them back, and
+ * it is given up after {@link #DEFAULT_MAX_ATTEMPTS} attempts. A file
+ * already pending for a destination is not queued twice, and a file deleted
+ * before its upload, by the retention for example, is given up.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class UploadQueue {
+
+    /** In milliseconds. */
+    public static final long            DEFAULT_SYNC_INTERVAL   = 1000;
+    /** The wait after a first failure, in milliseconds. */
+    public static final long            DEFAULT_MIN_BACKOFF     = 1000;
+    /** The longest wait between two attempts, in milliseconds. */
+    public static final long            DEFAULT_MAX_BACKOFF     = 5 * 60 * 1000;
+    /** The default number of attempts of an upload before it is given up. */
+    public static final int             DEFAULT_MAX_ATTEMPTS    = 20;
+    /** The default number of uploads done recorded before a compaction. */
+    public static final int             DEFAULT_COMPACT_RECORDS = 10000;
+    /** How long the stop waits for the uploads in progress, in seconds. */
+    private static final long           STOP_TIMEOUT            = 30;
+
+    private static Logger               logger                  = JCSLoggerFactory
+                                                                        .getLogger(UploadQueue.class);
+
+    private final UploadJournal         journal;
+    private final Map<String, Lane>     lanes                   = new LinkedHashMap<String, Lane>();
+    /** The uploads not done yet, by destination and file. */
+    private final Map<String, Entry>    pending                 = new LinkedHashMap<String, Entry>();
+    /** The failed attempts of the uploads pending, by destination and file. */
+    private final Map<String, Integer>  attempts                = new HashMap<String, Integer>();
+
+    private ScheduledThreadPoolExecutor executor;
+    private boolean                     running;
+    private boolean                     open;
+    private long                        syncInterval            = DEFAULT_SYNC_INTERVAL;
+    private long                        minBackoff              = DEFAULT_MIN_BACKOFF;
+    private long                        maxBackoff              = DEFAULT_MAX_BACKOFF;
+    private int                         maxAttempts             = DEFAULT_MAX_ATTEMPTS;
+    private int                         compactRecords          = DEFAULT_COMPACT_RECORDS;
+
+    private final AtomicLong            queued                  = new AtomicLong();
+    private final AtomicLong            uploaded                = new AtomicLong();
+    private final AtomicLong            duplicates              = new AtomicLong();
+    private final AtomicLong            skipped                 = new AtomicLong();
+    private final AtomicLong            failures                = new AtomicLong();
+    private final AtomicLong            abandoned               = new AtomicLong();
+
+    // _________________________________________________________________________
+
+    /**
+     * @param directory
+     *            - The directory of the journal, created if needed.
+     */
+    public UploadQueue(File directory) {
+        this(new UploadJournal(directory));
+    }
+
+    UploadQueue(UploadJournal journal) {
+        this.journal = journal;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Adds a destination of all the files queued. The destinations are added
+     * before the queue is started.
+     */
+    public void addDestination(UploadDestination destination) {
+        addDestination(destination, null);
+    }
+
+    /**
+     * Adds a destination of some of the files queued.
+     * 
+     * @param destination
+     *            - The destination.
+     * @param filter
+     *            - The files sent to the destination, <code>null</code> for
+     *            all of them.
+     */
+    public synchronized void addDestination(UploadDestination destination, FileFilter filter) {
+        if (executor != null)
+            throw new IllegalStateException("The upload queue is already started.");
+        if (lanes.containsKey(destination.getName()))
+            throw new IllegalArgumentException("Duplicate destination " + destination.getName());
+        lanes.put(destination.getName(), new Lane(destination, filter));
+    }
+
+    /**
+     * Reads the journal, and starts the uploads pending and the uploads
+     * queued from now on.
+     * 
+     * @throws IOException
+     *             If the journal cannot be read or written.
+     */
+    public synchronized void start() throws IOException {
+        if (executor != null)
+            return;
+        List<Entry> recovered = journal.open();
+        open = true;
+        for (Entry entry : recovered) {
+            Lane lane = lanes.get(entry.getDestination());
+            if (lane == null) {
+                logger.warn("The destination of {} is no longer configured.", entry);
+                journal.done(entry);
+            } else if (!entry.getFile().isFile()) {
+                logger.warn("{} no longer exists, it is not uploaded.", entry.getFile());
+                journal.done(entry);
+                skipped.incrementAndGet();
+            } else {
+                pending.put(key(lane, entry.getFile()), entry);
+                lane.waiting.add(entry);
+            }
+        }
+
+        int threads = 1;
+        for (Lane lane : lanes.values())
+            threads += lane.concurrency;
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "upload-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // The attempts waiting for a backoff are dropped by the stop.
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        running = true;
+        for (Lane lane : lanes.values())
+            dispatch(lane);
+        logger.info("Upload queue started with {} uploads pending : {}", pending.size(), this);
+    }
+
+    /**
+     * Queues a file for its destinations. Returns at once, the file being
+     * uploaded by the threads of the queue.
+     * 
+     * @param file
+     *            - The file to upload, which must not change anymore.
+     * @return The number of destinations the file is queued for, 0 if it was
+     *         pending already, not accepted by the destinations, or if the
+     *         queue is stopped.
+     */
+    public synchronized int enqueue(File file) {
+        if (!running) {
+            logger.warn("The upload queue is stopped, {} is not uploaded.", file);
+            return 0;
+        }
+        File absolute = file.getAbsoluteFile();
+        int count = 0;
+        for (Lane lane : lanes.values()) {
+            if (lane.filter != null && !lane.filter.accept(absolute))
+                continue;
+            String key = key(lane, absolute);
+            if (pending.containsKey(key)) {
+                duplicates.incrementAndGet();
+                continue;
+            }
+            Entry entry;
+            try {
+                entry = journal.append(lane.name, absolute);
+            } catch (IOException e) {
+                logger.error("Unable to queue " + absolute + " for " + lane.name, e);
+                continue;
+            }
+            pending.put(key, entry);
+            lane.waiting.add(entry);
+            queued.incrementAndGet();
+            count++;
+            dispatch(lane);
+        }
+        return count;
+    }
+
+    /**
+     * Writes the journal onto the disk, and compacts it if it holds enough
+     * uploads done. Called periodically by the queue.
+     */
+    public void sync() {
+        try {
+            journal.sync();
+            synchronized (this) {
+                int done = journal.getDoneRecords();
+                if (open && done >= compactRecords && done > pending.size())
+                    journal.compact(new ArrayList<Entry>(pending.values()));
+            }
+        } catch (IOException e) {
+            logger.error("Unable to write the upload journal " + journal.getFile(), e);
+        }
+    }
+
+    /**
+     * Stops the uploads, waiting for the ones in progress, and closes the
+     * destinations. The uploads left are done at the next start.
+     */
+    public void stop() {
+        ScheduledThreadPoolExecutor stopped;
+        synchronized (this) {
+            if (executor == null)
+                return;
+            running = false;
+            stopped = executor;
+        }
+        stopped.shutdown();
+        try {
+            if (!stopped.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS)) {
+                logger.warn("Uploads still in progress, they are done at the next start.");
+                stopped.shutdownNow();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            stopped.shutdownNow();
+        }
+        synchronized (this) {
+            try {
+                journal.close(new ArrayList<Entry>(pending.values()));
+            } catch (IOException e) {
+                logger.error("Unable to close the upload journal " + journal.getFile(), e);
+            }
+            open = false;
+            executor = null;
+            for (Lane lane : lanes.values()) {
+                lane.waiting.clear();
+                lane.destination.close();
+            }
+            logger.info("Upload queue stopped with {} uploads pending : {}", pending.size(), this);
+            pending.clear();
+            attempts.clear();
+        }
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Starts the uploads of a destination, as many as it may do at once,
+     * unless it is waiting after a failure.
+     */
+    private synchronized void dispatch(final Lane lane) {
+        if (!running || System.currentTimeMillis() < lane.pausedUntil)
+            return;
+        while (lane.active < lane.concurrency && !lane.waiting.isEmpty()) {
+            final Entry entry = lane.waiting.poll();
+            lane.active++;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    upload(lane, entry);
+                }
+            });
+        }
+    }
+
+    private void upload(Lane lane, Entry entry) {
+        File file = entry.getFile();
+        Exception failure = null;
+        try {
+            lane.destination.upload(file);
+            uploaded.incrementAndGet();
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        if (failure != null && !file.isFile()) {
+            logger.warn("{} was deleted before its upload to {}.", file, lane.name);
+            skipped.incrementAndGet();
+            failure = null;
+        }
+        finished(lane, entry, failure);
+    }
+
+    private synchronized void finished(final Lane lane, Entry entry, Exception failure) {
+        lane.active--;
+        String key = key(lane, entry.getFile());
+        if (failure == null) {
+            lane.failures = 0;
+            remove(key, entry);
+        } else {
+            failures.incrementAndGet();
+            lane.failures++;
+            long delay = getBackoff(lane.failures);
+            lane.pausedUntil = System.currentTimeMillis() + delay;
+            Integer failed = attempts.get(key);
+            int attempt = (failed == null) ? 1 : failed + 1;
+            if (attempt >= maxAttempts) {
+                abandoned.incrementAndGet();
+                remove(key, entry);
+                logger.error("Upload of {} given up after {} attempts : {}", new Object[] { entry,
+                        attempt, failure });
+            } else {
+                attempts.put(key, attempt);
+                lane.waiting.addLast(entry);
+                logger.warn("Upload of {} failed, next attempt in {} ms : {}", new Object[] {
+                        entry, delay, failure });
+            }
+            if (running) {
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch(lane);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+        dispatch(lane);
+    }
+
+    /**
+     * Forgets an upload done or given up.
+     */
+    private void remove(String key, Entry entry) {
+        pending.remove(key);
+        attempts.remove(key);
+        if (open) {
+            try {
+                journal.done(entry);
+            } catch (IOException e) {
+                logger.error("Unable to write the upload journal " + journal.getFile(), e);
+            }
+        }
+    }
+
+    /**
+     * @return The wait before the next attempt, after a number of failures
+     *         in a row.
+     */
+    long getBackoff(int failures) {
+        int shift = Math.min(failures - 1, 30);
+        long delay = minBackoff << shift;
+        return (delay <= 0 || delay > maxBackoff) ? maxBackoff : delay;
+    }
+
+    private static String key(Lane lane, File file) {
+        return lane.name + File.pathSeparator + file.getPath();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @param interval
+     *            - The time between two syncs of the journal, in milliseconds,
+     *            to be set before the start.
+     */
+    public synchronized void setSyncInterval(long interval) {
+        this.syncInterval = Math.max(1, interval);
+    }
+
+    /**
+     * @param min
+     *            - The wait after a first failure, in milliseconds.
+     * @param max
+     *            - The longest wait between two attempts.
+     */
+    public synchronized void setBackoff(long min, long max) {
+        this.minBackoff = Math.max(1, min);
+        this.maxBackoff = Math.max(minBackoff, max);
+    }
+
+    /**
+     * @param attempts
+     *            - The number of attempts of an upload before it is given up,
+     *            {@link #DEFAULT_MAX_ATTEMPTS} by default. The count starts
+     *            again at each start of the queue.
+     */
+    public synchronized void setMaxAttempts(int attempts) {
+        this.maxAttempts = Math.max(1, attempts);
+    }
+
+    /**
+     * @param records
+     *            - The number of uploads done recorded before the journal is
+     *            compacted, if they are more than the pending ones.
+     */
+    public synchronized void setCompactRecords(int records) {
+        this.compactRecords = Math.max(1, records);
+    }
+
+    /**
+     * @return The number of uploads not done yet, including the ones in
+     *         progress.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return The number of uploads queued since the start, the ones read
+     *         from the journal excluded.
+     */
+    public long getQueued() {
+        return queued.get();
+    }
+
+    public long getUploaded() {
+        return uploaded.get();
+    }
+
+    /**
+     * @return The number of files not queued, being pending already.
+     */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    /**
+     * @return The number of uploads given up, the file being deleted.
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return The number of failed attempts.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return The number of uploads given up after too many attempts.
+     */
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+    public UploadJournal getJournal() {
+        return journal;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "UploadQueue [destinations=" + lanes.keySet() + ", pending=" + pending.size()
+                + ", queued=" + queued.get() + ", uploaded=" + uploaded.get() + ", duplicates="
+                + duplicates.get() + ", skipped=" + skipped.get() + ", failures=" + failures.get()
+                + ", abandoned=" + abandoned.get() + ", syncs=" + journal.getSyncs() + "]";
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * A destination and its uploads waiting, guarded by the queue.
+     */
+    private static class Lane {
+
+        private final UploadDestination destination;
+        private final String            name;
+        private final int               concurrency;
+        private final FileFilter        filter;
+        private final Deque<Entry>      waiting = new ArrayDeque<Entry>();
+        private int                     active;
+        /** The failures in a row. */
+        private int                     failures;
+        private long                    pausedUntil;
+
+        private Lane(UploadDestination destination, FileFilter filter) {
+            this.destination = destination;
+            this.name = destination.getName();
+            this.concurrency = Math.max(1, destination.getConcurrency());
+            this.filter = filter;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the bandwidth of the uploads, so that they never take the one the
+ * live stream needs.
+ * <p>
+ * The streams read by the uploads are wrapped by the shaper, and pass through
+ * a {@link TokenBucket} of their destination, then through a global one. The
+ * rates of the buckets may be changed at any time, 0 meaning no limit.
+ * </p>
+ * <p>
+ * The streams belong to a {@link Lane}: the snapshots of the alerts go ahead
+ * of the bulk of the footage, which waits as long as an alert is sent. The
+ * number of bytes sent per second and the time waited for the buckets are
+ * kept for each lane.
+ * </p>
+ * <p>
+ * A shaper is thread safe.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class BandwidthShaper {
+
+    /**
+     * The lanes of the uploads, from the highest priority to the lowest one.
+     */
+    public static enum Lane {
+        /** The snapshots of the alerts. */
+        ALERT,
+        /** The recordings. */
+        BULK;
+    }
+
+    /** The default extensions of the files sent in the alert lane. */
+    public static final List<String> ALERT_EXTENSIONS = Collections.unmodifiableList(Arrays
+                                                              .asList(".jpg", ".jpeg", ".png"));
+    /** The largest read passed through the buckets at once, in bytes. */
+    public static final int          MAX_READ         = 16 * 1024;
+
+    private static final long        SECOND           = TimeUnit.SECONDS.toNanos(1);
+
+    private final TokenBucket                        global;
+    private final ConcurrentMap<String, TokenBucket> destinations;
+    private final LaneStats[]                        stats;
+
+    private volatile Set<String>                     alertExtensions = new HashSet<String>(
+                                                                             ALERT_EXTENSIONS);
+
+    // _________________________________________________________________________
+
+    /**
+     * @param globalRate
+     *            - The number of bytes per second of all the uploads, 0 for
+     *            no limit.
+     */
+    public BandwidthShaper(long globalRate) {
+        this.global = new TokenBucket(globalRate, Lane.values().length);
+        this.destinations = new ConcurrentHashMap<String, TokenBucket>();
+        this.stats = new LaneStats[Lane.values().length];
+        for (int i = 0; i < stats.length; i++)
+            stats[i] = new LaneStats();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @param in
+     *            - The stream read by an upload.
+     * @param destination
+     *            - The name of the destination of the upload.
+     * @param lane
+     *            - The lane of the upload.
+     * @return A stream which reads <code>in</code> no faster than the rates
+     *         of the destination and of the shaper.
+     */
+    public InputStream wrap(InputStream in, String destination, Lane lane) {
+        return new ShapedInputStream(in, this.getBucket(destination), lane);
+    }
+
+    /**
+     * @param name
+     *            - The name of a file uploaded.
+     * @return {@link Lane#ALERT} if the file has one of the alert extensions,
+     *         {@link Lane#BULK} otherwise.
+     */
+    public Lane getLane(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && alertExtensions.contains(name.substring(dot).toLowerCase(Locale.ENGLISH)))
+            return Lane.ALERT;
+        return Lane.BULK;
+    }
+
+    /**
+     * @param extensions
+     *            - The extensions, with their dot, of the files sent in the
+     *            alert lane.
+     */
+    public void setAlertExtensions(Collection<String> extensions) {
+        Set<String> set = new HashSet<String>();
+        for (String extension : extensions)
+            set.add(extension.toLowerCase(Locale.ENGLISH));
+        this.alertExtensions = set;
+    }
+
+    private TokenBucket getBucket(String destination) {
+        TokenBucket bucket = destinations.get(destination);
+        if (bucket == null) {
+            TokenBucket created = new TokenBucket(0, Lane.values().length);
+            bucket = destinations.putIfAbsent(destination, created);
+            if (bucket == null)
+                bucket = created;
+        }
+        return bucket;
+    }
+
+    private void acquire(TokenBucket bucket, int n, Lane lane) throws InterruptedIOException {
+        long start = System.nanoTime();
+        try {
+            bucket.acquire(n, lane.ordinal());
+            global.acquire(n, lane.ordinal());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the bandwidth");
+        } finally {
+            stats[lane.ordinal()].add(n, System.nanoTime() - start);
+        }
+    }
+
+    // _________________________________________________________________________
+
+    public long getGlobalRate() {
+        return global.getRate();
+    }
+
+    /**
+     * @param rate
+     *            - The number of bytes per second of all the uploads, 0 for
+     *            no limit.
+     */
+    public void setGlobalRate(long rate) {
+        global.setRate(rate);
+    }
+
+    /**
+     * @return The number of bytes per second of the uploads to the
+     *         destination, 0 for no limit.
+     */
+    public long getRate(String destination) {
+        TokenBucket bucket = destinations.get(destination);
+        return (bucket == null) ? 0 : bucket.getRate();
+    }
+
+    /**
+     * @param destination
+     *            - The name of a destination.
+     * @param rate
+     *            - The number of bytes per second of the uploads to the
+     *            destination, 0 for no limit.
+     */
+    public void setRate(String destination, long rate) {
+        this.getBucket(destination).setRate(rate);
+    }
+
+    /**
+     * @return The number of bytes sent in the lane.
+     */
+    public long getBytes(Lane lane) {
+        return stats[lane.ordinal()].getBytes();
+    }
+
+    /**
+     * @return The number of bytes sent in the lane in the last second.
+     */
+    public long getBytesPerSecond(Lane lane) {
+        return stats[lane.ordinal()].getBytesPerSecond(System.nanoTime());
+    }
+
+    /**
+     * @return The average time the reads of the lane waited for the
+     *         buckets, in milliseconds.
+     */
+    public double getAverageWait(Lane lane) {
+        return stats[lane.ordinal()].getAverageWait();
+    }
+
+    /**
+     * @return The longest time a read of the lane waited for the buckets, in
+     *         milliseconds.
+     */
+    public double getMaxWait(Lane lane) {
+        return stats[lane.ordinal()].getMaxWait();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("BandwidthShaper [");
+        for (Lane lane : Lane.values()) {
+            if (lane.ordinal() > 0)
+                sb.append(", ");
+            sb.append(lane).append(": ").append(this.getBytesPerSecond(lane)).append(" B/s, ")
+                    .append(String.format(Locale.ENGLISH, "%.1f", this.getAverageWait(lane)))
+                    .append(" ms avg wait");
+        }
+        return sb.append("]").toString();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * The counters of a lane. The bytes per second are counted over the last
+     * full second and the current one, weighted by the part of the current
+     * one elapsed.
+     */
+    private static class LaneStats {
+
+        private long   bytes;
+        private long   reads;
+        private long   waited;
+        private long   maxWait;
+        private long   second;
+        private long   current;
+        private long   previous;
+
+        synchronized void add(long n, long wait) {
+            this.roll(System.nanoTime());
+            bytes += n;
+            current += n;
+            reads++;
+            waited += wait;
+            maxWait = Math.max(maxWait, wait);
+        }
+
+        private void roll(long now) {
+            long s = now / SECOND;
+            if (s != second) {
+                previous = (s == second + 1) ? current : 0;
+                current = 0;
+                second = s;
+            }
+        }
+
+        synchronized long getBytes() {
+            return bytes;
+        }
+
+        synchronized long getBytesPerSecond(long now) {
+            this.roll(now);
+            double elapsed = (double) (now % SECOND) / SECOND;
+            return (long) (previous * (1 - elapsed) + current);
+        }
+
+        synchronized double getAverageWait() {
+            return (reads == 0) ? 0 : (double) waited / reads / 1000000;
+        }
+
+        synchronized double getMaxWait() {
+            return (double) maxWait / 1000000;
+        }
+    }
+
+    /**
+     * Reads a stream through the buckets of its destination and of the shaper.
+     */
+    private class ShapedInputStream extends FilterInputStream {
+
+        private final TokenBucket bucket;
+        private final Lane        lane;
+
+        ShapedInputStream(InputStream in, TokenBucket bucket, Lane lane) {
+            super(in);
+            this.bucket = bucket;
+            this.lane = lane;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                acquire(bucket, 1, lane);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, Math.min(len, MAX_READ));
+            if (n > 0)
+                acquire(bucket, n, lane);
+            return n;
+        }
+    }
+
+}
@@ -81,6 +81,8 @@ public class CommonUtils {
      * @return a BufferedImage of the specified target type.
      * 
      * @see BufferedImage
+     * @see ImageConverter#convert(BufferedImage, BufferedImage) To convert the
+     *      frames of a stream without creating a new image each time.
      */
     public static BufferedImage convertImageToType(BufferedImage sourceImage, int targetType) {
         BufferedImage image;
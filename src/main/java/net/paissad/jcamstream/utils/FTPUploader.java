@@ -0,0 +1,566 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.exception.FTPException;
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+
+/**
+ * Uploads files to a FTP server over several sessions at once.
+ * <p>
+ * Each session is a {@link FTPUtils} logged in and in the directory of the
+ * uploads. The sessions are opened when needed, up to the number given, and
+ * kept open between two batches of files: the idle ones receive a NOOP now
+ * and then so that the server does not close them. A session whose
+ * connection is lost is closed, and the upload goes on from a new session.
+ * </p>
+ * <p>
+ * The files are sent by chunks, and an upload interrupted goes on from the
+ * bytes already on the server, see
+ * {@link FTPUtils#resumeUpload(File, String, UploadProgress, long)}. With an
+ * {@link UploadProgress}, this also works across restarts of the
+ * application when the server does not tell the size of its files.
+ * </p>
+ * <p>
+ * An uploader is thread safe. It must be closed after use.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FTPUploader {
+
+    public static final int                   DEFAULT_SESSIONS   = 4;
+    /** The default time an idle session waits for a NOOP, in milliseconds. */
+    public static final long                  DEFAULT_KEEP_ALIVE = 60 * 1000L;
+    /** The default number of times an upload is tried again. */
+    public static final int                   DEFAULT_RETRIES    = 2;
+    public static final long                  DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final long                 KEEP_ALIVE_CHECK   = 1000;
+    /** How long a session is waited for before the pool is checked again. */
+    private static final long                 RESERVE_RETRY      = 100;
+
+    private static Logger                     logger             = JCSLoggerFactory
+                                                                         .getLogger(FTPUploader.class);
+
+    private final String                      user;
+    private final String                      password;
+    private final String                      host;
+    private final int                         port;
+    private final String                      dir;
+    private final int                         maxSessions;
+    /** The sessions open and not used. */
+    private final BlockingQueue<Session>      idle;
+    /** One permit per session which may be borrowed, open or not. */
+    private final Semaphore                   permits;
+    private final AtomicInteger               sessions           = new AtomicInteger();
+    private final ScheduledThreadPoolExecutor executor;
+
+    private volatile long                     keepAlive          = DEFAULT_KEEP_ALIVE;
+    private volatile int                      retries            = DEFAULT_RETRIES;
+    private volatile boolean                  printCommands;
+    private volatile long                     chunkSize          = DEFAULT_CHUNK_SIZE;
+    private volatile UploadProgress           progress;
+    private volatile BandwidthShaper          shaper;
+    private volatile String                   shaperDestination;
+
+    private final AtomicLong                  uploadedFiles      = new AtomicLong();
+    private final AtomicLong                  uploadedBytes      = new AtomicLong();
+    private final AtomicLong                  transferredBytes   = new AtomicLong();
+    private final AtomicLong                  resumedBytes       = new AtomicLong();
+    private final AtomicLong                  connections        = new AtomicLong();
+    private final AtomicLong                  reconnections      = new AtomicLong();
+    private final AtomicLong                  failures           = new AtomicLong();
+    /** The number of uploads in progress, and since when there is one. */
+    private int                               active;
+    private long                              activeSince;
+    private long                              activeTime;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param user
+     *            - The user who connects to the FTP server.
+     * @param password
+     *            - The password of the user.
+     * @param host
+     *            - The hostname of the FTP server.
+     * @param port
+     *            - The port of the FTP server, the default one if <= 0.
+     * @param dir
+     *            - The directory of the uploads, the FTP root if
+     *            <code>null</code> or empty.
+     * @param sessions
+     *            - The maximum number of sessions open at once, and so of
+     *            files uploaded at once.
+     */
+    public FTPUploader(String user, String password, String host, int port, String dir,
+            int sessions) {
+        this.user = user;
+        this.password = password;
+        this.host = host;
+        this.port = port;
+        this.dir = dir;
+        this.maxSessions = Math.max(1, sessions);
+        this.idle = new LinkedBlockingQueue<Session>(maxSessions);
+        this.permits = new Semaphore(maxSessions, true);
+
+        final AtomicInteger threads = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(maxSessions, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ftp-upload-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                keepAlive();
+            }
+        }, KEEP_ALIVE_CHECK, KEEP_ALIVE_CHECK, TimeUnit.MILLISECONDS);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Uploads files to the directory of the uploader, as many at once as
+     * there are sessions, and returns once they are all uploaded.
+     * 
+     * @param files
+     *            - The files to upload.
+     * @throws IOException
+     *             If a file could not be uploaded, the others being uploaded
+     *             anyway.
+     * @throws FTPException
+     *             If the server refused a file, the others being uploaded
+     *             anyway.
+     */
+    public void uploadFiles(List<File> files) throws IOException, FTPException {
+        List<Future<Void>> uploads = new ArrayList<Future<Void>>(files.size());
+        for (final File file : files) {
+            uploads.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    upload(file);
+                    return null;
+                }
+            }));
+        }
+
+        Throwable failure = null;
+        int failed = 0;
+        for (Future<Void> upload : uploads) {
+            try {
+                upload.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while uploading to " + host);
+            } catch (ExecutionException ee) {
+                failed++;
+                if (failure == null)
+                    failure = ee.getCause();
+            }
+        }
+        if (failure instanceof FTPException && failed == 1)
+            throw (FTPException) failure;
+        if (failure instanceof IOException && failed == 1)
+            throw (IOException) failure;
+        if (failure != null)
+            throw new FTPException("Unable to upload " + failed + " of " + files.size()
+                    + " files to " + host, failure);
+    }
+
+    /**
+     * Uploads a file from the calling thread, with one of the sessions.
+     * 
+     * @param file
+     *            - The file to upload, given the same name on the server.
+     * @throws IOException
+     *             If the connection was lost more times than allowed, the
+     *             progress being kept for the next upload of the file.
+     * @throws FTPException
+     *             If the server refused the file.
+     */
+    public void upload(File file) throws IOException, FTPException {
+        for (int attempt = 0;; attempt++) {
+            // After a connection lost, the other idle sessions were likely
+            // lost too.
+            Session session = borrow(attempt > 0);
+            boolean reusable = false;
+            long transferred = session.ftp.getTransferredBytes();
+            started();
+            try {
+                long sent = session.ftp.resumeUpload(file, file.getName(), progress, chunkSize);
+                reusable = true;
+                uploadedFiles.incrementAndGet();
+                uploadedBytes.addAndGet(file.length());
+                resumedBytes.addAndGet(file.length() - sent);
+                return;
+            } catch (FTPException fe) {
+                // Refused by the server, the session is fine.
+                reusable = session.ftp.isConnected();
+                failures.incrementAndGet();
+                throw fe;
+            } catch (IOException ioe) {
+                if (attempt >= retries || !file.isFile()) {
+                    failures.incrementAndGet();
+                    throw ioe;
+                }
+                logger.warn("Upload of {} to {} interrupted, trying again : {}", new Object[] {
+                        file, host, ioe });
+                reconnections.incrementAndGet();
+            } finally {
+                transferredBytes.addAndGet(session.ftp.getTransferredBytes() - transferred);
+                ended();
+                giveBack(session, reusable);
+            }
+        }
+    }
+
+    /**
+     * Closes all the sessions, waiting for the uploads in progress.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        Session session;
+        while ((session = idle.poll()) != null)
+            discard(session);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @param millis
+     *            - How long a session may stay idle before a NOOP is sent to
+     *            the server, one minute by default.
+     */
+    public void setKeepAlive(long millis) {
+        keepAlive = Math.max(1, millis);
+    }
+
+    /**
+     * @param retries
+     *            - The number of times an upload is tried again when the
+     *            connection is lost.
+     */
+    public void setRetries(int retries) {
+        this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * @param printCommands
+     *            - Whether the sessions opened print the commands sent to
+     *            the standard output, <code>false</code> by default.
+     * @see FTPUtils#setPrintCommands(boolean)
+     */
+    public void setPrintCommands(boolean printCommands) {
+        this.printCommands = printCommands;
+    }
+
+    /**
+     * @param chunkSize
+     *            - The number of bytes sent between two points from where an
+     *            upload may go on, 0 to send the files at once.
+     */
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = Math.max(0, chunkSize);
+    }
+
+    /**
+     * @param progress
+     *            - Where the progress of the uploads is saved, or
+     *            <code>null</code>.
+     */
+    public void setProgress(UploadProgress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * @param shaper
+     *            - The shaper through which the files are read, or
+     *            <code>null</code>. Taken into account by the sessions opened
+     *            afterwards.
+     * @param destination
+     *            - The name of the destination whose rate applies.
+     * @see FTPUtils#setShaper(BandwidthShaper, String)
+     */
+    public void setShaper(BandwidthShaper shaper, String destination) {
+        this.shaper = shaper;
+        this.shaperDestination = destination;
+    }
+
+    /**
+     * @return The number of sessions open.
+     */
+    public int getSessionCount() {
+        return sessions.get();
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public long getUploadedFiles() {
+        return uploadedFiles.get();
+    }
+
+    /**
+     * @return The size of the files uploaded.
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    /**
+     * @return The number of bytes sent, the chunks interrupted excluded.
+     */
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+
+    /**
+     * @return The number of bytes of the files uploaded which were not sent
+     *         again, thanks to the uploads resumed.
+     */
+    public long getResumedBytes() {
+        return resumedBytes.get();
+    }
+
+    /**
+     * @return The bytes sent per second while uploading, the time when no
+     *         upload is in progress excluded.
+     */
+    public synchronized double getThroughput() {
+        long time = activeTime + ((active > 0) ? System.nanoTime() - activeSince : 0);
+        return (time > 0) ? transferredBytes.get() * 1e9 / time : 0;
+    }
+
+    /**
+     * @return The number of sessions opened since the creation.
+     */
+    public long getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @return The number of uploads tried again after a connection lost.
+     */
+    public long getReconnections() {
+        return reconnections.get();
+    }
+
+    /**
+     * @return The number of files which could not be uploaded.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public String toString() {
+        return "FTPUploader [" + user + "@" + host + ":" + port + dir + ", sessions="
+                + sessions.get() + "/" + maxSessions + ", uploaded=" + uploadedFiles.get() + " ("
+                + uploadedBytes.get() / 1024 + " KB, " + resumedBytes.get() / 1024
+                + " KB resumed), throughput=" + (long) getThroughput() / 1024
+                + " KB/s, connections=" + connections.get() + ", reconnections="
+                + reconnections.get() + ", failures=" + failures.get() + "]";
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @param check
+     *            - Whether an idle session is checked even if it was used
+     *            recently.
+     * @return An idle session, a new one if none is idle and there are less
+     *         than the maximum, otherwise the first one given back. It must
+     *         be given back, see {@link #giveBack(Session, boolean)}.
+     */
+    private Session borrow(boolean check) throws IOException, FTPException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a session to " + host);
+        }
+        boolean borrowed = false;
+        try {
+            while (true) {
+                Session session = idle.poll();
+                if (session == null) {
+                    if (reserve()) {
+                        session = open();
+                        borrowed = true;
+                        return session;
+                    }
+                    // The last session is checked by keepAlive(), until it
+                    // is released or discarded.
+                    session = idle.poll(RESERVE_RETRY, TimeUnit.MILLISECONDS);
+                    if (session == null)
+                        continue;
+                }
+                if (!check && System.currentTimeMillis() - session.released < keepAlive
+                        || session.ftp.isAlive()) {
+                    borrowed = true;
+                    return session;
+                }
+                // Closed by the server meanwhile.
+                discard(session);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a session to " + host);
+        } finally {
+            if (!borrowed)
+                permits.release();
+        }
+    }
+
+    /**
+     * Gives back a session borrowed, kept for the next upload if it is still
+     * usable, closed otherwise.
+     */
+    private void giveBack(Session session, boolean reusable) {
+        if (reusable)
+            release(session);
+        else
+            discard(session);
+        permits.release();
+    }
+
+    /**
+     * @return <code>false</code> if the maximum of sessions is open.
+     */
+    private boolean reserve() {
+        int count;
+        do {
+            count = sessions.get();
+            if (count >= maxSessions)
+                return false;
+        } while (!sessions.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Opens a session counted by {@link #reserve()}.
+     */
+    private Session open() throws IOException, FTPException {
+        FTPUtils ftp = new FTPUtils(user, password, host, port, dir);
+        ftp.setPrintCommands(printCommands);
+        ftp.setShaper(shaper, shaperDestination);
+        try {
+            ftp.estabishConnection();
+        } catch (IOException ioe) {
+            sessions.decrementAndGet();
+            close(ftp);
+            throw ioe;
+        } catch (FTPException fe) {
+            sessions.decrementAndGet();
+            close(ftp);
+            throw fe;
+        }
+        connections.incrementAndGet();
+        logger.debug("Session {} opened to {}", connections, host);
+        return new Session(ftp);
+    }
+
+    private synchronized void started() {
+        if (active++ == 0)
+            activeSince = System.nanoTime();
+    }
+
+    private synchronized void ended() {
+        if (--active == 0)
+            activeTime += System.nanoTime() - activeSince;
+    }
+
+    private void release(Session session) {
+        session.released = System.currentTimeMillis();
+        idle.add(session);
+    }
+
+    private void discard(Session session) {
+        sessions.decrementAndGet();
+        close(session.ftp);
+    }
+
+    private void close(FTPUtils ftp) {
+        try {
+            ftp.logoutAndDisconnect();
+        } catch (IOException ioe) {
+            logger.debug("Unable to close the session to {} : {}", host, ioe);
+        }
+    }
+
+    /**
+     * Sends a NOOP to the sessions idle for too long, and closes those which
+     * do not answer.
+     */
+    private void keepAlive() {
+        long now = System.currentTimeMillis();
+        for (Session session : idle) {
+            // Unless borrowed meanwhile.
+            if (now - session.released < keepAlive || !idle.remove(session))
+                continue;
+            if (session.ftp.isAlive()) {
+                release(session);
+            } else {
+                logger.debug("Idle session to {} lost", host);
+                discard(session);
+            }
+        }
+    }
+
+    // _________________________________________________________________________
+
+    private static class Session {
+
+        private final FTPUtils ftp;
+        /** When the session was last used. */
+        private long           released;
+
+        private Session(FTPUtils ftp) {
+            this.ftp = ftp;
+        }
+    }
+}
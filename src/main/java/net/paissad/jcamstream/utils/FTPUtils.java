@@ -26,11 +26,16 @@ import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.net.PrintCommandListener;
+import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPReply;
+import org.slf4j.Logger;
 
 import net.paissad.jcamstream.exception.FTPException;
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
 
 /**
  * This class contains convenient methods like for example uploading files to a
@@ -41,13 +46,29 @@ import net.paissad.jcamstream.exception.FTPException;
  */
 public class FTPUtils {
 
-    private String    ftpUser;
-    private String    ftpPassword;
-    private String    ftpServerHost;
-    private int       ftpServerPort;
-    private String    ftpServerDir;
+    /** The default timeout of the connections, in milliseconds. */
+    public static final int DEFAULT_TIMEOUT    = 30 * 1000;
+    /**
+     * The default time between two NOOP sent on the control connection during
+     * a long transfer, in seconds.
+     */
+    public static final int DEFAULT_KEEP_ALIVE = 60;
+
+    private static Logger   logger             = JCSLoggerFactory.getLogger(FTPUtils.class);
+
+    private String          ftpUser;
+    private String          ftpPassword;
+    private String          ftpServerHost;
+    private int             ftpServerPort;
+    private String          ftpServerDir;
+    private boolean         printCommands;
+    private int             timeout            = DEFAULT_TIMEOUT;
+    private int             keepAlive          = DEFAULT_KEEP_ALIVE;
+    private BandwidthShaper shaper;
+    private String          shaperDestination;
 
-    private FTPClient ftpClient;
+    private FTPClient       ftpClient;
+    private long            transferredBytes;
 
     // _________________________________________________________________________
     // Constructors ...
@@ -85,14 +106,30 @@ public class FTPUtils {
 
     // _________________________________________________________________________
 
+    /**
+     * Connects and logs in to the FTP server, then changes to the directory,
+     * created if needed. The files are transfered in binary and passive mode.
+     * 
+     * @throws SocketException
+     * @throws IOException
+     * @throws FTPException
+     *             If the server refuses the connection, the login or the
+     *             directory.
+     */
     public void estabishConnection() throws SocketException, IOException, FTPException {
 
         this.setFtpClient(new FTPClient());
         String errMsg;
 
         FTPClient client = this.getFtpClient();
-        PrintCommandListener listener = new PrintCommandListener(System.out);
-        client.addProtocolCommandListener(listener);
+        if (this.isPrintCommands()) {
+            PrintCommandListener listener = new PrintCommandListener(System.out);
+            client.addProtocolCommandListener(listener);
+        }
+        client.setConnectTimeout(this.getTimeout());
+        client.setDefaultTimeout(this.getTimeout());
+        client.setDataTimeout(this.getTimeout());
+        client.setControlKeepAliveTimeout(this.getKeepAlive());
 
         // Connects to the FTP server
         String host = this.getFtpServerHost();
@@ -111,15 +148,20 @@ public class FTPUtils {
             errMsg = "Unable to login to " + this.getFtpServerHost();
             this.verifyReplyCode(errMsg);
         }
+        client.setSoTimeout(this.getTimeout());
+
+        // The recordings are not text.
+        client.enterLocalPassiveMode();
+        if (!client.setFileType(FTP.BINARY_FILE_TYPE)) {
+            errMsg = "Unable to use the binary mode with " + this.getFtpServerHost();
+            this.verifyReplyCode(errMsg);
+        }
 
         // Change the current directory
         String dirname = this.getFtpServerDir();
         if (!client.changeWorkingDirectory(dirname)) {
-
-            System.out.println("Unable to change to the directory '" + dirname + "'.");
-            System.out.println("Going to create the directory !");
+            logger.info("Creating the directory '{}' on {}", dirname, this.getFtpServerHost());
             this.mkdirs(dirname);
-            System.out.println("Creation of the directory is successful.");
         }
 
         client.changeWorkingDirectory(dirname);
@@ -176,24 +218,116 @@ public class FTPUtils {
      * @throws FTPException
      */
     public void uploadStream(String remoteFileName, InputStream in) throws IOException, FTPException {
-        FTPClient client = this.getFtpClient();
-        String errMsg;
+        // The size of a stream is unknown, available() is only what can be
+        // read without blocking: nothing is allocated.
+        this.store(remoteFileName, in, 0, false);
+    }
 
-        int filesize = in.available();
-        client.allocate(filesize);
-        String humanFileSize = CommonUtils.humanReadableByteCount(filesize, false);
-        errMsg = "Unable to allocate the amount of size " + humanFileSize + " for the file " + remoteFileName;
-        this.verifyReplyCode(errMsg);
+    // _________________________________________________________________________
 
-        client.storeFile(remoteFileName, in);
-        errMsg = "Unable to store the file " + remoteFileName + " to the server";
-        this.verifyReplyCode(errMsg);
+    /**
+     * Uploads a file, going on from the bytes already on the server if the
+     * file was partly uploaded before, and by chunks, so that an upload
+     * interrupted goes on from the last chunk received.
+     * <p>
+     * The bytes already uploaded are the size of the remote file, or, if the
+     * server does not tell it, the offset saved into the progress. Each chunk
+     * is sent from its offset with a REST command, or appended if the server
+     * does not know REST.
+     * </p>
+     * 
+     * @param file
+     *            - The file to upload.
+     * @param remoteFileName
+     *            - The name that will be given to the file onto the FTP server.
+     * @param progress
+     *            - Where the bytes uploaded are saved after each chunk, or
+     *            <code>null</code>.
+     * @param chunkSize
+     *            - The number of bytes of a chunk, 0 to send the file at
+     *            once.
+     * @return The number of bytes sent, without those already on the server.
+     * @throws IOException
+     * @throws FTPException
+     */
+    public long resumeUpload(File file, String remoteFileName, UploadProgress progress,
+            long chunkSize) throws IOException, FTPException {
+        long length = file.length();
+        long remoteSize = this.getRemoteSize(remoteFileName);
+        long offset;
+        if (remoteSize >= 0) {
+            // A larger file on the server is another one, replaced.
+            offset = (remoteSize <= length) ? remoteSize : 0;
+        } else {
+            offset = (progress != null) ? Math.min(progress.getOffset(file, remoteFileName), length)
+                    : 0;
+        }
+        // The server holds exactly the bytes before the offset.
+        boolean appendable = remoteSize >= 0;
+        if (offset > 0)
+            logger.debug("Resuming the upload of {} at {} bytes", file, offset);
+
+        long sent = 0;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            if (offset < length || remoteSize != length) {
+                this.allocate(remoteFileName, length - offset);
+                do {
+                    in.getChannel().position(offset);
+                    long chunk = (chunkSize > 0) ? Math.min(chunkSize, length - offset) : length
+                            - offset;
+                    BoundedInputStream part = new BoundedInputStream(in, chunk);
+                    part.setPropagateClose(false);
+                    if (!this.store(remoteFileName, part, offset, appendable)) {
+                        // Neither REST nor a known size on the server.
+                        logger.warn("Unable to resume the upload of {}, sending it again.", file);
+                        offset = 0;
+                        appendable = true;
+                        continue;
+                    }
+                    offset += chunk;
+                    sent += chunk;
+                    appendable = true;
+                    if (progress != null && offset < length)
+                        progress.setOffset(file, remoteFileName, offset);
+                } while (offset < length);
+            }
+        } finally {
+            in.close();
+        }
+        if (progress != null)
+            progress.remove(file);
+        return sent;
+    }
+
+    /**
+     * @return The size of the file on the server, -1 if the file does not
+     *         exist or the server does not tell its size.
+     * @throws IOException
+     */
+    public long getRemoteSize(String remoteFileName) throws IOException {
+        FTPClient client = this.getFtpClient();
+        if (client.sendCommand("SIZE", remoteFileName) != FTPReply.FILE_STATUS)
+            return -1;
+        try {
+            return Long.parseLong(client.getReplyString().substring(4).trim());
+        } catch (RuntimeException re) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return The number of bytes uploaded by this object.
+     */
+    public long getTransferredBytes() {
+        return transferredBytes;
     }
 
     // _________________________________________________________________________
 
     /**
-     * Logout and then disconnect from the FTP server.
+     * Logout and then disconnect from the FTP server. The connection is
+     * closed even if the logout fails, a connection lost included.
      * 
      * @throws IOException
      * 
@@ -202,16 +336,95 @@ public class FTPUtils {
      */
     public void logoutAndDisconnect() throws IOException {
         FTPClient client = this.getFtpClient();
+        if (client == null || !client.isConnected())
+            return;
 
-        if (client.isConnected() && !FTPReply.isPositiveIntermediate(client.getReplyCode())) {
-            client.logout();
+        try {
+            if (!FTPReply.isPositiveIntermediate(client.getReplyCode()))
+                client.logout();
+        } finally {
             client.disconnect();
-            System.out.println("Disconnected successfully from FTP server.");
         }
+        logger.debug("Disconnected from the FTP server {}", this.getFtpServerHost());
+    }
+
+    /**
+     * @return Whether the connection to the server is open, which does not
+     *         mean the server still answers.
+     * 
+     * @see #isAlive()
+     */
+    public boolean isConnected() {
+        FTPClient client = this.getFtpClient();
+        return client != null && client.isConnected();
+    }
+
+    /**
+     * Sends a NOOP to the server, which also keeps an idle connection open.
+     * 
+     * @return Whether the server answered.
+     */
+    public boolean isAlive() {
+        if (!this.isConnected())
+            return false;
+        try {
+            return this.getFtpClient().sendNoOp();
+        } catch (IOException ioe) {
+            logger.debug("The FTP server {} does not answer : {}", this.getFtpServerHost(), ioe);
+            return false;
+        }
+    }
 
-        if (client.isConnected() && !client.completePendingCommand()) {
-            System.err.println("Something failed !");
+    // _________________________________________________________________________
+
+    /**
+     * Stores the stream to the file of the server, from an offset.
+     * 
+     * @param appendable
+     *            - Whether the file of the server holds exactly the bytes
+     *            before the offset, so that the stream may be appended if
+     *            the server does not know REST.
+     * @return <code>false</code> if the stream could not be stored from the
+     *         offset.
+     */
+    private boolean store(String remoteFileName, InputStream in, long offset, boolean appendable)
+            throws IOException, FTPException {
+        FTPClient client = this.getFtpClient();
+        if (shaper != null)
+            in = shaper.wrap(in, shaperDestination, shaper.getLane(remoteFileName));
+        CountingInputStream counted = new CountingInputStream(in);
+        client.setRestartOffset(offset);
+        boolean stored = client.storeFile(remoteFileName, counted);
+        if (!stored && offset > 0 && FTPReply.isNegativePermanent(client.getReplyCode())
+                && counted.getByteCount() == 0) {
+            // REST refused, nothing was sent.
+            if (!appendable)
+                return false;
+            client.appendFile(remoteFileName, counted);
+        }
+        transferredBytes += counted.getByteCount();
+        String errMsg = "Unable to store the file " + remoteFileName + " to the server";
+        this.verifyReplyCode(errMsg);
+        return true;
+    }
+
+    /**
+     * Tells the server the size of the file to come, if it is not too large
+     * for the ALLO command.
+     */
+    private void allocate(String remoteFileName, long size) throws IOException, FTPException {
+        if (size <= 0 || size > Integer.MAX_VALUE)
+            return;
+        FTPClient client = this.getFtpClient();
+        client.allocate((int) size);
+        // 202: no allocation needed, as most servers answer.
+        if (FTPReply.isPositiveCompletion(client.getReplyCode())
+                || client.getReplyCode() == FTPReply.COMMAND_NOT_IMPLEMENTED) {
+            return;
         }
+        String humanFileSize = CommonUtils.humanReadableByteCount(size, false);
+        this.verifyReplyCode("Unable to allocate the amount of size " + humanFileSize
+                + " for the file " + remoteFileName);
     }
 
     // _________________________________________________________________________
@@ -259,8 +472,7 @@ public class FTPUtils {
     private void verifyReplyCode(String errorMessage) throws FTPException {
         FTPClient client = this.getFtpClient();
         if (!FTPReply.isPositiveCompletion(client.getReplyCode())) {
-            System.err.println(errorMessage);
-            throw new FTPException(errorMessage);
+            throw new FTPException(errorMessage + " (" + client.getReplyString().trim() + ")");
         }
     }
 
@@ -320,6 +532,65 @@ public class FTPUtils {
         this.ftpServerDir = ftpServerDir;
     }
 
+    public boolean isPrintCommands() {
+        return printCommands;
+    }
+
+    /**
+     * @param printCommands
+     *            - Whether to print the commands and replies exchanged with
+     *            the server to the standard output, <code>false</code> by
+     *            default. Taken into account at the next connection.
+     */
+    public void setPrintCommands(boolean printCommands) {
+        this.printCommands = printCommands;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout
+     *            - The timeout of the connections and of the replies, in
+     *            milliseconds. Taken into account at the next connection.
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * @param keepAlive
+     *            - The time between two NOOP sent on the control connection
+     *            during a transfer, in seconds, so that a firewall does not
+     *            close it, 0 to send none. Taken into account at the next
+     *            connection.
+     */
+    public void setKeepAlive(int keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public BandwidthShaper getShaper() {
+        return shaper;
+    }
+
+    /**
+     * @param shaper
+     *            - The shaper through which the files are read when
+     *            uploaded, or <code>null</code> to send them at full speed.
+     * @param destination
+     *            - The name of the destination whose rate applies to the
+     *            uploads.
+     */
+    public void setShaper(BandwidthShaper shaper, String destination) {
+        this.shaper = shaper;
+        this.shaperDestination = destination;
+    }
+
     // _________________________________________________________________________
 
     /*
@@ -337,6 +608,7 @@ public class FTPUtils {
         files.add(new File("stuffs.txt"));
 
         FTPUtils ftp = new FTPUtils(user, password, host, port, dir);
+        ftp.setPrintCommands(true);
         try {
             ftp.estabishConnection();
             ftp.uploadFiles(files);
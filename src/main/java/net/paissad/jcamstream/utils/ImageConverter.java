@@ -0,0 +1,365 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+
+import net.paissad.jcamstream.media.frame.FrameMask;
+
+/**
+ * Converts raw frames and images into a destination supplied by the caller,
+ * unlike {@link CommonUtils#convertImageToType(BufferedImage, int)} which
+ * creates a new image each time. The conversions of the raw frames are plain
+ * loops over the arrays of the rasters, so converting a frame allocates
+ * nothing once the destination exists.
+ * <p>
+ * The YUV conversions use the ITU-R BT.601 coefficients, with studio swing
+ * (Y from 16 to 235), which is what the cameras deliver.
+ * </p>
+ * <p>
+ * A converter keeps a scratch buffer for the rows read from the direct
+ * buffers, so an instance must not be shared between threads.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class ImageConverter {
+
+    /** 298 * (Y - 16), plus the rounding. */
+    private static final int[] Y_TABLE      = new int[256];
+    /** 409 * (V - 128) */
+    private static final int[] RV_TABLE     = new int[256];
+    /** -100 * (U - 128) - 208 * (V - 128) is split in two tables. */
+    private static final int[] GU_TABLE     = new int[256];
+    private static final int[] GV_TABLE     = new int[256];
+    /** 516 * (U - 128) */
+    private static final int[] BU_TABLE     = new int[256];
+    /** CLAMP[v + CLAMP_OFFSET] is v bounded to 0..255, for v in -512..1023. */
+    private static final int   CLAMP_OFFSET = 512;
+    private static final int[] CLAMP        = new int[1536];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            Y_TABLE[i] = 298 * (i - 16) + 128;
+            RV_TABLE[i] = 409 * (i - 128);
+            GU_TABLE[i] = -100 * (i - 128);
+            GV_TABLE[i] = -208 * (i - 128);
+            BU_TABLE[i] = 516 * (i - 128);
+        }
+        for (int i = 0; i < CLAMP.length; i++) {
+            int value = i - CLAMP_OFFSET;
+            CLAMP[i] = (value < 0) ? 0 : (value > 255) ? 255 : value;
+        }
+    }
+
+    private byte[]             row          = new byte[0];
+
+    // _________________________________________________________________________
+
+    /**
+     * Converts a YUYV (YUV 4:2:2) frame into RGB pixels.
+     * 
+     * @param src
+     *            - The frame, from its position. The position is left
+     *            untouched.
+     * @param width
+     *            - The width of the frame, an even number.
+     * @param height
+     *            - The height of the frame.
+     * @param dst
+     *            - The RGB pixels, as in a {@link BufferedImage#TYPE_INT_RGB}
+     *            raster, at least <code>width * height</code> of them.
+     */
+    public void yuyvToRgb(ByteBuffer src, int width, int height, int[] dst) {
+        int rowSize = width * 2;
+        byte[] yuyv = rowBuffer(rowSize);
+        ByteBuffer in = src.duplicate();
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            in.get(yuyv, 0, rowSize);
+            for (int j = 0; j < rowSize; j += 4, i += 2) {
+                int u = yuyv[j + 1] & 0xFF;
+                int v = yuyv[j + 3] & 0xFF;
+                int r = RV_TABLE[v];
+                int g = GU_TABLE[u] + GV_TABLE[v];
+                int b = BU_TABLE[u];
+                int y0 = Y_TABLE[yuyv[j] & 0xFF];
+                int y1 = Y_TABLE[yuyv[j + 2] & 0xFF];
+                dst[i] = rgb(y0 + r, y0 + g, y0 + b);
+                dst[i + 1] = rgb(y1 + r, y1 + g, y1 + b);
+            }
+        }
+    }
+
+    /**
+     * Converts the active part of a YUYV (YUV 4:2:2) frame into RGB pixels.
+     * Only the spans of the mask are read and written, the other pixels of
+     * the destination are left as they are.
+     * 
+     * @param src
+     *            - The frame, from its position. The position is left
+     *            untouched.
+     * @param width
+     *            - The width of the frame, an even number.
+     * @param height
+     *            - The height of the frame.
+     * @param mask
+     *            - The mask of the frame. The spans are widened to even
+     *            pixels, as two pixels share their chroma.
+     * @param dst
+     *            - The RGB pixels, as in a {@link BufferedImage#TYPE_INT_RGB}
+     *            raster, at least <code>width * height</code> of them.
+     */
+    public void yuyvToRgb(ByteBuffer src, int width, int height, FrameMask mask, int[] dst) {
+        byte[] yuyv = rowBuffer(width * 2);
+        ByteBuffer in = src.duplicate();
+        int base = src.position();
+        for (int y = 0; y < height; y++) {
+            for (int s = mask.getFirstSpan(y), last = mask.getFirstSpan(y + 1); s < last; s++) {
+                int from = mask.getSpanStart(s) & ~1;
+                int to = (mask.getSpanEnd(s) + 1) & ~1;
+                int size = (to - from) * 2;
+                in.position(base + (y * width + from) * 2);
+                in.get(yuyv, 0, size);
+                for (int j = 0, i = y * width + from; j < size; j += 4, i += 2) {
+                    int u = yuyv[j + 1] & 0xFF;
+                    int v = yuyv[j + 3] & 0xFF;
+                    int r = RV_TABLE[v];
+                    int g = GU_TABLE[u] + GV_TABLE[v];
+                    int b = BU_TABLE[u];
+                    int y0 = Y_TABLE[yuyv[j] & 0xFF];
+                    int y1 = Y_TABLE[yuyv[j + 2] & 0xFF];
+                    dst[i] = rgb(y0 + r, y0 + g, y0 + b);
+                    dst[i + 1] = rgb(y1 + r, y1 + g, y1 + b);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a NV12 (YUV 4:2:0, interleaved chroma) frame into RGB pixels.
+     * 
+     * @param src
+     *            - The frame, from its position. The position is left
+     *            untouched.
+     * @param width
+     *            - The width of the frame, an even number.
+     * @param height
+     *            - The height of the frame, an even number.
+     * @param dst
+     *            - The RGB pixels, as in a {@link BufferedImage#TYPE_INT_RGB}
+     *            raster, at least <code>width * height</code> of them.
+     */
+    public void nv12ToRgb(ByteBuffer src, int width, int height, int[] dst) {
+        // One row of luma followed by the chroma row it shares with the next.
+        byte[] buffer = rowBuffer(width * 2);
+        ByteBuffer luma = src.duplicate();
+        ByteBuffer chroma = src.duplicate();
+        chroma.position(src.position() + width * height);
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            luma.get(buffer, 0, width);
+            if ((y & 1) == 0)
+                chroma.get(buffer, width, width);
+            for (int x = 0; x < width; x += 2, i += 2) {
+                int u = buffer[width + x] & 0xFF;
+                int v = buffer[width + x + 1] & 0xFF;
+                int r = RV_TABLE[v];
+                int g = GU_TABLE[u] + GV_TABLE[v];
+                int b = BU_TABLE[u];
+                int y0 = Y_TABLE[buffer[x] & 0xFF];
+                int y1 = Y_TABLE[buffer[x + 1] & 0xFF];
+                dst[i] = rgb(y0 + r, y0 + g, y0 + b);
+                dst[i + 1] = rgb(y1 + r, y1 + g, y1 + b);
+            }
+        }
+    }
+
+    /**
+     * Converts an 8 bits gray frame into RGB pixels.
+     * 
+     * @param src
+     *            - The frame, from its position. The position is left
+     *            untouched.
+     * @param pixels
+     *            - The number of pixels of the frame.
+     * @param dst
+     *            - The RGB pixels, as many as the pixels of the frame.
+     */
+    public void grayToRgb(ByteBuffer src, int pixels, int[] dst) {
+        int chunk = Math.min(pixels, 8192);
+        byte[] gray = rowBuffer(chunk);
+        ByteBuffer in = src.duplicate();
+        for (int i = 0; i < pixels;) {
+            int count = Math.min(chunk, pixels - i);
+            in.get(gray, 0, count);
+            for (int j = 0; j < count; j++, i++) {
+                dst[i] = (gray[j] & 0xFF) * 0x010101;
+            }
+        }
+    }
+
+    /**
+     * Converts a packed R G B frame into RGB pixels.
+     * 
+     * @param src
+     *            - The frame, from its position. The position is left
+     *            untouched.
+     * @param pixels
+     *            - The number of pixels of the frame.
+     * @param dst
+     *            - The RGB pixels, as many as the pixels of the frame.
+     */
+    public void rgb24ToRgb(ByteBuffer src, int pixels, int[] dst) {
+        int chunk = Math.min(pixels, 8192);
+        byte[] rgb = rowBuffer(chunk * 3);
+        ByteBuffer in = src.duplicate();
+        for (int i = 0; i < pixels;) {
+            int count = Math.min(chunk, pixels - i);
+            in.get(rgb, 0, count * 3);
+            for (int j = 0; j < count * 3; j += 3, i++) {
+                dst[i] = ((rgb[j] & 0xFF) << 16) | ((rgb[j + 1] & 0xFF) << 8) | (rgb[j + 2] & 0xFF);
+            }
+        }
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Converts RGB pixels into 8 bits gray levels, with the luma weights of
+     * ITU-R BT.601 rounded the way Java2D does.
+     * 
+     * @param src
+     *            - The RGB pixels, as in a {@link BufferedImage#TYPE_INT_RGB}
+     *            raster.
+     * @param dst
+     *            - The gray levels, as in a {@link BufferedImage#TYPE_BYTE_GRAY}
+     *            raster.
+     * @param pixels
+     *            - The number of pixels to convert.
+     */
+    public static void rgbToGray(int[] src, byte[] dst, int pixels) {
+        for (int i = 0; i < pixels; i++) {
+            int rgb = src[i];
+            dst[i] = (byte) ((77 * ((rgb >> 16) & 0xFF) + 150 * ((rgb >> 8) & 0xFF)
+                    + 29 * (rgb & 0xFF) + 128) >> 8);
+        }
+    }
+
+    /**
+     * Converts the pixels of a {@link BufferedImage#TYPE_3BYTE_BGR} raster
+     * into RGB pixels.
+     * 
+     * @param src
+     *            - The B G R bytes.
+     * @param dst
+     *            - The RGB pixels, as in a {@link BufferedImage#TYPE_INT_RGB}
+     *            raster.
+     * @param pixels
+     *            - The number of pixels to convert.
+     */
+    public static void bgrToRgb(byte[] src, int[] dst, int pixels) {
+        for (int i = 0, j = 0; i < pixels; i++, j += 3) {
+            dst[i] = ((src[j + 2] & 0xFF) << 16) | ((src[j + 1] & 0xFF) << 8) | (src[j] & 0xFF);
+        }
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Draws an image into another one of the same size, converting its
+     * pixels to the type of the destination. This is the allocation free
+     * counterpart of {@link CommonUtils#convertImageToType(BufferedImage, int)}
+     * : images of the same type are copied array to array, the other ones are
+     * drawn into the destination.
+     * <p>
+     * Drawing goes through the native loops of Java2D, which are faster than
+     * the Java loops of {@link #bgrToRgb(byte[], int[], int)} and
+     * {@link #rgbToGray(int[], byte[], int)}, those are meant for the arrays
+     * which are not held by an image.
+     * </p>
+     * 
+     * @param src
+     *            - The image to convert.
+     * @param dst
+     *            - The image to draw into.
+     * @return The destination image.
+     */
+    public static BufferedImage convert(BufferedImage src, BufferedImage dst) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        if (dst.getWidth() != width || dst.getHeight() != height)
+            throw new IllegalArgumentException("The images do not have the same size : " + width
+                    + "x" + height + " and " + dst.getWidth() + "x" + dst.getHeight());
+        int srcType = src.getType();
+        int dstType = dst.getType();
+
+        if (srcType == dstType && srcType != BufferedImage.TYPE_CUSTOM
+                && src.getColorModel().equals(dst.getColorModel())
+                && sameLayout(src.getRaster(), dst.getRaster())) {
+            DataBuffer from = src.getRaster().getDataBuffer();
+            DataBuffer to = dst.getRaster().getDataBuffer();
+            if (from instanceof DataBufferInt)
+                System.arraycopy(((DataBufferInt) from).getData(), 0, ((DataBufferInt) to).getData(),
+                        0, from.getSize());
+            else
+                System.arraycopy(((DataBufferByte) from).getData(), 0,
+                        ((DataBufferByte) to).getData(), 0, from.getSize());
+
+        } else {
+            Graphics2D graphics = dst.createGraphics();
+            try {
+                graphics.drawImage(src, 0, 0, null);
+            } finally {
+                graphics.dispose();
+            }
+        }
+        return dst;
+    }
+
+    // _________________________________________________________________________
+
+    private static int rgb(int r, int g, int b) {
+        return (CLAMP[(r >> 8) + CLAMP_OFFSET] << 16) | (CLAMP[(g >> 8) + CLAMP_OFFSET] << 8)
+                | CLAMP[(b >> 8) + CLAMP_OFFSET];
+    }
+
+    private byte[] rowBuffer(int size) {
+        if (row.length < size)
+            row = new byte[size];
+        return row;
+    }
+
+    private static boolean sameLayout(WritableRaster src, WritableRaster dst) {
+        DataBuffer from = src.getDataBuffer();
+        DataBuffer to = dst.getDataBuffer();
+        return from.getClass() == to.getClass() && from.getNumBanks() == 1 && to.getNumBanks() == 1
+                && from.getOffset() == 0 && to.getOffset() == 0 && from.getSize() == to.getSize()
+                && src.getSampleModel().equals(dst.getSampleModel())
+                && src.getSampleModelTranslateX() == 0 && src.getSampleModelTranslateY() == 0
+                && dst.getSampleModelTranslateX() == 0 && dst.getSampleModelTranslateY() == 0
+                && (from instanceof DataBufferInt || from instanceof DataBufferByte);
+    }
+}
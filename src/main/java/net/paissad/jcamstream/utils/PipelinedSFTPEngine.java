@@ -0,0 +1,174 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import net.schmizz.concurrent.Promise;
+import net.schmizz.sshj.common.SSHException;
+import net.schmizz.sshj.connection.channel.direct.SessionFactory;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.FileMode;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.PacketType;
+import net.schmizz.sshj.sftp.Request;
+import net.schmizz.sshj.sftp.Response;
+import net.schmizz.sshj.sftp.SFTPEngine;
+import net.schmizz.sshj.sftp.SFTPException;
+
+/**
+ * A SFTP channel which writes a file without waiting for the reply to each
+ * chunk before sending the next one.
+ * <p>
+ * {@link net.schmizz.sshj.sftp.RemoteFile#write(long, byte[], int, int)}
+ * waits for the server after each chunk, so a file is uploaded at the pace
+ * of the round trips. Here up to a window of chunks are on their way, and
+ * the reply to the oldest one is only awaited once the window is full.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+class PipelinedSFTPEngine extends SFTPEngine {
+
+    /**
+     * The bytes of a WRITE request besides its data: type, id, handle
+     * length, offset and data length, the handle excluded.
+     */
+    private static final int WRITE_OVERHEAD = 1 + 4 + 4 + 8 + 4;
+
+    // _________________________________________________________________________
+
+    /**
+     * Opens a SFTP channel of the connection, to be initialized with
+     * {@link #init()}.
+     */
+    PipelinedSFTPEngine(SessionFactory connection) throws SSHException {
+        super(connection);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Writes a stream to a file of the server, created or truncated.
+     * 
+     * @param in
+     *            - The stream, read until its end but not closed.
+     * @param path
+     *            - The path of the file on the server.
+     * @param window
+     *            - The maximum number of chunks sent and not acknowledged.
+     * @param chunkSize
+     *            - The maximum number of bytes of a chunk, lowered to fit in
+     *            a packet of the channel.
+     * @return The number of bytes written.
+     * @throws IOException
+     *             If the server refuses a request, or does not answer.
+     */
+    long upload(InputStream in, String path, int window, int chunkSize) throws IOException {
+        Request open = newRequest(PacketType.OPEN).putString(path)
+                .putUInt32(OpenMode.toMask(EnumSet.of(OpenMode.WRITE, OpenMode.CREAT,
+                        OpenMode.TRUNC))).putFileAttributes(FileAttributes.EMPTY);
+        String handle = doRequest(open).ensurePacketTypeIs(PacketType.HANDLE).readString();
+
+        int packet = getSubsystem().getRemoteMaxPacketSize() - WRITE_OVERHEAD - handle.length();
+        byte[] buffer = new byte[Math.max(1, Math.min(chunkSize, packet))];
+        Deque<Promise<Response, SFTPException>> pending;
+        pending = new ArrayDeque<Promise<Response, SFTPException>>(window);
+        long offset = 0;
+        try {
+            int read;
+            while ((read = fill(in, buffer)) > 0) {
+                if (pending.size() >= window)
+                    await(pending.poll());
+                Request write = newRequest(PacketType.WRITE).putString(handle).putUInt64(offset)
+                        .putString(buffer, 0, read);
+                reader.expectResponseTo(write);
+                transmit(write);
+                pending.add(write.getResponsePromise());
+                offset += read;
+            }
+            while (!pending.isEmpty())
+                await(pending.poll());
+        } catch (IOException e) {
+            try {
+                close(handle);
+            } catch (IOException ignored) {
+                // The channel is likely lost, the first failure is reported.
+            }
+            throw e;
+        }
+        close(handle);
+        return offset;
+    }
+
+    /**
+     * Creates a directory of the server and its parents, unless they exist,
+     * or are created meanwhile by another channel.
+     */
+    void mkdirs(String path) throws IOException {
+        if (path.length() == 0 || isDirectory(path))
+            return;
+        int slash = path.lastIndexOf('/');
+        if (slash > 0)
+            mkdirs(path.substring(0, slash));
+        try {
+            makeDir(path);
+        } catch (SFTPException e) {
+            if (!isDirectory(path))
+                throw e;
+        }
+    }
+
+    // _________________________________________________________________________
+
+    private void close(String handle) throws IOException {
+        doRequest(newRequest(PacketType.CLOSE).putString(handle)).ensureStatusPacketIsOK();
+    }
+
+    private boolean isDirectory(String path) throws IOException {
+        try {
+            return stat(path).getType() == FileMode.Type.DIRECTORY;
+        } catch (SFTPException e) {
+            // Does not exist.
+            return false;
+        }
+    }
+
+    private void await(Promise<Response, SFTPException> reply) throws IOException {
+        reply.retrieve(timeout, TimeUnit.SECONDS).ensureStatusPacketIsOK();
+    }
+
+    /**
+     * @return The number of bytes read, less than the buffer only at the end
+     *         of the stream.
+     */
+    private static int fill(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        int read;
+        while (length < buffer.length
+                && (read = in.read(buffer, length, buffer.length - length)) != -1)
+            length += read;
+        return length;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The per pixel loops of the image processing (difference of two frames,
+ * threshold, downscale, histogram, YUV to RGB) over 8 bits planes held in
+ * {@link ByteBuffer}s.
+ * <p>
+ * There are two implementations, chosen once at startup with the system
+ * property {@value #KERNELS_PROPERTY} :
+ * <ul>
+ * <li><code>word</code> (the default) reads 8 pixels at a time as a
+ * <code>long</code> and works on the 8 bytes of the word at once,</li>
+ * <li><code>scalar</code> reads one pixel at a time, it is the reference the
+ * other one is checked against.</li>
+ * </ul>
+ * Both give exactly the same results.
+ * </p>
+ * <p>
+ * The sources are read from their position, which is left untouched, and the
+ * destination buffers are written from their position, which is left
+ * untouched too. Kernels may keep scratch buffers, so an instance must not be
+ * shared between threads.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public abstract class PixelKernels {
+
+    /** The system property choosing the implementation. */
+    public static final String  KERNELS_PROPERTY = "jcamstream.kernels";
+
+    private static final String IMPLEMENTATION   = "scalar".equalsIgnoreCase(System
+                                                         .getProperty(KERNELS_PROPERTY)) ? "scalar"
+                                                         : "word";
+
+    // _________________________________________________________________________
+
+    /**
+     * @return New kernels, of the implementation chosen at startup.
+     */
+    public static PixelKernels create() {
+        return ("scalar".equals(IMPLEMENTATION)) ? new ScalarPixelKernels() : new WordPixelKernels();
+    }
+
+    /**
+     * @return The name of the implementation chosen at startup.
+     */
+    public static String getImplementation() {
+        return IMPLEMENTATION;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return The name of the implementation.
+     */
+    public abstract String getName();
+
+    /**
+     * Computes the absolute difference of two planes, pixel by pixel.
+     * 
+     * @param a
+     *            - The first plane.
+     * @param b
+     *            - The second plane.
+     * @param dst
+     *            - The differences, which may be one of the planes.
+     * @param length
+     *            - The number of pixels.
+     */
+    public abstract void absDiff(ByteBuffer a, ByteBuffer b, ByteBuffer dst, int length);
+
+    /**
+     * Sets the pixels above a threshold to 255, and the others to 0.
+     * 
+     * @param src
+     *            - The plane.
+     * @param dst
+     *            - The mask, which may be the plane.
+     * @param length
+     *            - The number of pixels.
+     * @param threshold
+     *            - The threshold, from 0 to 255.
+     * @return The number of pixels above the threshold.
+     */
+    public abstract int threshold(ByteBuffer src, ByteBuffer dst, int length, int threshold);
+
+    /**
+     * Shrinks a plane by averaging blocks of pixels. The pixels beyond the last
+     * whole block of a row or a column are ignored.
+     * 
+     * @param src
+     *            - The plane.
+     * @param width
+     *            - The width of the plane.
+     * @param height
+     *            - The height of the plane.
+     * @param factor
+     *            - The size of the blocks.
+     * @param dst
+     *            - The shrunk plane, <code>(width / factor)</code> pixels
+     *            wide and <code>(height / factor)</code> pixels high.
+     */
+    public abstract void downscale(ByteBuffer src, int width, int height, int factor, ByteBuffer dst);
+
+    /**
+     * Counts the pixels of each value.
+     * 
+     * @param src
+     *            - The plane.
+     * @param length
+     *            - The number of pixels.
+     * @param histogram
+     *            - 256 counters, to which the counts are added.
+     */
+    public abstract void histogram(ByteBuffer src, int length, int[] histogram);
+
+    /**
+     * Converts a YUYV (YUV 4:2:2) frame into RGB pixels, as
+     * {@link ImageConverter#yuyvToRgb(ByteBuffer, int, int, int[])} does.
+     * 
+     * @param src
+     *            - The frame.
+     * @param width
+     *            - The width of the frame, an even number.
+     * @param height
+     *            - The height of the frame.
+     * @param dst
+     *            - The RGB pixels, at least <code>width * height</code> of
+     *            them.
+     */
+    public abstract void yuyvToRgb(ByteBuffer src, int width, int height, int[] dst);
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
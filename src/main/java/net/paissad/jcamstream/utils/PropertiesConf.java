@@ -17,34 +17,30 @@
  */
 package net.paissad.jcamstream.utils;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.Reader;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.io.Writer;
 import java.nio.charset.Charset;
-import java.util.AbstractMap.SimpleEntry;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * This class tends to work as the same as the class {@link Properties} except
@@ -56,19 +52,78 @@ import java.util.regex.Pattern;
  */
 public class PropertiesConf implements Serializable, Cloneable {
 
-    private static final long          serialVersionUID = 1L;
+    private static final long            serialVersionUID = 1L;
 
-    private static final String        LINE_SEPARATOR   = System.getProperty("line.separator");
-    private static final int           BUFFER_SIZE      = 2048;
-    private static final Charset       CHARSET          = Charset.forName("ISO-8859-1");
+    private static final String          LINE_SEPARATOR   = System.getProperty("line.separator");
+    private static final Charset         CHARSET          = Charset.forName("ISO-8859-1");
 
-    private int                        totalLines       = 0;
+    /**
+     * The lines of the file, in a doubly linked list so that a line can be
+     * inserted or removed next to another one without renumbering the
+     * following lines, with an index of the line holding each key so that
+     * lookups and updates do not need to scan every line.
+     */
+    private transient PropertiesLines    lines            = null;
+
+    /**
+     * When <code>true</code>, every change publishes a new immutable copy of
+     * the properties and the read methods use that copy without locking.
+     */
+    private final boolean                snapshotReads;
+
+    /** The last published copy of the properties, in snapshot mode only. */
+    private transient volatile Snapshot  snapshot         = null;
+
+    /**
+     * The file which was last loaded or stored with {@link #load(File)} or
+     * {@link #store(File)}, and its length and date right after that. The
+     * offsets of the lines are only known for that file.
+     */
+    private transient File               syncedFile       = null;
+    private transient long               syncedLength;
+    private transient long               syncedModified;
+
+    /**
+     * <code>true</code> when a line was added or removed since the file was
+     * synced, so that it cannot be patched in place anymore.
+     */
+    private transient boolean            linesMoved       = false;
+
+    // _________________________________________________________________________
+
+    /**
+     * An immutable view of the key/value pairs at a given version.
+     */
+    private static final class Snapshot {
+
+        private final long                version;
+        private final Map<String, String> properties;
 
-    private SortedMap<Integer, Object> map              = null;
+        private Snapshot(final long version, final Map<String, String> properties) {
+            this.version = version;
+            this.properties = properties;
+        }
+    }
 
     // _________________________________________________________________________
 
     public PropertiesConf() {
+        this(false);
+    }
+
+    /**
+     * @param snapshotReads
+     *            - If <code>true</code>, the read methods (
+     *            {@link #getProperty(String)}, {@link #containsKey(String)},
+     *            {@link #keys()} ...) do not lock and read the last published
+     *            copy of the properties, while every change copies the
+     *            properties and publishes the copy. This suits properties which
+     *            are read by many threads and seldom updated.
+     */
+    public PropertiesConf(final boolean snapshotReads) {
+        this.snapshotReads = snapshotReads;
+        lines = new PropertiesLines();
+        publish();
     }
 
     // _________________________________________________________________________
@@ -82,17 +137,11 @@ public class PropertiesConf implements Serializable, Cloneable {
      *         properties.
      */
     public boolean isEmpty() {
-        Collection<Object> values = map.values();
-        synchronized (map) {
-            Iterator<Object> iter = values.iterator();
-            while (iter.hasNext()) {
-                Object obj = iter.next();
-                if (obj instanceof Entry<?, ?>)
-                    return false;
-            }
-
+        if (snapshotReads)
+            return snapshot.properties.isEmpty();
+        synchronized (this) {
+            return lines.properties() == 0;
         }
-        return true;
     }
 
     // _________________________________________________________________________
@@ -102,8 +151,8 @@ public class PropertiesConf implements Serializable, Cloneable {
      * Even comments and blanks lines are removed.
      */
     public synchronized void clear() {
-        map.clear();
-        totalLines = 0;
+        clearLines();
+        publish();
     }
 
     // _________________________________________________________________________
@@ -115,17 +164,15 @@ public class PropertiesConf implements Serializable, Cloneable {
      *         if there is no key.
      */
     public Set<String> keys() {
-        Collection<Object> values = map.values();
-        synchronized (map) {
-            Iterator<Object> iter = values.iterator();
+        if (snapshotReads) {
+            Set<String> mapKeys = snapshot.properties.keySet();
+            return (mapKeys.size() != 0) ? new LinkedHashSet<String>(mapKeys) : null;
+        }
+        synchronized (this) {
             Set<String> mapKeys = new LinkedHashSet<String>();
-            while (iter.hasNext()) {
-                Object obj = iter.next();
-                if (obj instanceof Entry<?, ?>) {
-                    @SuppressWarnings("unchecked")
-                    Entry<String, String> entry = ((Entry<String, String>) obj);
-                    mapKeys.add(entry.getKey());
-                }
+            for (int line = lines.head(); line != PropertiesLines.NONE; line = lines.next(line)) {
+                if (lines.isProperty(line))
+                    mapKeys.add(lines.getKey(line));
             }
             return (mapKeys.size() != 0) ? mapKeys : null;
         }
@@ -140,19 +187,17 @@ public class PropertiesConf implements Serializable, Cloneable {
      *         <code>null</code> if there is no value yet.
      */
     public Collection<String> values() {
-        Collection<Object> values = map.values();
-        synchronized (map) {
-            Iterator<Object> iter = values.iterator();
-            List<String> mapKeys = new LinkedList<String>();
-            while (iter.hasNext()) {
-                Object obj = iter.next();
-                if (obj instanceof Entry<?, ?>) {
-                    @SuppressWarnings("unchecked")
-                    Entry<String, String> entry = ((Entry<String, String>) obj);
-                    mapKeys.add(entry.getValue());
-                }
+        if (snapshotReads) {
+            Collection<String> mapValues = snapshot.properties.values();
+            return (mapValues.size() != 0) ? new LinkedList<String>(mapValues) : null;
+        }
+        synchronized (this) {
+            List<String> mapValues = new LinkedList<String>();
+            for (int line = lines.head(); line != PropertiesLines.NONE; line = lines.next(line)) {
+                if (lines.isProperty(line))
+                    mapValues.add(lines.getValue(line));
             }
-            return (mapKeys.size() != 0) ? mapKeys : null;
+            return (mapValues.size() != 0) ? mapValues : null;
         }
     }
 
@@ -166,20 +211,10 @@ public class PropertiesConf implements Serializable, Cloneable {
      *         <code>false</code> otherwise.
      */
     public boolean containsKey(final String key) {
-        Collection<Object> mapValues = map.values();
-        synchronized (map) {
-            Iterator<Object> iter = mapValues.iterator();
-            while (iter.hasNext()) {
-                Object obj = iter.next();
-                if (obj instanceof Entry<?, ?>) {
-                    @SuppressWarnings("unchecked")
-                    Entry<String, String> entry = ((Entry<String, String>) obj);
-                    if (entry.getKey().equals(key)) {
-                        return true;
-                    }
-                }
-            }
-            return false;
+        if (snapshotReads)
+            return snapshot.properties.containsKey(key);
+        synchronized (this) {
+            return lines.find(key) != PropertiesLines.NONE;
         }
     }
 
@@ -193,18 +228,12 @@ public class PropertiesConf implements Serializable, Cloneable {
      *         <code>false</code> otherwise.
      */
     public boolean containsValue(final String value) {
-        Collection<Object> objs = map.values();
-        synchronized (map) {
-            Iterator<Object> iter = objs.iterator();
-            while (iter.hasNext()) {
-                Object obj = iter.next();
-                if (obj instanceof Entry<?, ?>) {
-                    @SuppressWarnings("unchecked")
-                    Entry<String, String> entry = ((Entry<String, String>) obj);
-                    if (entry.getValue().equals(value)) {
-                        return true;
-                    }
-                }
+        if (snapshotReads)
+            return snapshot.properties.containsValue(value);
+        synchronized (this) {
+            for (int line = lines.head(); line != PropertiesLines.NONE; line = lines.next(line)) {
+                if (lines.isProperty(line) && lines.getValue(line).equals(value))
+                    return true;
             }
             return false;
         }
@@ -221,25 +250,41 @@ public class PropertiesConf implements Serializable, Cloneable {
      *         is not found or value is itself null.
      */
     public String getProperty(final String key) {
-        String result = null;
-        synchronized (map) {
-            Collection<Object> values = map.values();
-            Iterator<Object> iter = values.iterator();
-            while (iter.hasNext()) {
-                Object obj = iter.next();
-                if (obj instanceof Entry<?, ?>) {
-                    @SuppressWarnings("unchecked")
-                    Entry<String, String> entry = (Entry<String, String>) obj;
-                    if (entry.getKey().equals(key)) {
-                        result = entry.getValue();
-                        break;
-                    }
-                }
-            }
-            return result;
+        if (snapshotReads)
+            return snapshot.properties.get(key);
+        synchronized (this) {
+            int line = lines.find(key);
+            return (line != PropertiesLines.NONE) ? lines.getValue(line) : null;
+        }
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Retrieves a consistent copy of all the key/value pairs of this
+     * properties, in the order of the lines.
+     * 
+     * @return An unmodifiable map of the properties. In snapshot mode, this
+     *         is the last published copy and no lock is taken.
+     * @see #PropertiesConf(boolean)
+     */
+    public Map<String, String> snapshot() {
+        if (snapshotReads)
+            return snapshot.properties;
+        synchronized (this) {
+            return copyOfProperties();
         }
     }
 
+    /**
+     * @return The number of changes published since the creation of this
+     *         properties in snapshot mode, or <code>-1</code> if the snapshot
+     *         mode is not used.
+     */
+    public long getSnapshotVersion() {
+        return (snapshotReads) ? snapshot.version : -1;
+    }
+
     // _________________________________________________________________________
 
     /**
@@ -262,33 +307,78 @@ public class PropertiesConf implements Serializable, Cloneable {
      * @throws IOException
      */
     public void load(final InputStream in) throws IOException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(in, CHARSET));
-        load(reader);
+        // The bytes left in a file, or 0 if unknown.
+        load(readFully(in, Math.max(in.available(), 8192)));
     }
 
     /**
+     * Loads the properties from a file, and remembers the position of each
+     * line in the file so that {@link #store(File)} can later rewrite only the
+     * lines which changed.
      * 
-     * @param reader
+     * @param file
+     *            - The file to read.
      * @throws IOException
      */
-    private void load(final Reader reader) throws IOException {
-        LineNumberReader propsReader = new LineNumberReader(reader, BUFFER_SIZE);
-
-        map = Collections.synchronizedSortedMap(new TreeMap<Integer, Object>());
-        String line;
-
-        while ((line = propsReader.readLine()) != null) {
+    public synchronized void load(final File file) throws IOException {
+        long length = file.length();
+        long modified = file.lastModified();
+        if (length > Integer.MAX_VALUE - 8)
+            throw new IOException("The file " + file + " is too big.");
+        InputStream in = new FileInputStream(file);
+        try {
+            boolean linesKept = load(readFully(in, (int) length));
+            if (linesKept) {
+                syncedFile = file;
+                syncedLength = length;
+                syncedModified = modified;
+            }
+        } finally {
+            in.close();
+        }
+    }
 
-            if (isBlank(line) || isComment(line)) {
-                totalLines++;
-                map.put(totalLines, line);
+    /**
+     * 
+     * @param bytes
+     *            - The content of the file, kept by the lines read.
+     * @return <code>true</code> if every line read is kept as it is, that is
+     *         if no key appears twice.
+     */
+    private synchronized boolean load(final byte[] bytes) {
+        syncedFile = null;
+        try {
+            return lines.load(bytes);
+        } finally {
+            linesMoved = false;
+            // Only one copy is published for the whole file.
+            publish();
+        }
+    }
 
-            } else {
-                Entry<String, String> entry = getLineProps(line);
-                String key = entry.getKey();
-                String value = entry.getValue();
-                put(key, value);
+    /**
+     * Reads a stream to its end.
+     * 
+     * @param expected
+     *            - The number of bytes expected.
+     * @return The bytes read, in an array of their size.
+     */
+    private static byte[] readFully(final InputStream in, final int expected)
+            throws IOException {
+        byte[] bytes = new byte[expected];
+        int count = 0;
+        while (true) {
+            if (count == bytes.length) {
+                int next = in.read();
+                if (next == -1)
+                    return bytes;
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, 8192));
+                bytes[count++] = (byte) next;
             }
+            int read = in.read(bytes, count, bytes.length - count);
+            if (read == -1)
+                return Arrays.copyOf(bytes, count);
+            count += read;
         }
     }
 
@@ -309,26 +399,126 @@ public class PropertiesConf implements Serializable, Cloneable {
      * @param writer
      * @throws IOException
      */
-    private void store(Writer writer) throws IOException {
-        String line;
-        Object obj;
-        Collection<Object> mapValues = map.values();
-        synchronized (map) {
-            Iterator<Object> iter = mapValues.iterator();
-            while (iter.hasNext()) {
-                obj = iter.next();
-                if (obj instanceof String) { // A comment
-                    line = (String) obj;
+    private synchronized void store(Writer writer) throws IOException {
+        for (int line = lines.head(); line != PropertiesLines.NONE; line = lines.next(line)) {
+            // A comment or a property as read, or a property which was changed
+            String text = lines.getText(line);
+            writer.write(text, 0, text.length());
+            writer.write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length());
+        }
+        writer.flush();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Stores the properties into a file, writing as little as possible.
+     * <p>
+     * If the file is the one last loaded or stored by this properties, and if
+     * it was not modified since, and if only values changed and each changed
+     * line still fits in its previous length, then only the changed lines are
+     * rewritten in place. Otherwise the whole file is written into a temporary
+     * file of the same directory, which then replaces the file, so that a
+     * crash never leaves a truncated file.
+     * </p>
+     * 
+     * @param file
+     *            - The file to write.
+     * @return The number of bytes written.
+     * @throws IOException
+     */
+    public synchronized long store(final File file) throws IOException {
+        if (canPatch(file))
+            return patch(file);
+        return rewrite(file);
+    }
+
+    private boolean canPatch(final File file) {
+        if (linesMoved || syncedFile == null || !syncedFile.equals(file))
+            return false;
+        if (file.length() != syncedLength || file.lastModified() != syncedModified)
+            return false;
+        for (int line = lines.head(); line != PropertiesLines.NONE; line = lines.next(line)) {
+            if (!lines.isDirty(line))
+                continue;
+            int length = lines.getKey(line).length() + 3 + lines.getValue(line).length();
+            if (length > lines.getLength(line))
+                return false;
+        }
+        return true;
+    }
+
+    private long patch(final File file) throws IOException {
+        long written = 0;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            for (int line = lines.head(); line != PropertiesLines.NONE; line = lines.next(line)) {
+                if (lines.isDirty(line)) {
+                    // White spaces after the separator are not part of the
+                    // value, they fill the room left by a shorter value.
+                    int length = lines.getLength(line);
+                    String value = lines.getValue(line);
+                    StringBuilder sb = new StringBuilder(length);
+                    sb.append(lines.getKey(line)).append(" =");
+                    while (sb.length() < length - value.length())
+                        sb.append(' ');
+                    sb.append(value);
+                    String text = sb.toString();
+                    lines.setText(line, text);
+                    lines.synced(line, lines.getOffset(line), length);
+
+                    byte[] bytes = text.getBytes(CHARSET);
+                    raf.seek(lines.getOffset(line));
+                    raf.write(bytes);
+                    written += bytes.length;
                 }
-                else { // A property (key/value pair)
-                    @SuppressWarnings("unchecked")
-                    Entry<String, String> entry = ((Entry<String, String>) obj);
-                    line = entry.getKey() + " = " + entry.getValue();
+            }
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+        markSynced(file);
+        return written;
+    }
+
+    private long rewrite(final File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        long written = 0;
+        try {
+            FileOutputStream fos = new FileOutputStream(temp);
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(fos, CHARSET));
+                for (int line = lines.head(); line != PropertiesLines.NONE;
+                        line = lines.next(line)) {
+                    String text = lines.getText(line);
+                    writer.write(text, 0, text.length());
+                    writer.write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length());
+                    lines.synced(line, written, text.length());
+                    written += text.length() + LINE_SEPARATOR.length();
                 }
-                line += LINE_SEPARATOR;
-                writer.write(line, 0, line.length());
+                writer.flush();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
             }
+            // File.renameTo() does not replace an existing file on every
+            // platform.
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+                throw new IOException("Unable to rename " + temp + " to " + file);
+        } finally {
+            if (temp.exists())
+                temp.delete();
         }
+        linesMoved = false;
+        markSynced(file);
+        return written;
+    }
+
+    private void markSynced(final File file) {
+        syncedFile = file;
+        syncedLength = file.length();
+        syncedModified = file.lastModified();
     }
 
     // _________________________________________________________________________
@@ -343,38 +533,27 @@ public class PropertiesConf implements Serializable, Cloneable {
      * @return The previous value of the key or <code>null</code> if the key did
      *         not have a value or did not exist.
      */
-    public String put(final String key, final String value) {
-        Entry<String, String> newEntry =
-                new SimpleEntry<String, String>(key, value);
-        String previousValue = null;
+    public synchronized String put(final String key, final String value) {
+        String previousValue = putLine(key, value);
+        publish();
+        return previousValue;
+    }
 
-        if (!containsKey(key)) { // If the key was not present yet !
-            totalLines++;
-            map.put(totalLines, newEntry);
+    private String putLine(final String key, final String value) {
+        int line = lines.find(key);
 
-        } else {
+        if (line == PropertiesLines.NONE) { // If the key was not present yet !
+            lines.add(null, key, value, PropertiesLines.NONE);
+            linesMoved = true;
+            return null;
 
-            // If the key is already present in the map, so let's update the
-            // value of the property !
-            Set<Integer> lineNumbers = map.keySet();
-            synchronized (map) {
-                Iterator<Integer> iter = lineNumbers.iterator();
-                while (iter.hasNext()) {
-                    int lineNum = iter.next();
-                    Object obj = map.get(lineNum);
-                    if (obj instanceof Entry<?, ?>) {
-                        @SuppressWarnings("unchecked")
-                        Entry<String, String> e = ((Entry<String, String>) obj);
-                        if (e.getKey().equals(key)) {
-                            previousValue = e.getValue();
-                            map.put(lineNum, newEntry);
-                            break;
-                        }
-                    }
-                }
-            }
+        } else {
+            // If the key is already present, so let's update the value of the
+            // property !
+            String previousValue = lines.getValue(line);
+            lines.setValue(line, value);
+            return previousValue;
         }
-        return previousValue;
     }
 
     // _________________________________________________________________________
@@ -397,18 +576,14 @@ public class PropertiesConf implements Serializable, Cloneable {
         if (containsKey(key)) {
             return put(key, value);
         }
-        Integer lineNum = getLineNumberOfSpecifiedKey(keyReferer);
-        if (lineNum == null) {
+        int referer = lines.find(keyReferer);
+        if (referer == PropertiesLines.NONE) {
             return put(key, value);
 
         } else {
-            for (int i = totalLines; i > lineNum; i--) {
-                Object obj = map.get(i); // Can be a comment or a property.
-                map.put(i + 1, obj);
-            }
-            Entry<String, String> entry = new SimpleEntry<String, String>(key, value);
-            map.put(lineNum + 1, entry);
-            totalLines++;
+            lines.add(null, key, value, lines.next(referer));
+            linesMoved = true;
+            publish();
             return null;
         }
     }
@@ -434,17 +609,13 @@ public class PropertiesConf implements Serializable, Cloneable {
         if (containsKey(key)) {
             return put(key, value);
         }
-        Integer lineNum = getLineNumberOfSpecifiedKey(keyReferer);
-        if (lineNum == null) {
+        int referer = lines.find(keyReferer);
+        if (referer == PropertiesLines.NONE) {
             return put(key, value);
         } else {
-            for (int i = totalLines; i >= lineNum; i--) {
-                Object obj = map.get(i);
-                map.put(i + 1, obj);
-            }
-            Entry<String, String> entry = new SimpleEntry<String, String>(key, value);
-            map.put(lineNum, entry);
-            totalLines++;
+            lines.add(null, key, value, referer);
+            linesMoved = true;
+            publish();
             return null;
         }
     }
@@ -459,114 +630,88 @@ public class PropertiesConf implements Serializable, Cloneable {
      * @return The value of the key which is removed, or <code>null</code> if
      *         the key did not exist or its associated value was null.
      */
-    public String remove(final String key) {
-        String currentValue = null;
-        Set<Integer> keysObject = map.keySet();
-        synchronized (map) {
-            Iterator<Integer> iter = keysObject.iterator();
-            while (iter.hasNext()) {
-                int lineNum = iter.next();
-                Object obj = map.get(lineNum);
-                if (obj instanceof Entry<?, ?>) {
-                    @SuppressWarnings("unchecked")
-                    Entry<String, String> e = ((Entry<String, String>) obj);
-                    if (e.getKey().equals(key)) {
-                        currentValue = e.getValue();
-                        map.remove(lineNum);
-                        totalLines--;
-                        break;
-                    }
-                }
-            }
-        }
-        return currentValue;
+    public synchronized String remove(final String key) {
+        int line = lines.find(key);
+        if (line == PropertiesLines.NONE)
+            return null;
+        String value = lines.getValue(line);
+        lines.remove(line);
+        linesMoved = true;
+        publish();
+        return value;
     }
 
     // _________________________________________________________________________
 
     /**
-     * Converts a line into an {@link Entry} if the specified line is not a
-     * comment, nor a blank line.
-     * 
-     * @param line
-     *            - The line to convert.
-     * @return An <code>Entry<String, String></code> if the specified line is a
-     *         valid key/value pair.
-     * @throws IOException
+     * Publishes a new copy of the properties if the snapshot mode is used.
+     * <p>
+     * <b>Note</b>: The caller must hold the lock of this properties.
+     * </p>
      */
-    private Entry<String, String> getLineProps(final String line) throws IOException {
-        ByteArrayInputStream in = new ByteArrayInputStream(line.getBytes(CHARSET));
-
-        try {
-            Properties props = new Properties();
-            props.load(in);
-
-            if (!props.isEmpty()) {
-                Enumeration<Object> keyObject = props.keys();
-                String key = (String) keyObject.nextElement();
-                String value = (String) props.get(key);
-                return new SimpleEntry<String, String>(key, value);
-
-            } else {
-                // (empty) No key/value pair in this line ...
-                return null;
-            }
-
-        } finally {
-            if (in != null)
-                in.close();
+    private void publish() {
+        if (snapshotReads) {
+            long version = (snapshot == null) ? 0 : snapshot.version + 1;
+            snapshot = new Snapshot(version, copyOfProperties());
         }
     }
 
-    /**
-     * 
-     * @param key
-     *            - The key for which we want its line position/number
-     * @return the line position/number if the key is found, <code>null</code>
-     *         otherwise.
-     */
-    private Integer getLineNumberOfSpecifiedKey(final String key) {
-        Set<Integer> mapKeys = map.keySet();
-        synchronized (map) {
-            Iterator<Integer> iter = mapKeys.iterator();
-            while (iter.hasNext()) {
-                Integer lineNum = iter.next();
-                Object obj = map.get(lineNum);
-                if (obj instanceof Entry<?, ?>) {
-                    @SuppressWarnings("unchecked")
-                    Entry<String, String> e = ((Entry<String, String>) obj);
-                    if (e.getKey().equals(key)) {
-                        return lineNum;
-                    }
-                }
-            }
-            return null;
+    private Map<String, String> copyOfProperties() {
+        Map<String, String> copy = new LinkedHashMap<String, String>();
+        for (int line = lines.head(); line != PropertiesLines.NONE; line = lines.next(line)) {
+            if (lines.isProperty(line))
+                copy.put(lines.getKey(line), lines.getValue(line));
         }
+        return Collections.unmodifiableMap(copy);
     }
 
-    private boolean isComment(final String line) {
-        String regex = "^\\s*(#|!)";
-        return isMatch(line, regex);
+    private void clearLines() {
+        lines.clear();
+        linesMoved = true;
     }
 
-    private boolean isBlank(final String line) {
-        String regex = "^\\s*$";
-        return isMatch(line, regex);
+    // _________________________________________________________________________
+
+    /*
+     * The lines are written one after another, in their order, rather than
+     * the arrays of the lines, which also hold the content loaded and the
+     * lines removed.
+     */
+    private synchronized void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(lines.size());
+        for (int line = lines.head(); line != PropertiesLines.NONE; line = lines.next(line)) {
+            boolean property = lines.isProperty(line);
+            out.writeObject(lines.getOwnText(line));
+            out.writeObject((property) ? lines.getKey(line) : null);
+            out.writeObject((property) ? lines.getValue(line) : null);
+        }
     }
 
-    private boolean isMatch(final String line, final String regex) {
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(line);
-        return matcher.find();
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        lines = new PropertiesLines();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String text = (String) in.readObject();
+            String key = (String) in.readObject();
+            String value = (String) in.readObject();
+            lines.add(text, key, value, PropertiesLines.NONE);
+        }
+        publish();
     }
 
     // _________________________________________________________________________
 
     @Override
-    public Object clone() {
-        Object o = null;
+    public synchronized Object clone() {
+        PropertiesConf o = null;
         try {
-            o = super.clone();
+            // The published snapshot is immutable and can be shared, but the
+            // lines are not, so the clone gets its own copy of them.
+            o = (PropertiesConf) super.clone();
+            o.syncedFile = null;
+            o.lines = lines.copy();
         } catch (CloneNotSupportedException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,568 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The lines of a {@link PropertiesConf}, in a doubly linked list, with an
+ * index of the line of each key.
+ * <p>
+ * A line is a number, whose fields are kept in arrays rather than in an
+ * object of its own: a big file loaded makes a few big arrays instead of
+ * millions of small objects that the garbage collector would copy again and
+ * again while the heap grows. A line read also keeps its text, its key and
+ * its value in the content loaded until they change, unless they have
+ * escapes.
+ * </p>
+ * <p>
+ * The index is an open addressing hash table of the numbers of the lines,
+ * with linear probing. The hash codes are spread by a multiplication, since
+ * the ones of keys such as <code>camera.1.fps</code>,
+ * <code>camera.2.fps</code> ... follow each other and would otherwise fill
+ * runs of slots.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+final class PropertiesLines {
+
+    /** No line. */
+    static final int             NONE         = -1;
+
+    private static final Charset CHARSET      = Charset.forName("ISO-8859-1");
+    private static final int     MIN_CAPACITY = 16;
+    /** 2^32 divided by the golden ratio. */
+    private static final int     SPREAD       = 0x9E3779B9;
+
+    /** The content loaded, in ISO-8859-1, never changed. */
+    private byte[]               content;
+
+    /** The number of lines allocated, linked or free. */
+    private int                  used;
+    private int                  size;
+    private int                  head;
+    private int                  tail;
+    /** The first of the lines removed, chained by next, to be reused. */
+    private int                  free;
+
+    private int[]                prev;
+    private int[]                next;
+    /**
+     * The text of a line which is not in the content, <code>null</code> for
+     * a property written as "key = value".
+     */
+    private String[]             texts;
+    /** The keys which are not in the content. */
+    private String[]             keys;
+    /** The values which are not in the content. */
+    private String[]             values;
+    /** Where the text starts in the content, or NONE. */
+    private int[]                starts;
+    /** Where the key ends in the content, or NONE. */
+    private int[]                keyEnds;
+    /** Where the value starts in the content, or NONE. */
+    private int[]                valueStarts;
+    private int[]                hashes;
+
+    /** The position of the line in the synced file. */
+    private long[]               offsets;
+    private int[]                lengths;
+    /** <code>true</code> when the value changed since the file was synced. */
+    private boolean[]            dirty;
+
+    /** The number of each line indexed plus one, 0 for a free slot. */
+    private int[]                table;
+    /** 32 minus the number of bits of a slot. */
+    private int                  shift;
+    private int                  indexed;
+
+    // _________________________________________________________________________
+
+    PropertiesLines() {
+        clear();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Removes all the lines.
+     */
+    void clear() {
+        reset(null, MIN_CAPACITY);
+    }
+
+    /**
+     * Replaces the lines with the ones of a content, the value of a key read
+     * twice going to the first line of the key.
+     * 
+     * @param bytes
+     *            - The content, in ISO-8859-1, kept by the lines.
+     * @return <code>true</code> if every line read is kept as it is, that is
+     *         if no key appears twice.
+     */
+    boolean load(final byte[] bytes) {
+        // Counted first, so that the arrays are not copied while they grow.
+        reset(bytes, countLines(bytes));
+        PropertiesParser parser = new PropertiesParser(bytes, bytes.length);
+        boolean linesKept = true;
+        while (parser.next()) {
+            int line;
+            if (parser.isProperty()) {
+                String key = parser.getKey();
+                int hash = parser.getKeyHash();
+                int found = (key != null) ? find(key, hash) : find(parser.getKeyOffset(),
+                        parser.getKeyEnd(), hash);
+                String value = parser.getValue();
+                if (found != NONE) {
+                    // The value of the first line is updated and this line
+                    // is dropped.
+                    linesKept = false;
+                    if (value == null)
+                        value = decode(parser.getValueOffset(), parser.getOffset()
+                                + parser.getLength());
+                    setValue(found, value);
+                    continue;
+                }
+                line = allocate(null, key, value);
+                keyEnds[line] = (key == null) ? parser.getKeyEnd() : NONE;
+                valueStarts[line] = parser.getValueOffset();
+                hashes[line] = hash;
+                link(line, NONE);
+                index(line);
+
+            } else {
+                line = allocate(null, null, null);
+                link(line, NONE);
+            }
+            starts[line] = parser.getOffset();
+            offsets[line] = parser.getOffset();
+            lengths[line] = parser.getLength();
+        }
+        return linesKept;
+    }
+
+    /**
+     * Inserts a new line.
+     * 
+     * @param text
+     *            - The text of the line, or <code>null</code> for a property
+     *            written as "key = value".
+     * @param key
+     *            - The key, or <code>null</code> for a comment or a blank line.
+     * @param successor
+     *            - The line before which to insert, or {@link #NONE} to
+     *            append the line at the end.
+     * @return The new line.
+     */
+    int add(final String text, final String key, final String value, final int successor) {
+        int line = allocate(text, key, value);
+        link(line, successor);
+        if (key != null) {
+            hashes[line] = key.hashCode();
+            index(line);
+        }
+        return line;
+    }
+
+    /**
+     * Removes a line.
+     */
+    void remove(final int line) {
+        if (isProperty(line))
+            unindex(line);
+        if (prev[line] == NONE)
+            head = next[line];
+        else
+            next[prev[line]] = next[line];
+        if (next[line] == NONE)
+            tail = prev[line];
+        else
+            prev[next[line]] = prev[line];
+        size--;
+        texts[line] = null;
+        keys[line] = null;
+        values[line] = null;
+        prev[line] = NONE;
+        next[line] = free;
+        free = line;
+    }
+
+    /**
+     * @return The line of the key, or {@link #NONE}.
+     */
+    int find(final String key) {
+        return find(key, key.hashCode());
+    }
+
+    /**
+     * @return A copy of the lines, sharing the content.
+     */
+    PropertiesLines copy() {
+        PropertiesLines copy = new PropertiesLines();
+        copy.content = content;
+        copy.used = used;
+        copy.size = size;
+        copy.head = head;
+        copy.tail = tail;
+        copy.free = free;
+        copy.prev = prev.clone();
+        copy.next = next.clone();
+        copy.texts = texts.clone();
+        copy.keys = keys.clone();
+        copy.values = values.clone();
+        copy.starts = starts.clone();
+        copy.keyEnds = keyEnds.clone();
+        copy.valueStarts = valueStarts.clone();
+        copy.hashes = hashes.clone();
+        copy.offsets = offsets.clone();
+        copy.lengths = lengths.clone();
+        copy.dirty = dirty.clone();
+        copy.setTable(table.clone());
+        copy.indexed = indexed;
+        return copy;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return The first line, or {@link #NONE}.
+     */
+    int head() {
+        return head;
+    }
+
+    /**
+     * @return The line following a line, or {@link #NONE}.
+     */
+    int next(final int line) {
+        return next[line];
+    }
+
+    /**
+     * @return The number of lines.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of properties.
+     */
+    int properties() {
+        return indexed;
+    }
+
+    boolean isProperty(final int line) {
+        return keys[line] != null || keyEnds[line] != NONE;
+    }
+
+    String getKey(final int line) {
+        if (keys[line] != null)
+            return keys[line];
+        return decode(keyStart(line), keyEnds[line]);
+    }
+
+    String getValue(final int line) {
+        if (valueStarts[line] != NONE)
+            return decode(valueStarts[line], starts[line] + lengths[line]);
+        return values[line];
+    }
+
+    /**
+     * Changes the value of a property, which is then written as
+     * "key = value".
+     */
+    void setValue(final int line, final String value) {
+        if (keys[line] == null) {
+            keys[line] = getKey(line);
+            keyEnds[line] = NONE;
+        }
+        values[line] = value;
+        texts[line] = null;
+        starts[line] = NONE;
+        valueStarts[line] = NONE;
+        dirty[line] = true;
+    }
+
+    /**
+     * @return The text of the line as written by
+     *         {@link PropertiesConf#store(java.io.OutputStream)}.
+     */
+    String getText(final int line) {
+        if (starts[line] != NONE)
+            return decode(starts[line], starts[line] + lengths[line]);
+        return (texts[line] != null) ? texts[line] : keys[line] + " = " + values[line];
+    }
+
+    /**
+     * @return The text of the line if it is not written as "key = value",
+     *         <code>null</code> otherwise.
+     */
+    String getOwnText(final int line) {
+        return (starts[line] != NONE) ? getText(line) : texts[line];
+    }
+
+    /**
+     * Sets the text of a property written in place of its previous text.
+     */
+    void setText(final int line, final String text) {
+        texts[line] = text;
+    }
+
+    long getOffset(final int line) {
+        return offsets[line];
+    }
+
+    int getLength(final int line) {
+        return lengths[line];
+    }
+
+    boolean isDirty(final int line) {
+        return dirty[line];
+    }
+
+    /**
+     * Remembers the position of a line written in the synced file.
+     */
+    void synced(final int line, final long offset, final int length) {
+        offsets[line] = offset;
+        lengths[line] = length;
+        dirty[line] = false;
+    }
+
+    // _________________________________________________________________________
+
+    private void reset(final byte[] bytes, final int capacity) {
+        content = bytes;
+        used = 0;
+        size = 0;
+        head = NONE;
+        tail = NONE;
+        free = NONE;
+        indexed = 0;
+        int lines = Math.max(MIN_CAPACITY, capacity);
+        prev = new int[lines];
+        next = new int[lines];
+        texts = new String[lines];
+        keys = new String[lines];
+        values = new String[lines];
+        starts = new int[lines];
+        keyEnds = new int[lines];
+        valueStarts = new int[lines];
+        hashes = new int[lines];
+        offsets = new long[lines];
+        lengths = new int[lines];
+        dirty = new boolean[lines];
+        setTable(new int[tableSize(lines)]);
+    }
+
+    /**
+     * @return The size of the table, at least twice the number of keys.
+     */
+    private static int tableSize(final int keyCount) {
+        int tableSize = MIN_CAPACITY;
+        while (tableSize < keyCount * 2)
+            tableSize <<= 1;
+        return tableSize;
+    }
+
+    /**
+     * @return The number of lines of a content, continued ones included.
+     */
+    private static int countLines(final byte[] bytes) {
+        int count = 1;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n')
+                count++;
+        }
+        return count;
+    }
+
+    private int allocate(final String text, final String key, final String value) {
+        int line;
+        if (free != NONE) {
+            line = free;
+            free = next[line];
+        } else {
+            if (used == prev.length)
+                grow(used * 2);
+            line = used++;
+        }
+        texts[line] = text;
+        keys[line] = key;
+        values[line] = value;
+        starts[line] = NONE;
+        keyEnds[line] = NONE;
+        valueStarts[line] = NONE;
+        offsets[line] = 0;
+        lengths[line] = 0;
+        dirty[line] = false;
+        return line;
+    }
+
+    private void grow(final int capacity) {
+        prev = Arrays.copyOf(prev, capacity);
+        next = Arrays.copyOf(next, capacity);
+        texts = Arrays.copyOf(texts, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        keyEnds = Arrays.copyOf(keyEnds, capacity);
+        valueStarts = Arrays.copyOf(valueStarts, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        dirty = Arrays.copyOf(dirty, capacity);
+    }
+
+    private void link(final int line, final int successor) {
+        int predecessor = (successor == NONE) ? tail : prev[successor];
+        prev[line] = predecessor;
+        next[line] = successor;
+        if (predecessor == NONE)
+            head = line;
+        else
+            next[predecessor] = line;
+        if (successor == NONE)
+            tail = line;
+        else
+            prev[successor] = line;
+        size++;
+    }
+
+    private int keyStart(final int line) {
+        return PropertiesParser.skipWhiteSpace(content, starts[line], keyEnds[line]);
+    }
+
+    private String decode(final int from, final int to) {
+        return new String(content, from, to - from, CHARSET);
+    }
+
+    // _________________________________________________________________________
+
+    private void setTable(final int[] slots) {
+        table = slots;
+        shift = Integer.numberOfLeadingZeros(slots.length) + 1;
+    }
+
+    private int slot(final int hash) {
+        return (hash * SPREAD) >>> shift;
+    }
+
+    private int find(final String key, final int hash) {
+        for (int i = slot(hash);; i = (i + 1) & (table.length - 1)) {
+            int line = table[i] - 1;
+            if (line == NONE)
+                return NONE;
+            if (hashes[line] == hash && hasKey(line, key))
+                return line;
+        }
+    }
+
+    /**
+     * @return The line of the key which lies in the content, or
+     *         {@link #NONE}.
+     */
+    private int find(final int from, final int to, final int hash) {
+        for (int i = slot(hash);; i = (i + 1) & (table.length - 1)) {
+            int line = table[i] - 1;
+            if (line == NONE)
+                return NONE;
+            if (hashes[line] == hash && hasKey(line, from, to))
+                return line;
+        }
+    }
+
+    private boolean hasKey(final int line, final String key) {
+        if (keys[line] != null)
+            return keys[line].equals(key);
+        int start = keyStart(line);
+        int length = keyEnds[line] - start;
+        if (length != key.length())
+            return false;
+        for (int i = 0; i < length; i++) {
+            if ((content[start + i] & 0xFF) != key.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean hasKey(final int line, final int from, final int to) {
+        if (keys[line] != null)
+            return hasKey(line, decode(from, to));
+        int start = keyStart(line);
+        int length = keyEnds[line] - start;
+        if (length != to - from)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (content[start + i] != content[from + i])
+                return false;
+        }
+        return true;
+    }
+
+    private void index(final int line) {
+        if ((indexed + 1) * 2 > table.length)
+            rehash(table.length * 2);
+        int i = slot(hashes[line]);
+        while (table[i] != 0)
+            i = (i + 1) & (table.length - 1);
+        table[i] = line + 1;
+        indexed++;
+    }
+
+    /**
+     * Removes a line from the index, moving back the lines which follow it
+     * in the run of its slot.
+     */
+    private void unindex(final int line) {
+        int mask = table.length - 1;
+        int i = slot(hashes[line]);
+        while (table[i] != line + 1)
+            i = (i + 1) & mask;
+        table[i] = 0;
+        indexed--;
+        for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = slot(hashes[table[j] - 1]);
+            // Moved back unless its slot is between the hole and it.
+            boolean between = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+            if (!between) {
+                table[i] = table[j];
+                table[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    private void rehash(final int tableSize) {
+        int[] old = table;
+        setTable(new int[tableSize]);
+        for (int i = 0; i < old.length; i++) {
+            int entry = old[i];
+            if (entry != 0) {
+                int j = slot(hashes[entry - 1]);
+                while (table[j] != 0)
+                    j = (j + 1) & (tableSize - 1);
+                table[j] = entry;
+            }
+        }
+    }
+}
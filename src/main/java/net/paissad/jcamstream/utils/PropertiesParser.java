@@ -0,0 +1,379 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.nio.charset.Charset;
+import java.util.Properties;
+
+/**
+ * Single pass tokenizer of a properties file, used by {@link PropertiesConf}.
+ * <p>
+ * It splits the content of the file, read at once, into lines the same way
+ * {@link Properties#load(java.io.Reader)} does (continuation lines,
+ * separators, escapes and unicode escapes), but it also reports the comments
+ * and the blank lines, and where each line lies in the content so that it can
+ * be written back untouched.
+ * </p>
+ * <p>
+ * Nothing is copied out of the content but the keys and the values which
+ * differ from their text: a key or a value without escape nor continuation
+ * is only reported by its position.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+class PropertiesParser {
+
+    private static final Charset CHARSET   = Charset.forName("ISO-8859-1");
+
+    private final byte[]         content;
+    private final int            end;
+    private int                  position  = 0;
+
+    /** The offset and the length of the text of the current line. */
+    private int                  offset;
+    private int                  length;
+
+    /**
+     * The current line without its continuation backslashes, used only when
+     * it is continued.
+     */
+    private byte[]               logical   = new byte[256];
+
+    /** Scratch buffer used to unescape the key and the value. */
+    private char[]               unescaped = new char[256];
+
+    private boolean              property;
+    private String               key;
+    private int                  keyOffset;
+    private int                  keyEnd;
+    private int                  keyHash;
+    private String               value;
+    private int                  valueOffset;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param content
+     *            - The content of the file, in ISO-8859-1.
+     * @param length
+     *            - The number of bytes of the content.
+     */
+    PropertiesParser(final byte[] content, final int length) {
+        this.content = content;
+        this.end = length;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Reads the next line, which may span several physical lines if it is a
+     * property continued with a backslash.
+     * 
+     * @return <code>true</code> if a line was read, <code>false</code> at the
+     *         end of the content.
+     */
+    boolean next() {
+        if (position >= end)
+            return false;
+        offset = position;
+        key = null;
+        keyOffset = -1;
+        keyEnd = -1;
+        value = null;
+        valueOffset = -1;
+
+        int lineEnd = endOfLine(position);
+        position = skipTerminator(lineEnd);
+        length = lineEnd - offset;
+
+        int first = skipWhiteSpace(content, offset, lineEnd);
+        if (first == lineEnd || content[first] == '#' || content[first] == '!') {
+            // A blank line or a comment, a comment is never continued.
+            property = false;
+            return true;
+        }
+
+        property = true;
+        if (!endsWithContinuation(content, first, lineEnd)) {
+            splitKeyAndValue(content, first, lineEnd, true);
+            return true;
+        }
+
+        // A continued property, rare enough to be copied.
+        int logicalLength = 0;
+        int from = first;
+        int to = lineEnd;
+        while (true) {
+            boolean continued = endsWithContinuation(content, from, to);
+            logicalLength = appendLogical(logicalLength, from, continued ? to - 1 : to);
+            if (!continued || position >= end && to == end)
+                break;
+            to = endOfLine(position);
+            from = skipWhiteSpace(content, position, to);
+            position = skipTerminator(to);
+            length = to - offset;
+        }
+        splitKeyAndValue(logical, 0, logicalLength, false);
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if the current line is a key/value pair,
+     *         <code>false</code> if it is a comment or a blank line.
+     */
+    boolean isProperty() {
+        return property;
+    }
+
+    /**
+     * @return The offset of the current line from the start of the content,
+     *         which is also its offset in characters.
+     */
+    int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return The length of the text of the current line, without its line
+     *         terminator. The terminators of the continued lines are part of
+     *         it.
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * @return The unescaped key of the current line if it is a property and
+     *         if it differs from its text, <code>null</code> otherwise.
+     * @see #getKeyOffset()
+     */
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * @return The offset of the key of the current line from the start of the
+     *         content, if the key is its text, -1 otherwise.
+     */
+    int getKeyOffset() {
+        return keyOffset;
+    }
+
+    /**
+     * @return The end (exclusive) of the key of the current line in the
+     *         content, if the key is its text, -1 otherwise.
+     */
+    int getKeyEnd() {
+        return keyEnd;
+    }
+
+    /**
+     * @return The hash code of the key of the current line, the one of its
+     *         String.
+     */
+    int getKeyHash() {
+        return keyHash;
+    }
+
+    /**
+     * @return The unescaped value of the current line if it is a property and
+     *         if it is not the end of its text, <code>null</code> otherwise.
+     * @see #getValueOffset()
+     */
+    String getValue() {
+        return value;
+    }
+
+    /**
+     * @return The offset of the value of the current line from the start of
+     *         the content, if the value is the text from there to the end of
+     *         the line, -1 otherwise.
+     */
+    int getValueOffset() {
+        return valueOffset;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return The index of the '\n' or the '\r' which ends the physical line
+     *         starting at the index, or the end of the content.
+     */
+    private int endOfLine(final int from) {
+        int i = from;
+        while (i < end && content[i] != '\n' && content[i] != '\r')
+            i++;
+        return i;
+    }
+
+    /**
+     * @return The index following the line terminator at the index.
+     */
+    private int skipTerminator(final int lineEnd) {
+        if (lineEnd >= end)
+            return end;
+        if (content[lineEnd] == '\r' && lineEnd + 1 < end && content[lineEnd + 1] == '\n')
+            return lineEnd + 2;
+        return lineEnd + 1;
+    }
+
+    /**
+     * @return <code>true</code> if the line ends with an odd number of
+     *         backslashes.
+     */
+    private static boolean endsWithContinuation(final byte[] bytes, final int from, final int to) {
+        int count = 0;
+        for (int i = to - 1; i >= from && bytes[i] == '\\'; i--)
+            count++;
+        return (count & 1) == 1;
+    }
+
+    private int appendLogical(final int logicalLength, final int from, final int to) {
+        int count = to - from;
+        if (logicalLength + count > logical.length) {
+            byte[] bigger = new byte[Math.max(logicalLength + count, logical.length * 2)];
+            System.arraycopy(logical, 0, bigger, 0, logicalLength);
+            logical = bigger;
+        }
+        System.arraycopy(content, from, logical, logicalLength, count);
+        return logicalLength + count;
+    }
+
+    /**
+     * Splits a logical line into its key and its value.
+     * 
+     * @param bytes
+     *            - The content, or the logical line if it is continued.
+     * @param start
+     *            - The index of the first character of the key.
+     * @param to
+     *            - The end of the logical line (exclusive).
+     * @param inContent
+     *            - Whether the bytes are the content, so that the key and the
+     *            value may be reported by their position.
+     */
+    private void splitKeyAndValue(final byte[] bytes, final int start, final int to,
+            final boolean inContent) {
+        int end = start;
+        boolean escaped = false;
+        while (end < to) {
+            byte c = bytes[end];
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '=' || c == ':' || c == ' ' || c == '\t' || c == '\f') {
+                break;
+            }
+            end++;
+        }
+
+        int valueStart = skipWhiteSpace(bytes, end, to);
+        if (valueStart < to && (bytes[valueStart] == '=' || bytes[valueStart] == ':')) {
+            valueStart = skipWhiteSpace(bytes, valueStart + 1, to);
+        }
+
+        if (inContent && indexOfBackslash(bytes, start, end) < 0) {
+            keyOffset = start;
+            keyEnd = end;
+            keyHash = hashCode(bytes, start, end);
+        } else {
+            key = unescape(bytes, start, end);
+            keyHash = key.hashCode();
+        }
+        if (inContent && indexOfBackslash(bytes, valueStart, to) < 0)
+            valueOffset = valueStart;
+        else
+            value = unescape(bytes, valueStart, to);
+    }
+
+    /**
+     * @return The hash code of the String of the characters, computed the
+     *         same way as {@link String#hashCode()}.
+     */
+    static int hashCode(final byte[] bytes, final int from, final int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++)
+            hash = 31 * hash + (bytes[i] & 0xFF);
+        return hash;
+    }
+
+    private static int indexOfBackslash(final byte[] bytes, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == '\\')
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Converts the escape sequences of a part of a line.
+     * 
+     * @param from
+     *            - The first index (inclusive).
+     * @param to
+     *            - The last index (exclusive).
+     * @return The unescaped String.
+     */
+    private String unescape(final byte[] bytes, final int from, final int to) {
+        if (indexOfBackslash(bytes, from, to) < 0)
+            return new String(bytes, from, to - from, CHARSET);
+        if (unescaped.length < to - from)
+            unescaped = new char[Math.max(to - from, unescaped.length * 2)];
+
+        int count = 0;
+        int i = from;
+        while (i < to) {
+            char c = (char) (bytes[i++] & 0xFF);
+            if (c == '\\' && i < to) {
+                c = (char) (bytes[i++] & 0xFF);
+                if (c == 'u') {
+                    int code = 0;
+                    for (int j = 0; j < 4; j++) {
+                        if (i >= to)
+                            throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                        int digit = Character.digit((char) (bytes[i++] & 0xFF), 16);
+                        if (digit < 0)
+                            throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                        code = (code << 4) + digit;
+                    }
+                    c = (char) code;
+                } else if (c == 't') {
+                    c = '\t';
+                } else if (c == 'r') {
+                    c = '\r';
+                } else if (c == 'n') {
+                    c = '\n';
+                } else if (c == 'f') {
+                    c = '\f';
+                }
+            }
+            unescaped[count++] = c;
+        }
+        return new String(unescaped, 0, count);
+    }
+
+    static int skipWhiteSpace(final byte[] bytes, final int from, final int to) {
+        int i = from;
+        while (i < to && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == '\f'))
+            i++;
+        return i;
+    }
+}
@@ -0,0 +1,563 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+import net.paissad.jcamstream.factory.JCSLoggerFactory;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.SessionFactory;
+
+/**
+ * Keeps an authenticated SSH connection to a server, and uploads files over
+ * several SFTP channels of that connection at once.
+ * <p>
+ * The connection is opened and authenticated once, then reused for all the
+ * files; the SFTP channels are opened when needed, up to the number given,
+ * and kept between two uploads. The chunks of a file are sent without
+ * waiting for each reply, see {@link PipelinedSFTPEngine}. A connection lost
+ * is opened again at the next upload.
+ * </p>
+ * <p>
+ * The compression of SSH is chosen at the connection, so the files are sent
+ * over two connections: a compressed one for the files which compress well,
+ * such as the raw frames of the recordings, and a plain one for the files
+ * compressed already, recognized by their extension, on which compressing
+ * again only costs CPU. Each connection is opened at its first file.
+ * </p>
+ * <p>
+ * A manager is thread safe. It must be closed after use.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class SSHSessionManager {
+
+    public static final int            DEFAULT_CHANNELS   = 4;
+    /** The default number of chunks sent and not acknowledged yet. */
+    public static final int            DEFAULT_WINDOW     = 16;
+    public static final int            DEFAULT_CHUNK_SIZE = 32 * 1024;
+    /** How long a channel is waited for before the pool is checked again. */
+    private static final long          RESERVE_RETRY      = 100;
+    /** The default extensions of the files sent without compression. */
+    public static final List<String>   STORED_EXTENSIONS  = Collections.unmodifiableList(Arrays
+                                                                  .asList(".jpg", ".jpeg", ".png",
+                                                                          ".gif", ".mp3", ".mp4",
+                                                                          ".mkv", ".avi", ".ogg",
+                                                                          ".gz", ".zip", ".jar"));
+
+    private static Logger              logger             = JCSLoggerFactory
+                                                                  .getLogger(SSHSessionManager.class);
+
+    private final String               user;
+    private final String               password;
+    private final String               host;
+    private final int                  port;
+    private final int                  maxChannels;
+    private final Connection           plain;
+    private final Connection           compressed;
+    private final ExecutorService      executor;
+    /** The directories known to exist on the server. */
+    private final Set<String>          directories;
+
+    private volatile int               window             = DEFAULT_WINDOW;
+    private volatile int               chunkSize          = DEFAULT_CHUNK_SIZE;
+    private volatile boolean           compression        = true;
+    private volatile Set<String>       storedExtensions   = new HashSet<String>(STORED_EXTENSIONS);
+    private volatile BandwidthShaper   shaper;
+    private volatile String            shaperDestination;
+
+    private final AtomicLong           uploadedFiles      = new AtomicLong();
+    private final AtomicLong           uploadedBytes      = new AtomicLong();
+    private final AtomicLong           connections        = new AtomicLong();
+    private final AtomicLong           failures           = new AtomicLong();
+
+    // _________________________________________________________________________
+
+    /**
+     * @param user
+     *            - The user who connects to the SSH server.
+     * @param password
+     *            - The password of the user, or <code>null</code> to
+     *            authenticate with the keys of the local user.
+     * @param host
+     *            - The hostname of the SSH server.
+     * @param port
+     *            - The port of the SSH server, the default one if <= 0.
+     * @param channels
+     *            - The maximum number of SFTP channels of each connection,
+     *            and so of files uploaded at once.
+     */
+    public SSHSessionManager(String user, String password, String host, int port, int channels) {
+        this.user = user;
+        this.password = password;
+        this.host = host;
+        this.port = (port > 0) ? port : SSHClient.DEFAULT_PORT;
+        this.maxChannels = Math.max(1, channels);
+        this.plain = new Connection(false);
+        this.compressed = new Connection(true);
+        this.directories = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        final AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(maxChannels, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sftp-upload-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Uploads files to a directory of the server, as many at once as there
+     * are channels, and returns once they are all uploaded.
+     * 
+     * @param files
+     *            - The files to upload.
+     * @param remoteDir
+     *            - The directory of the server, created if needed.
+     * @throws IOException
+     *             If a file could not be uploaded, the others being uploaded
+     *             anyway.
+     */
+    public void uploadFiles(List<File> files, final String remoteDir) throws IOException {
+        List<Future<Void>> uploads = new ArrayList<Future<Void>>(files.size());
+        for (final File file : files) {
+            uploads.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    upload(file, remoteDir);
+                    return null;
+                }
+            }));
+        }
+
+        IOException failure = null;
+        int failed = 0;
+        for (Future<Void> upload : uploads) {
+            try {
+                upload.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while uploading to " + host);
+            } catch (ExecutionException ee) {
+                failed++;
+                if (failure == null)
+                    failure = (ee.getCause() instanceof IOException) ? (IOException) ee.getCause()
+                            : new IOException(ee.getCause());
+            }
+        }
+        if (failed > 1)
+            throw new IOException("Unable to upload " + failed + " of " + files.size()
+                    + " files to " + host, failure);
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Uploads a file from the calling thread, with one of the channels. A
+     * channel lost is replaced once.
+     * 
+     * @param file
+     *            - The file to upload, given the same name on the server.
+     * @param remoteDir
+     *            - The directory of the server, created if needed.
+     * @throws IOException
+     */
+    public void upload(File file, String remoteDir) throws IOException {
+        Connection connection = (compression && isCompressible(file)) ? compressed : plain;
+        String dir = remoteDir.endsWith("/") ? remoteDir.substring(0, remoteDir.length() - 1)
+                : remoteDir;
+        for (int attempt = 0;; attempt++) {
+            PipelinedSFTPEngine channel = connection.borrow();
+            boolean reusable = false;
+            try {
+                if (dir.length() > 0 && !directories.contains(dir)) {
+                    channel.mkdirs(dir);
+                    directories.add(dir);
+                }
+                InputStream in = new BufferedInputStream(new FileInputStream(file));
+                BandwidthShaper fileShaper = shaper;
+                if (fileShaper != null)
+                    in = fileShaper.wrap(in, shaperDestination, fileShaper.getLane(file.getName()));
+                try {
+                    channel.upload(in, dir + "/" + file.getName(), window, chunkSize);
+                } finally {
+                    in.close();
+                }
+                reusable = true;
+                uploadedFiles.incrementAndGet();
+                uploadedBytes.addAndGet(file.length());
+                return;
+            } catch (IOException ioe) {
+                if (attempt > 0 || !file.isFile()) {
+                    failures.incrementAndGet();
+                    throw ioe;
+                }
+                logger.warn("Upload of {} to {} interrupted, trying again : {}", new Object[] {
+                        file, host, ioe });
+            } finally {
+                connection.giveBack(channel, reusable);
+            }
+        }
+    }
+
+    /**
+     * Closes the channels and the connections, waiting for the uploads in
+     * progress.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        plain.close();
+        compressed.close();
+    }
+
+    /**
+     * @return Whether the file is sent over the compressed connection, unless
+     *         the compression is disabled.
+     */
+    public boolean isCompressible(File file) {
+        String extension = CommonUtils.getFilenameExtension(file.getName());
+        return !storedExtensions.contains(extension.toLowerCase(Locale.ENGLISH));
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @param window
+     *            - The number of chunks of a file sent before waiting for the
+     *            reply to the first one, 1 to wait for each chunk.
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * @param chunkSize
+     *            - The number of bytes of a chunk, lowered to fit in a packet
+     *            of the channels.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * @param compression
+     *            - Whether the files which are not compressed already are
+     *            sent over a compressed connection, <code>true</code> by
+     *            default.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @param extensions
+     *            - The extensions, such as <code>".mp4"</code>, of the files
+     *            sent without compression.
+     * @see #STORED_EXTENSIONS
+     */
+    public void setStoredExtensions(List<String> extensions) {
+        Set<String> stored = new HashSet<String>();
+        for (String extension : extensions)
+            stored.add(extension.toLowerCase(Locale.ENGLISH));
+        storedExtensions = stored;
+    }
+
+    /**
+     * @param shaper
+     *            - The shaper through which the files are read, or
+     *            <code>null</code> to send them at full speed.
+     * @param destination
+     *            - The name of the destination whose rate applies.
+     */
+    public void setShaper(BandwidthShaper shaper, String destination) {
+        this.shaperDestination = destination;
+        this.shaper = shaper;
+    }
+
+    /**
+     * @return The number of SFTP channels open, both connections included.
+     */
+    public int getChannelCount() {
+        return plain.channels.get() + compressed.channels.get();
+    }
+
+    public long getUploadedFiles() {
+        return uploadedFiles.get();
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    /**
+     * @return The number of connections opened since the creation.
+     */
+    public long getConnections() {
+        return connections.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SSHSessionManager [" + user + "@" + host + ":" + port + ", channels="
+                + getChannelCount() + "/" + maxChannels + ", window=" + window + ", uploaded="
+                + uploadedFiles.get() + " (" + uploadedBytes.get() / 1024 + " KB), connections="
+                + connections.get() + ", failures=" + failures.get() + "]";
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Opens and authenticates a connection to the server.
+     * 
+     * @param compression
+     *            - Whether the connection is compressed.
+     * @return The connection, from which the channels are opened.
+     */
+    SessionFactory connect(boolean compression) throws IOException {
+        SSHClient ssh = new SSHClient();
+        try {
+            ssh.loadKnownHosts();
+            if (compression)
+                ssh.useCompression();
+            ssh.connect(host, port);
+            if (password != null)
+                ssh.authPassword(user, password);
+            else
+                ssh.authPublickey(user);
+        } catch (IOException ioe) {
+            disconnect(ssh);
+            throw ioe;
+        }
+        return ssh;
+    }
+
+    /**
+     * @return Whether the connection may open channels.
+     */
+    boolean isConnected(SessionFactory connection) {
+        return !(connection instanceof SSHClient) || ((SSHClient) connection).isConnected();
+    }
+
+    void disconnect(SessionFactory connection) {
+        if (!(connection instanceof SSHClient))
+            return;
+        try {
+            ((SSHClient) connection).disconnect();
+        } catch (IOException ioe) {
+            logger.debug("Unable to close the connection to {} : {}", host, ioe);
+        }
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * A connection to the server and its channels.
+     */
+    private class Connection {
+
+        private final boolean                            compression;
+        private final BlockingQueue<PipelinedSFTPEngine> idle;
+        /** One permit per channel which may be borrowed, open or not. */
+        private final Semaphore                          permits;
+        private final AtomicInteger                      channels = new AtomicInteger();
+        private SessionFactory                           session;
+
+        private Connection(boolean compression) {
+            this.compression = compression;
+            this.idle = new LinkedBlockingQueue<PipelinedSFTPEngine>();
+            this.permits = new Semaphore(maxChannels, true);
+        }
+
+        /**
+         * @return An idle channel still open, a new one if none is idle and
+         *         there are less than the maximum, otherwise the first one
+         *         given back. It must be given back, see
+         *         {@link #giveBack(PipelinedSFTPEngine, boolean)}.
+         */
+        private PipelinedSFTPEngine borrow() throws IOException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a channel to " + host);
+            }
+            boolean borrowed = false;
+            try {
+                while (true) {
+                    PipelinedSFTPEngine channel = idle.poll();
+                    if (channel == null) {
+                        if (reserve()) {
+                            try {
+                                channel = open();
+                            } catch (IOException ioe) {
+                                channels.decrementAndGet();
+                                throw ioe;
+                            }
+                            borrowed = true;
+                            return channel;
+                        }
+                        // A channel given back is being discarded.
+                        channel = idle.poll(RESERVE_RETRY, TimeUnit.MILLISECONDS);
+                        if (channel == null)
+                            continue;
+                    }
+                    if (channel.getSubsystem().isOpen()) {
+                        borrowed = true;
+                        return channel;
+                    }
+                    // Closed while idle, the connection was likely lost.
+                    discard(channel);
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a channel to " + host);
+            } finally {
+                if (!borrowed)
+                    permits.release();
+            }
+        }
+
+        /**
+         * @return <code>false</code> if the maximum of channels is open.
+         */
+        private boolean reserve() {
+            int count;
+            do {
+                count = channels.get();
+                if (count >= maxChannels)
+                    return false;
+            } while (!channels.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /**
+         * Gives back a channel borrowed, kept for the next upload if it is
+         * still usable, closed otherwise.
+         */
+        private void giveBack(PipelinedSFTPEngine channel, boolean reusable) {
+            if (reusable)
+                release(channel);
+            else
+                discard(channel);
+            permits.release();
+        }
+
+        private PipelinedSFTPEngine open() throws IOException {
+            SessionFactory current = connected();
+            try {
+                PipelinedSFTPEngine channel = new PipelinedSFTPEngine(current);
+                channel.init();
+                return channel;
+            } catch (IOException ioe) {
+                // Lost meanwhile, opened again at the next channel.
+                close(current);
+                throw ioe;
+            }
+        }
+
+        /**
+         * @return The connection, opened if needed.
+         */
+        private synchronized SessionFactory connected() throws IOException {
+            if (session != null && !isConnected(session)) {
+                disconnect(session);
+                session = null;
+            }
+            if (session == null) {
+                session = connect(compression);
+                connections.incrementAndGet();
+                logger.info("Connected to {} ({})", host, compression ? "compressed" : "plain");
+            }
+            return session;
+        }
+
+        private void release(PipelinedSFTPEngine channel) {
+            idle.add(channel);
+        }
+
+        private void discard(PipelinedSFTPEngine channel) {
+            channels.decrementAndGet();
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                logger.debug("Unable to close a channel to {} : {}", host, ioe);
+            }
+        }
+
+        /**
+         * Closes the connection, unless it was opened again since.
+         */
+        private synchronized void close(SessionFactory lost) {
+            if (session == lost) {
+                disconnect(session);
+                session = null;
+            }
+        }
+
+        private synchronized void close() {
+            PipelinedSFTPEngine channel;
+            while ((channel = idle.poll()) != null)
+                discard(channel);
+            if (session != null) {
+                disconnect(session);
+                session = null;
+            }
+        }
+    }
+}
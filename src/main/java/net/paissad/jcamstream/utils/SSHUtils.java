@@ -19,6 +19,7 @@ package net.paissad.jcamstream.utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
 import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.xfer.FileSystemFile;
@@ -34,12 +35,16 @@ public class SSHUtils {
      * https://github.com/shikhar/sshj/tree/master/src/main/java/examples
      */
 
-    private String    sshUser;
-    private String    sshPassword;
-    private String    sshServerHost;
-    private int       sshServerPort;
+    private String          sshUser;
+    private String          sshPassword;
+    private String          sshServerHost;
+    private int             sshServerPort;
 
-    private SSHClient ssh;
+    private boolean         compression;
+    private BandwidthShaper shaper;
+    private String          shaperDestination;
+
+    private SSHClient       ssh;
 
     // _________________________________________________________________________
     // Constructors ...
@@ -67,7 +72,8 @@ public class SSHUtils {
 
     /**
      * Sends an InputStream to SSH server where the connection and then create a
-     * file using the specified filename.
+     * file using the specified filename. The connection is authenticated at
+     * the first file only.
      * 
      * @param localFile
      *            - The local file to upload to the SSH server.
@@ -77,12 +83,25 @@ public class SSHUtils {
      * @throws IOException
      */
     public void scpUpload(File localFile, String remoteDirName) throws IOException {
-        // TODO: the user name to use should not be hard coded !
-        String localUserName = System.getProperty("user.name");
-        ssh.authPublickey(localUserName);
-        ssh.useCompression();
+        if (!ssh.isAuthenticated()) {
+            // TODO: the user name to use should not be hard coded !
+            String localUserName = System.getProperty("user.name");
+            ssh.authPublickey(localUserName);
+        }
         SCPFileTransfer scp = ssh.newSCPFileTransfer();
-        scp.upload(new FileSystemFile(localFile), remoteDirName);
+        FileSystemFile file = new FileSystemFile(localFile);
+        if (shaper != null) {
+            final BandwidthShaper fileShaper = shaper;
+            final String destination = shaperDestination;
+            final BandwidthShaper.Lane lane = shaper.getLane(localFile.getName());
+            file = new FileSystemFile(localFile) {
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return fileShaper.wrap(super.getInputStream(), destination, lane);
+                }
+            };
+        }
+        scp.upload(file, remoteDirName);
     }
 
     // _________________________________________________________________________
@@ -97,6 +116,8 @@ public class SSHUtils {
      */
     public void establishConnection() throws IOException {
         ssh.loadKnownHosts();
+        if (this.isCompression())
+            ssh.useCompression();
         ssh.connect(this.getSshServerHost(), this.getSshServerPort());
     }
 
@@ -146,6 +167,38 @@ public class SSHUtils {
         this.sshServerPort = sshServerPort;
     }
 
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * @param compression
+     *            - Whether the connection is compressed, to be set before
+     *            connecting. Compressing the files which are compressed
+     *            already, such as videos, only costs CPU.
+     * @see SSHSessionManager
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public BandwidthShaper getShaper() {
+        return shaper;
+    }
+
+    /**
+     * @param shaper
+     *            - The shaper through which the files are read when
+     *            uploaded, or <code>null</code> to send them at full speed.
+     * @param destination
+     *            - The name of the destination whose rate applies to the
+     *            uploads.
+     */
+    public void setShaper(BandwidthShaper shaper, String destination) {
+        this.shaper = shaper;
+        this.shaperDestination = destination;
+    }
+
     // _________________________________________________________________________
 
     /*
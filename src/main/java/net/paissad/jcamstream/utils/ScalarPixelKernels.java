@@ -0,0 +1,127 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The {@link PixelKernels} reading one pixel at a time.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+class ScalarPixelKernels extends PixelKernels {
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public void absDiff(ByteBuffer a, ByteBuffer b, ByteBuffer dst, int length) {
+        absDiff(a, a.position(), b, b.position(), dst, dst.position(), length);
+    }
+
+    /**
+     * Same as {@link #absDiff(ByteBuffer, ByteBuffer, ByteBuffer, int)} from
+     * absolute indexes, for the remainder of the word kernels.
+     */
+    static void absDiff(ByteBuffer a, int i, ByteBuffer b, int j, ByteBuffer dst, int k, int length) {
+        for (int end = i + length; i < end; i++, j++, k++) {
+            int difference = (a.get(i) & 0xFF) - (b.get(j) & 0xFF);
+            dst.put(k, (byte) (difference < 0 ? -difference : difference));
+        }
+    }
+
+    @Override
+    public int threshold(ByteBuffer src, ByteBuffer dst, int length, int threshold) {
+        return threshold(src, src.position(), dst, dst.position(), length, threshold);
+    }
+
+    static int threshold(ByteBuffer src, int i, ByteBuffer dst, int k, int length, int threshold) {
+        int count = 0;
+        for (int end = i + length; i < end; i++, k++) {
+            if ((src.get(i) & 0xFF) > threshold) {
+                dst.put(k, (byte) 0xFF);
+                count++;
+            } else {
+                dst.put(k, (byte) 0);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void downscale(ByteBuffer src, int width, int height, int factor, ByteBuffer dst) {
+        int dstWidth = width / factor;
+        int dstHeight = height / factor;
+        int area = factor * factor;
+        int start = src.position();
+        int k = dst.position();
+        for (int y = 0; y < dstHeight; y++) {
+            int row = start + y * factor * width;
+            for (int x = 0; x < dstWidth; x++, k++) {
+                dst.put(k, (byte) average(src, row + x * factor, width, factor, area));
+            }
+        }
+    }
+
+    /**
+     * @return The rounded average of a block of pixels.
+     */
+    static int average(ByteBuffer src, int index, int width, int factor, int area) {
+        int sum = area / 2;
+        for (int y = 0; y < factor; y++, index += width) {
+            for (int x = 0; x < factor; x++) {
+                sum += src.get(index + x) & 0xFF;
+            }
+        }
+        return sum / area;
+    }
+
+    @Override
+    public void histogram(ByteBuffer src, int length, int[] histogram) {
+        for (int i = src.position(), end = i + length; i < end; i++) {
+            histogram[src.get(i) & 0xFF]++;
+        }
+    }
+
+    @Override
+    public void yuyvToRgb(ByteBuffer src, int width, int height, int[] dst) {
+        int p = src.position();
+        for (int i = 0, pixels = width * height; i < pixels; i += 2, p += 4) {
+            int u = (src.get(p + 1) & 0xFF) - 128;
+            int v = (src.get(p + 3) & 0xFF) - 128;
+            int r = 409 * v;
+            int g = -100 * u - 208 * v;
+            int b = 516 * u;
+            int y0 = 298 * ((src.get(p) & 0xFF) - 16) + 128;
+            int y1 = 298 * ((src.get(p + 2) & 0xFF) - 16) + 128;
+            dst[i] = rgb(y0 + r, y0 + g, y0 + b);
+            dst[i + 1] = rgb(y1 + r, y1 + g, y1 + b);
+        }
+    }
+
+    private static int rgb(int r, int g, int b) {
+        return (clamp(r >> 8) << 16) | (clamp(g >> 8) << 8) | clamp(b >> 8);
+    }
+
+    private static int clamp(int value) {
+        return (value < 0) ? 0 : (value > 255) ? 255 : value;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket, which limits the rate of bytes passed through it.
+ * <p>
+ * The tokens are added at the rate given, up to a burst of a tenth of a
+ * second of that rate. A request for more tokens than the bucket holds is
+ * served once the bucket is full, leaving it in debt, so that large reads are
+ * not starved by small ones. The rate may be changed at any time, the threads
+ * waiting then see the new one.
+ * </p>
+ * <p>
+ * The requests have a priority: a request waits as long as one of a higher
+ * priority waits too, or has been served in the last
+ * {@value #PRIORITY_GRACE} milliseconds, so that the reads of a stream of
+ * the higher priority, even if not waiting at a given time, keep going
+ * ahead.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class TokenBucket {
+
+    /** The smallest burst, in bytes, whatever the rate. */
+    public static final long  MIN_BURST      = 16 * 1024;
+    /**
+     * How long a priority keeps the lower ones waiting after its last request,
+     * in milliseconds.
+     */
+    public static final long  PRIORITY_GRACE = 50;
+
+    private static final long SECOND         = TimeUnit.SECONDS.toNanos(1);
+    private static final long GRACE          = TimeUnit.MILLISECONDS.toNanos(PRIORITY_GRACE);
+
+    private final int[]       waiting;
+    private final long[]      served;
+
+    private long              rate;
+    private long              capacity;
+    private double            tokens;
+    private long              refilled;
+
+    // _________________________________________________________________________
+
+    /**
+     * @param rate
+     *            - The number of bytes per second, 0 for no limit.
+     * @param priorities
+     *            - The number of priorities of the requests, 0 being the
+     *            highest one.
+     */
+    public TokenBucket(long rate, int priorities) {
+        this.waiting = new int[Math.max(1, priorities)];
+        this.served = new long[waiting.length];
+        this.refilled = System.nanoTime();
+        for (int i = 0; i < served.length; i++)
+            served[i] = refilled - GRACE;
+        this.setRate(rate);
+        this.tokens = capacity;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Takes tokens from the bucket, waiting until it holds enough.
+     * 
+     * @param n
+     *            - The number of tokens, that is of bytes.
+     * @param priority
+     *            - The priority of the request, 0 being the highest one.
+     * @throws InterruptedException
+     */
+    public synchronized void acquire(long n, int priority) throws InterruptedException {
+        if (n <= 0)
+            return;
+        waiting[priority]++;
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (rate <= 0) {
+                    break;
+                }
+                this.refill(now);
+                long delay = this.priorityDelay(priority, now);
+                if (delay <= 0) {
+                    double missing = Math.min(n, capacity) - tokens;
+                    if (missing <= 0) {
+                        tokens -= n;
+                        break;
+                    }
+                    delay = (long) Math.ceil(missing * SECOND / rate);
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, delay);
+            }
+            served[priority] = System.nanoTime();
+        } finally {
+            waiting[priority]--;
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * @return How long a request of the priority given must wait for the
+     *         higher ones, in nanoseconds, 0 if it may be served.
+     */
+    private long priorityDelay(int priority, long now) {
+        long delay = 0;
+        for (int i = 0; i < priority; i++) {
+            if (waiting[i] > 0)
+                return GRACE;
+            delay = Math.max(delay, served[i] + GRACE - now);
+        }
+        return delay;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (double) (now - refilled) * rate / SECOND);
+        refilled = now;
+    }
+
+    // _________________________________________________________________________
+
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * @param rate
+     *            - The number of bytes per second, 0 for no limit.
+     */
+    public synchronized void setRate(long rate) {
+        long now = System.nanoTime();
+        if (this.rate > 0)
+            this.refill(now);
+        this.rate = Math.max(0, rate);
+        this.capacity = Math.max(MIN_BURST, this.rate / 10);
+        this.tokens = Math.min(tokens, capacity);
+        this.refilled = now;
+        this.notifyAll();
+    }
+
+}
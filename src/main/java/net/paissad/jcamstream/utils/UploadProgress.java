@@ -0,0 +1,178 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Remembers on the disk how much of each file was uploaded, so that an
+ * upload interrupted, even by a restart of the application, goes on from
+ * the last chunk received by the server.
+ * <p>
+ * The progress of a file is forgotten when the file changes: its size or
+ * its modification time are saved with the offset. The whole progress is
+ * written again after each change, which is cheap since only the files
+ * being uploaded are saved.
+ * </p>
+ * <p>
+ * A progress is thread safe.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class UploadProgress {
+
+    private static final String SEPARATOR = ",";
+
+    private final File          file;
+    private final Properties    offsets   = new Properties();
+
+    // _________________________________________________________________________
+
+    /**
+     * @param file
+     *            - The file where the progress is saved, read if it exists.
+     * @throws IOException
+     *             If the file exists but cannot be read.
+     */
+    public UploadProgress(File file) throws IOException {
+        this.file = file;
+        File saved = file.isFile() ? file : getPrevious();
+        if (saved.isFile()) {
+            InputStream in = new BufferedInputStream(new FileInputStream(saved));
+            try {
+                offsets.load(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @param local
+     *            - The file uploaded.
+     * @param remoteFileName
+     *            - The name of the file on the server.
+     * @return The number of bytes of the file received by the server, 0 if
+     *         the file, or its name on the server, changed since.
+     */
+    public synchronized long getOffset(File local, String remoteFileName) {
+        String value = offsets.getProperty(local.getAbsolutePath());
+        if (value == null)
+            return 0;
+        String[] fields = value.split(SEPARATOR, 4);
+        try {
+            if (fields.length == 4 && Long.parseLong(fields[0]) == local.length()
+                    && Long.parseLong(fields[1]) == local.lastModified()
+                    && fields[3].equals(remoteFileName))
+                return Long.parseLong(fields[2]);
+        } catch (NumberFormatException nfe) {
+            // Damaged, uploaded again.
+        }
+        return 0;
+    }
+
+    /**
+     * Saves the number of bytes of a file received by the server.
+     * 
+     * @throws IOException
+     *             If the progress cannot be written.
+     */
+    public synchronized void setOffset(File local, String remoteFileName, long offset)
+            throws IOException {
+        offsets.setProperty(local.getAbsolutePath(), local.length() + SEPARATOR
+                + local.lastModified() + SEPARATOR + offset + SEPARATOR + remoteFileName);
+        save();
+    }
+
+    /**
+     * Forgets a file, uploaded completely.
+     * 
+     * @throws IOException
+     *             If the progress cannot be written.
+     */
+    public synchronized void remove(File local) throws IOException {
+        if (offsets.remove(local.getAbsolutePath()) != null)
+            save();
+    }
+
+    /**
+     * @return The number of files partly uploaded.
+     */
+    public synchronized int size() {
+        return offsets.size();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Writes and syncs a new file, then replaces the previous one with it, so
+     * that a crash does not leave a file partly written.
+     */
+    private void save() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory())
+            parent.mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            OutputStream out = new BufferedOutputStream(fos);
+            offsets.store(out, null);
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (!temp.renameTo(file)) {
+            // File.renameTo() does not replace an existing file on every
+            // platform: the previous file is moved aside, and read instead
+            // if a crash happens before the new one is in place.
+            File previous = getPrevious();
+            previous.delete();
+            if (!file.renameTo(previous) && file.exists()) {
+                temp.delete();
+                throw new IOException("Unable to replace " + file);
+            }
+            if (!temp.renameTo(file)) {
+                previous.renameTo(file);
+                temp.delete();
+                throw new IOException("Unable to replace " + file);
+            }
+            previous.delete();
+        }
+    }
+
+    private File getPrevious() {
+        return new File(file.getPath() + ".old");
+    }
+}
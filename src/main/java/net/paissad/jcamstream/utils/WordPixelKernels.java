@@ -0,0 +1,177 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The {@link PixelKernels} working on 8 pixels at a time, packed in a
+ * <code>long</code> ("SIMD within a register"). The arithmetic is done on
+ * the 8 bytes of the word at once, with masks which keep the carries and the
+ * borrows of a byte from reaching its neighbour. The pixels which do not fill
+ * a whole word are left to the scalar kernels.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+class WordPixelKernels extends ScalarPixelKernels {
+
+    /** The high bit of each byte. */
+    private static final long    HIGH  = 0x8080808080808080L;
+    /** The low 7 bits of each byte. */
+    private static final long    LOW   = 0x7F7F7F7F7F7F7F7FL;
+    /** The low byte of each 16 bits lane. */
+    private static final long    LANES = 0x00FF00FF00FF00FFL;
+    /** The rounding of an average of 4 pixels, in each 16 bits lane. */
+    private static final long    ROUND = 0x0002000200020002L;
+
+    /** Four histograms filled in turn, which breaks the dependency chains. */
+    private final int[]          counts    = new int[4 * 256];
+    private final ImageConverter converter = new ImageConverter();
+
+    @Override
+    public String getName() {
+        return "word";
+    }
+
+    @Override
+    public void absDiff(ByteBuffer a, ByteBuffer b, ByteBuffer dst, int length) {
+        int i = a.position();
+        int j = b.position();
+        int k = dst.position();
+        int words = length & ~7;
+        for (int n = 0; n < words; n += 8) {
+            long x = a.getLong(i + n);
+            long y = b.getLong(j + n);
+            long xy = subtract(x, y);
+            long yx = subtract(y, x);
+            long smaller = mask(borrows(x, y, xy));
+            dst.putLong(k + n, (xy & ~smaller) | (yx & smaller));
+        }
+        ScalarPixelKernels.absDiff(a, i + words, b, j + words, dst, k + words, length - words);
+    }
+
+    @Override
+    public int threshold(ByteBuffer src, ByteBuffer dst, int length, int threshold) {
+        int i = src.position();
+        int k = dst.position();
+        int words = length & ~7;
+        long limit = (threshold & 0xFF) * 0x0101010101010101L;
+        int count = 0;
+        for (int n = 0; n < words; n += 8) {
+            long x = src.getLong(i + n);
+            // A pixel is above the threshold when threshold - pixel borrows.
+            long above = borrows(limit, x, subtract(limit, x));
+            count += Long.bitCount(above);
+            dst.putLong(k + n, mask(above));
+        }
+        return count + ScalarPixelKernels.threshold(src, i + words, dst, k + words, length - words, threshold);
+    }
+
+    @Override
+    public void downscale(ByteBuffer src, int width, int height, int factor, ByteBuffer dst) {
+        if (factor != 2 || src.order() != dst.order()) {
+            super.downscale(src, width, height, factor, dst);
+            return;
+        }
+        int dstWidth = width / 2;
+        int dstHeight = height / 2;
+        // Each word of 8 pixels of two rows gives 4 pixels.
+        int words = (dstWidth & ~3) * 2;
+        int start = src.position();
+        int k = dst.position();
+        for (int y = 0; y < dstHeight; y++, k += dstWidth) {
+            int row = start + y * 2 * width;
+            int n = 0;
+            for (int o = k; n < words; n += 8, o += 4) {
+                long top = src.getLong(row + n);
+                long bottom = src.getLong(row + width + n);
+                long sums = (top & LANES) + ((top >>> 8) & LANES) + (bottom & LANES)
+                        + ((bottom >>> 8) & LANES);
+                long averages = ((sums + ROUND) >>> 2) & LANES;
+                long packed = averages | (averages >>> 8);
+                dst.putInt(o, (int) ((packed & 0xFFFFL) | ((packed >>> 16) & 0xFFFF0000L)));
+            }
+            for (int x = n / 2; x < dstWidth; x++) {
+                dst.put(k + x, (byte) average(src, row + x * 2, width, 2, 4));
+            }
+        }
+    }
+
+    @Override
+    public void histogram(ByteBuffer src, int length, int[] histogram) {
+        int[] c = counts;
+        Arrays.fill(c, 0);
+        int i = src.position();
+        int words = length & ~7;
+        for (int end = i + words; i < end; i += 8) {
+            long x = src.getLong(i);
+            int low = (int) x;
+            int high = (int) (x >>> 32);
+            c[low & 0xFF]++;
+            c[256 + ((low >>> 8) & 0xFF)]++;
+            c[512 + ((low >>> 16) & 0xFF)]++;
+            c[768 + (low >>> 24)]++;
+            c[high & 0xFF]++;
+            c[256 + ((high >>> 8) & 0xFF)]++;
+            c[512 + ((high >>> 16) & 0xFF)]++;
+            c[768 + (high >>> 24)]++;
+        }
+        for (int v = 0; v < 256; v++) {
+            histogram[v] += c[v] + c[256 + v] + c[512 + v] + c[768 + v];
+        }
+        for (int end = src.position() + length; i < end; i++) {
+            histogram[src.get(i) & 0xFF]++;
+        }
+    }
+
+    /**
+     * The conversion is the one of {@link ImageConverter}, which copies the
+     * rows out of the buffer in bulk and looks the products up in tables.
+     */
+    @Override
+    public void yuyvToRgb(ByteBuffer src, int width, int height, int[] dst) {
+        converter.yuyvToRgb(src, width, height, dst);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return x - y for each byte, modulo 256.
+     */
+    private static long subtract(long x, long y) {
+        return ((x | HIGH) - (y & LOW)) ^ ((x ^ ~y) & HIGH);
+    }
+
+    /**
+     * @param difference
+     *            - {@link #subtract(long, long)} of x and y.
+     * @return The high bit of each byte set where x < y.
+     */
+    private static long borrows(long x, long y, long difference) {
+        return ((~x & y) | (~(x ^ y) & difference)) & HIGH;
+    }
+
+    /**
+     * @return 0xFF for each byte whose high bit is set, 0 for the others.
+     */
+    private static long mask(long highBits) {
+        return (highBits >>> 7) * 0xFF;
+    }
+}
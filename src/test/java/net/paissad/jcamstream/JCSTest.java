@@ -0,0 +1,112 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.paissad.jcamstream.configuration.JCSConf;
+import net.paissad.jcamstream.configuration.UploadConfig;
+import net.paissad.jcamstream.upload.FTPDestination;
+import net.paissad.jcamstream.utils.FTPUploader;
+import net.paissad.jcamstream.utils.FakeFTPServer;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class JCSTest {
+
+    private File          directory;
+    private FakeFTPServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("jcs", "");
+        directory.delete();
+        directory.mkdirs();
+        server = new FakeFTPServer(new File(directory, "server"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * The upload to a FTP destination interrupted goes on from where it
+     * stopped with the destination created again after a restart.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testCreateDestinationResumesFTP() throws Exception {
+        File config = new File(directory, "jcamstream.conf");
+        File data = new File(directory, "data");
+        FileUtils.writeStringToFile(config, "data.dir = " + data.getAbsolutePath() + "\n"
+                + "uploads = remote\n" + "upload.remote.type = ftp\n"
+                + "upload.remote.host = 127.0.0.1\n" + "upload.remote.port = "
+                + server.getPort() + "\n" + "upload.remote.user = user\n"
+                + "upload.remote.password = pass\n" + "upload.remote.dir = /clips\n"
+                + "upload.remote.sessions = 1\n", "ISO-8859-1");
+        JCSConf.setConfigFile(config);
+        byte[] content = new byte[100 * 1024];
+        for (int i = 0; i < content.length; i++)
+            content[i] = (byte) (i * 31);
+        File file = new File(directory, "clip.jcsf");
+        FileUtils.writeByteArrayToFile(file, content);
+        server.setSizeSupported(false);
+        server.setFailAfter(40 * 1024);
+
+        FTPUploader uploader = createUploader();
+        uploader.setRetries(0);
+        try {
+            uploader.upload(file);
+            Assert.fail("The connection was lost.");
+        } catch (IOException expected) {
+            Assert.assertTrue(new File(data, "ftp-remote.progress").isFile());
+        } finally {
+            uploader.close();
+        }
+
+        uploader = createUploader();
+        try {
+            uploader.upload(file);
+        } finally {
+            uploader.close();
+        }
+        Assert.assertEquals(32 * 1024, uploader.getResumedBytes());
+        Assert.assertTrue(FileUtils.contentEquals(file, new File(directory, "server"
+                + File.separator + "clips" + File.separator + file.getName())));
+    }
+
+    private static FTPUploader createUploader() {
+        UploadConfig config = JCSConf.getUploads().get(0);
+        FTPDestination destination = (FTPDestination) JCS.createDestination(config, null);
+        FTPUploader uploader = destination.getUploader();
+        uploader.setChunkSize(32 * 1024);
+        return uploader;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.paissad.jcamstream.media.frame.PixelFormat;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class JCSConfTest {
+
+    private static File tempFile = null;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        tempFile = File.createTempFile("jcsConfTemp", ".conf", null);
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        if (tempFile != null && tempFile.exists())
+            FileUtils.forceDelete(tempFile);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.configuration.JCSConf#setConfigFile(java.io.File)}
+     * .
+     * 
+     * @throws IOException
+     */
+    @Test
+    public final void testSetConfigFile() throws IOException {
+        final List<JCSSettings> notified = new ArrayList<JCSSettings>();
+        JCSConfListener listener = new JCSConfListener() {
+            public void configurationChanged(JCSSettings oldSettings, JCSSettings newSettings) {
+                notified.add(newSettings);
+            }
+        };
+        JCSConf.addListener(listener);
+        try {
+            FileUtils.writeStringToFile(tempFile, "mail.smtp.port = 587\n"
+                    + "mail.recipients.to = foo@domain.com, bar@baz.org\n", "ISO-8859-1");
+            JCSConf.setConfigFile(tempFile);
+            Assert.assertEquals(587, JCSConf.getSmtpPort());
+            Assert.assertTrue(JCSConf.getMailRecipientsTO().contains("bar@baz.org"));
+            Assert.assertSame(JCSConf.getMailRecipientsTO(), JCSConf.getMailRecipientsTO());
+            Assert.assertEquals(1, notified.size());
+
+            // Reading the same settings again does not notify the listeners.
+            JCSConf.setConfigFile(tempFile);
+            Assert.assertEquals(1, notified.size());
+
+            FileUtils.writeStringToFile(tempFile, "mail.recipients.to = new@domain.com\n", "ISO-8859-1");
+            JCSConf.setConfigFile(tempFile);
+            Assert.assertEquals(25, JCSConf.getSmtpPort());
+            Assert.assertEquals(2, notified.size());
+            Assert.assertSame(JCSConf.getSettings(), notified.get(1));
+            Assert.assertTrue(JCSConf.getMailRecipientsTO().contains("new@domain.com"));
+
+        } finally {
+            JCSConf.removeListener(listener);
+        }
+    }
+
+    /**
+     * An invalid configuration file must not replace the current settings.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public final void testInvalidConfigKeepsSettings() throws IOException {
+        FileUtils.writeStringToFile(tempFile, "mail.smtp.port = 2525\n", "ISO-8859-1");
+        JCSConf.setConfigFile(tempFile);
+        FileUtils.writeStringToFile(tempFile, "mail.smtp.port = not_a_port\n", "ISO-8859-1");
+        try {
+            JCSConf.setConfigFile(tempFile);
+            Assert.fail("The port is not a number.");
+        } catch (IOException expected) {
+            Assert.assertEquals(2525, JCSConf.getSmtpPort());
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.configuration.JCSSettings#getMailRecipientsTO()}
+     * .
+     * 
+     * @throws IOException
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public final void testRecipientsAreUnmodifiable() throws IOException {
+        FileUtils.writeStringToFile(tempFile, "mail.recipients.to = foo@domain.com\n", "ISO-8859-1");
+        JCSConf.setConfigFile(tempFile);
+        JCSConf.getMailRecipientsTO().add("intruder@domain.com");
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.configuration.JCSConf#getCameras()}.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public final void testGetCameras() throws IOException {
+        FileUtils.writeStringToFile(tempFile, "cameras = front, garage\n"
+                + "camera.front.device = /dev/video1\n" + "camera.front.width = 1280\n"
+                + "camera.front.height = 720\n" + "camera.front.fps = 15\n"
+                + "camera.front.roi = 0,360,1280,360\n"
+                + "camera.front.exclude = 0,360,640,100 ; 1200,700,80,20\n"
+                + "camera.front.preevent = 2\n" + "camera.front.preevent.max = 16\n"
+                + "camera.front.quota = 500\n" + "retention.quota = 2048\n"
+                + "camera.garage.device = test-pattern\n" + "camera.garage.format = gray\n"
+                + "capture.workers = 3\n" + "storage.queue = 8\n" + "storage.sync.interval = 0.5\n"
+                + "data.dir = /var/lib/jcamstream\n",
+                "ISO-8859-1");
+        JCSConf.setConfigFile(tempFile);
+
+        List<CameraConfig> cameras = JCSConf.getCameras();
+        Assert.assertEquals(2, cameras.size());
+        CameraConfig front = cameras.get(0);
+        Assert.assertEquals("front", front.getName());
+        Assert.assertEquals("/dev/video1", front.getDevice());
+        Assert.assertEquals(1280, front.getWidth());
+        Assert.assertEquals(15.0, front.getMaxFrameRate(), 0);
+        Assert.assertEquals(PixelFormat.YUYV, front.getPixelFormat());
+        Assert.assertEquals(1280 * 360 - 640 * 100 - 80 * 20, front.getMask().getActivePixels());
+        Assert.assertNull(cameras.get(1).getMask());
+        // 2 s at 15 fps, but 16 MB only hold 9 frames of 1280x720 YUYV.
+        Assert.assertEquals(9, front.getPreEventFrames());
+        Assert.assertEquals(0, cameras.get(1).getPreEventFrames());
+        Assert.assertEquals(PixelFormat.GRAY, cameras.get(1).getPixelFormat());
+        Assert.assertEquals(480, cameras.get(1).getHeight());
+        Assert.assertEquals(3, JCSConf.getCaptureWorkers());
+        Assert.assertEquals(8 * 1024 * 1024, JCSConf.getStorageQueueSize());
+        Assert.assertEquals(0.5, JCSConf.getStorageSyncInterval(), 0);
+        Assert.assertEquals(16 * 1024 * 1024, JCSConf.getStorageSyncSize());
+        Assert.assertEquals(500L * 1024 * 1024, front.getQuota());
+        Assert.assertEquals(0, cameras.get(1).getQuota());
+        Assert.assertEquals(2048L * 1024 * 1024, JCSConf.getRetentionQuota());
+        Assert.assertEquals(1024L * 1024 * 1024, JCSConf.getRetentionFreeSpace());
+        Assert.assertTrue(JCSConf.isRetentionEventsLast());
+        Assert.assertEquals(new File("/var/lib/jcamstream"), JCSConf.getDataDir());
+
+        FileUtils.writeStringToFile(tempFile, "cameras = front\n" + "camera.front.format = MJPG\n",
+                "ISO-8859-1");
+        try {
+            JCSConf.setConfigFile(tempFile);
+            Assert.fail("The pixel format is not supported.");
+        } catch (IOException expected) {
+            Assert.assertEquals(2, JCSConf.getCameras().size());
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.configuration.JCSConf#getUploads()}.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public final void testGetUploads() throws IOException {
+        FileUtils.writeStringToFile(tempFile, "uploads = offsite, backup\n"
+                + "upload.offsite.type = SFTP\n" + "upload.offsite.host = backup.example.org\n"
+                + "upload.offsite.user = jcs\n" + "upload.offsite.dir = /srv/recordings\n"
+                + "upload.offsite.sessions = 4\n" + "upload.backup.type = mirror\n"
+                + "upload.backup.dir = /mnt/backup\n" + "upload.backup.events = false\n"
+                + "upload.backup.dedupe = perceptual\n" + "upload.backup.rate = 0.5\n",
+                "ISO-8859-1");
+        JCSConf.setConfigFile(tempFile);
+        List<UploadConfig> uploads = JCSConf.getUploads();
+        Assert.assertEquals(2, uploads.size());
+        UploadConfig offsite = uploads.get(0);
+        Assert.assertEquals(UploadConfig.Type.SFTP, offsite.getType());
+        Assert.assertEquals("backup.example.org", offsite.getHost());
+        Assert.assertEquals(0, offsite.getPort());
+        Assert.assertEquals("jcs", offsite.getUser());
+        Assert.assertNull(offsite.getPassword());
+        Assert.assertEquals("/srv/recordings", offsite.getDir());
+        Assert.assertEquals(4, offsite.getSessions());
+        Assert.assertTrue(offsite.isEventsOnly());
+        Assert.assertEquals(0, offsite.getRate());
+        Assert.assertEquals(UploadConfig.Dedupe.NONE, offsite.getDedupe());
+        UploadConfig backup = uploads.get(1);
+        Assert.assertEquals(UploadConfig.Type.MIRROR, backup.getType());
+        Assert.assertEquals(2, backup.getSessions());
+        Assert.assertFalse(backup.isEventsOnly());
+        Assert.assertEquals(512, backup.getRate());
+        Assert.assertEquals(UploadConfig.Dedupe.PERCEPTUAL, backup.getDedupe());
+
+        FileUtils.writeStringToFile(tempFile, "uploads = offsite\n" + "upload.offsite.type = ftp\n"
+                + "upload.offsite.dir = /srv/recordings\n", "ISO-8859-1");
+        try {
+            JCSConf.setConfigFile(tempFile);
+            Assert.fail("The host of the server is missing.");
+        } catch (IOException expected) {
+            Assert.assertEquals(2, JCSConf.getUploads().size());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.capture;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+import net.paissad.jcamstream.media.frame.TestPatternFrameSource;
+import net.paissad.jcamstream.utils.ImageConverter;
+
+/**
+ * Runs several synthetic cameras at 30 fps through a {@link CaptureScheduler}
+ * whose workers convert each frame to RGB, and prints the metrics of each
+ * camera: with too few workers for the load, the frames are dropped per
+ * camera while the capture keeps its pace.
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.media.capture.CaptureSchedulerBenchmark [cameras] [workers] [seconds] [width] [height]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class CaptureSchedulerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int cameras = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int workers = (args.length > 1) ? Integer.parseInt(args[1]) : 2;
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+        final int width = (args.length > 3) ? Integer.parseInt(args[3]) : 640;
+        final int height = (args.length > 4) ? Integer.parseInt(args[4]) : 480;
+
+        CaptureScheduler scheduler = new CaptureScheduler(workers);
+        scheduler.setStatsInterval(0);
+        for (int i = 0; i < cameras; i++) {
+            scheduler.addCamera("cam" + i, new TestPatternFrameSource(width, height,
+                    PixelFormat.YUYV, 30, -1), (i == 0) ? 10 : 0);
+        }
+        scheduler.addProcessor(new FrameProcessor() {
+            private final ThreadLocal<ImageConverter> converter = new ThreadLocal<ImageConverter>() {
+                @Override
+                protected ImageConverter initialValue() {
+                    return new ImageConverter();
+                }
+            };
+            private final ThreadLocal<int[]> pixels = new ThreadLocal<int[]>() {
+                @Override
+                protected int[] initialValue() {
+                    return new int[width * height];
+                }
+            };
+
+            public void process(Camera camera, FrameBuffer frame) {
+                converter.get().yuyvToRgb(frame.getData(), width, height, pixels.get());
+            }
+        });
+
+        System.out.println(cameras + " cameras " + width + "x" + height + " at 30 fps (cam0 capped at 10 fps), "
+                + workers + " workers, " + seconds + " s");
+        long gcBefore = gcCount();
+        scheduler.start();
+        Thread.sleep(seconds * 1000L);
+        scheduler.stop();
+
+        long processed = 0;
+        for (Camera camera : scheduler.getCameras()) {
+            System.out.println("  " + camera);
+            processed += camera.getProcessedFrames();
+        }
+        System.out.println("total : " + String.format("%.1f", processed / (double) seconds)
+                + " frames/s processed, " + (gcCount() - gcBefore) + " GCs");
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += gc.getCollectionCount();
+        return count;
+    }
+}
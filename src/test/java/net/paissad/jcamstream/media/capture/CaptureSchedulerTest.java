@@ -0,0 +1,86 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.capture;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+import net.paissad.jcamstream.media.frame.TestPatternFrameSource;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class CaptureSchedulerTest {
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.capture.CaptureScheduler#start()}.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testStart() throws Exception {
+        CaptureScheduler scheduler = new CaptureScheduler(2);
+        scheduler.setStatsInterval(0);
+        Camera fast = scheduler.addCamera("fast", new TestPatternFrameSource(64, 48,
+                PixelFormat.YUYV, 100, -1), 0);
+        Camera capped = scheduler.addCamera("capped", new TestPatternFrameSource(64, 48,
+                PixelFormat.YUYV, 100, -1), 10);
+
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        final boolean[] concurrent = new boolean[1];
+        final Set<Camera> busy = Collections.synchronizedSet(new HashSet<Camera>());
+        scheduler.addProcessor(new FrameProcessor() {
+            public void process(Camera camera, FrameBuffer frame) throws Exception {
+                threads.add(Thread.currentThread().getName());
+                if (!busy.add(camera))
+                    concurrent[0] = true;
+                Thread.sleep(1);
+                busy.remove(camera);
+                if (frame.getSequence() % 7 == 3)
+                    throw new IllegalStateException("Failure expected by the test.");
+            }
+        });
+
+        scheduler.start();
+        try {
+            Thread.sleep(1000);
+        } finally {
+            scheduler.stop();
+        }
+
+        Assert.assertTrue(fast.getProcessedFrames() > 30);
+        Assert.assertTrue(fast.getFailedFrames() > 0);
+        Assert.assertTrue(capped.getProcessedFrames() + capped.getFailedFrames() <= 15);
+        Assert.assertTrue(capped.getThrottledFrames() > 0);
+        Assert.assertEquals(0, fast.getThrottledFrames());
+        // The frames of a camera are never processed concurrently.
+        Assert.assertFalse(concurrent[0]);
+        for (String thread : threads)
+            Assert.assertTrue(thread, thread.startsWith("capture-worker-"));
+        Assert.assertTrue(threads.size() <= 2);
+        Assert.assertEquals(0, fast.getQueueDepth());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FrameMaskTest {
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.frame.FrameMask#FrameMask(int, int, List, List)}
+     * .
+     */
+    @Test
+    public final void testFrameMask() {
+        List<Rectangle> include = Arrays.asList(new Rectangle(2, 1, 6, 2), new Rectangle(6, 2, 10, 1));
+        List<Rectangle> exclude = Collections.singletonList(new Rectangle(4, 0, 2, 10));
+        FrameMask mask = new FrameMask(10, 4, include, exclude);
+
+        // Row 1 : 2-3 and 6-7, row 2 : 2-3 and 6-9 (clipped).
+        Assert.assertEquals(0, mask.getFirstSpan(1));
+        Assert.assertEquals(2, mask.getFirstSpan(2));
+        Assert.assertEquals(4, mask.getSpanCount());
+        Assert.assertEquals(6, mask.getSpanStart(3));
+        Assert.assertEquals(10, mask.getSpanEnd(3));
+        Assert.assertEquals(4, mask.getFirstSpan(4));
+        Assert.assertEquals(10, mask.getActivePixels());
+        Assert.assertTrue(mask.isActive(3, 1));
+        Assert.assertFalse(mask.isActive(4, 1));
+        Assert.assertFalse(mask.isActive(3, 0));
+        Assert.assertFalse(mask.isFull());
+
+        Assert.assertTrue(FrameMask.full(10, 4).isFull());
+        Assert.assertEquals(4, FrameMask.full(10, 4).getSpanCount());
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.frame.FrameMask#scale(int)}.
+     */
+    @Test
+    public final void testScale() {
+        List<Rectangle> none = Collections.emptyList();
+        FrameMask mask = new FrameMask(64, 32, none, Collections.singletonList(new Rectangle(0, 0, 20,
+                32)));
+        FrameMask grid = mask.scale(16);
+        Assert.assertEquals(4, grid.getWidth());
+        Assert.assertEquals(2, grid.getHeight());
+        // The centre of the first column of cells, x = 8, is excluded.
+        Assert.assertFalse(grid.isActive(0, 0));
+        Assert.assertTrue(grid.isActive(1, 0));
+        Assert.assertEquals(6, grid.getActivePixels());
+
+        FrameMask nothing = new FrameMask(64, 32, none, Collections.singletonList(new Rectangle(0, 0,
+                64, 32)));
+        Assert.assertEquals(0, nothing.scale(16).getActivePixels());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.frame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FramePoolTest {
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.frame.FramePool#acquire()}.
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public final void testAcquire() throws InterruptedException {
+        FramePool pool = new FramePool(2, 4, 2, PixelFormat.GRAY, BackpressurePolicy.DROP_NEWEST);
+        FrameBuffer first = pool.acquire();
+        FrameBuffer second = pool.acquire();
+        Assert.assertNotSame(first, second);
+        Assert.assertTrue(first.getData().isDirect());
+        Assert.assertEquals(2, pool.getLeased());
+
+        // Exhausted, the new frame is dropped.
+        Assert.assertNull(pool.acquire());
+        Assert.assertEquals(2, pool.getHits());
+        Assert.assertEquals(1, pool.getMisses());
+        Assert.assertEquals(1, pool.getDropped());
+
+        // Back to the pool after the last reference only.
+        first.retain();
+        first.release();
+        Assert.assertEquals(2, pool.getLeased());
+        first.release();
+        Assert.assertEquals(1, pool.getLeased());
+        Assert.assertSame(first, pool.acquire());
+        Assert.assertEquals(2, pool.getPeakLeased());
+
+        second.release();
+        try {
+            second.release();
+            Assert.fail("The frame was already released.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.frame.FramePool#acquire()} with the
+     * {@link BackpressurePolicy#DROP_OLDEST} policy.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testAcquireDropOldest() throws Exception {
+        FramePool pool = new FramePool(3, 4, 2, PixelFormat.GRAY, BackpressurePolicy.DROP_OLDEST);
+        FrameQueue queue = new FrameQueue(10, BackpressurePolicy.BLOCK);
+        pool.addQueue(queue);
+
+        FrameSource source = new TestPatternFrameSource(4, 2, PixelFormat.GRAY);
+        source.open();
+        FrameBuffer[] frames = new FrameBuffer[3];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = pool.acquire();
+            frames[i].readFrom(source, i);
+        }
+        // The first frame is still used by another stage.
+        frames[0].retain();
+        for (FrameBuffer frame : frames) {
+            queue.offer(frame);
+        }
+
+        // Dropping the first frame does not free it, the second one is next.
+        Assert.assertSame(frames[1], pool.acquire());
+        Assert.assertEquals(2, queue.getDropped());
+        Assert.assertEquals(1, queue.size());
+        Assert.assertSame(frames[2], queue.take());
+        Assert.assertEquals(0, pool.getDropped());
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.frame.FramePool#acquire()} with the
+     * {@link BackpressurePolicy#BLOCK} policy.
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public final void testAcquireBlock() throws InterruptedException {
+        final FramePool pool = new FramePool(1, 4, 2, PixelFormat.GRAY, BackpressurePolicy.BLOCK);
+        final FrameBuffer frame = pool.acquire();
+        final FrameQueue queue = new FrameQueue(1, BackpressurePolicy.DROP_NEWEST);
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queue.offer(pool.acquire());
+                } catch (InterruptedException e) {
+                    // Ends the test.
+                }
+            }
+        };
+        producer.start();
+        Assert.assertNull(queue.poll(100, TimeUnit.MILLISECONDS));
+        frame.release();
+        Assert.assertSame(frame, queue.poll(5, TimeUnit.SECONDS));
+        producer.join();
+        Assert.assertEquals(1, pool.getMisses());
+    }
+}
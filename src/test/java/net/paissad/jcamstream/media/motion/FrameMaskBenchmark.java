@@ -0,0 +1,103 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.motion;
+
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.List;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.FrameMask;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+import net.paissad.jcamstream.media.frame.TestPatternFrameSource;
+import net.paissad.jcamstream.utils.ImageConverter;
+
+/**
+ * Measures the time spent per frame by the motion detection and the RGB
+ * conversion as a growing part of the frame is masked out (a band on the
+ * left of the frame, as a street along a side of the picture).
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.media.motion.FrameMaskBenchmark [frames] [width] [height]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FrameMaskBenchmark {
+
+    private static int checksum;
+
+    public static void main(String[] args) throws Exception {
+        int frames = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+        int width = (args.length > 1) ? Integer.parseInt(args[1]) : 1280;
+        int height = (args.length > 2) ? Integer.parseInt(args[2]) : 720;
+        System.out.println(width + "x" + height + " YUYV, " + frames + " frames per run");
+
+        TestPatternFrameSource source = new TestPatternFrameSource(width, height, PixelFormat.YUYV);
+        source.open();
+        FrameBuffer[] clip = new FrameBuffer[16];
+        for (int i = 0; i < clip.length; i++) {
+            clip[i] = new FrameBuffer(width, height, PixelFormat.YUYV);
+            clip[i].readFrom(source, i);
+        }
+        source.close();
+
+        ImageConverter converter = new ImageConverter();
+        int[] rgb = new int[width * height];
+        int[] percents = { 0, 25, 50, 75, 90 };
+        List<Rectangle> none = Collections.emptyList();
+        double[] detection = new double[percents.length];
+        double[] conversion = new double[percents.length];
+
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up the JIT.
+            for (int p = 0; p < percents.length; p++) {
+                int masked = width * percents[p] / 100;
+                List<Rectangle> exclude = (masked == 0) ? none : Collections.singletonList(new Rectangle(0,
+                        0, masked, height));
+                FrameMask mask = new FrameMask(width, height, none, exclude);
+                MotionDetector detector = new MotionDetector("bench", width, height, PixelFormat.YUYV,
+                        MotionDetector.DEFAULT_CELL_SIZE);
+                detector.setMask(mask);
+
+                long start = System.nanoTime();
+                for (int i = 0; i < frames; i++) {
+                    if (detector.process(clip[i % clip.length]))
+                        checksum++;
+                }
+                detection[p] = (System.nanoTime() - start) / 1e6 / frames;
+
+                start = System.nanoTime();
+                for (int i = 0; i < frames; i++) {
+                    converter.yuyvToRgb(clip[i % clip.length].getData(), width, height, mask, rgb);
+                    checksum += rgb[i];
+                }
+                conversion[p] = (System.nanoTime() - start) / 1e6 / frames;
+            }
+        }
+
+        for (int p = 0; p < percents.length; p++) {
+            System.out.println(String.format(
+                    "%3d%% masked : detection %.3f ms/frame (%3.0f%%), conversion %.3f ms/frame (%3.0f%%)",
+                    percents[p], detection[p], detection[p] * 100 / detection[0], conversion[p],
+                    conversion[p] * 100 / conversion[0]));
+        }
+        System.out.println("(checksum " + checksum + ")");
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.motion;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.FrameSource;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+import net.paissad.jcamstream.media.recorder.FrameStreamReader;
+import net.paissad.jcamstream.media.recorder.FrameStreamWriter;
+
+/**
+ * Records a YUYV test clip (a noisy textured background, crossed by a
+ * rectangle during part of the clip), then replays it for several cameras
+ * through a {@link MotionDetector} each, on one thread, and prints the frames
+ * processed per second and the motion events found.
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.media.motion.MotionDetectorBenchmark [cameras] [seconds] [width] [height]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class MotionDetectorBenchmark {
+
+    private static final int CLIP_FRAMES = 45;
+
+    public static void main(String[] args) throws Exception {
+        int cameras = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        int width = (args.length > 2) ? Integer.parseInt(args[2]) : 1280;
+        int height = (args.length > 3) ? Integer.parseInt(args[3]) : 720;
+
+        File clip = File.createTempFile("motion", ".jcsf");
+        clip.deleteOnExit();
+        recordClip(clip, width, height);
+
+        FrameStreamReader[] readers = new FrameStreamReader[cameras];
+        MotionDetector[] detectors = new MotionDetector[cameras];
+        final int[] events = new int[1];
+        MotionListener counter = new MotionListener() {
+            @Override
+            public void motionStarted(MotionEvent event) {
+                events[0]++;
+            }
+
+            @Override
+            public void motionEnded(MotionEvent event) {
+            }
+        };
+        for (int i = 0; i < cameras; i++) {
+            readers[i] = new FrameStreamReader(clip, true);
+            readers[i].open();
+            detectors[i] = new MotionDetector("cam" + i, width, height, PixelFormat.YUYV,
+                    MotionDetector.DEFAULT_CELL_SIZE);
+            detectors[i].addListener(counter);
+        }
+
+        FrameBuffer frame = new FrameBuffer(width, height, PixelFormat.YUYV);
+        long sequence = 0;
+        long frames = 0;
+        long detectNanos = 0;
+        long end = System.nanoTime() + seconds * 1000000000L;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < cameras; i++) {
+                frame.readFrom(readers[i], sequence++);
+                long start = System.nanoTime();
+                detectors[i].process(frame);
+                detectNanos += System.nanoTime() - start;
+                frames++;
+            }
+        }
+        for (FrameStreamReader reader : readers) {
+            reader.close();
+        }
+
+        double fps = frames / (detectNanos / 1e9);
+        System.out.println(cameras + " cameras " + width + "x" + height + " YUYV, " + frames + " frames, "
+                + events[0] + " motion events (" + (frames / CLIP_FRAMES) + " clips replayed)");
+        System.out.println("detection : " + String.format("%.0f", fps) + " frames/s on one thread, "
+                + String.format("%.2f", detectNanos / 1e6 / frames) + " ms per frame");
+        System.out.println("with reading : " + String.format("%.0f", frames / (double) seconds)
+                + " frames/s on one thread");
+    }
+
+    /**
+     * Records the clip : the rectangle crosses the frame between the 10th and
+     * the 30th frame.
+     */
+    private static void recordClip(File file, int width, int height) throws Exception {
+        ClipSource source = new ClipSource(width, height);
+        FrameBuffer frame = new FrameBuffer(width, height, PixelFormat.YUYV);
+        FrameStreamWriter writer = new FrameStreamWriter(file, width, height, PixelFormat.YUYV);
+        try {
+            for (int i = 0; i < CLIP_FRAMES; i++) {
+                source.index = i;
+                frame.readFrom(source, i);
+                writer.write(frame);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static class ClipSource implements FrameSource {
+
+        private final int    width;
+        private final int    height;
+        private final Random random = new Random(42);
+        int                  index;
+
+        ClipSource(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public boolean readFrame(ByteBuffer dst) {
+            dst.clear();
+            boolean moving = index >= 10 && index < 30;
+            int left = (index - 10) * width / 20;
+            int top = height / 3;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x += 2) {
+                    // Texture plus a noise of +/- 4 luma levels.
+                    int luma = 60 + ((x / 8 + y / 8) & 3) * 30 + random.nextInt(9) - 4;
+                    if (moving && x >= left && x < left + width / 8 && y >= top && y < top + height / 4)
+                        luma = 220;
+                    dst.put((byte) luma).put((byte) 128).put((byte) luma).put((byte) 128);
+                }
+            }
+            dst.flip();
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public PixelFormat getPixelFormat() {
+            return PixelFormat.YUYV;
+        }
+
+        @Override
+        public int getFrameSize() {
+            return width * height * 2;
+        }
+    }
+}
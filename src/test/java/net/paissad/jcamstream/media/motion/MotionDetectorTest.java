@@ -0,0 +1,212 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.motion;
+
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.FrameMask;
+import net.paissad.jcamstream.media.frame.FrameSource;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class MotionDetectorTest {
+
+    private static final int WIDTH  = 160;
+    private static final int HEIGHT = 128;
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.motion.MotionDetector#process(FrameBuffer)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testProcess() throws Exception {
+        final List<MotionEvent> started = new ArrayList<MotionEvent>();
+        final List<MotionEvent> ended = new ArrayList<MotionEvent>();
+        MotionDetector detector = new MotionDetector("test", WIDTH, HEIGHT, PixelFormat.GRAY, 16);
+        detector.addListener(new MotionListener() {
+            @Override
+            public void motionStarted(MotionEvent event) {
+                started.add(event);
+            }
+
+            @Override
+            public void motionEnded(MotionEvent event) {
+                ended.add(event);
+            }
+        });
+
+        SquareSource source = new SquareSource();
+        FrameBuffer frame = new FrameBuffer(WIDTH, HEIGHT, PixelFormat.GRAY);
+        long sequence = 0;
+
+        // Nothing moves.
+        for (int i = 0; i < 10; i++) {
+            frame.readFrom(source, sequence++);
+            Assert.assertFalse(detector.process(frame));
+        }
+        Assert.assertTrue(started.isEmpty());
+
+        // A square moves from the left to the right.
+        for (int x = 16; x <= 64; x += 8) {
+            source.squareX = x;
+            frame.readFrom(source, sequence++);
+            detector.process(frame);
+        }
+        Assert.assertTrue(detector.isInMotion());
+        Assert.assertEquals(1, started.size());
+        MotionEvent event = started.get(0);
+        Assert.assertEquals("test", event.getSource());
+        Assert.assertEquals(10, event.getStartSequence());
+        Assert.assertTrue(event.getX() <= 24 && event.getX() + event.getWidth() >= 56);
+        Assert.assertTrue(event.getY() <= 48 && event.getY() + event.getHeight() >= 80);
+
+        // The square is gone, and nothing moves anymore.
+        source.squareX = -1;
+        for (int i = 0; i < 40 && ended.isEmpty(); i++) {
+            frame.readFrom(source, sequence++);
+            detector.process(frame);
+        }
+        Assert.assertFalse(detector.isInMotion());
+        Assert.assertEquals(1, ended.size());
+        event = ended.get(0);
+        Assert.assertTrue(event.getX() <= 16 && event.getX() + event.getWidth() >= 96);
+        Assert.assertTrue(event.getEndTime() >= event.getStartTime());
+        Assert.assertEquals(1, started.size());
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.motion.MotionDetector#process(FrameBuffer)}
+     * when the whole frame changes.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testProcessLightingChange() throws Exception {
+        MotionDetector detector = new MotionDetector("test", WIDTH, HEIGHT, PixelFormat.GRAY, 16);
+        SquareSource source = new SquareSource();
+        FrameBuffer frame = new FrameBuffer(WIDTH, HEIGHT, PixelFormat.GRAY);
+        frame.readFrom(source, 0);
+        detector.process(frame);
+
+        source.brightness = 160;
+        for (int i = 1; i < 5; i++) {
+            frame.readFrom(source, i);
+            Assert.assertFalse(detector.process(frame));
+        }
+        Assert.assertFalse(detector.isInMotion());
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.motion.MotionDetector#setMask(FrameMask)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testSetMask() throws Exception {
+        MotionDetector detector = new MotionDetector("test", WIDTH, HEIGHT, PixelFormat.GRAY, 16);
+        List<Rectangle> none = Collections.emptyList();
+        detector.setMask(new FrameMask(WIDTH, HEIGHT, none, Collections.singletonList(new Rectangle(0,
+                32, WIDTH, 64))));
+        SquareSource source = new SquareSource();
+        FrameBuffer frame = new FrameBuffer(WIDTH, HEIGHT, PixelFormat.GRAY);
+        long sequence = 0;
+        for (int i = 0; i < 5; i++) {
+            frame.readFrom(source, sequence++);
+            detector.process(frame);
+        }
+
+        // The square moves in the excluded band only.
+        for (int x = 16; x <= 64; x += 8) {
+            source.squareX = x;
+            frame.readFrom(source, sequence++);
+            Assert.assertFalse(detector.process(frame));
+        }
+        Assert.assertFalse(detector.isInMotion());
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * A gray textured background, with a bright square 32 pixels wide.
+     */
+    private static class SquareSource implements FrameSource {
+
+        int squareX    = -1;
+        int brightness = 80;
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public boolean readFrame(ByteBuffer dst) {
+            dst.clear();
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    int luma = brightness + ((x ^ y) & 7);
+                    if (squareX >= 0 && x >= squareX && x < squareX + 32 && y >= 48 && y < 80)
+                        luma = 240;
+                    dst.put((byte) luma);
+                }
+            }
+            dst.flip();
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int getWidth() {
+            return WIDTH;
+        }
+
+        @Override
+        public int getHeight() {
+            return HEIGHT;
+        }
+
+        @Override
+        public PixelFormat getPixelFormat() {
+            return PixelFormat.GRAY;
+        }
+
+        @Override
+        public int getFrameSize() {
+            return WIDTH * HEIGHT;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Measures how long the catalog of the recordings takes to be ready when the
+ * application starts: loaded from a {@link CatalogStore} holding a snapshot
+ * of one million segments and a log of recent changes, then found by
+ * listing a directory of recordings, as when there is no store. The listing
+ * is timed on a smaller directory and extrapolated, creating a million files
+ * taking too long; it is also timed with the directory in the cache of the
+ * system, so the actual listing at boot is slower.
+ * <p>
+ * This is not a unit test, run it by hand, with enough memory for the
+ * catalog:<br>
+ * <code>java -Xmx1g -cp ... net.paissad.jcamstream.media.recorder.CatalogStoreBenchmark [directory] [segments] [files listed]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class CatalogStoreBenchmark {
+
+    private static final int    CAMERAS     = 8;
+    private static final long   SEGMENT     = 30 * 1000L;
+    private static final int    LOG_CHANGES = 10000;
+    private static final int    RUNS        = 5;
+
+    public static void main(String[] args) throws Exception {
+        File parent = new File((args.length > 0) ? args[0] : System.getProperty("java.io.tmpdir"));
+        int segments = (args.length > 1) ? Integer.parseInt(args[1]) : 1000000;
+        int listed = (args.length > 2) ? Integer.parseInt(args[2]) : 20000;
+
+        File directory = File.createTempFile("catalogStoreBenchmark", "", parent);
+        directory.delete();
+        File recordings = new File(directory, "recordings");
+        File data = new File(directory, "data");
+        try {
+            System.out.println(segments + " segments of " + CAMERAS + " cameras, " + LOG_CHANGES
+                    + " changes logged, in " + directory);
+            write(data, recordings, segments);
+            System.out.println("    snapshot : " + new File(data, CatalogStore.SNAPSHOT_NAME).length()
+                    / 1024 + " KB, log : " + new File(data, CatalogStore.LOG_NAME).length() / 1024
+                    + " KB");
+
+            long[] loads = new long[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                RecordingCatalog catalog = new RecordingCatalog();
+                CatalogStore store = new CatalogStore(data, recordings);
+                long start = System.nanoTime();
+                store.load(catalog);
+                loads[run] = System.nanoTime() - start;
+                if (catalog.size() != segments)
+                    throw new IllegalStateException(catalog.size() + " recordings loaded");
+                // Left open, so that the next load replays the log again.
+                new File(data, CatalogStore.LOCK_NAME).delete();
+                catalog = null;
+                System.gc();
+            }
+            Arrays.sort(loads);
+            System.out.println(String.format("store load : median %.0f ms, min %.0f ms",
+                    loads[RUNS / 2] / 1e6, loads[0] / 1e6));
+
+            FileUtils.deleteDirectory(data);
+            long scan = scan(recordings, listed);
+            System.out.println(String.format(
+                    "directory listing : %d files in %.0f ms, %.0f ms for %d files", listed,
+                    scan / 1e6, scan / 1e6 * segments / listed, segments));
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the segments, then logs the segments closed and
+     * deleted meanwhile.
+     */
+    private static void write(File data, File recordings, int segments) throws Exception {
+        RecordingCatalog catalog = new RecordingCatalog();
+        long now = System.currentTimeMillis();
+        long first = now - (long) segments / CAMERAS * SEGMENT;
+        for (int i = 0; i < segments; i++)
+            catalog.add(segment(recordings, i % CAMERAS, first + i / CAMERAS * SEGMENT));
+
+        CatalogStore store = new CatalogStore(data, recordings);
+        store.load(new RecordingCatalog());
+        long start = System.nanoTime();
+        store.compact(catalog);
+        System.out.println(String.format("    snapshot written in %.0f ms",
+                (System.nanoTime() - start) / 1e6));
+
+        // Half new segments, half the oldest deleted, as the retention does.
+        for (int i = 0; i < LOG_CHANGES / 2; i++) {
+            int camera = i % CAMERAS;
+            Recording added = segment(recordings, camera, now + i / CAMERAS * SEGMENT);
+            catalog.add(added);
+            store.logAdd(added);
+            Recording oldest = catalog.getOldest(null, true);
+            catalog.remove(oldest.getFile());
+            store.logRemove(oldest.getFile());
+        }
+        store.flush(catalog);
+    }
+
+    /**
+     * @return The time taken to list a directory of <code>files</code>
+     *         segments, in nanoseconds.
+     */
+    private static long scan(File recordings, int files) throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < files; i++) {
+            File file = segment(recordings, i % CAMERAS, now - i / CAMERAS * SEGMENT).getFile();
+            file.getParentFile().mkdirs();
+            file.createNewFile();
+        }
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            RetentionManager retention = new RetentionManager(recordings, new RecordingCatalog());
+            retention.setPauses(0, Integer.MAX_VALUE, 0);
+            retention.setMinFreeSpace(0);
+            long start = System.nanoTime();
+            retention.check();
+            best = Math.min(best, System.nanoTime() - start);
+            if (retention.getCatalog().size() != files)
+                throw new IllegalStateException(retention.getCatalog().size() + " files listed");
+        }
+        return best;
+    }
+
+    private static Recording segment(File recordings, int camera, long start) {
+        String name = "camera" + camera;
+        File file = new File(recordings, name + File.separator + FrameRecorder.SEGMENT_PREFIX + "-"
+                + start + SegmentedFrameWriter.SEGMENT_EXTENSION);
+        return new Recording(file, name, start, start + SEGMENT, 4 * 1024 * 1024, false);
+    }
+}
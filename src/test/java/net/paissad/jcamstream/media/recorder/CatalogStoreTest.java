@@ -0,0 +1,160 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class CatalogStoreTest {
+
+    private File directory;
+    private File recordings;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("catalog", "");
+        directory.delete();
+        recordings = new File(directory, "recordings");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.recorder.CatalogStore#load(RecordingCatalog)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testLoad() throws Exception {
+        CatalogStore store = new CatalogStore(directory, recordings);
+        RecordingCatalog catalog = new RecordingCatalog();
+        Assert.assertFalse(store.load(catalog));
+        Assert.assertFalse(store.isRecovered());
+
+        for (int i = 0; i < 10; i++)
+            add(store, catalog, recording("garage", i, false));
+        add(store, catalog, recording("front", 20, true));
+        store.logRemove(new File(recordings, "garage/segment-0.jcsf"));
+        catalog.remove(new File(recordings, "garage/segment-0.jcsf"));
+        store.flush(catalog);
+        Assert.assertEquals(12, store.getLogChanges());
+
+        // Replayed from the log, the application having stopped without
+        // closing the store.
+        CatalogStore reopened = new CatalogStore(directory, recordings);
+        RecordingCatalog loaded = new RecordingCatalog();
+        Assert.assertTrue(reopened.load(loaded));
+        Assert.assertTrue(reopened.isRecovered());
+        Assert.assertEquals(catalog.getRecordings(), loaded.getRecordings());
+        Assert.assertEquals(recording("garage", 1, false), loaded.getOldest("garage", true));
+        Assert.assertEquals(10 * 100, loaded.getTotalSize());
+        // The log was compacted into the snapshot.
+        Assert.assertEquals(0, reopened.getLogChanges());
+
+        add(reopened, loaded, recording("front", 30, true));
+        reopened.close(loaded);
+        Assert.assertFalse(new File(directory, CatalogStore.LOCK_NAME).exists());
+
+        // Read from the snapshot only.
+        RecordingCatalog last = new RecordingCatalog();
+        CatalogStore store3 = new CatalogStore(directory, recordings);
+        Assert.assertTrue(store3.load(last));
+        Assert.assertFalse(store3.isRecovered());
+        Assert.assertEquals(11, last.size());
+        Assert.assertTrue(last.get(new File(recordings, "front-30.jcsf")).isEvent());
+        store3.close(last);
+    }
+
+    /**
+     * The changes written partly are ignored, as well as a log older than the
+     * snapshot.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testIncompleteLog() throws Exception {
+        CatalogStore store = new CatalogStore(directory, recordings);
+        RecordingCatalog catalog = new RecordingCatalog();
+        store.load(catalog);
+        add(store, catalog, recording("garage", 1, false));
+        add(store, catalog, recording("garage", 2, false));
+        store.flush(catalog);
+
+        File log = new File(directory, CatalogStore.LOG_NAME);
+        RandomAccessFile file = new RandomAccessFile(log, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+        RecordingCatalog loaded = new RecordingCatalog();
+        new CatalogStore(directory, recordings).load(loaded);
+        Assert.assertEquals(1, loaded.size());
+        Assert.assertNotNull(loaded.get(new File(recordings, "garage/segment-1.jcsf")));
+
+        // A log older than the snapshot.
+        store = new CatalogStore(directory, recordings);
+        catalog = new RecordingCatalog();
+        store.load(catalog);
+        add(store, catalog, recording("garage", 3, false));
+        store.flush(catalog);
+        File old = new File(directory, "old.log");
+        FileUtils.copyFile(log, old);
+        store.logRemove(recording("garage", 3, false).getFile());
+        catalog.remove(recording("garage", 3, false).getFile());
+        store.compact(catalog);
+        FileUtils.copyFile(old, log);
+        loaded = new RecordingCatalog();
+        new CatalogStore(directory, recordings).load(loaded);
+        Assert.assertEquals(1, loaded.size());
+    }
+
+    // _________________________________________________________________________
+
+    private Recording recording(String camera, long start, boolean event) {
+        File file = event ? new File(recordings, camera + "-" + start + ".jcsf") : new File(
+                recordings, camera + File.separator + "segment-" + start + ".jcsf");
+        return new Recording(file, camera, start, start + 10, 100, event);
+    }
+
+    private static void add(CatalogStore store, RecordingCatalog catalog, Recording recording)
+            throws Exception {
+        catalog.add(recording);
+        store.logAdd(recording);
+    }
+}
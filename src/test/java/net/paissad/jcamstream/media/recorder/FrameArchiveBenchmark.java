@@ -0,0 +1,151 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.paissad.jcamstream.media.frame.PixelFormat;
+import net.paissad.jcamstream.utils.CommonUtils;
+
+/**
+ * Measures how long it takes to find a time in a 24 hours recording written
+ * in segments of one minute by a {@link SegmentedFrameWriter}: the archive is
+ * listed once, then each seek opens the segment holding a random time, finds
+ * the frame in its index and reads it. Exporting 30 seconds is measured the
+ * same way.
+ * <p>
+ * The frames are small so that the archive fits in a temporary directory;
+ * the time of a seek does not depend on their size.
+ * </p>
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.media.recorder.FrameArchiveBenchmark [fps] [seeks]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FrameArchiveBenchmark {
+
+    private static final int  WIDTH    = 16;
+    private static final int  HEIGHT   = 8;
+    private static final long DAY      = 24 * 3600 * 1000L;
+    private static final long SEGMENT  = 60 * 1000L;
+
+    public static void main(String[] args) throws Exception {
+        int fps = (args.length > 0) ? Integer.parseInt(args[0]) : 15;
+        int seeks = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+
+        File directory = File.createTempFile("frameArchiveBenchmark", "");
+        directory.delete();
+        try {
+            long start = 1300000000000L / DAY * DAY;
+            long t = System.nanoTime();
+            write(directory, start, fps);
+            System.out.println("24 h at " + fps + " fps written in "
+                    + (System.nanoTime() - t) / 1000000L + " ms, " + size(directory));
+
+            t = System.nanoTime();
+            FrameArchive archive = new FrameArchive(directory, "bench");
+            System.out.println(archive.getSegmentCount() + " segments listed in "
+                    + (System.nanoTime() - t) / 1000L + " us");
+
+            seek(archive, "seeks", start, seeks);
+
+            File export = new File(directory, "export.jcsf");
+            long from = start + 14 * 3600 * 1000L + 3 * 60 * 1000L + 10 * 1000L; // 14:03:10
+            t = System.nanoTime();
+            int frames = archive.export(from, from + 30 * 1000L, export);
+            System.out.println("14:03:10-14:03:40 exported in " + (System.nanoTime() - t) / 1000L
+                    + " us, " + frames + " frames");
+
+            // Without the indexes, each seek scans the headers of the segment.
+            export.delete();
+            for (File file : directory.listFiles()) {
+                if (file.getName().endsWith(SegmentIndex.INDEX_EXTENSION))
+                    file.delete();
+            }
+            seek(archive, "seeks without index", start, seeks);
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private static void seek(FrameArchive archive, String name, long start, int seeks)
+            throws Exception {
+        Random random = new Random(42);
+        ByteBuffer data = ByteBuffer.allocateDirect(PixelFormat.GRAY.getFrameSize(WIDTH, HEIGHT));
+        long[] nanos = new long[seeks];
+        long checksum = 0;
+        for (int i = 0; i < seeks; i++) {
+            long time = start + (long) (random.nextDouble() * DAY);
+            long t = System.nanoTime();
+            FrameStreamReader reader = archive.seek(time);
+            try {
+                reader.readFrame(data);
+                checksum += reader.getTimestamp() - time;
+            } finally {
+                reader.close();
+            }
+            nanos[i] = System.nanoTime() - t;
+        }
+        Arrays.sort(nanos);
+        System.out.println(seeks + " " + name + " : median " + nanos[seeks / 2] / 1000L + " us, p99 "
+                + nanos[seeks * 99 / 100] / 1000L + " us, max " + nanos[seeks - 1] / 1000L + " us ("
+                + checksum + ")");
+    }
+
+    private static void write(File directory, long start, int fps) throws Exception {
+        int frameSize = PixelFormat.GRAY.getFrameSize(WIDTH, HEIGHT);
+        int recordSize = FrameStreamWriter.RECORD_HEADER + frameSize;
+        long interval = 1000L / fps;
+        int perSegment = (int) (SEGMENT / interval);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(perSegment * recordSize);
+        ByteBuffer[] buffers = new ByteBuffer[] { buffer };
+
+        SegmentedFrameWriter writer = new SegmentedFrameWriter(directory, "bench", WIDTH, HEIGHT,
+                PixelFormat.GRAY, SEGMENT, 0);
+        try {
+            for (long segment = start; segment < start + DAY; segment += SEGMENT) {
+                buffer.clear();
+                for (int i = 0; i < perSegment; i++) {
+                    buffer.putLong(segment + i * interval).putInt(frameSize);
+                    buffer.position(buffer.position() + frameSize);
+                }
+                buffer.flip();
+                writer.writeRecords(buffers, 1, buffer.remaining(), perSegment);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String size(File directory) {
+        long size = 0;
+        for (File file : directory.listFiles()) {
+            size += file.length();
+        }
+        return CommonUtils.humanReadableByteCount(size, false);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.paissad.jcamstream.media.frame.PixelFormat;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FrameArchiveTest {
+
+    private static final int FRAME_SIZE = 8;
+
+    private File             directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("archive", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.recorder.FrameArchive#seek(long)}.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testSeek() throws Exception {
+        // 35 frames every 100 ms from 10 s, in segments of 1 s.
+        SegmentedFrameWriter writer = new SegmentedFrameWriter(directory, "test", 4, 2,
+                PixelFormat.GRAY, 1000, 0);
+        try {
+            // A segment starts in the middle of each buffer.
+            ByteBuffer[] buffers = new ByteBuffer[] { records(10000, 15), records(11500, 20) };
+            writer.writeRecords(buffers, 2, 35 * (FrameStreamWriter.RECORD_HEADER + FRAME_SIZE),
+                    35);
+            Assert.assertFalse(buffers[0].hasRemaining());
+            Assert.assertFalse(buffers[1].hasRemaining());
+        } finally {
+            writer.close();
+        }
+        Assert.assertEquals(35, writer.getFrameCount());
+        Assert.assertEquals(4, writer.getSegmentCount());
+
+        FrameArchive archive = new FrameArchive(directory, "test");
+        Assert.assertEquals(4, archive.getSegmentCount());
+        Assert.assertEquals(new File(directory, "test-11000.jcsf"), archive.getSegment(1));
+        Assert.assertTrue(SegmentIndex.indexFile(archive.getSegment(1)).isFile());
+
+        assertFrameAt(archive, 11050, 11100);
+        assertFrameAt(archive, 9000, 10000);
+        assertFrameAt(archive, 13400, 13400);
+        // After the last frame of the first segment.
+        assertFrameAt(archive, 10950, 11000);
+        Assert.assertNull(archive.seek(13401));
+
+        // The index of a segment which was not closed is rebuilt.
+        Assert.assertTrue(SegmentIndex.indexFile(archive.getSegment(1)).delete());
+        assertFrameAt(archive, 11050, 11100);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.recorder.FrameArchive#export(long, long, File)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testExport() throws Exception {
+        // Segments of 3 frames.
+        SegmentedFrameWriter writer = new SegmentedFrameWriter(directory, "test", 4, 2,
+                PixelFormat.GRAY, 0, FrameStreamWriter.HEADER_SIZE + 3
+                        * (FrameStreamWriter.RECORD_HEADER + FRAME_SIZE));
+        try {
+            ByteBuffer buffer = records(10000, 10);
+            writer.writeRecords(new ByteBuffer[] { buffer }, 1, buffer.remaining(), 10);
+        } finally {
+            writer.close();
+        }
+        Assert.assertEquals(4, writer.getSegmentCount());
+
+        FrameArchive archive = new FrameArchive(directory, "test");
+        File file = File.createTempFile("export", ".jcsf");
+        try {
+            Assert.assertEquals(5, archive.export(10150, 10700, file));
+            FrameStreamReader reader = new FrameStreamReader(file, false);
+            reader.open();
+            try {
+                ByteBuffer data = ByteBuffer.allocate(FRAME_SIZE);
+                for (int i = 2; i <= 6; i++) {
+                    Assert.assertTrue(reader.readFrame(data));
+                    Assert.assertEquals(10000 + i * 100, reader.getTimestamp());
+                }
+                Assert.assertFalse(reader.readFrame(data));
+            } finally {
+                reader.close();
+            }
+            Assert.assertEquals(0, archive.export(20000, 30000, file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    // _________________________________________________________________________
+
+    private static void assertFrameAt(FrameArchive archive, long time, long expected)
+            throws IOException {
+        FrameStreamReader reader = archive.seek(time);
+        Assert.assertNotNull(reader);
+        try {
+            ByteBuffer data = ByteBuffer.allocate(FRAME_SIZE);
+            Assert.assertTrue(reader.readFrame(data));
+            Assert.assertEquals(expected, reader.getTimestamp());
+            Assert.assertEquals((byte) (expected / 100), data.get(0));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return Records of frames every 100 ms, whose pixels are their time in
+     *         tenths of a second.
+     */
+    private static ByteBuffer records(long start, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(count * (FrameStreamWriter.RECORD_HEADER + FRAME_SIZE));
+        for (int i = 0; i < count; i++) {
+            long timestamp = start + i * 100;
+            buffer.putLong(timestamp).putInt(FRAME_SIZE);
+            for (int j = 0; j < FRAME_SIZE; j++) {
+                buffer.put((byte) (timestamp / 100));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import net.paissad.jcamstream.media.frame.BackpressurePolicy;
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.FrameListener;
+import net.paissad.jcamstream.media.frame.FramePool;
+import net.paissad.jcamstream.media.frame.FrameQueue;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+import net.paissad.jcamstream.media.frame.TestPatternFrameSource;
+import net.paissad.jcamstream.utils.CommonUtils;
+
+/**
+ * Measures the frame rate sustained by a {@link FrameRecorder} on 1080p YUYV
+ * frames from the synthetic source, without and with a recording, and the
+ * time taken by a snapshot. The source produces its frames as fast as they
+ * are read, so the figures are the limits of the capture loop itself.
+ * <p>
+ * The last run hands the frames over to a slow stage through a
+ * {@link FrameQueue}, to show the backpressure of the pool: the capture keeps
+ * its pace, and the metrics tell how many frames the slow stage missed.
+ * </p>
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.media.recorder.FrameRecorderBenchmark [seconds] [width] [height]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FrameRecorderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        int width = (args.length > 1) ? Integer.parseInt(args[1]) : 1920;
+        int height = (args.length > 2) ? Integer.parseInt(args[2]) : 1080;
+
+        File record = File.createTempFile("frameRecorderBenchmark", ".jcs");
+        record.deleteOnExit();
+        File snapshot = File.createTempFile("frameRecorderBenchmark", ".png");
+        snapshot.deleteOnExit();
+
+        System.out.println(width + "x" + height + " YUYV, " + seconds + " s per run");
+        run("capture only   ", width, height, seconds, null, null);
+        run("capture, record", width, height, seconds, record, null);
+        run("capture, snap  ", width, height, seconds, null, snapshot);
+        runSlowStage(width, height, seconds);
+        record.delete();
+        snapshot.delete();
+    }
+
+    private static void run(String name, int width, int height, int seconds, File record,
+            File snapshot) throws Exception {
+        FrameRecorder recorder = new FrameRecorder(new TestPatternFrameSource(width, height,
+                PixelFormat.YUYV));
+        final long[] checksum = new long[1];
+        recorder.addListener(new FrameListener() {
+            public void frameCaptured(FrameBuffer frame) {
+                // Touches the frame, as a consumer would.
+                checksum[0] += frame.getData().get(frame.getData().limit() / 2);
+            }
+        });
+
+        System.gc();
+        long gcBefore = gcCount();
+        if (record != null)
+            recorder.startRecording(record);
+        else
+            recorder.start();
+
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1000000000L;
+        int snapshots = 0;
+        long snapshotNanos = 0;
+        while (System.nanoTime() < deadline) {
+            if (snapshot != null && recorder.getFrameCount() > 0) {
+                long t = System.nanoTime();
+                recorder.getSnapShot(snapshot);
+                snapshotNanos += System.nanoTime() - t;
+                snapshots++;
+            } else {
+                Thread.sleep(100);
+            }
+        }
+        long frames = recorder.getFrameCount();
+        long elapsed = System.nanoTime() - start;
+        recorder.stop();
+
+        String line = name + " : " + String.format("%.1f", frames * 1e9 / elapsed) + " fps, "
+                + (gcCount() - gcBefore) + " GCs";
+        if (record != null)
+            line += ", " + CommonUtils.humanReadableByteCount(record.length(), false) + " written";
+        if (snapshots > 0)
+            line += ", " + (snapshotNanos / snapshots / 1000000L) + " ms/snapshot";
+        System.out.println(line + " (" + checksum[0] + ")");
+    }
+
+    private static void runSlowStage(int width, int height, int seconds) throws Exception {
+        final FrameRecorder recorder = new FrameRecorder(new TestPatternFrameSource(width, height,
+                PixelFormat.YUYV, 30, -1), 8, BackpressurePolicy.DROP_OLDEST);
+        final FrameQueue queue = new FrameQueue(4, BackpressurePolicy.DROP_OLDEST);
+        recorder.addListener(new FrameListener() {
+            public void frameCaptured(FrameBuffer frame) {
+                try {
+                    queue.offer(frame.retain());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final long[] processed = new long[1];
+        Thread stage = new Thread("slow-stage") {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        FrameBuffer frame = queue.take();
+                        try {
+                            Thread.sleep(50); // A stage running at 20 fps.
+                            processed[0]++;
+                        } finally {
+                            frame.release();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // End of the run.
+                }
+            }
+        };
+
+        System.gc();
+        long gcBefore = gcCount();
+        recorder.start();
+        recorder.getFramePool().addQueue(queue);
+        stage.start();
+        Thread.sleep(seconds * 1000L);
+        FramePool pool = recorder.getFramePool();
+        recorder.stop();
+        stage.interrupt();
+        stage.join();
+        queue.clear();
+
+        System.out.println("30 fps, 20 fps stage : " + recorder.getFrameCount() + " captured, "
+                + processed[0] + " processed, " + (gcCount() - gcBefore) + " GCs");
+        System.out.println("    " + pool);
+        System.out.println("    " + queue);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += gc.getCollectionCount();
+        return count;
+    }
+}
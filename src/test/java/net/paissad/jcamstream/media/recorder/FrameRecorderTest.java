@@ -0,0 +1,268 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.FrameListener;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+import net.paissad.jcamstream.media.frame.TestPatternFrameSource;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FrameRecorderTest {
+
+    private static final int WIDTH  = 320;
+    private static final int HEIGHT = 240;
+
+    private File             tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = File.createTempFile("frameRecorder", "");
+        tempDir.delete();
+        tempDir.mkdir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.recorder.FrameRecorder#startRecording(java.io.File)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testStartRecording() throws Exception {
+        final int frames = 20;
+        TestPatternFrameSource source = new TestPatternFrameSource(WIDTH, HEIGHT, PixelFormat.YUYV,
+                0, frames);
+        FrameRecorder recorder = new FrameRecorder(source);
+        final AtomicInteger captured = new AtomicInteger();
+        recorder.addListener(new FrameListener() {
+            public void frameCaptured(FrameBuffer frame) {
+                captured.incrementAndGet();
+            }
+        });
+
+        File file = new File(tempDir, "record.jcs");
+        recorder.startRecording(file);
+        // The capture stops by itself at the end of the source.
+        for (int i = 0; i < 1000 && recorder.isRunning(); i++)
+            Thread.sleep(10);
+        Assert.assertFalse(recorder.isRunning());
+        recorder.stop();
+
+        int frameSize = PixelFormat.YUYV.getFrameSize(WIDTH, HEIGHT);
+        Assert.assertEquals(frames, recorder.getFrameCount());
+        Assert.assertEquals(frames, captured.get());
+        Assert.assertEquals(FrameStreamWriter.HEADER_SIZE + frames
+                * (FrameStreamWriter.RECORD_HEADER + frameSize), file.length());
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.recorder.FrameRecorder#setPreEventFrames(int)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testSetPreEventFrames() throws Exception {
+        int frameSize = PixelFormat.YUYV.getFrameSize(WIDTH, HEIGHT);
+        FrameRecorder recorder = new FrameRecorder(new TestPatternFrameSource(WIDTH, HEIGHT,
+                PixelFormat.YUYV, 100, -1));
+        recorder.setPreEventFrames(10);
+        File file = new File(tempDir, "record.jcs");
+        long recordingStart;
+
+        recorder.start();
+        try {
+            Assert.assertEquals(10 * (FrameStreamWriter.RECORD_HEADER + frameSize),
+                    recorder.getPreEventMemory());
+            while (recorder.getFrameCount() < 20)
+                Thread.sleep(10);
+            recordingStart = System.currentTimeMillis();
+            recorder.startRecording(file);
+            long count = recorder.getFrameCount();
+            while (recorder.getFrameCount() < count + 5)
+                Thread.sleep(10);
+            recorder.stopRecording();
+        } finally {
+            recorder.stop();
+        }
+
+        FrameStreamReader reader = new FrameStreamReader(file, false);
+        reader.open();
+        try {
+            ByteBuffer data = ByteBuffer.allocateDirect(frameSize);
+            int frames = 0;
+            long previous = 0;
+            while (reader.readFrame(data)) {
+                if (frames < 10)
+                    Assert.assertTrue(reader.getTimestamp() <= recordingStart);
+                Assert.assertTrue(reader.getTimestamp() >= previous);
+                previous = reader.getTimestamp();
+                frames++;
+            }
+            Assert.assertTrue("Only " + frames + " frames", frames >= 15);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.recorder.FrameRecorder#getSnapShot(java.io.File)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testGetSnapShot() throws Exception {
+        FrameRecorder recorder = new FrameRecorder(new TestPatternFrameSource(WIDTH, HEIGHT,
+                PixelFormat.YUYV, 100, -1));
+        File file = new File(tempDir, "snapshot.png");
+        try {
+            recorder.getSnapShot(file);
+            Assert.fail("No frame was captured yet.");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        recorder.start();
+        try {
+            while (recorder.getFrameCount() < 2)
+                Thread.sleep(10);
+            recorder.getSnapShot(file);
+        } finally {
+            recorder.stop();
+        }
+        BufferedImage image = ImageIO.read(file);
+        Assert.assertEquals(WIDTH, image.getWidth());
+        Assert.assertEquals(HEIGHT, image.getHeight());
+        // The first bar is white.
+        Assert.assertEquals(0xFFFFFF, image.getRGB(0, HEIGHT - 1) & 0xFFFFFF, 0x020202);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.recorder.FrameRecorder#stop()}.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testStopStalled() throws Exception {
+        StalledSource source = new StalledSource();
+        FrameRecorder recorder = new FrameRecorder(source);
+        recorder.start();
+        while (recorder.getFrameCount() < 2)
+            Thread.sleep(10);
+        source.stall.countDown();
+        source.stalled.await();
+
+        long start = System.currentTimeMillis();
+        recorder.stop();
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue("Stopped in " + elapsed + " ms", elapsed < 2 * FrameRecorder.STOP_TIMEOUT);
+        // Not closed under the read in progress.
+        Assert.assertFalse(source.closed);
+        try {
+            recorder.start();
+            Assert.fail("The previous capture is still reading the source.");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        source.resume.countDown();
+        for (int i = 0; i < 500 && !source.closed; i++)
+            Thread.sleep(10);
+        Assert.assertTrue(source.closed);
+        recorder.start();
+        recorder.stop();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Blocks in a read, once asked to, until resumed, ignoring the interrupts
+     * like a native read.
+     */
+    private static class StalledSource extends TestPatternFrameSource {
+
+        final CountDownLatch stall   = new CountDownLatch(1);
+        final CountDownLatch stalled = new CountDownLatch(1);
+        final CountDownLatch resume  = new CountDownLatch(1);
+        volatile boolean     closed;
+
+        StalledSource() {
+            super(WIDTH, HEIGHT, PixelFormat.YUYV, 100, -1);
+        }
+
+        @Override
+        public void open() throws IOException {
+            closed = false;
+            super.open();
+        }
+
+        @Override
+        public boolean readFrame(ByteBuffer dst) throws IOException {
+            if (stall.getCount() == 0 && resume.getCount() > 0) {
+                stalled.countDown();
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        resume.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+            return super.readFrame(dst);
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.FrameSource;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class PreEventBufferTest {
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.recorder.PreEventBuffer#writeTo(FrameWriter)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testWriteTo() throws Exception {
+        PreEventBuffer buffer = new PreEventBuffer(3, 8);
+        Assert.assertEquals(3 * (FrameStreamWriter.RECORD_HEADER + 8), buffer.getMemorySize());
+        FillSource source = new FillSource();
+        FrameBuffer frame = new FrameBuffer(4, 2, PixelFormat.GRAY);
+
+        // 5 frames in a ring of 3, which wraps around.
+        for (int i = 1; i <= 5; i++) {
+            source.value = i;
+            frame.readFrom(source, i);
+            buffer.add(frame);
+        }
+        Assert.assertEquals(3, buffer.size());
+        Assert.assertEquals(2, buffer.getDroppedFrames());
+
+        File file = File.createTempFile("preEvent", ".jcsf");
+        try {
+            FrameStreamWriter writer = new FrameStreamWriter(file, 4, 2, PixelFormat.GRAY);
+            try {
+                Assert.assertEquals(3, buffer.writeTo(writer));
+                source.value = 6;
+                frame.readFrom(source, 6);
+                writer.write(frame);
+                Assert.assertEquals(4, writer.getFrameCount());
+            } finally {
+                writer.close();
+            }
+            Assert.assertEquals(0, buffer.size());
+
+            // The oldest frames kept come first, then the recording goes on.
+            FrameStreamReader reader = new FrameStreamReader(file, false);
+            reader.open();
+            try {
+                ByteBuffer data = ByteBuffer.allocate(8);
+                for (int i = 3; i <= 6; i++) {
+                    Assert.assertTrue(reader.readFrame(data));
+                    Assert.assertEquals(8, data.remaining());
+                    Assert.assertEquals(i, data.get(7));
+                }
+                Assert.assertFalse(reader.readFrame(data));
+            } finally {
+                reader.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * A 4x2 gray source whose pixels all have the same value.
+     */
+    private static class FillSource implements FrameSource {
+
+        int value;
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public boolean readFrame(ByteBuffer dst) {
+            dst.clear();
+            while (dst.hasRemaining())
+                dst.put((byte) value);
+            dst.flip();
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int getWidth() {
+            return 4;
+        }
+
+        @Override
+        public int getHeight() {
+            return 2;
+        }
+
+        @Override
+        public PixelFormat getPixelFormat() {
+            return PixelFormat.GRAY;
+        }
+
+        @Override
+        public int getFrameSize() {
+            return 8;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class RecordingCatalogTest {
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.recorder.RecordingCatalog#getOldest(String, boolean)}
+     * .
+     */
+    @Test
+    public final void testGetOldest() {
+        RecordingCatalog catalog = new RecordingCatalog();
+        Assert.assertNull(catalog.getOldest(null, true));
+
+        Recording frontEvent = recording("front", 1000, 10, true);
+        Recording frontSegment = recording("front", 3000, 20, false);
+        Recording garageEvent = recording("garage", 2000, 40, true);
+        catalog.add(frontEvent);
+        catalog.add(frontSegment);
+        catalog.add(garageEvent);
+        Assert.assertEquals(3, catalog.size());
+        Assert.assertEquals(70, catalog.getTotalSize());
+        Assert.assertEquals(30, catalog.getSize("front"));
+
+        Assert.assertSame(frontEvent, catalog.getOldest(null, false));
+        // The continuous recordings go first.
+        Assert.assertSame(frontSegment, catalog.getOldest(null, true));
+        Assert.assertSame(garageEvent, catalog.getOldest("garage", true));
+        Assert.assertNull(catalog.getOldest("back", true));
+
+        // Updated when its file is added again.
+        Recording bigger = recording("front", 3000, 25, false);
+        Assert.assertSame(frontSegment, catalog.add(bigger));
+        Assert.assertEquals(35, catalog.getSize("front"));
+
+        Assert.assertSame(bigger, catalog.remove(bigger.getFile()));
+        Assert.assertSame(frontEvent, catalog.getOldest(null, true));
+        catalog.remove(frontEvent.getFile());
+        Assert.assertEquals(0, catalog.getSize("front"));
+        Assert.assertEquals(1, catalog.getCameras().size());
+        Assert.assertEquals(40, catalog.getTotalSize());
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.recorder.Recording#fromFile(File)}.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testFromFile() throws Exception {
+        File directory = File.createTempFile("recordings", "");
+        directory.delete();
+        File front = new File(directory, "front");
+        front.mkdirs();
+        File event = new File(directory, "garage-door-20111024-183512.jcsf");
+        File segment = new File(front, "segment-1319474112000.jcsf");
+        File other = new File(directory, "notes.txt");
+        try {
+            for (File file : new File[] { event, segment, other }) {
+                file.createNewFile();
+            }
+            Recording recording = Recording.fromFile(event);
+            Assert.assertEquals("garage-door", recording.getCamera());
+            Assert.assertTrue(recording.isEvent());
+            Assert.assertEquals(0, recording.getSize());
+
+            recording = Recording.fromFile(segment);
+            Assert.assertEquals("front", recording.getCamera());
+            Assert.assertFalse(recording.isEvent());
+            Assert.assertEquals(1319474112000L, recording.getStart());
+
+            Assert.assertNull(Recording.fromFile(other));
+            Assert.assertNull(Recording.fromFile(new File(directory, "front-20111024-183512.jcsf")));
+        } finally {
+            event.delete();
+            segment.delete();
+            other.delete();
+            front.delete();
+            directory.delete();
+        }
+    }
+
+    // _________________________________________________________________________
+
+    private static Recording recording(String camera, long start, long size, boolean event) {
+        return new Recording(new File(camera + "-" + start + ".jcsf"), camera, start, start + 500,
+                size, event);
+    }
+}
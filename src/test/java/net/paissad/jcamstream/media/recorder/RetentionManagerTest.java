@@ -0,0 +1,124 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class RetentionManagerTest {
+
+    private static final long HOUR = 3600 * 1000L;
+
+    private File              directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("retention", "");
+        directory.delete();
+        new File(directory, "garage").mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File sub : new File[] { new File(directory, "garage"), directory }) {
+            File[] files = sub.listFiles();
+            if (files != null) {
+                for (File file : files)
+                    file.delete();
+            }
+            sub.delete();
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.recorder.RetentionManager#check()}.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testCheck() throws Exception {
+        long now = System.currentTimeMillis();
+        // Events of the front camera, continuous segments of the garage.
+        File event1 = create("front-20111024-100000.jcsf", 100, now - 5 * HOUR);
+        File event2 = create("front-20111024-110000.jcsf", 100, now - 4 * HOUR);
+        File segment1 = create("garage/segment-" + (now - 3 * HOUR) + ".jcsf", 100, now - 3 * HOUR);
+        File segment2 = create("garage/segment-" + (now - 2 * HOUR) + ".jcsf", 100, now - 2 * HOUR);
+        File index2 = create("garage/segment-" + (now - 2 * HOUR) + ".idx", 8, now - 2 * HOUR);
+
+        RetentionManager retention = new RetentionManager(directory, new RecordingCatalog());
+        retention.setPauses(0, 1, 0);
+        retention.setQuota(350);
+        retention.check();
+        Assert.assertTrue(retention.isScanned());
+        Assert.assertEquals(3, retention.getCatalog().size());
+        // The oldest continuous recording went first, not the oldest event.
+        Assert.assertFalse(segment1.exists());
+        Assert.assertTrue(event1.exists());
+
+        // A new recording, told by the recorder.
+        File event3 = create("front-20111024-120000.jcsf", 100, now - HOUR);
+        retention.recordingClosed(event3);
+        retention.check();
+        Assert.assertFalse(segment2.exists());
+        Assert.assertFalse(index2.exists());
+        Assert.assertTrue(event1.exists());
+
+        // Only events are left, the oldest goes.
+        retention.setQuota(200);
+        retention.check();
+        Assert.assertFalse(event1.exists());
+        Assert.assertEquals(2, retention.getCatalog().size());
+        Assert.assertEquals(3, retention.getDeletedFiles());
+        Assert.assertEquals(300, retention.getDeletedBytes());
+
+        // The recording being written is kept, whatever the quota.
+        File recent = create("front-20111024-130000.jcsf", 100, now);
+        retention.recordingClosed(recent);
+        retention.setQuota("front", 50);
+        retention.check();
+        Assert.assertFalse(event2.exists());
+        Assert.assertFalse(event3.exists());
+        Assert.assertTrue(recent.exists());
+        Assert.assertEquals(100, retention.getCatalog().getTotalSize());
+    }
+
+    // _________________________________________________________________________
+
+    private File create(String name, int size, long modified) throws IOException {
+        File file = new File(directory, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        file.setLastModified(modified);
+        return file;
+    }
+}
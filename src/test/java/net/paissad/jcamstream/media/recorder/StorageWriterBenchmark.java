@@ -0,0 +1,112 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+import net.paissad.jcamstream.media.frame.TestPatternFrameSource;
+
+/**
+ * Measures how long the capture thread spends handing a frame over to a
+ * recording, at the pace of a camera: written and synced from the capture
+ * thread, as before the {@link StorageWriter}, then queued for the thread of
+ * a storage writer syncing at the same cadence.
+ * <p>
+ * Run it with a directory on the device to measure, such as an SD card or a
+ * network mount, where the difference shows.
+ * </p>
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.media.recorder.StorageWriterBenchmark [directory] [seconds] [fps]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class StorageWriterBenchmark {
+
+    private static final int  WIDTH     = 640;
+    private static final int  HEIGHT    = 480;
+    private static final long SYNC_SIZE = 16L * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        File directory = new File((args.length > 0) ? args[0] : System.getProperty("java.io.tmpdir"));
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        double fps = (args.length > 2) ? Double.parseDouble(args[2]) : 30;
+
+        System.out.println(WIDTH + "x" + HEIGHT + " YUYV at " + fps + " fps, " + seconds
+                + " s per run, sync every " + SYNC_SIZE / 1024 / 1024 + " MB, in " + directory);
+        File file = File.createTempFile("storageWriterBenchmark", ".jcsf", directory);
+        try {
+            FrameStreamWriter direct = new FrameStreamWriter(file, WIDTH, HEIGHT, PixelFormat.YUYV);
+            run("capture thread", direct, null, seconds, fps);
+
+            StorageWriter storage = new StorageWriter("bench", StorageWriter.DEFAULT_QUEUE_SIZE, 0,
+                    SYNC_SIZE);
+            storage.start();
+            QueuedFrameWriter queued = storage.open(new FrameStreamWriter(file, WIDTH, HEIGHT,
+                    PixelFormat.YUYV), PixelFormat.YUYV.getFrameSize(WIDTH, HEIGHT), 0);
+            run("storage writer", queued, queued, seconds, fps);
+            storage.stop();
+            System.out.println("    " + storage);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void run(String name, FrameWriter writer, QueuedFrameWriter queued, int seconds,
+            double fps) throws Exception {
+        TestPatternFrameSource source = new TestPatternFrameSource(WIDTH, HEIGHT, PixelFormat.YUYV);
+        source.open();
+        FrameBuffer frame = new FrameBuffer(WIDTH, HEIGHT, PixelFormat.YUYV);
+        int frames = (int) (seconds * fps);
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / fps);
+        long[] nanos = new long[frames];
+        long unsynced = 0;
+        long next = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            frame.readFrom(source, i);
+            long t = System.nanoTime();
+            writer.write(frame);
+            if (queued == null) {
+                unsynced += FrameStreamWriter.RECORD_HEADER + frame.getData().remaining();
+                if (unsynced >= SYNC_SIZE) {
+                    writer.sync();
+                    unsynced = 0;
+                }
+            }
+            nanos[i] = System.nanoTime() - t;
+
+            next += interval;
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+                TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        writer.close();
+        source.close();
+
+        Arrays.sort(nanos);
+        System.out.println(name + " : median " + nanos[frames / 2] / 1000L + " us, p99 "
+                + nanos[frames * 99 / 100] / 1000L + " us, max " + nanos[frames - 1] / 1000L + " us"
+                + ((queued == null) ? "" : ", " + queued));
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.media.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.paissad.jcamstream.media.frame.FrameBuffer;
+import net.paissad.jcamstream.media.frame.FrameSource;
+import net.paissad.jcamstream.media.frame.PixelFormat;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class StorageWriterTest {
+
+    private static final int FRAME_SIZE = 8;
+    private static final int RECORD     = FrameStreamWriter.RECORD_HEADER + FRAME_SIZE;
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.recorder.StorageWriter#open(FrameWriter, int, int)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testOpen() throws Exception {
+        StorageWriter storage = new StorageWriter("test", 16 * RECORD, 0, 10 * RECORD);
+        storage.start();
+        File file = File.createTempFile("storageWriter", ".jcsf");
+        try {
+            FillSource source = new FillSource();
+            FrameBuffer frame = new FrameBuffer(4, 2, PixelFormat.GRAY);
+
+            // The pre-event buffer comes first, then the frames.
+            PreEventBuffer preEvent = new PreEventBuffer(3, FRAME_SIZE);
+            for (int i = 1; i <= 3; i++) {
+                source.value = i;
+                frame.readFrom(source, i);
+                preEvent.add(frame);
+            }
+            QueuedFrameWriter writer = storage.open(new FrameStreamWriter(file, 4, 2,
+                    PixelFormat.GRAY), FRAME_SIZE, 3);
+            Assert.assertEquals(16, writer.getCapacity());
+            Assert.assertEquals(3, preEvent.writeTo(writer));
+            for (int i = 4; i <= 100; i++) {
+                source.value = i;
+                frame.readFrom(source, i);
+                writer.write(frame);
+                if (i % 8 == 0) {
+                    // Lets the storage keep up.
+                    while (writer.getQueueDepth() > 0)
+                        Thread.sleep(1);
+                }
+            }
+            writer.close();
+            Assert.assertTrue(writer.awaitClose(5, TimeUnit.SECONDS));
+            Assert.assertEquals(100, writer.getFrameCount());
+            Assert.assertEquals(100, writer.getWrittenFrames());
+            Assert.assertEquals(0, writer.getDroppedFrames());
+            Assert.assertEquals(100L * RECORD, writer.getBytesWritten());
+            // At least every 16 records, and when the recording is closed.
+            Assert.assertTrue(storage.getSyncCount() >= 100 / 16 + 1);
+            Assert.assertEquals(0, storage.getWriterCount());
+
+            FrameStreamReader reader = new FrameStreamReader(file, false);
+            reader.open();
+            try {
+                ByteBuffer data = ByteBuffer.allocate(FRAME_SIZE);
+                for (int i = 1; i <= 100; i++) {
+                    Assert.assertTrue(reader.readFrame(data));
+                    Assert.assertEquals((byte) i, data.get(0));
+                }
+                Assert.assertFalse(reader.readFrame(data));
+            } finally {
+                reader.close();
+            }
+        } finally {
+            storage.stop();
+            file.delete();
+        }
+        try {
+            storage.open(new NullWriter(null), FRAME_SIZE, 0);
+            Assert.fail("The storage writer is stopped.");
+        } catch (IllegalStateException expected) {
+            // Nothing to do.
+        }
+    }
+
+    /**
+     * A device which does not answer fills the queue, without blocking the
+     * capture.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testSlowDevice() throws Exception {
+        StorageWriter storage = new StorageWriter("slow", 4 * RECORD, 0, 0);
+        storage.start();
+        CountDownLatch stalled = new CountDownLatch(1);
+        NullWriter target = new NullWriter(stalled);
+        try {
+            QueuedFrameWriter writer = storage.open(target, FRAME_SIZE, 0);
+            FillSource source = new FillSource();
+            FrameBuffer frame = new FrameBuffer(4, 2, PixelFormat.GRAY);
+            long start = System.nanoTime();
+            for (int i = 0; i < 50; i++) {
+                frame.readFrom(source, i);
+                writer.write(frame);
+            }
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            Assert.assertTrue(writer.getDroppedFrames() >= 50 - 2 * 4);
+            Assert.assertTrue(writer.getQueueDepth() <= 4);
+            Assert.assertEquals(4, writer.getPeakDepth());
+
+            stalled.countDown();
+            writer.close();
+            Assert.assertTrue(writer.awaitClose(5, TimeUnit.SECONDS));
+            Assert.assertEquals(50 - writer.getDroppedFrames(), target.frames);
+            Assert.assertTrue(target.closed);
+        } finally {
+            stalled.countDown();
+            storage.stop();
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.media.recorder.QueuedFrameWriter#write(FrameBuffer)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testWriteFailure() throws Exception {
+        StorageWriter storage = new StorageWriter("failing", 4 * RECORD, 0, 0);
+        storage.start();
+        try {
+            NullWriter target = new NullWriter(null);
+            target.failure = new IOException("Failure expected by the test.");
+            QueuedFrameWriter writer = storage.open(target, FRAME_SIZE, 0);
+            FrameBuffer frame = new FrameBuffer(4, 2, PixelFormat.GRAY);
+            frame.readFrom(new FillSource(), 0);
+            writer.write(frame);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (writer.getFailure() == null && System.currentTimeMillis() < deadline)
+                Thread.sleep(1);
+            Assert.assertSame(target.failure, writer.getFailure());
+            Assert.assertEquals(1, storage.getFailures());
+            try {
+                writer.write(frame);
+                Assert.fail("The recording failed.");
+            } catch (IOException expected) {
+                Assert.assertSame(target.failure, expected.getCause());
+            }
+            writer.close();
+            Assert.assertTrue(writer.awaitClose(5, TimeUnit.SECONDS));
+        } finally {
+            storage.stop();
+        }
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * A recording which only counts the frames, after waiting for a latch.
+     */
+    private static class NullWriter implements FrameWriter {
+
+        private final CountDownLatch latch;
+        volatile long                frames;
+        volatile boolean             closed;
+        IOException                  failure;
+
+        NullWriter(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void write(FrameBuffer frame) {
+            frames++;
+        }
+
+        @Override
+        public void writeRecords(ByteBuffer[] buffers, int count, long length, int frames)
+                throws IOException {
+            if (failure != null)
+                throw failure;
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted.");
+                }
+            }
+            for (int i = 0; i < count; i++)
+                buffers[i].position(buffers[i].limit());
+            this.frames += frames;
+        }
+
+        @Override
+        public long getFrameCount() {
+            return frames;
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return frames * RECORD;
+        }
+
+        @Override
+        public void sync() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * A 4x2 gray source whose pixels all have the same value.
+     */
+    private static class FillSource implements FrameSource {
+
+        int value;
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public boolean readFrame(ByteBuffer dst) {
+            dst.clear();
+            while (dst.hasRemaining())
+                dst.put((byte) value);
+            dst.flip();
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int getWidth() {
+            return 4;
+        }
+
+        @Override
+        public int getHeight() {
+            return 2;
+        }
+
+        @Override
+        public PixelFormat getPixelFormat() {
+            return PixelFormat.GRAY;
+        }
+
+        @Override
+        public int getFrameSize() {
+            return FRAME_SIZE;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class DedupeDestinationTest {
+
+    private File                 directory;
+    private File                 root;
+    private RecordingDestination remote;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("dedupeDestination", "");
+        directory.delete();
+        root = new File(directory, "recordings");
+        remote = new RecordingDestination();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.upload.DedupeDestination#upload(java.io.File)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testUpload() throws Exception {
+        DedupeDestination dedupe = createDedupe(remote, false);
+        byte[] content = new byte[10000];
+        new Random(1).nextBytes(content);
+        dedupe.upload(createFile("front-1.jpg", content));
+        dedupe.upload(createFile("front-2.jpg", content));
+        content[5000]++;
+        dedupe.upload(createFile("front-3.jpg", content));
+        // The recordings are not deduplicated.
+        dedupe.upload(createFile("front-1.jcsf", content));
+        dedupe.upload(createFile("front-2.jcsf", content));
+        dedupe.close();
+        Assert.assertTrue(remote.closed);
+
+        // The index is kept between two runs.
+        dedupe = createDedupe(remote, false);
+        dedupe.upload(createFile("front-4.JPG", content));
+        dedupe.close();
+
+        Assert.assertEquals(Arrays.asList("front-1.jcsf", "front-1.jpg", "front-2.jcsf",
+                "front-3.jpg"), remote.getUploaded());
+        Assert.assertEquals(1, dedupe.getSkipped());
+        Assert.assertEquals(1, dedupe.getChecked());
+    }
+
+    /**
+     * The snapshots of a same scene are duplicates when their perceptual
+     * hashes are compared.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testPerceptual() throws Exception {
+        File first = createSnapshot("first.png", 1, 1);
+        File noisy = createSnapshot("noisy.png", 1, 2);
+        File other = createSnapshot("other.png", 3, 1);
+        Assert.assertFalse(FileUtils.contentEquals(first, noisy));
+
+        DedupeDestination exact = createDedupe(remote, false);
+        exact.upload(first);
+        exact.upload(noisy);
+        exact.close();
+        Assert.assertEquals(2, remote.getUploaded().size());
+
+        FileUtils.deleteDirectory(new File(directory, "index"));
+        remote = new RecordingDestination();
+        DedupeDestination perceptual = createDedupe(remote, true);
+        perceptual.upload(first);
+        perceptual.upload(noisy);
+        perceptual.upload(other);
+        perceptual.close();
+        Assert.assertEquals(Arrays.asList("first.png", "other.png"),
+                remote.getUploaded());
+        Assert.assertEquals(1, perceptual.getSkipped());
+    }
+
+    /**
+     * The duplicates are hard linked in a mirror.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testMirror() throws Exception {
+        MirrorDestination mirror = new MirrorDestination("mirror", new File(directory, "mirror"),
+                root, 1);
+        DedupeDestination dedupe = createDedupe(mirror, false);
+        byte[] content = new byte[10000];
+        new Random(2).nextBytes(content);
+        File first = createFile("front-1.jpg", content);
+        File second = createFile("front-2.jpg", content);
+        dedupe.upload(first);
+        dedupe.upload(second);
+        dedupe.close();
+
+        Assert.assertEquals(1, dedupe.getLinked());
+        Assert.assertTrue(FileUtils.contentEquals(second, mirror.getTarget(second)));
+        // Both names are the same file: a byte written through one is read
+        // through the other.
+        FileOutputStream out = new FileOutputStream(mirror.getTarget(first), true);
+        try {
+            out.write(0);
+        } finally {
+            out.close();
+        }
+        Assert.assertEquals(content.length + 1, mirror.getTarget(second).length());
+
+        // A copy deleted meanwhile is copied again.
+        mirror.getTarget(first).delete();
+        mirror.getTarget(second).delete();
+        dedupe = createDedupe(mirror, false);
+        File third = createFile("front-3.jpg", content);
+        dedupe.upload(third);
+        dedupe.close();
+        Assert.assertEquals(0, dedupe.getLinked());
+        Assert.assertTrue(FileUtils.contentEquals(third, mirror.getTarget(third)));
+    }
+
+    /**
+     * A similar image is copied in a mirror, only the same content being
+     * linked.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void testMirrorPerceptual() throws Exception {
+        MirrorDestination mirror = new MirrorDestination("mirror", new File(directory, "mirror"),
+                root, 1);
+        File first = createSnapshot("first.png", 1, 1);
+        File noisy = createSnapshot("noisy.png", 1, 2);
+        DedupeDestination dedupe = createDedupe(mirror, true);
+        dedupe.upload(first);
+        dedupe.upload(noisy);
+        dedupe.close();
+
+        Assert.assertEquals(0, dedupe.getLinked());
+        Assert.assertTrue(FileUtils.contentEquals(first, mirror.getTarget(first)));
+        Assert.assertTrue(FileUtils.contentEquals(noisy, mirror.getTarget(noisy)));
+    }
+
+    /**
+     * An image which cannot be read is deduplicated by its content.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void testUnreadableImage() throws Exception {
+        byte[] snapshot = FileUtils.readFileToByteArray(createSnapshot("snapshot.png", 1, 1));
+        byte[] truncated = Arrays.copyOf(snapshot, snapshot.length / 2);
+        DedupeDestination dedupe = createDedupe(remote, true);
+        dedupe.upload(createFile("front-1.png", truncated));
+        dedupe.upload(createFile("front-2.png", truncated));
+        dedupe.close();
+
+        Assert.assertEquals(Arrays.asList("front-1.png"), remote.getUploaded());
+        Assert.assertEquals(1, dedupe.getSkipped());
+    }
+
+    // _________________________________________________________________________
+
+    private DedupeDestination createDedupe(UploadDestination destination, boolean perceptual)
+            throws IOException {
+        DedupeDestination dedupe = new DedupeDestination(destination, new File(directory,
+                "index"), perceptual);
+        dedupe.open();
+        return dedupe;
+    }
+
+    private File createFile(String name, byte[] content) throws IOException {
+        File file = new File(root, name);
+        FileUtils.writeByteArrayToFile(file, content);
+        return file;
+    }
+
+    /**
+     * @return A picture of a scene, made of blocks of random brightness, with
+     *         the noise of a sensor.
+     */
+    private File createSnapshot(String name, long scene, long noise) throws IOException {
+        Random blocks = new Random(scene);
+        Random random = new Random(noise);
+        int width = 320;
+        int height = 240;
+        int[] levels = new int[(width / 16) * (height / 16)];
+        for (int i = 0; i < levels.length; i++)
+            levels[i] = 16 + blocks.nextInt(224);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int level = levels[(y / 16) * (width / 16) + x / 16] + random.nextInt(9) - 4;
+                image.setRGB(x, y, (level << 16) | (level << 8) | level);
+            }
+        }
+        File file = new File(root, name);
+        file.getParentFile().mkdirs();
+        ImageIO.write(image, "png", file);
+        return file;
+    }
+
+    /**
+     * Keeps the names of the files uploaded.
+     */
+    private static class RecordingDestination implements UploadDestination {
+
+        private final List<String> uploaded = new ArrayList<String>();
+        private boolean            closed;
+
+        @Override
+        public String getName() {
+            return "remote";
+        }
+
+        @Override
+        public int getConcurrency() {
+            return 1;
+        }
+
+        @Override
+        public synchronized void upload(File file) {
+            uploaded.add(file.getName());
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        synchronized List<String> getUploaded() {
+            List<String> sorted = new ArrayList<String>(uploaded);
+            Collections.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Measures a {@link DedupeIndex} of millions of entries: the time to put
+ * them, the size of the runs and of the filter, the time to open the index
+ * again, and the time of the lookups of keys in the index and of keys which
+ * are not, most of them answered by the filter.
+ * <p>
+ * This is not a unit test, run it by hand, the directory being on the disk
+ * of the data:<br>
+ * <code>java -cp ... net.paissad.jcamstream.upload.DedupeIndexBenchmark [directory] [entries] [lookups]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class DedupeIndexBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File parent = new File((args.length > 0) ? args[0] : System.getProperty("java.io.tmpdir"));
+        int entries = (args.length > 1) ? Integer.parseInt(args[1]) : 4000000;
+        int lookups = (args.length > 2) ? Integer.parseInt(args[2]) : 1000000;
+
+        File directory = File.createTempFile("dedupeIndexBenchmark", "", parent);
+        directory.delete();
+        try {
+            DedupeIndex index = new DedupeIndex(directory);
+            index.open();
+            long start = System.nanoTime();
+            Random random = new Random(1);
+            for (int i = 0; i < entries; i++)
+                index.put(random.nextLong(), i);
+            index.flush();
+            System.out.println(String.format(Locale.ENGLISH,
+                    "%d entries put in %d ms, %d runs, %.1f MB on disk, filter %.1f MB",
+                    entries, millis(start), index.getRunCount(),
+                    FileUtils.sizeOfDirectory(directory) / 1048576.0,
+                    index.getFilterMemory() / 1048576.0));
+            index.close();
+
+            start = System.nanoTime();
+            index = new DedupeIndex(directory);
+            index.open();
+            System.out.println("Opened again in " + millis(start) + " ms");
+
+            random = new Random(1);
+            long[] present = new long[lookups];
+            for (int i = 0, step = Math.max(1, entries / lookups); i < lookups; i++) {
+                present[i] = random.nextLong();
+                for (int j = 1; j < step; j++)
+                    random.nextLong();
+            }
+            lookup(index, "present", present);
+            random = new Random(2);
+            long[] absent = new long[lookups];
+            for (int i = 0; i < lookups; i++)
+                absent[i] = random.nextLong();
+            lookup(index, "absent ", absent);
+            index.close();
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    private static void lookup(DedupeIndex index, String label, long[] keys) throws Exception {
+        long filtered = index.getFiltered();
+        long reads = index.getDiskReads();
+        long found = 0;
+        long start = System.nanoTime();
+        for (long key : keys) {
+            if (index.get(key) != DedupeIndex.NOT_FOUND)
+                found++;
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format(Locale.ENGLISH,
+                "%d %s keys looked up : %.2f us each, %d found, %d answered by the filter, "
+                        + "%.1f blocks read each", keys.length, label, elapsed / 1e3
+                        / keys.length, found, index.getFiltered() - filtered,
+                (double) (index.getDiskReads() - reads) / keys.length));
+    }
+
+    private static long millis(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+}
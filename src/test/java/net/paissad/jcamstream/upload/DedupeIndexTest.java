@@ -0,0 +1,113 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class DedupeIndexTest {
+
+    private File        directory;
+    private DedupeIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("dedupeIndex", "");
+        directory.delete();
+        index = new DedupeIndex(directory);
+        index.setFlushEntries(1000);
+        index.open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        index.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.upload.DedupeIndex#get(long)}.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testGet() throws Exception {
+        long[] keys = createKeys(1, 20000);
+        for (int i = 0; i < keys.length; i++)
+            index.put(keys[i], i);
+        // Flushed 20 times, merged on the way.
+        Assert.assertTrue(index.getRunCount() <= DedupeIndex.MAX_RUNS);
+        Assert.assertEquals(keys.length, index.size());
+
+        for (int i = 0; i < keys.length; i++)
+            Assert.assertEquals(i, index.get(keys[i]));
+        long lookups = index.getLookups();
+        for (long key : createKeys(2, 10000))
+            Assert.assertEquals(DedupeIndex.NOT_FOUND, index.get(key));
+        // Most of the missing keys are answered by the filter alone.
+        Assert.assertTrue(index.getFiltered() > (index.getLookups() - lookups) * 9 / 10);
+    }
+
+    /**
+     * The entries are read again at the opening, the newest value of a key
+     * winning, a torn entry at the end of a run being ignored.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testReopen() throws Exception {
+        long[] keys = createKeys(3, 2500);
+        for (int i = 0; i < keys.length; i++)
+            index.put(keys[i], i);
+        index.put(keys[0], -1);
+        index.close();
+        File[] runs = directory.listFiles();
+        Assert.assertEquals(3, runs.length);
+        FileOutputStream out = new FileOutputStream(runs[0], true);
+        out.write(new byte[5]);
+        out.close();
+
+        index = new DedupeIndex(directory);
+        index.open();
+        Assert.assertEquals(3, index.getRunCount());
+        Assert.assertEquals(-1, index.get(keys[0]));
+        for (int i = 1; i < keys.length; i++)
+            Assert.assertEquals(i, index.get(keys[i]));
+        Assert.assertEquals(DedupeIndex.NOT_FOUND, index.get(42));
+    }
+
+    private static long[] createKeys(long seed, int count) {
+        Random random = new Random(seed);
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++)
+            keys[i] = random.nextLong();
+        return keys;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Measures the time and the CPU taken to mirror a large recording: copied
+ * through buffered streams, as {@link net.paissad.jcamstream.utils.FTPUtils}
+ * reads the files it uploads, then by the {@link MirrorDestination}, without
+ * and with the verification of the checksum. The copies are synced in all
+ * cases.
+ * <p>
+ * This is not a unit test, run it by hand, the directories being on the
+ * disks of the recordings and of the mirror:<br>
+ * <code>java -cp ... net.paissad.jcamstream.upload.MirrorDestinationBenchmark [directory] [mirror directory] [MB]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class MirrorDestinationBenchmark {
+
+    private static final int    RUNS     = 3;
+    private static final long   MEGABYTE = 1024 * 1024;
+    private static ThreadMXBean threads  = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        String tmp = System.getProperty("java.io.tmpdir");
+        File parent = new File((args.length > 0) ? args[0] : tmp);
+        File mirrorParent = new File((args.length > 1) ? args[1] : tmp);
+        long size = ((args.length > 2) ? Long.parseLong(args[2]) : 512) * MEGABYTE;
+
+        File root = File.createTempFile("mirrorDestinationBenchmark", "", parent);
+        root.delete();
+        File mirrorDir = File.createTempFile("mirrorDestinationBenchmark", "", mirrorParent);
+        mirrorDir.delete();
+        try {
+            File file = new File(root, "front/clip.jcsf");
+            createFile(file, size);
+            System.out.println((size / MEGABYTE) + " MB copied from " + root + " to " + mirrorDir);
+
+            final MirrorDestination mirror = new MirrorDestination("mirror", mirrorDir, root, 1);
+            final File streamCopy = new File(mirrorDir, "stream.jcsf");
+            mirrorDir.mkdirs();
+            for (int run = 0; run < RUNS; run++) {
+                measure("buffered streams      ", file, size, new Copy() {
+                    @Override
+                    public void copy(File f) throws IOException {
+                        streamCopy(f, streamCopy);
+                    }
+                });
+                mirror.setVerify(false);
+                measure("transferTo            ", file, size, new Copy() {
+                    @Override
+                    public void copy(File f) throws IOException {
+                        mirror.upload(f);
+                    }
+                });
+                mirror.setVerify(true);
+                measure("transferTo and CRC-32 ", file, size, new Copy() {
+                    @Override
+                    public void copy(File f) throws IOException {
+                        mirror.upload(f);
+                    }
+                });
+            }
+        } finally {
+            FileUtils.deleteDirectory(root);
+            FileUtils.deleteDirectory(mirrorDir);
+        }
+    }
+
+    private static interface Copy {
+        void copy(File file) throws IOException;
+    }
+
+    private static void measure(String label, File file, long size, Copy copy)
+            throws IOException {
+        long cpu = threads.getCurrentThreadCpuTime();
+        long user = threads.getCurrentThreadUserTime();
+        long start = System.nanoTime();
+        copy.copy(file);
+        long elapsed = System.nanoTime() - start;
+        cpu = threads.getCurrentThreadCpuTime() - cpu;
+        user = threads.getCurrentThreadUserTime() - user;
+        System.out.println(String.format(Locale.ENGLISH,
+                "%s : %6d ms, %7.1f MB/s, CPU %6d ms (user %6d ms)", label, elapsed / 1000000,
+                (double) size / MEGABYTE / (elapsed / 1e9), cpu / 1000000, user / 1000000));
+    }
+
+    private static void createFile(File file, long size) throws IOException {
+        file.getParentFile().mkdirs();
+        byte[] chunk = new byte[(int) MEGABYTE];
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            for (long written = 0; written < size; written += chunk.length) {
+                for (int i = 0; i < chunk.length; i += 512)
+                    chunk[i] = (byte) (written + i);
+                raf.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void streamCopy(File file, File copy) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            FileOutputStream fos = new FileOutputStream(copy);
+            OutputStream out = new BufferedOutputStream(fos);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                    out.write(buffer, 0, read);
+                out.flush();
+                fos.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
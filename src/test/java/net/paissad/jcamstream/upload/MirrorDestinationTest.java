@@ -0,0 +1,126 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class MirrorDestinationTest {
+
+    private File directory;
+    private File root;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("mirrorDestination", "");
+        directory.delete();
+        root = new File(directory, "recordings");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.upload.MirrorDestination#upload(java.io.File)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testUpload() throws Exception {
+        MirrorDestination mirror = new MirrorDestination("mirror", new File(directory, "mirror"),
+                root, 1);
+        File file = createFile(new File(root, "front/2011-06-01/clip.jcsf"), 3 * 1024 * 1024 + 17);
+        File empty = createFile(new File(root, "front/empty.jcsf"), 0);
+        File outside = createFile(new File(directory, "snapshot.jpg"), 1000);
+
+        mirror.upload(file);
+        mirror.upload(empty);
+        mirror.upload(outside);
+        // Copied again, over the previous copy.
+        mirror.upload(file);
+
+        File copy = new File(directory, "mirror/front/2011-06-01/clip.jcsf");
+        Assert.assertEquals(copy, mirror.getTarget(file));
+        Assert.assertTrue(FileUtils.contentEquals(file, copy));
+        Assert.assertTrue(FileUtils.contentEquals(empty, mirror.getTarget(empty)));
+        Assert.assertTrue(FileUtils.contentEquals(outside, new File(directory,
+                "mirror/snapshot.jpg")));
+        Assert.assertEquals(1, copy.getParentFile().list().length);
+    }
+
+    /**
+     * A copy whose checksum differs is not kept.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testVerify() throws Exception {
+        MirrorDestination mirror = new MirrorDestination("mirror", new File(directory, "mirror"),
+                root, 1) {
+            @Override
+            void transfer(File file, File copy) throws IOException {
+                super.transfer(file, copy);
+                RandomAccessFile raf = new RandomAccessFile(copy, "rw");
+                try {
+                    raf.seek(raf.length() / 2);
+                    raf.write(raf.read() ^ 1);
+                } finally {
+                    raf.close();
+                }
+            }
+        };
+        File file = createFile(new File(root, "front/clip.jcsf"), 100000);
+        try {
+            mirror.upload(file);
+            Assert.fail("The corrupted copy was kept");
+        } catch (IOException ioe) {
+            // Expected.
+        }
+        File target = mirror.getTarget(file);
+        Assert.assertFalse(target.exists());
+        Assert.assertEquals(0, target.getParentFile().list().length);
+
+        mirror.setVerify(false);
+        mirror.upload(file);
+        Assert.assertTrue(target.exists());
+        Assert.assertFalse(FileUtils.contentEquals(file, target));
+    }
+
+    private static File createFile(File file, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        FileUtils.writeByteArrayToFile(file, data);
+        return file;
+    }
+}
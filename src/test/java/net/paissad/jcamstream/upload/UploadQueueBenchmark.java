@@ -0,0 +1,119 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Measures how many files per second an {@link UploadQueue} queues and
+ * records as done, when its journal is synced for each file, then when it is
+ * synced periodically for all the files of the interval. The destination
+ * does nothing, so only the cost of the journal is measured. Then measures
+ * how long a journal of pending uploads takes to be read at the start.
+ * <p>
+ * This is not a unit test, run it by hand, the directory being on the disk
+ * of the data:<br>
+ * <code>java -cp ... net.paissad.jcamstream.upload.UploadQueueBenchmark [directory] [files] [pending]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class UploadQueueBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File parent = new File((args.length > 0) ? args[0] : System.getProperty("java.io.tmpdir"));
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 5000;
+        int pending = (args.length > 2) ? Integer.parseInt(args[2]) : 100000;
+
+        File directory = File.createTempFile("uploadQueueBenchmark", "", parent);
+        directory.delete();
+        try {
+            List<File> files = new ArrayList<File>(count);
+            for (int i = 0; i < count; i++) {
+                File file = new File(directory, "snapshots/front-" + i + ".jpg");
+                FileUtils.writeByteArrayToFile(file, new byte[16]);
+                files.add(file);
+            }
+            System.out.println(count + " files queued, in " + directory);
+
+            run(new File(directory, "synced"), files, true);
+            run(new File(directory, "grouped"), files, false);
+
+            UploadJournal journal = new UploadJournal(new File(directory, "pending"));
+            journal.open();
+            for (int i = 0; i < pending; i++)
+                journal.append("remote", files.get(i % count));
+            journal.sync();
+            long start = System.nanoTime();
+            journal = new UploadJournal(new File(directory, "pending"));
+            int read = journal.open().size();
+            System.out.println(String.format("%-28s : %6.0f ms", read + " uploads pending read",
+                    (System.nanoTime() - start) / 1e6));
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    private static void run(File data, List<File> files, boolean syncEach) throws Exception {
+        UploadQueue queue = new UploadQueue(data);
+        queue.addDestination(new UploadDestination() {
+            @Override
+            public String getName() {
+                return "remote";
+            }
+
+            @Override
+            public int getConcurrency() {
+                return 2;
+            }
+
+            @Override
+            public void upload(File file) {
+                // Sent.
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        if (syncEach)
+            queue.setSyncInterval(Long.MAX_VALUE / 2);
+        queue.start();
+        long start = System.nanoTime();
+        for (File file : files) {
+            queue.enqueue(file);
+            if (syncEach)
+                queue.sync();
+        }
+        while (queue.getPendingCount() > 0)
+            Thread.sleep(1);
+        // The last uploads done are on the disk too.
+        queue.sync();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        queue.stop();
+        System.out.println(String.format("%-28s : %6.0f ms, %7.0f files/s, %5d syncs",
+                syncEach ? "Sync for each file" : "Sync every "
+                        + UploadQueue.DEFAULT_SYNC_INTERVAL + " ms", seconds * 1000, files.size()
+                        / seconds, queue.getJournal().getSyncs()));
+    }
+}
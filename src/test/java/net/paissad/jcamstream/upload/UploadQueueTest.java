@@ -0,0 +1,317 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.upload;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class UploadQueueTest {
+
+    private File directory;
+    private File data;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("uploadQueue", "");
+        directory.delete();
+        data = new File(directory, "data");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.upload.UploadQueue#enqueue(java.io.File)}.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testEnqueue() throws Exception {
+        File recordings = new File(directory, "recordings");
+        List<File> files = createFiles(new File(recordings, "front"), "front", 20);
+        FakeDestination remote = new FakeDestination("remote", 2);
+        remote.delay = 20;
+        MirrorDestination mirror = new MirrorDestination("mirror", new File(directory, "mirror"),
+                recordings, 1);
+
+        UploadQueue queue = new UploadQueue(data);
+        queue.addDestination(remote);
+        // The first 10 files only.
+        queue.addDestination(mirror, new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().matches("front-[0-9]\\.jcsf");
+            }
+        });
+        queue.start();
+        try {
+            for (File file : files)
+                queue.enqueue(file);
+            // Pending already.
+            Assert.assertEquals(0, queue.enqueue(files.get(19)));
+            Assert.assertEquals(1, queue.getDuplicates());
+            awaitUploads(queue, 30);
+        } finally {
+            queue.stop();
+        }
+
+        // Two at a time, so maybe not in order.
+        List<File> uploaded = new ArrayList<File>(remote.uploaded);
+        Collections.sort(uploaded);
+        Collections.sort(files);
+        Assert.assertEquals(files, uploaded);
+        Assert.assertEquals(2, remote.maxActive.get());
+        for (File file : files) {
+            File copy = new File(directory, "mirror/front/" + file.getName());
+            boolean mirrored = file.getName().length() == "front-0.jcsf".length();
+            Assert.assertEquals(mirrored, copy.isFile());
+            if (mirrored)
+                Assert.assertTrue(FileUtils.contentEquals(file, copy));
+        }
+        Assert.assertEquals(0, queue.getFailures());
+        Assert.assertTrue(remote.closed);
+    }
+
+    /**
+     * The uploads pending when the application crashed are done at the next
+     * start.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testRecovery() throws Exception {
+        List<File> files = createFiles(directory, "front", 10);
+        FakeDestination down = new FakeDestination("remote", 1);
+        down.failures = Integer.MAX_VALUE;
+        UploadQueue crashed = new UploadQueue(data);
+        crashed.setBackoff(60 * 1000, 60 * 1000);
+        crashed.addDestination(down);
+        crashed.addDestination(new FakeDestination("removed", 1));
+        crashed.start();
+        for (File file : files)
+            crashed.enqueue(file);
+        crashed.sync();
+        // Queued after the last sync, then partly written.
+        crashed.enqueue(createFiles(directory, "lost", 1).get(0));
+        crashed.getJournal().sync();
+        File journal = crashed.getJournal().getFile();
+        FileOutputStream out = new FileOutputStream(journal, true);
+        out.write(new byte[] { 1, 0, 0, 0 });
+        out.close();
+        // Deleted meanwhile.
+        Assert.assertTrue(files.get(3).delete());
+
+        // One at a time, in the order they were queued.
+        FakeDestination remote = new FakeDestination("remote", 1);
+        UploadQueue queue = new UploadQueue(data);
+        queue.addDestination(remote);
+        queue.start();
+        try {
+            Assert.assertEquals(1, queue.getSkipped());
+            awaitUploads(queue, 10);
+        } finally {
+            queue.stop();
+            crashed.stop();
+        }
+        List<File> expected = new ArrayList<File>(files);
+        expected.remove(3);
+        expected.add(new File(directory, "lost-0.jcsf"));
+        Assert.assertEquals(expected, remote.uploaded);
+        Assert.assertEquals(0, queue.getQueued());
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.upload.UploadQueue#getBackoff(int)}.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testBackoff() throws Exception {
+        List<File> files = createFiles(directory, "front", 3);
+        FakeDestination remote = new FakeDestination("remote", 1);
+        remote.failures = 3;
+        UploadQueue queue = new UploadQueue(data);
+        queue.setBackoff(50, 100);
+        Assert.assertEquals(50, queue.getBackoff(1));
+        Assert.assertEquals(100, queue.getBackoff(2));
+        Assert.assertEquals(100, queue.getBackoff(40));
+        queue.addDestination(remote);
+        queue.start();
+        try {
+            for (File file : files)
+                queue.enqueue(file);
+            awaitUploads(queue, 3);
+        } finally {
+            queue.stop();
+        }
+        // The files failed are tried again after the ones queued meanwhile.
+        List<File> uploaded = new ArrayList<File>(remote.uploaded);
+        Collections.sort(uploaded);
+        Assert.assertEquals(files, uploaded);
+        Assert.assertEquals(3, queue.getFailures());
+        // Waited after each failure.
+        List<Long> times = remote.attempts;
+        Assert.assertEquals(6, times.size());
+        Assert.assertTrue(times.get(1) - times.get(0) >= 45);
+        Assert.assertTrue(times.get(2) - times.get(1) >= 95);
+        Assert.assertTrue(times.get(3) - times.get(2) >= 95);
+
+        // The journal holds nothing pending.
+        UploadJournal journal = new UploadJournal(data);
+        Assert.assertEquals(0, journal.open().size());
+        journal.close(Collections.<UploadJournal.Entry> emptyList());
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.upload.UploadQueue#setMaxAttempts(int)}.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testMaxAttempts() throws Exception {
+        List<File> files = createFiles(directory, "front", 3);
+        FakeDestination remote = new FakeDestination("remote", 1);
+        remote.rejected = files.get(0);
+        UploadQueue queue = new UploadQueue(data);
+        queue.setBackoff(10, 10);
+        queue.setMaxAttempts(3);
+        queue.addDestination(remote);
+        queue.start();
+        try {
+            for (File file : files)
+                queue.enqueue(file);
+            awaitUploads(queue, 2);
+        } finally {
+            queue.stop();
+        }
+        // The file rejected did not hold back the others.
+        Assert.assertEquals(files.subList(1, 3), remote.uploaded);
+        Assert.assertEquals(3, queue.getFailures());
+        Assert.assertEquals(1, queue.getAbandoned());
+
+        // The upload given up is not done again.
+        UploadJournal journal = new UploadJournal(data);
+        Assert.assertEquals(0, journal.open().size());
+        journal.close(Collections.<UploadJournal.Entry> emptyList());
+    }
+
+    // _________________________________________________________________________
+
+    private static List<File> createFiles(File dir, String prefix, int count) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < count; i++) {
+            File file = new File(dir, prefix + "-" + i + ".jcsf");
+            FileUtils.writeByteArrayToFile(file, new byte[1000 + i]);
+            files.add(file.getAbsoluteFile());
+        }
+        return files;
+    }
+
+    private static void awaitUploads(UploadQueue queue, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (queue.getPendingCount() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Assert.assertEquals(0, queue.getPendingCount());
+        Assert.assertEquals(count, queue.getUploaded());
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * Records the files uploaded, after failing a number of times.
+     */
+    private static class FakeDestination implements UploadDestination {
+
+        private final String        name;
+        private final int           concurrency;
+        private final List<File>    uploaded  = Collections.synchronizedList(new ArrayList<File>());
+        private final List<Long>    attempts  = Collections.synchronizedList(new ArrayList<Long>());
+        private final AtomicInteger active    = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+        private volatile int        failures;
+        private volatile long       delay;
+        private volatile boolean    closed;
+        /** A file always failed. */
+        private volatile File       rejected;
+
+        private FakeDestination(String name, int concurrency) {
+            this.name = name;
+            this.concurrency = concurrency;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        @Override
+        public void upload(File file) throws IOException {
+            attempts.add(System.currentTimeMillis());
+            int count = active.incrementAndGet();
+            try {
+                if (count > maxActive.get())
+                    maxActive.set(count);
+                if (failures > 0) {
+                    failures--;
+                    throw new IOException("Down");
+                }
+                if (file.equals(rejected))
+                    throw new IOException("Rejected");
+                if (!file.isFile())
+                    throw new IOException(file + " not found");
+                Thread.sleep(delay);
+                uploaded.add(file);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+import org.apache.commons.io.input.NullInputStream;
+
+import net.paissad.jcamstream.utils.BandwidthShaper.Lane;
+
+/**
+ * Measures how long the snapshots of the alerts take to be sent while two
+ * recordings are uploaded through the same {@link BandwidthShaper}: first
+ * with the snapshots in the bulk lane too, sharing the bandwidth with the
+ * recordings, then in the alert lane.
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.utils.BandwidthShaperBenchmark [KB/s] [snapshots] [snapshot KB]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class BandwidthShaperBenchmark {
+
+    private static final int KILOBYTE = 1024;
+
+    public static void main(String[] args) throws Exception {
+        int rate = (args.length > 0) ? Integer.parseInt(args[0]) : 1024;
+        int snapshots = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        int snapshotSize = (args.length > 2) ? Integer.parseInt(args[2]) : 64;
+
+        for (Lane lane : new Lane[] { Lane.BULK, Lane.ALERT }) {
+            BandwidthShaper shaper = new BandwidthShaper(rate * KILOBYTE);
+            Thread[] recordings = new Thread[2];
+            for (int i = 0; i < recordings.length; i++) {
+                recordings[i] = startRecording(shaper, "offsite");
+            }
+            Thread.sleep(500);
+
+            long total = 0;
+            long max = 0;
+            for (int i = 0; i < snapshots; i++) {
+                long start = System.nanoTime();
+                drain(shaper.wrap(new NullInputStream(snapshotSize * KILOBYTE), "offsite", lane));
+                long elapsed = System.nanoTime() - start;
+                total += elapsed;
+                max = Math.max(max, elapsed);
+                Thread.sleep(100);
+            }
+            System.out.println(String.format(Locale.ENGLISH,
+                    "snapshots in the %-5s lane : %6.1f ms avg, %6.1f ms max, "
+                            + "bulk %4d KB/s, bulk wait %5.1f ms avg", lane, total / 1e6
+                            / snapshots, max / 1e6, shaper.getBytesPerSecond(Lane.BULK)
+                            / KILOBYTE, shaper.getAverageWait(Lane.BULK)));
+            for (Thread recording : recordings) {
+                recording.interrupt();
+                recording.join();
+            }
+        }
+    }
+
+    private static Thread startRecording(final BandwidthShaper shaper, final String destination) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    drain(shaper.wrap(new NullInputStream(Long.MAX_VALUE), destination,
+                            Lane.BULK));
+                } catch (IOException ioe) {
+                    // Interrupted, the benchmark is over.
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8 * KILOBYTE];
+        while (in.read(buffer) >= 0)
+            continue;
+        in.close();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.paissad.jcamstream.utils.BandwidthShaper.Lane;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class BandwidthShaperTest {
+
+    private static final int KILOBYTE = 1024;
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.BandwidthShaper#wrap(java.io.InputStream, java.lang.String, net.paissad.jcamstream.utils.BandwidthShaper.Lane)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testWrap() throws Exception {
+        BandwidthShaper shaper = new BandwidthShaper(400 * KILOBYTE);
+        byte[] data = createData(200 * KILOBYTE);
+        long start = System.nanoTime();
+        byte[] read = readFully(shaper.wrap(new ByteArrayInputStream(data), "offsite", Lane.BULK));
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        Assert.assertArrayEquals(data, read);
+        // The first 40 KB are the burst, the others come at 400 KB/s.
+        Assert.assertTrue("Too fast : " + elapsed + " ms", elapsed >= 350);
+        Assert.assertTrue("Too slow : " + elapsed + " ms", elapsed < 1500);
+        Assert.assertEquals(data.length, shaper.getBytes(Lane.BULK));
+        Assert.assertEquals(0, shaper.getBytes(Lane.ALERT));
+        Assert.assertTrue(shaper.getBytesPerSecond(Lane.BULK) > 0);
+        Assert.assertTrue(shaper.getAverageWait(Lane.BULK) > 0);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.BandwidthShaper#setRate(java.lang.String, long)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testSetRate() throws Exception {
+        final BandwidthShaper shaper = new BandwidthShaper(0);
+        shaper.setRate("offsite", 100 * KILOBYTE);
+        Assert.assertEquals(100 * KILOBYTE, shaper.getRate("offsite"));
+        Assert.assertEquals(0, shaper.getRate("backup"));
+
+        // The other destinations are not limited.
+        long start = System.nanoTime();
+        readFully(shaper.wrap(new ByteArrayInputStream(createData(200 * KILOBYTE)), "backup",
+                Lane.BULK));
+        Assert.assertTrue((System.nanoTime() - start) / 1000000 < 200);
+
+        // 2 seconds at 100 KB/s, unless the limit is lifted while reading.
+        Thread lifter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                shaper.setRate("offsite", 0);
+            }
+        };
+        start = System.nanoTime();
+        lifter.start();
+        readFully(shaper.wrap(new ByteArrayInputStream(createData(200 * KILOBYTE)), "offsite",
+                Lane.BULK));
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        lifter.join();
+        Assert.assertTrue("Too slow : " + elapsed + " ms", elapsed < 800);
+    }
+
+    /**
+     * The alerts go ahead of the bulk uploads sharing the bandwidth.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testLanes() throws Exception {
+        final BandwidthShaper shaper = new BandwidthShaper(200 * KILOBYTE);
+        Assert.assertEquals(Lane.ALERT, shaper.getLane("snapshot.JPG"));
+        Assert.assertEquals(Lane.BULK, shaper.getLane("clip.jcsf"));
+        Assert.assertEquals(Lane.BULK, shaper.getLane("README"));
+
+        final AtomicLong bulkEnd = new AtomicLong();
+        Thread bulk = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    readFully(shaper.wrap(new ByteArrayInputStream(createData(300 * KILOBYTE)),
+                            "offsite", Lane.BULK));
+                    bulkEnd.set(System.nanoTime());
+                } catch (IOException ioe) {
+                    throw new IllegalStateException(ioe);
+                }
+            }
+        };
+        bulk.start();
+        Thread.sleep(200);
+
+        // Alone, 100 KB take 0.5 second at 200 KB/s, and 1 second if shared.
+        long start = System.nanoTime();
+        readFully(shaper.wrap(new ByteArrayInputStream(createData(100 * KILOBYTE)), "backup",
+                Lane.ALERT));
+        long end = System.nanoTime();
+        bulk.join();
+
+        long elapsed = (end - start) / 1000000;
+        Assert.assertTrue("Alert too slow : " + elapsed + " ms", elapsed < 750);
+        Assert.assertTrue(bulkEnd.get() > end);
+        Assert.assertTrue(shaper.getMaxWait(Lane.BULK) > shaper.getMaxWait(Lane.ALERT));
+        Assert.assertEquals(100 * KILOBYTE, shaper.getBytes(Lane.ALERT));
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (i * 31);
+        return data;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4 * KILOBYTE];
+        int n;
+        while ((n = in.read(buffer)) >= 0)
+            out.write(buffer, 0, n);
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Measures the time taken to upload a batch of clips to a FTP server: one
+ * after another over a single {@link FTPUtils} connection, then with a
+ * {@link FTPUploader} of several sessions. The server of the tests pauses
+ * after each file, as the round trips of a distant server do.
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.utils.FTPUploaderBenchmark [files] [sessions] [pause ms]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FTPUploaderBenchmark {
+
+    private static final int FILE_SIZE = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 32;
+        int sessions = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        long pause = (args.length > 2) ? Long.parseLong(args[2]) : 100;
+
+        File directory = File.createTempFile("ftpUploaderBenchmark", "");
+        directory.delete();
+        FakeFTPServer server = new FakeFTPServer(new File(directory, "server"));
+        server.setDataDelay(pause);
+        try {
+            List<File> files = new ArrayList<File>();
+            for (int i = 0; i < count; i++) {
+                File file = new File(directory, "clip" + i + ".jcsf");
+                FileUtils.writeByteArrayToFile(file, new byte[FILE_SIZE]);
+                files.add(file);
+            }
+            System.out.println(count + " files of " + FILE_SIZE / 1024 + " KB, " + pause
+                    + " ms per file on the server");
+
+            long start = System.nanoTime();
+            FTPUtils ftp = new FTPUtils("user", "pass", "127.0.0.1", server.getPort(), "/serial");
+            ftp.estabishConnection();
+            ftp.uploadFiles(files);
+            ftp.logoutAndDisconnect();
+            print("FTPUtils, 1 connection", System.nanoTime() - start, count);
+
+            FTPUploader uploader = new FTPUploader("user", "pass", "127.0.0.1", server.getPort(),
+                    "/pooled", sessions);
+            try {
+                start = System.nanoTime();
+                uploader.uploadFiles(files);
+                print("FTPUploader, " + sessions + " sessions", System.nanoTime() - start, count);
+                // The sessions are open already. The files are removed from
+                // the server, otherwise they are found there and skipped.
+                for (File file : files)
+                    new File(directory, "server/pooled/" + file.getName()).delete();
+                start = System.nanoTime();
+                uploader.uploadFiles(files);
+                print("FTPUploader, next batch", System.nanoTime() - start, count);
+            } finally {
+                uploader.close();
+            }
+        } finally {
+            server.close();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    private static void print(String name, long nanos, int count) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format("%-28s : %6.0f ms, %5.1f MB/s", name, seconds * 1000, count
+                * (double) FILE_SIZE / 1024 / 1024 / seconds));
+    }
+}
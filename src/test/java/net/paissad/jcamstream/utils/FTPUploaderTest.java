@@ -0,0 +1,251 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FTPUploaderTest {
+
+    private File          directory;
+    private FakeFTPServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("ftpUploader", "");
+        directory.delete();
+        new File(directory, "local").mkdirs();
+        server = new FakeFTPServer(new File(directory, "server"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.FTPUploader#uploadFiles(java.util.List)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testUploadFiles() throws Exception {
+        List<File> files = createFiles("first", 6);
+        server.setDataDelay(100);
+        FTPUploader uploader = new FTPUploader("user", "pass", "127.0.0.1", server.getPort(),
+                "/clips/front", 3);
+        try {
+            uploader.uploadFiles(files);
+            assertUploaded(files);
+            Assert.assertEquals(3, server.getMaxActiveTransfers());
+            Assert.assertEquals(3, server.getLogins());
+
+            // The sessions are kept for the next batch.
+            List<File> next = createFiles("second", 3);
+            uploader.uploadFiles(next);
+            assertUploaded(next);
+            Assert.assertEquals(3, server.getLogins());
+            Assert.assertEquals(9, uploader.getUploadedFiles());
+
+            // Lost, then opened again.
+            server.dropConnections();
+            Thread.sleep(100);
+            uploader.uploadFiles(files);
+            assertUploaded(files);
+            Assert.assertTrue(server.getLogins() > 3);
+            Assert.assertEquals(0, uploader.getFailures());
+            Assert.assertTrue(uploader.getSessionCount() <= 3);
+        } finally {
+            uploader.close();
+        }
+        Assert.assertEquals(0, uploader.getSessionCount());
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.FTPUploader#upload(java.io.File)}.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testResume() throws Exception {
+        File file = createFiles("clip", 1).get(0);
+        FTPUploader uploader = new FTPUploader("user", "pass", "127.0.0.1", server.getPort(),
+                "/clips/front", 1);
+        uploader.setChunkSize(32 * 1024);
+        try {
+            // Lost in the middle of the second chunk, resumed from the size
+            // of the file on the server.
+            server.setFailAfter(40 * 1024);
+            uploader.upload(file);
+            assertUploaded(Arrays.asList(file));
+            Assert.assertEquals(1, uploader.getReconnections());
+            Assert.assertEquals(40 * 1024, uploader.getResumedBytes());
+            // The first chunk, then what follows the 40 KB received.
+            Assert.assertEquals(32 * 1024 + file.length() - 40 * 1024,
+                    uploader.getTransferredBytes());
+
+            // Already uploaded.
+            uploader.upload(file);
+            Assert.assertEquals(40 * 1024 + file.length(), uploader.getResumedBytes());
+
+            // Appended when the server does not know REST.
+            File other = createFiles("other", 1).get(0);
+            server.setRestSupported(false);
+            server.setFailAfter(50 * 1024);
+            uploader.upload(other);
+            assertUploaded(Arrays.asList(other));
+            Assert.assertEquals(2, uploader.getReconnections());
+            Assert.assertEquals(0, uploader.getFailures());
+        } finally {
+            uploader.close();
+        }
+    }
+
+    /**
+     * The progress saved lets an upload go on after a restart, when the
+     * server does not tell the size of its files.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testResumeAfterRestart() throws Exception {
+        File file = createFiles("clip", 1).get(0);
+        File saved = new File(directory, "progress.properties");
+        server.setSizeSupported(false);
+        server.setFailAfter(40 * 1024);
+
+        FTPUploader uploader = new FTPUploader("user", "pass", "127.0.0.1", server.getPort(),
+                "/clips/front", 1);
+        uploader.setChunkSize(32 * 1024);
+        uploader.setRetries(0);
+        uploader.setProgress(new UploadProgress(saved));
+        try {
+            uploader.upload(file);
+            Assert.fail("The connection was lost.");
+        } catch (IOException expected) {
+            Assert.assertEquals(1, uploader.getFailures());
+        } finally {
+            uploader.close();
+        }
+
+        UploadProgress progress = new UploadProgress(saved);
+        Assert.assertEquals(32 * 1024, progress.getOffset(file, file.getName()));
+        uploader = new FTPUploader("user", "pass", "127.0.0.1", server.getPort(), "/clips/front",
+                1);
+        uploader.setChunkSize(32 * 1024);
+        uploader.setProgress(progress);
+        try {
+            uploader.upload(file);
+        } finally {
+            uploader.close();
+        }
+        assertUploaded(Arrays.asList(file));
+        Assert.assertEquals(32 * 1024, uploader.getResumedBytes());
+        Assert.assertEquals(0, progress.size());
+        Assert.assertEquals(0, new UploadProgress(saved).size());
+    }
+
+    /**
+     * The uploads waiting for the only session go on when it is closed after
+     * a failure.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testFailureWakesWaiters() throws Exception {
+        List<File> files = createFiles("waiting", 3);
+        server.setDataDelay(100);
+        server.setFailAfter(40 * 1024);
+        final FTPUploader uploader = new FTPUploader("user", "pass", "127.0.0.1",
+                server.getPort(), "/clips/front", 1);
+        uploader.setRetries(0);
+        ExecutorService executor = Executors.newFixedThreadPool(files.size());
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        uploader.upload(file);
+                        return null;
+                    }
+                }));
+            }
+            int failed = 0;
+            for (Future<Object> future : futures) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException ee) {
+                    Assert.assertTrue(ee.getCause() instanceof IOException);
+                    failed++;
+                }
+            }
+            Assert.assertEquals(1, failed);
+            Assert.assertEquals(1, uploader.getFailures());
+            Assert.assertEquals(1, uploader.getSessionCount());
+        } finally {
+            executor.shutdownNow();
+            uploader.close();
+        }
+    }
+
+    // _________________________________________________________________________
+
+    private List<File> createFiles(String prefix, int count) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < count; i++) {
+            File file = new File(directory, "local" + File.separator + prefix + i + ".jcsf");
+            byte[] data = new byte[100 * 1024 + i];
+            for (int j = 0; j < data.length; j++)
+                data[j] = (byte) (j * 31 + i);
+            FileUtils.writeByteArrayToFile(file, data);
+            files.add(file);
+        }
+        return files;
+    }
+
+    private void assertUploaded(List<File> files) throws IOException {
+        for (File file : files) {
+            File uploaded = new File(directory, "server/clips/front/" + file.getName());
+            Assert.assertTrue(FileUtils.contentEquals(file, uploaded));
+        }
+    }
+}
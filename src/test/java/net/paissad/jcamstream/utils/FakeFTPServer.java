@@ -0,0 +1,294 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A FTP server in memory for the tests, storing the files uploaded into a
+ * local directory. It knows the few commands used by the uploads, in
+ * passive mode only, and accepts any user.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FakeFTPServer {
+
+    private final File          root;
+    private final ServerSocket  server;
+    private final List<Socket>  clients       = new CopyOnWriteArrayList<Socket>();
+    private final AtomicInteger logins        = new AtomicInteger();
+    private final AtomicInteger active        = new AtomicInteger();
+    private final AtomicInteger maxActive     = new AtomicInteger();
+    private volatile long       dataDelay;
+    private volatile long       failAfter     = -1;
+    private volatile boolean    sizeSupported = true;
+    private volatile boolean    restSupported = true;
+
+    /**
+     * Starts the server on a free port of the local host.
+     * 
+     * @param root
+     *            - The directory where the files are stored.
+     */
+    public FakeFTPServer(File root) throws IOException {
+        this.root = root;
+        root.mkdirs();
+        server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread("fake-ftp") {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket client = server.accept();
+                        clients.add(client);
+                        new Thread("fake-ftp-session") {
+                            @Override
+                            public void run() {
+                                serve(client);
+                            }
+                        }.start();
+                    }
+                } catch (IOException e) {
+                    // Closed.
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return The number of successful logins.
+     */
+    public int getLogins() {
+        return logins.get();
+    }
+
+    /**
+     * @return The maximum number of files received at once.
+     */
+    public int getMaxActiveTransfers() {
+        return maxActive.get();
+    }
+
+    /**
+     * @param millis
+     *            - A pause before the reply to each transfer, as a slow link.
+     */
+    public void setDataDelay(long millis) {
+        dataDelay = millis;
+    }
+
+    /**
+     * @param bytes
+     *            - The number of bytes received from now on before the
+     *            connection of the client sending them is lost.
+     */
+    public void setFailAfter(long bytes) {
+        failAfter = bytes;
+    }
+
+    public void setSizeSupported(boolean sizeSupported) {
+        this.sizeSupported = sizeSupported;
+    }
+
+    public void setRestSupported(boolean restSupported) {
+        this.restSupported = restSupported;
+    }
+
+    /**
+     * Closes the connections of all the clients, as a server restarting.
+     */
+    public void dropConnections() throws IOException {
+        for (Socket client : clients) {
+            client.close();
+            clients.remove(client);
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+        dropConnections();
+    }
+
+    // _________________________________________________________________________
+
+    private void serve(Socket client) {
+        File dir = root;
+        ServerSocket passive = null;
+        long restart = 0;
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(),
+                    "ISO-8859-1"));
+            Writer out = new OutputStreamWriter(client.getOutputStream(), "ISO-8859-1");
+            reply(out, "220 Fake FTP server");
+            String line;
+            while ((line = in.readLine()) != null) {
+                int space = line.indexOf(' ');
+                String command = (space < 0) ? line : line.substring(0, space);
+                String arg = (space < 0) ? "" : line.substring(space + 1);
+                command = command.toUpperCase();
+                if (command.equals("USER")) {
+                    reply(out, "331 Password required");
+                } else if (command.equals("PASS")) {
+                    logins.incrementAndGet();
+                    reply(out, "230 Logged in");
+                } else if (command.equals("TYPE") || command.equals("NOOP")) {
+                    reply(out, "200 OK");
+                } else if (command.equals("ALLO")) {
+                    reply(out, "202 No storage allocation necessary");
+                } else if (command.equals("SYST")) {
+                    reply(out, "215 UNIX Type: L8");
+                } else if (command.equals("PWD")) {
+                    reply(out, "257 \"/" + path(dir) + "\"");
+                } else if (command.equals("CWD")) {
+                    File target = resolve(dir, arg);
+                    if (target.isDirectory()) {
+                        dir = target;
+                        reply(out, "250 OK");
+                    } else {
+                        reply(out, "550 No such directory");
+                    }
+                } else if (command.equals("MKD")) {
+                    File target = resolve(dir, arg);
+                    reply(out, (target.mkdirs() || target.isDirectory()) ? "257 Created"
+                            : "550 Refused");
+                } else if (command.equals("SIZE") && sizeSupported) {
+                    File target = resolve(dir, arg);
+                    reply(out, target.isFile() ? "213 " + target.length() : "550 No such file");
+                } else if (command.equals("REST") && restSupported) {
+                    restart = Long.parseLong(arg.trim());
+                    reply(out, "350 Restarting at " + restart);
+                } else if (command.equals("PASV")) {
+                    if (passive != null)
+                        passive.close();
+                    passive = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+                    int port = passive.getLocalPort();
+                    reply(out, "227 Entering Passive Mode (127,0,0,1," + (port >> 8) + ","
+                            + (port & 0xFF) + ")");
+                } else if (command.equals("STOR") || command.equals("APPE")) {
+                    File target = resolve(dir, arg);
+                    if (passive == null) {
+                        reply(out, "425 Use PASV first");
+                        continue;
+                    }
+                    reply(out, "150 Opening data connection");
+                    Socket data = passive.accept();
+                    passive.close();
+                    passive = null;
+                    long offset = command.equals("APPE") ? (target.isFile() ? target.length() : 0)
+                            : restart;
+                    restart = 0;
+                    if (!receive(data, target, offset)) {
+                        client.close();
+                        break;
+                    }
+                    reply(out, "226 Transfer complete");
+                } else if (command.equals("QUIT")) {
+                    reply(out, "221 Bye");
+                    break;
+                } else {
+                    reply(out, "502 Not implemented");
+                }
+            }
+        } catch (IOException e) {
+            // Connection lost.
+        } finally {
+            try {
+                if (passive != null)
+                    passive.close();
+                client.close();
+            } catch (IOException e) {
+                // Closed already.
+            }
+            clients.remove(client);
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the connection is lost meanwhile.
+     */
+    private boolean receive(Socket data, File target, long offset) throws IOException {
+        int now = active.incrementAndGet();
+        while (true) {
+            int max = maxActive.get();
+            if (now <= max || maxActive.compareAndSet(max, now))
+                break;
+        }
+        RandomAccessFile file = new RandomAccessFile(target, "rw");
+        try {
+            file.setLength(offset);
+            file.seek(offset);
+            InputStream in = data.getInputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                long limit = failAfter;
+                if (limit >= 0 && read > limit) {
+                    failAfter = -1;
+                    file.write(buffer, 0, (int) limit);
+                    return false;
+                }
+                if (limit >= 0)
+                    failAfter = limit - read;
+                file.write(buffer, 0, read);
+            }
+            if (dataDelay > 0)
+                Thread.sleep(dataDelay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            file.close();
+            data.close();
+            active.decrementAndGet();
+        }
+        return true;
+    }
+
+    private File resolve(File dir, String path) {
+        return path.startsWith("/") ? new File(root, path.substring(1)) : new File(dir, path);
+    }
+
+    private String path(File dir) {
+        String path = dir.getAbsolutePath().substring(root.getAbsolutePath().length());
+        return path.startsWith(File.separator) ? path.substring(1) : path;
+    }
+
+    private static void reply(Writer out, String reply) throws IOException {
+        out.write(reply + "\r\n");
+        out.flush();
+    }
+}
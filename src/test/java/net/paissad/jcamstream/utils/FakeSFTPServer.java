@@ -0,0 +1,366 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.schmizz.sshj.connection.channel.direct.Session;
+import net.schmizz.sshj.connection.channel.direct.SessionFactory;
+
+/**
+ * A SFTP server in memory for the tests, storing the files uploaded into a
+ * local directory. It stands for a SSH connection: each SFTP channel is a
+ * socket of the local host, without encryption nor authentication, and
+ * knows the few requests used by the uploads.
+ * <p>
+ * The replies may be delayed to simulate the round trip to a distant
+ * server; the requests are still handled as they come, so that the replies
+ * to requests sent without waiting are not delayed one after the other.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class FakeSFTPServer implements SessionFactory {
+
+    private static final int               INIT         = 1;
+    private static final int               VERSION      = 2;
+    private static final int               OPEN         = 3;
+    private static final int               CLOSE        = 4;
+    private static final int               WRITE        = 6;
+    private static final int               LSTAT        = 7;
+    private static final int               MKDIR        = 14;
+    private static final int               STAT         = 17;
+    private static final int               STATUS       = 101;
+    private static final int               HANDLE       = 102;
+    private static final int               ATTRS        = 105;
+
+    private static final int               OK           = 0;
+    private static final int               NO_SUCH_FILE = 2;
+    private static final int               FAILURE      = 4;
+
+    private static final int               MAX_PACKET   = 32 * 1024;
+
+    private final File                     root;
+    private final ServerSocket             server;
+    private final List<Socket>             sockets      = new CopyOnWriteArrayList<Socket>();
+    private final AtomicInteger            subsystems   = new AtomicInteger();
+    private final AtomicInteger            writes       = new AtomicInteger();
+    private final ScheduledExecutorService replies      = Executors
+                                                                .newSingleThreadScheduledExecutor();
+    private volatile long                  rtt;
+
+    /**
+     * @param root
+     *            - The directory where the files are stored.
+     */
+    public FakeSFTPServer(File root) throws IOException {
+        this.root = root;
+        root.mkdirs();
+        server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    }
+
+    // _________________________________________________________________________
+
+    @Override
+    public Session startSession() {
+        return (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Session.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        if (method.getName().equals("startSubsystem"))
+                            return startSubsystem();
+                        return defaultValue(method);
+                    }
+                });
+    }
+
+    private Session.Subsystem startSubsystem() throws IOException {
+        final Socket client = new Socket(server.getInetAddress(), server.getLocalPort());
+        client.setTcpNoDelay(true);
+        final Socket accepted = server.accept();
+        accepted.setTcpNoDelay(true);
+        sockets.add(client);
+        sockets.add(accepted);
+        subsystems.incrementAndGet();
+        Thread thread = new Thread("fake-sftp-session") {
+            @Override
+            public void run() {
+                serve(accepted);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+
+        return (Session.Subsystem) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Session.Subsystem.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("getInputStream"))
+                            return client.getInputStream();
+                        if (name.equals("getOutputStream"))
+                            return client.getOutputStream();
+                        if (name.equals("getRemoteMaxPacketSize")
+                                || name.equals("getLocalMaxPacketSize"))
+                            return MAX_PACKET;
+                        if (name.equals("isOpen"))
+                            return !client.isClosed();
+                        if (name.equals("close")) {
+                            client.close();
+                            return null;
+                        }
+                        return defaultValue(method);
+                    }
+                });
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class)
+            return false;
+        if (type == int.class)
+            return 0;
+        if (type == long.class)
+            return 0L;
+        return null;
+    }
+
+    // _________________________________________________________________________
+
+    private void serve(Socket socket) {
+        Map<String, RandomAccessFile> handles = new HashMap<String, RandomAccessFile>();
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                byte[] packet = new byte[in.readInt()];
+                in.readFully(packet);
+                DataInputStream request = new DataInputStream(new ByteArrayInputStream(packet));
+                int type = request.readUnsignedByte();
+                if (type == INIT) {
+                    reply(out, new Reply(VERSION).putInt(3));
+                    continue;
+                }
+                int id = request.readInt();
+                reply(out, handle(type, id, request, handles));
+            }
+        } catch (EOFException e) {
+            // Closed by the client.
+        } catch (IOException e) {
+            // Closed by the client or by the server.
+        } finally {
+            for (RandomAccessFile file : handles.values()) {
+                try {
+                    file.close();
+                } catch (IOException ignored) {
+                }
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private Reply handle(int type, int id, DataInputStream request,
+            Map<String, RandomAccessFile> handles) throws IOException {
+        switch (type) {
+        case OPEN: {
+            File file = new File(root, readString(request));
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            String handle = String.valueOf(handles.size() + 1) + "-" + System.nanoTime();
+            handles.put(handle, raf);
+            return new Reply(HANDLE).putInt(id).putString(handle);
+        }
+        case WRITE: {
+            RandomAccessFile raf = handles.get(readString(request));
+            long offset = request.readLong();
+            byte[] data = new byte[request.readInt()];
+            request.readFully(data);
+            if (raf == null)
+                return status(id, FAILURE);
+            raf.seek(offset);
+            raf.write(data);
+            writes.incrementAndGet();
+            return status(id, OK);
+        }
+        case CLOSE: {
+            RandomAccessFile raf = handles.remove(readString(request));
+            if (raf == null)
+                return status(id, FAILURE);
+            raf.close();
+            return status(id, OK);
+        }
+        case STAT:
+        case LSTAT: {
+            File file = new File(root, readString(request));
+            if (!file.exists())
+                return status(id, NO_SUCH_FILE);
+            // Flags of the size and of the permissions, then both.
+            int mode = file.isDirectory() ? 040755 : 0100644;
+            return new Reply(ATTRS).putInt(id).putInt(0x1 | 0x4).putLong(file.length())
+                    .putInt(mode);
+        }
+        case MKDIR: {
+            File dir = new File(root, readString(request));
+            return status(id, dir.mkdir() ? OK : FAILURE);
+        }
+        default:
+            return status(id, FAILURE);
+        }
+    }
+
+    private static Reply status(int id, int code) throws IOException {
+        return new Reply(STATUS).putInt(id).putInt(code).putString("").putString("");
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Sends a reply once the round trip elapsed, in the order of the
+     * requests.
+     */
+    private void reply(final OutputStream out, Reply reply) throws IOException {
+        final byte[] packet = reply.toByteArray();
+        if (rtt <= 0) {
+            synchronized (out) {
+                out.write(packet);
+            }
+            return;
+        }
+        replies.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (out) {
+                        out.write(packet);
+                    }
+                } catch (IOException ignored) {
+                    // Closed meanwhile.
+                }
+            }
+        }, rtt, TimeUnit.MICROSECONDS);
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @param rtt
+     *            - The delay of the replies, in microseconds.
+     */
+    public void setRtt(long rtt) {
+        this.rtt = rtt;
+    }
+
+    /**
+     * @return The number of SFTP channels opened.
+     */
+    public int getSubsystems() {
+        return subsystems.get();
+    }
+
+    public int getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * Closes the channels open, as if the connection was lost.
+     */
+    public void dropConnections() throws IOException {
+        for (Socket socket : sockets)
+            socket.close();
+        sockets.clear();
+    }
+
+    public void close() throws IOException {
+        dropConnections();
+        replies.shutdownNow();
+        server.close();
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * A reply being written.
+     */
+    private static class Reply {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream      out   = new DataOutputStream(bytes);
+
+        private Reply(int type) throws IOException {
+            out.writeByte(type);
+        }
+
+        private Reply putInt(int value) throws IOException {
+            out.writeInt(value);
+            return this;
+        }
+
+        private Reply putLong(long value) throws IOException {
+            out.writeLong(value);
+            return this;
+        }
+
+        private Reply putString(String value) throws IOException {
+            byte[] string = value.getBytes("UTF-8");
+            out.writeInt(string.length);
+            out.write(string);
+            return this;
+        }
+
+        private byte[] toByteArray() throws IOException {
+            out.flush();
+            byte[] packet = bytes.toByteArray();
+            ByteArrayOutputStream framed = new ByteArrayOutputStream(packet.length + 4);
+            new DataOutputStream(framed).writeInt(packet.length);
+            framed.write(packet);
+            return framed.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Measures the frames per second converted by {@link ImageConverter} into a
+ * destination reused for each frame, and by
+ * {@link CommonUtils#convertImageToType(BufferedImage, int)} which creates a
+ * new image for each frame.
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.utils.ImageConverterBenchmark [frames] [width] [height]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class ImageConverterBenchmark {
+
+    private static int checksum;
+
+    public static void main(String[] args) {
+        int frames = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        int width = (args.length > 1) ? Integer.parseInt(args[1]) : 1920;
+        int height = (args.length > 2) ? Integer.parseInt(args[2]) : 1080;
+        System.out.println(width + "x" + height + ", " + frames + " frames per run");
+
+        Random random = new Random(42);
+        BufferedImage bgr = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        BufferedImage gray = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        int[] pixels = ((DataBufferInt) rgb.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = random.nextInt() & 0xFFFFFF;
+        ImageConverter.convert(rgb, bgr);
+
+        byte[] yuv = new byte[width * height * 2];
+        random.nextBytes(yuv);
+        ByteBuffer yuyv = ByteBuffer.allocateDirect(yuv.length);
+        yuyv.put(yuv).flip();
+        ByteBuffer nv12 = ByteBuffer.allocateDirect(width * height * 3 / 2);
+        nv12.put(yuv, 0, nv12.capacity()).flip();
+        ImageConverter converter = new ImageConverter();
+
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up the JIT.
+            boolean report = (round == 1);
+
+            long gc = gcCount();
+            long start = System.nanoTime();
+            for (int i = 0; i < frames; i++)
+                checksum += CommonUtils.convertImageToType(bgr, BufferedImage.TYPE_INT_RGB).getRGB(0, 0);
+            report(report, "3BYTE_BGR -> INT_RGB, convertImageToType", frames, start, gc);
+
+            gc = gcCount();
+            start = System.nanoTime();
+            for (int i = 0; i < frames; i++)
+                checksum += ImageConverter.convert(bgr, rgb).getRGB(0, 0);
+            report(report, "3BYTE_BGR -> INT_RGB, ImageConverter    ", frames, start, gc);
+
+            gc = gcCount();
+            start = System.nanoTime();
+            for (int i = 0; i < frames; i++)
+                checksum += CommonUtils.convertImageToType(rgb, BufferedImage.TYPE_BYTE_GRAY).getRGB(0, 0);
+            report(report, "INT_RGB -> BYTE_GRAY, convertImageToType", frames, start, gc);
+
+            gc = gcCount();
+            start = System.nanoTime();
+            for (int i = 0; i < frames; i++)
+                checksum += ImageConverter.convert(rgb, gray).getRGB(0, 0);
+            report(report, "INT_RGB -> BYTE_GRAY, ImageConverter    ", frames, start, gc);
+
+            gc = gcCount();
+            start = System.nanoTime();
+            for (int i = 0; i < frames; i++) {
+                converter.yuyvToRgb(yuyv, width, height, pixels);
+                checksum += pixels[i];
+            }
+            report(report, "YUYV -> INT_RGB, ImageConverter         ", frames, start, gc);
+
+            gc = gcCount();
+            start = System.nanoTime();
+            for (int i = 0; i < frames; i++) {
+                converter.nv12ToRgb(nv12, width, height, pixels);
+                checksum += pixels[i];
+            }
+            report(report, "NV12 -> INT_RGB, ImageConverter         ", frames, start, gc);
+        }
+        System.out.println("(" + checksum + ")");
+    }
+
+    private static void report(boolean report, String name, int frames, long start, long gcBefore) {
+        long nanos = System.nanoTime() - start;
+        if (report)
+            System.out.println(name + " : " + String.format("%7.1f", frames * 1e9 / nanos)
+                    + " fps, " + (gcCount() - gcBefore) + " GCs");
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += gc.getCollectionCount();
+        return count;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.paissad.jcamstream.media.frame.FrameMask;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class ImageConverterTest {
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.ImageConverter#yuyvToRgb(java.nio.ByteBuffer, int, int, int[])}
+     * .
+     */
+    @Test
+    public final void testYuyvToRgb() {
+        // White, black, then red and blue sharing their chroma (studio swing).
+        ByteBuffer yuyv = ByteBuffer.allocateDirect(8);
+        yuyv.put(new byte[] { (byte) 235, (byte) 128, 16, (byte) 128, 81, 90, 41, (byte) 240 });
+        yuyv.flip();
+        int[] rgb = new int[4];
+        new ImageConverter().yuyvToRgb(yuyv, 4, 1, rgb);
+
+        Assert.assertEquals(0xFFFFFF, rgb[0]);
+        Assert.assertEquals(0x000000, rgb[1]);
+        Assert.assertEquals(0, yuyv.position());
+        assertColor(0xFF0000, rgb[2], 3);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.ImageConverter#yuyvToRgb(java.nio.ByteBuffer, int, int, FrameMask, int[])}
+     * .
+     */
+    @Test
+    public final void testYuyvToRgbMasked() {
+        // Two rows of white pixels, the right half of the first row is left
+        // out, the odd start of the second row is widened.
+        ByteBuffer yuyv = ByteBuffer.allocateDirect(16);
+        for (int i = 0; i < 8; i++)
+            yuyv.put((byte) 235).put((byte) 128);
+        yuyv.flip();
+        List<Rectangle> none = Collections.emptyList();
+        FrameMask mask = new FrameMask(4, 2, none, Arrays.asList(new Rectangle(2, 0, 2, 1),
+                new Rectangle(0, 1, 1, 1)));
+        int[] rgb = new int[8];
+        Arrays.fill(rgb, -1);
+        new ImageConverter().yuyvToRgb(yuyv, 4, 2, mask, rgb);
+
+        Assert.assertArrayEquals(new int[] { 0xFFFFFF, 0xFFFFFF, -1, -1, 0xFFFFFF, 0xFFFFFF, 0xFFFFFF,
+                0xFFFFFF }, rgb);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.ImageConverter#nv12ToRgb(java.nio.ByteBuffer, int, int, int[])}
+     * .
+     */
+    @Test
+    public final void testNv12ToRgb() {
+        // 2x2 gray pixels sharing one neutral chroma sample.
+        ByteBuffer nv12 = ByteBuffer.wrap(new byte[] { 16, (byte) 235, (byte) 126, (byte) 126,
+                (byte) 128, (byte) 128 });
+        int[] rgb = new int[4];
+        new ImageConverter().nv12ToRgb(nv12, 2, 2, rgb);
+        Assert.assertEquals(0x000000, rgb[0]);
+        Assert.assertEquals(0xFFFFFF, rgb[1]);
+        Assert.assertEquals(rgb[2], rgb[3]);
+        assertColor(0x808080, rgb[2], 1);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.ImageConverter#convert(java.awt.image.BufferedImage, java.awt.image.BufferedImage)}
+     * .
+     */
+    @Test
+    public final void testConvert() {
+        BufferedImage bgr = new BufferedImage(3, 2, BufferedImage.TYPE_3BYTE_BGR);
+        int[] colors = { 0xFF0000, 0x00FF00, 0x0000FF, 0x123456, 0xFFFFFF, 0x000000 };
+        for (int i = 0; i < colors.length; i++)
+            bgr.setRGB(i % 3, i / 3, colors[i]);
+
+        BufferedImage rgb = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+        Assert.assertSame(rgb, ImageConverter.convert(bgr, rgb));
+        BufferedImage expected = CommonUtils.convertImageToType(bgr, BufferedImage.TYPE_INT_RGB);
+        Assert.assertArrayEquals(((DataBufferInt) expected.getRaster().getDataBuffer()).getData(),
+                ((DataBufferInt) rgb.getRaster().getDataBuffer()).getData());
+
+        BufferedImage gray = new BufferedImage(3, 2, BufferedImage.TYPE_BYTE_GRAY);
+        ImageConverter.convert(rgb, gray);
+        Assert.assertEquals(255, gray.getRaster().getSample(1, 1, 0));
+        Assert.assertEquals(0, gray.getRaster().getSample(2, 1, 0));
+        Assert.assertEquals(149, gray.getRaster().getSample(1, 0, 0));
+
+        // Not a fast path, drawn into the destination.
+        BufferedImage argb = new BufferedImage(3, 2, BufferedImage.TYPE_INT_ARGB);
+        ImageConverter.convert(bgr, argb);
+        Assert.assertEquals(0xFF123456, argb.getRGB(0, 1));
+
+        try {
+            ImageConverter.convert(bgr, new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB));
+            Assert.fail("The images do not have the same size.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    private static void assertColor(int expected, int actual, int tolerance) {
+        for (int shift = 0; shift < 24; shift += 8) {
+            Assert.assertEquals((expected >> shift) & 0xFF, (actual >> shift) & 0xFF, tolerance);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Measures the frames per second of each kernel of {@link PixelKernels}, for
+ * the scalar and the word implementations, on the luma plane of a frame held
+ * in a direct buffer.
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.utils.PixelKernelsBenchmark [frames] [width] [height] [native]</code>
+ * <br>
+ * The buffers are big endian, as the ones of the frames, unless the 4th
+ * argument is <code>native</code>.
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class PixelKernelsBenchmark {
+
+    private static int checksum;
+
+    public static void main(String[] args) {
+        int frames = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+        int width = (args.length > 1) ? Integer.parseInt(args[1]) : 1280;
+        int height = (args.length > 2) ? Integer.parseInt(args[2]) : 720;
+        ByteOrder order = (args.length > 3 && "native".equals(args[3])) ? ByteOrder.nativeOrder()
+                : ByteOrder.BIG_ENDIAN;
+        int pixels = width * height;
+        System.out.println(width + "x" + height + ", " + frames + " frames per run, " + order);
+
+        Random random = new Random(42);
+        ByteBuffer a = randomPixels(random, pixels, order);
+        ByteBuffer b = randomPixels(random, pixels, order);
+        ByteBuffer yuyv = randomPixels(random, pixels * 2, order);
+        ByteBuffer dst = ByteBuffer.allocateDirect(pixels).order(order);
+        int[] histogram = new int[256];
+        int[] rgb = new int[pixels];
+
+        PixelKernels[] kernels = { new ScalarPixelKernels(), new WordPixelKernels() };
+        String[] names = { "absDiff", "threshold", "downscale x2", "histogram", "yuyvToRgb" };
+        double[][] fps = new double[kernels.length][names.length];
+
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up the JIT.
+            for (int k = 0; k < kernels.length; k++) {
+                PixelKernels kernel = kernels[k];
+                for (int n = 0; n < names.length; n++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < frames; i++) {
+                        switch (n) {
+                        case 0:
+                            kernel.absDiff(a, b, dst, pixels);
+                            break;
+                        case 1:
+                            checksum += kernel.threshold(a, dst, pixels, 100);
+                            break;
+                        case 2:
+                            kernel.downscale(a, width, height, 2, dst);
+                            break;
+                        case 3:
+                            kernel.histogram(a, pixels, histogram);
+                            break;
+                        default:
+                            kernel.yuyvToRgb(yuyv, width, height, rgb);
+                            checksum += rgb[i];
+                        }
+                    }
+                    checksum += dst.get(0);
+                    fps[k][n] = frames / ((System.nanoTime() - start) / 1e9);
+                }
+            }
+        }
+
+        for (int n = 0; n < names.length; n++) {
+            System.out.println(String.format("%-14s scalar %7.0f fps   word %7.0f fps   x%.1f", names[n],
+                    fps[0][n], fps[1][n], fps[1][n] / fps[0][n]));
+        }
+        System.out.println("(checksum " + checksum + ")");
+    }
+
+    private static ByteBuffer randomPixels(Random random, int length, ByteOrder order) {
+        byte[] pixels = new byte[length];
+        random.nextBytes(pixels);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length).order(order);
+        buffer.put(pixels).flip();
+        return buffer;
+    }
+}
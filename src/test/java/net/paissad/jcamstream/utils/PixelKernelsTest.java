@@ -0,0 +1,159 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the word kernels against the scalar ones, on random pixels and on
+ * lengths which are not a multiple of a word.
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class PixelKernelsTest {
+
+    private static final int    LENGTH = 1003;
+
+    private final Random        random = new Random(7);
+    private final PixelKernels  scalar = new ScalarPixelKernels();
+    private final PixelKernels  word   = new WordPixelKernels();
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.PixelKernels#absDiff(ByteBuffer, ByteBuffer, ByteBuffer, int)}
+     * .
+     */
+    @Test
+    public final void testAbsDiff() {
+        ByteBuffer a = randomPixels(LENGTH);
+        ByteBuffer b = randomPixels(LENGTH);
+        ByteBuffer expected = ByteBuffer.allocate(LENGTH);
+        ByteBuffer actual = ByteBuffer.allocateDirect(LENGTH);
+        scalar.absDiff(a, b, expected, LENGTH);
+        word.absDiff(a, b, actual, LENGTH);
+
+        Assert.assertEquals(Math.abs((a.get(0) & 0xFF) - (b.get(0) & 0xFF)), expected.get(0) & 0xFF);
+        Assert.assertEquals(expected, actual);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.PixelKernels#threshold(ByteBuffer, ByteBuffer, int, int)}
+     * .
+     */
+    @Test
+    public final void testThreshold() {
+        ByteBuffer src = randomPixels(LENGTH);
+        for (int threshold : new int[] { 0, 1, 127, 128, 200, 255 }) {
+            ByteBuffer expected = ByteBuffer.allocate(LENGTH);
+            ByteBuffer actual = ByteBuffer.allocate(LENGTH);
+            int count = scalar.threshold(src, expected, LENGTH, threshold);
+            Assert.assertEquals(count, word.threshold(src, actual, LENGTH, threshold));
+            Assert.assertEquals(expected, actual);
+        }
+        ByteBuffer mask = ByteBuffer.allocate(LENGTH);
+        Assert.assertEquals(0, word.threshold(src, mask, LENGTH, 255));
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.PixelKernels#downscale(ByteBuffer, int, int, int, ByteBuffer)}
+     * .
+     */
+    @Test
+    public final void testDownscale() {
+        int width = 37;
+        int height = 11;
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            ByteBuffer src = randomPixels(width * height).order(order);
+            for (int factor = 1; factor <= 4; factor++) {
+                int size = (width / factor) * (height / factor);
+                ByteBuffer expected = ByteBuffer.allocate(size).order(order);
+                ByteBuffer actual = ByteBuffer.allocate(size).order(order);
+                scalar.downscale(src, width, height, factor, expected);
+                word.downscale(src, width, height, factor, actual);
+                Assert.assertEquals(expected, actual);
+            }
+        }
+
+        ByteBuffer square = ByteBuffer.wrap(new byte[] { 10, 20, 30, 40 });
+        ByteBuffer average = ByteBuffer.allocate(1);
+        word.downscale(square, 2, 2, 2, average);
+        Assert.assertEquals(25, average.get(0));
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.PixelKernels#histogram(ByteBuffer, int, int[])}
+     * .
+     */
+    @Test
+    public final void testHistogram() {
+        ByteBuffer src = randomPixels(LENGTH);
+        int[] expected = new int[256];
+        int[] actual = new int[256];
+        scalar.histogram(src, LENGTH, expected);
+        word.histogram(src, LENGTH, actual);
+        Assert.assertTrue(Arrays.equals(expected, actual));
+
+        int total = 0;
+        for (int count : actual)
+            total += count;
+        Assert.assertEquals(LENGTH, total);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.PixelKernels#yuyvToRgb(ByteBuffer, int, int, int[])}
+     * .
+     */
+    @Test
+    public final void testYuyvToRgb() {
+        int width = 16;
+        int height = 9;
+        ByteBuffer src = randomPixels(width * height * 2);
+        int[] expected = new int[width * height];
+        int[] actual = new int[width * height];
+        scalar.yuyvToRgb(src, width, height, expected);
+        word.yuyvToRgb(src, width, height, actual);
+        Assert.assertTrue(Arrays.equals(expected, actual));
+    }
+
+    // _________________________________________________________________________
+
+    /**
+     * @return Random pixels in a direct buffer, from position 3 so that the
+     *         words are not aligned.
+     */
+    private ByteBuffer randomPixels(int length) {
+        byte[] pixels = new byte[length];
+        random.nextBytes(pixels);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length + 3);
+        buffer.position(3);
+        buffer.put(pixels);
+        buffer.position(3);
+        return buffer.slice();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of {@link PropertiesConf#getProperty(String)} when
+ * many threads read the same properties while one thread keeps updating it,
+ * with the monitor based reads and with the snapshot reads.
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.utils.PropertiesConfBenchmark [readers] [seconds]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class PropertiesConfBenchmark {
+
+    private static final int      KEYS  = 1000;
+    private static final String[] NAMES = new String[KEYS];
+
+    static {
+        for (int i = 0; i < KEYS; i++)
+            NAMES[i] = "camera." + i + ".fps";
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int readers = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        // Warm up both modes before measuring.
+        run(false, readers, 1);
+        run(true, readers, 1);
+
+        long monitor = run(false, readers, seconds);
+        long snapshot = run(true, readers, seconds);
+        System.out.println(readers + " readers, 1 writer, " + seconds + " s");
+        System.out.println("monitor reads  : " + (monitor / seconds) + " ops/s");
+        System.out.println("snapshot reads : " + (snapshot / seconds) + " ops/s");
+    }
+
+    private static long run(final boolean snapshotReads, final int readers, final int seconds)
+            throws InterruptedException {
+
+        final PropertiesConf props = new PropertiesConf(snapshotReads);
+        for (int i = 0; i < KEYS; i++)
+            props.put(NAMES[i], String.valueOf(i));
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(readers + 1);
+
+        for (int r = 0; r < readers; r++) {
+            final int seed = r;
+            new Thread("reader-" + r) {
+                @Override
+                public void run() {
+                    long count = 0;
+                    int i = seed;
+                    while (running.get()) {
+                        if (props.getProperty(NAMES[i++ % KEYS]) != null)
+                            count++;
+                    }
+                    reads.addAndGet(count);
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        new Thread("writer") {
+            @Override
+            public void run() {
+                int i = 0;
+                while (running.get()) {
+                    props.put(NAMES[i++ % KEYS], String.valueOf(i));
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(10);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                done.countDown();
+            }
+        }.start();
+
+        TimeUnit.SECONDS.sleep(seconds);
+        running.set(false);
+        done.await();
+        return reads.get();
+    }
+}
@@ -17,14 +17,19 @@
  */
 package net.paissad.jcamstream.utils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
@@ -258,6 +263,49 @@ public class PropertiesConfTest {
         props.load(new FileInputStream(testPropsFile));
     }
 
+    /**
+     * The keys and values read by
+     * {@link net.paissad.jcamstream.utils.PropertiesConf#load(java.io.InputStream)}
+     * must be the same as the ones read by {@link Properties}.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public final void testLoadLikeProperties() throws IOException {
+        String content = ""
+                + "# comment \\\n"
+                + "   ! another comment\r\n"
+                + "\t\n"
+                + "simple=value\n"
+                + "  spaces   :   value with spaces  \r"
+                + "colon:value\n"
+                + "escaped\\ key\\=x = a\\tb\\u0041\\\\\n"
+                + "multi = first, \\\r\n"
+                + "        second, \\\n"
+                + "        third\n"
+                + "emptyValue\n"
+                + "endsWithBackslash = last\\";
+        byte[] bytes = content.getBytes("ISO-8859-1");
+
+        PropertiesConf props = new PropertiesConf();
+        props.load(new ByteArrayInputStream(bytes));
+        Properties expected = new Properties();
+        expected.load(new ByteArrayInputStream(bytes));
+
+        Assert.assertEquals(expected.stringPropertyNames(), props.keys());
+        for (String key : expected.stringPropertyNames())
+            Assert.assertEquals(key, expected.getProperty(key), props.getProperty(key));
+        Assert.assertEquals("first, second, third", props.getProperty("multi"));
+
+        // The lines which are not changed are written back as they were read.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        props.store(out);
+        String sep = System.getProperty("line.separator");
+        String stored = out.toString("ISO-8859-1");
+        Assert.assertTrue(stored.startsWith("# comment \\" + sep + "   ! another comment" + sep));
+        Assert.assertTrue(stored.contains(sep + "multi = first, \\\r\n        second, \\\n        third" + sep));
+    }
+
     /**
      * Test method for
      * {@link net.paissad.jcamstream.utils.PropertiesConf#store(java.io.OutputStream)}
@@ -275,6 +323,45 @@ public class PropertiesConfTest {
         // TODO make a better test !
     }
 
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.PropertiesConf#store(java.io.File)}
+     * .
+     * 
+     * @throws IOException
+     */
+    @Test
+    public final void testStoreFile() throws IOException {
+        FileUtils.copyFile(testPropsFile, tempFile);
+        long size = tempFile.length();
+
+        PropertiesConf props = new PropertiesConf();
+        props.load(tempFile);
+
+        // A shorter value is patched in place.
+        props.put("bb", "B");
+        Assert.assertEquals("bb = BBB".length(), props.store(tempFile));
+        Assert.assertEquals(size, tempFile.length());
+
+        // A longer value, or a new line, needs the whole file.
+        props.put("aa", "a longer value");
+        long written = props.store(tempFile);
+        Assert.assertEquals(tempFile.length(), written);
+        props.put("dd", "DDD");
+        written = props.store(tempFile);
+        Assert.assertEquals(tempFile.length(), written);
+
+        PropertiesConf reloaded = new PropertiesConf();
+        reloaded.load(new FileInputStream(tempFile));
+        Assert.assertEquals(props.snapshot(), reloaded.snapshot());
+        Assert.assertEquals("B", reloaded.getProperty("bb"));
+        Assert.assertEquals(Arrays.asList("aa", "bb", "cc", "dd"),
+                new ArrayList<String>(reloaded.keys()));
+
+        // Nothing changed, nothing written.
+        Assert.assertEquals(0, props.store(tempFile));
+    }
+
     /**
      * Test method for
      * {@link net.paissad.jcamstream.utils.PropertiesConf#put(java.lang.String, java.lang.String)}
@@ -305,7 +392,12 @@ public class PropertiesConfTest {
         PropertiesConf props = new PropertiesConf();
         props.load(new FileInputStream(testPropsFile));
         props.putAfter("aa_after", "AFTER", "aa");
-        // TODO make a better test !
+        Assert.assertEquals(Arrays.asList("aa", "aa_after", "bb", "cc"),
+                new ArrayList<String>(props.keys()));
+        props.putAfter("cc_after", "AFTER", "cc");
+        props.putAfter("zz", "ZZZ", "unknown");
+        Assert.assertEquals(Arrays.asList("aa", "aa_after", "bb", "cc", "cc_after", "zz"),
+                new ArrayList<String>(props.keys()));
     }
 
     /**
@@ -321,7 +413,13 @@ public class PropertiesConfTest {
         PropertiesConf props = new PropertiesConf();
         props.load(new FileInputStream(testPropsFile));
         props.putBefore("bb_BEFORE", "BEFORE", "bb");
-        // TODO make a better test !
+        Assert.assertEquals(Arrays.asList("aa", "bb_BEFORE", "bb", "cc"),
+                new ArrayList<String>(props.keys()));
+        props.putBefore("aa_BEFORE", "BEFORE", "aa");
+        props.remove("bb");
+        props.putBefore("bb", "BBB", "cc");
+        Assert.assertEquals(Arrays.asList("aa_BEFORE", "aa", "bb_BEFORE", "bb", "cc"),
+                new ArrayList<String>(props.keys()));
     }
 
     /**
@@ -340,6 +438,87 @@ public class PropertiesConfTest {
         Assert.assertFalse(props.containsKey("cc"));
     }
 
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.PropertiesConf#PropertiesConf(boolean)}
+     * .
+     * 
+     * @throws IOException
+     * @throws FileNotFoundException
+     */
+    @Test
+    public final void testSnapshotReads() throws FileNotFoundException, IOException {
+        PropertiesConf props = new PropertiesConf(true);
+        props.load(new FileInputStream(testPropsFile));
+        long version = props.getSnapshotVersion();
+        Map<String, String> before = props.snapshot();
+
+        props.put("aa", "XXX");
+        props.putAfter("aa_after", "AFTER", "aa");
+        Assert.assertEquals("XXX", props.getProperty("aa"));
+        Assert.assertTrue(props.containsKey("aa_after"));
+        Assert.assertEquals(Arrays.asList("aa", "aa_after", "bb", "cc"),
+                new ArrayList<String>(props.keys()));
+        Assert.assertEquals(version + 2, props.getSnapshotVersion());
+
+        // A snapshot is never modified once published.
+        Assert.assertEquals("AAA", before.get("aa"));
+        Assert.assertFalse(before.containsKey("aa_after"));
+
+        props.clear();
+        Assert.assertTrue(props.isEmpty());
+        Assert.assertNull(props.keys());
+        Assert.assertEquals(-1, new PropertiesConf().getSnapshotVersion());
+    }
+
+    /**
+     * Removing a key must not let a following {@link PropertiesConf#put} replace
+     * another line.
+     * 
+     * @throws IOException
+     * @throws FileNotFoundException
+     */
+    @Test
+    public final void testRemoveThenPut() throws FileNotFoundException, IOException {
+        PropertiesConf props = new PropertiesConf();
+        props.load(new FileInputStream(testPropsFile));
+        props.remove("aa");
+        props.put("dd", "DDD");
+        Assert.assertEquals("CCC", props.getProperty("cc"));
+        Assert.assertEquals(new ArrayList<String>(Arrays.asList("bb", "cc", "dd")),
+                new ArrayList<String>(props.keys()));
+        props.putBefore("bb_BEFORE", "BEFORE", "bb");
+        Assert.assertEquals("BBB", props.getProperty("bb"));
+        Assert.assertEquals("DDD", props.getProperty("dd"));
+    }
+
+    /**
+     * The keys left in the content loaded and the keys with escapes are the
+     * same keys, and stay found while many keys are added and removed.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public final void testKeysInContent() throws IOException {
+        String content = "k1 = a\n" + "\\u006b1 = b\n" + "\\u006b2 = c\n" + "k2 : d\n";
+        PropertiesConf props = new PropertiesConf();
+        props.load(new ByteArrayInputStream(content.getBytes("ISO-8859-1")));
+        Assert.assertEquals(Arrays.asList("k1", "k2"), new ArrayList<String>(props.keys()));
+        Assert.assertEquals("b", props.getProperty("k1"));
+        Assert.assertEquals("d", props.getProperty("k2"));
+
+        for (int i = 0; i < 1000; i++)
+            props.put("camera." + i + ".fps", String.valueOf(i));
+        for (int i = 0; i < 1000; i += 2)
+            Assert.assertEquals(String.valueOf(i), props.remove("camera." + i + ".fps"));
+        for (int i = 0; i < 1000; i++)
+            Assert.assertEquals((i % 2 == 0) ? null : String.valueOf(i),
+                    props.getProperty("camera." + i + ".fps"));
+        Assert.assertEquals("b", props.remove("k1"));
+        Assert.assertEquals("d", props.getProperty("k2"));
+        Assert.assertEquals(501, props.keys().size());
+    }
+
     /**
      * Test method for
      * {@link net.paissad.jcamstream.utils.PropertiesConf#clone()}.
@@ -0,0 +1,133 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the time needed to load a big properties file with
+ * {@link PropertiesConf#load(InputStream)}, with the former line by line
+ * parsing (regular expressions and one {@link Properties} per line) and with
+ * {@link Properties#load(InputStream)}.
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.utils.PropertiesLoadBenchmark [megabytes]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class PropertiesLoadBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int megabytes = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+
+        File file = File.createTempFile("propertiesLoadBenchmark", ".conf");
+        file.deleteOnExit();
+        generate(file, megabytes * 1024L * 1024L);
+        System.out.println("File of " + CommonUtils.humanReadableByteCount(file.length(), false));
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long propertiesConf = time(file, 0);
+            long legacy = time(file, 1);
+            long properties = time(file, 2);
+            System.out.println("round " + round
+                    + " : PropertiesConf " + propertiesConf + " ms"
+                    + ", line by line " + legacy + " ms"
+                    + ", java.util.Properties " + properties + " ms");
+        }
+    }
+
+    private static long time(final File file, final int which) throws IOException {
+        // Do not let the garbage of the previous run be collected during this
+        // one.
+        System.gc();
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+        try {
+            long start = System.nanoTime();
+            if (which == 0)
+                new PropertiesConf().load(in);
+            else if (which == 1)
+                loadLineByLine(in);
+            else
+                new Properties().load(in);
+            return (System.nanoTime() - start) / 1000000L;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void generate(final File file, final long size) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+        try {
+            long written = 0;
+            int i = 0;
+            while (written < size) {
+                String block = "# Camera " + i + "\n"
+                        + "camera." + i + ".device = /dev/video" + (i % 16) + "\n"
+                        + "camera." + i + ".fps = 15\n"
+                        + "camera." + i + ".motion.mask = 0,0,640,120 \\\n"
+                        + "        0,400,640,80\n"
+                        + "\n";
+                byte[] bytes = block.getBytes("ISO-8859-1");
+                out.write(bytes);
+                written += bytes.length;
+                i++;
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /*
+     * The parsing done by PropertiesConf before the PropertiesParser.
+     */
+    private static Map<String, String> loadLineByLine(final InputStream in) throws IOException {
+        LineNumberReader reader = new LineNumberReader(
+                new BufferedReader(new InputStreamReader(in, "ISO-8859-1")), 2048);
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (Pattern.compile("^\\s*$").matcher(line).find()
+                    || Pattern.compile("^\\s*(#|!)").matcher(line).find())
+                continue;
+            Properties props = new Properties();
+            props.load(new ByteArrayInputStream(line.getBytes("ISO-8859-1")));
+            for (String key : props.stringPropertyNames())
+                map.put(key, props.getProperty(key));
+        }
+        return map;
+    }
+}
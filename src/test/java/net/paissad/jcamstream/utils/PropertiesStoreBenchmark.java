@@ -0,0 +1,86 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Measures the bytes written and the time spent to store a big properties
+ * file after a single key changed, with {@link PropertiesConf#store(File)}
+ * (in place when possible) and with {@link PropertiesConf#store(OutputStream)}
+ * (the whole file each time).
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.utils.PropertiesStoreBenchmark [keys] [updates]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class PropertiesStoreBenchmark {
+
+    private static final String CURSOR_KEY = "upload.last.cursor";
+
+    public static void main(String[] args) throws IOException {
+        int keys = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        int updates = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+
+        File file = File.createTempFile("propertiesStoreBenchmark", ".conf");
+        file.deleteOnExit();
+
+        PropertiesConf props = new PropertiesConf();
+        props.put(CURSOR_KEY, "0000000000");
+        for (int i = 0; i < keys; i++)
+            props.put("camera." + i + ".device", "/dev/video" + (i % 16));
+        props.store(file);
+        System.out.println(keys + " keys, file of "
+                + CommonUtils.humanReadableByteCount(file.length(), false) + ", " + updates + " updates");
+
+        props.load(file);
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < updates; i++) {
+            props.put(CURSOR_KEY, String.valueOf(i));
+            bytes += props.store(file);
+        }
+        report("store(File)         ", bytes, System.nanoTime() - start, updates);
+
+        bytes = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < updates; i++) {
+            props.put(CURSOR_KEY, String.valueOf(i));
+            OutputStream out = new FileOutputStream(file);
+            try {
+                props.store(out);
+                ((FileOutputStream) out).getFD().sync();
+            } finally {
+                out.close();
+            }
+            bytes += file.length();
+        }
+        report("store(OutputStream) ", bytes, System.nanoTime() - start, updates);
+    }
+
+    private static void report(final String name, final long bytes, final long nanos, final int updates) {
+        System.out.println(name + " : " + (bytes / updates) + " bytes/update, "
+                + (nanos / updates / 1000L) + " us/update");
+    }
+}
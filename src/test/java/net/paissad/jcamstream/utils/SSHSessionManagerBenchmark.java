@@ -0,0 +1,101 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import net.schmizz.sshj.connection.channel.direct.SessionFactory;
+
+/**
+ * Measures the time taken to upload a batch of clips with a
+ * {@link SSHSessionManager}: waiting for the reply to each chunk as
+ * {@link net.schmizz.sshj.sftp.RemoteFile} does, then with a window of
+ * chunks in flight, then over several channels. The server of the tests
+ * delays its replies, as the round trips of a distant server do.
+ * <p>
+ * This is not a unit test, run it by hand:<br>
+ * <code>java -cp ... net.paissad.jcamstream.utils.SSHSessionManagerBenchmark [files] [channels] [window] [rtt ms]</code>
+ * </p>
+ * 
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class SSHSessionManagerBenchmark {
+
+    private static final int FILE_SIZE = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+        int channels = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        int window = (args.length > 2) ? Integer.parseInt(args[2]) : 16;
+        long rtt = (args.length > 3) ? Long.parseLong(args[3]) : 5;
+
+        File directory = File.createTempFile("sshSessionManagerBenchmark", "");
+        directory.delete();
+        final FakeSFTPServer server = new FakeSFTPServer(new File(directory, "server"));
+        server.setRtt(rtt * 1000);
+        try {
+            List<File> files = new ArrayList<File>();
+            for (int i = 0; i < count; i++) {
+                File file = new File(directory, "clip" + i + ".jcsf");
+                FileUtils.writeByteArrayToFile(file, new byte[FILE_SIZE]);
+                files.add(file);
+            }
+            System.out.println(count + " files of " + FILE_SIZE / 1024 + " KB, " + rtt
+                    + " ms round trip");
+
+            run(server, files, 1, 1, "1 channel, no window");
+            run(server, files, 1, window, "1 channel, window " + window);
+            run(server, files, channels, window, channels + " channels, window " + window);
+        } finally {
+            server.close();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    private static void run(final FakeSFTPServer server, List<File> files, int channels,
+            int window, String name) throws IOException {
+        SSHSessionManager manager = new SSHSessionManager("user", null, "127.0.0.1", 0, channels) {
+            @Override
+            SessionFactory connect(boolean compression) {
+                return server;
+            }
+        };
+        manager.setWindow(window);
+        try {
+            // Opens the channels first, as a running manager has them.
+            manager.uploadFiles(files.subList(0, Math.min(channels, files.size())), "/warmup");
+            long start = System.nanoTime();
+            manager.uploadFiles(files, "/clips");
+            print(name, System.nanoTime() - start, files.size());
+        } finally {
+            manager.close();
+        }
+    }
+
+    private static void print(String name, long nanos, int count) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format("%-28s : %6.0f ms, %5.1f MB/s", name, seconds * 1000, count
+                * (double) FILE_SIZE / 1024 / 1024 / seconds));
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * JCamStream, simple Java application for video surveillance from webcams.
+ * Copyright (C) 2011 Papa Issa DIAKHATE (paissad).
+ * 
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.paissad.jcamstream.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.schmizz.sshj.connection.channel.direct.SessionFactory;
+
+/**
+ * @author Papa Issa DIAKHATE (paissad)
+ * 
+ */
+public class SSHSessionManagerTest {
+
+    private File              directory;
+    private FakeSFTPServer    plain;
+    private FakeSFTPServer    compressed;
+    private SSHSessionManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("sshSessionManager", "");
+        directory.delete();
+        new File(directory, "local").mkdirs();
+        // Both stand for the same server, with and without compression.
+        plain = new FakeSFTPServer(new File(directory, "server"));
+        compressed = new FakeSFTPServer(new File(directory, "server"));
+        manager = new SSHSessionManager("user", null, "127.0.0.1", 0, 3) {
+            @Override
+            SessionFactory connect(boolean compression) throws IOException {
+                return compression ? compressed : plain;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        manager.close();
+        plain.close();
+        compressed.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.SSHSessionManager#uploadFiles(java.util.List, java.lang.String)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testUploadFiles() throws Exception {
+        List<File> files = createFiles("first", 6, ".jcsf");
+        plain.setRtt(2000);
+        compressed.setRtt(2000);
+        manager.setWindow(4);
+        manager.uploadFiles(files, "/clips/front");
+        assertUploaded(files, "clips/front");
+        Assert.assertEquals(3, compressed.getSubsystems());
+        Assert.assertEquals(0, plain.getSubsystems());
+        Assert.assertEquals(1, manager.getConnections());
+
+        // The channels are kept for the next batch.
+        List<File> next = createFiles("second", 3, ".jcsf");
+        manager.uploadFiles(next, "/clips/front");
+        assertUploaded(next, "clips/front");
+        Assert.assertEquals(3, compressed.getSubsystems());
+        Assert.assertEquals(9, manager.getUploadedFiles());
+
+        // Lost, then opened again.
+        compressed.dropConnections();
+        Thread.sleep(100);
+        manager.uploadFiles(files, "/clips/front");
+        assertUploaded(files, "clips/front");
+        Assert.assertTrue(compressed.getSubsystems() > 3);
+        Assert.assertEquals(0, manager.getFailures());
+        Assert.assertTrue(manager.getChannelCount() <= 3);
+    }
+
+    /**
+     * Test method for
+     * {@link net.paissad.jcamstream.utils.SSHSessionManager#isCompressible(java.io.File)}
+     * .
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testCompression() throws Exception {
+        List<File> frames = createFiles("frames", 2, ".jcsf");
+        List<File> videos = createFiles("video", 2, ".MP4");
+        Assert.assertTrue(manager.isCompressible(frames.get(0)));
+        Assert.assertFalse(manager.isCompressible(videos.get(0)));
+
+        List<File> files = new ArrayList<File>(frames);
+        files.addAll(videos);
+        manager.uploadFiles(files, "up");
+        assertUploaded(files, "up");
+        Assert.assertEquals(2, manager.getConnections());
+        Assert.assertTrue(plain.getSubsystems() > 0);
+        Assert.assertTrue(compressed.getSubsystems() > 0);
+
+        // Everything over the plain connection.
+        manager.setCompression(false);
+        int channels = compressed.getSubsystems();
+        manager.uploadFiles(createFiles("more", 3, ".jcsf"), "up");
+        Assert.assertEquals(channels, compressed.getSubsystems());
+        Assert.assertEquals(7, manager.getUploadedFiles());
+    }
+
+    /**
+     * The uploads waiting for the only channel go on when it is closed after
+     * a failure, or was closed while idle.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void testFailureWakesWaiters() throws Exception {
+        final SSHSessionManager single = new SSHSessionManager("user", null, "127.0.0.1", 0, 1) {
+            @Override
+            SessionFactory connect(boolean compression) throws IOException {
+                return compression ? compressed : plain;
+            }
+        };
+        compressed.setRtt(2000);
+        List<File> files = new ArrayList<File>();
+        List<File> good = createFiles("good", 2, ".jcsf");
+        files.add(good.get(0));
+        for (int i = 0; i < 3; i++)
+            files.add(new File(directory, "local" + File.separator + "missing" + i + ".jcsf"));
+        files.add(good.get(1));
+
+        ExecutorService executor = Executors.newFixedThreadPool(files.size());
+        try {
+            Assert.assertEquals(3, countFailures(executor, single, files));
+            assertUploaded(good, "clips/front");
+
+            // Lost while idle, the waiting uploads open a new channel.
+            compressed.dropConnections();
+            Thread.sleep(100);
+            Assert.assertEquals(0, countFailures(executor, single, good));
+            Assert.assertEquals(4, single.getUploadedFiles());
+            Assert.assertEquals(1, single.getChannelCount());
+        } finally {
+            executor.shutdownNow();
+            single.close();
+        }
+    }
+
+    // _________________________________________________________________________
+
+    private static int countFailures(ExecutorService executor, final SSHSessionManager manager,
+            List<File> files) throws Exception {
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (final File file : files) {
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    manager.upload(file, "/clips/front");
+                    return null;
+                }
+            }));
+        }
+        int failures = 0;
+        for (Future<Object> future : futures) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException ee) {
+                Assert.assertTrue(ee.getCause() instanceof IOException);
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    private List<File> createFiles(String prefix, int count, String extension) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < count; i++) {
+            File file = new File(directory, "local" + File.separator + prefix + i + extension);
+            byte[] data = new byte[100 * 1024 + i];
+            for (int j = 0; j < data.length; j++)
+                data[j] = (byte) (j * 31 + i);
+            FileUtils.writeByteArrayToFile(file, data);
+            files.add(file);
+        }
+        return files;
+    }
+
+    private void assertUploaded(List<File> files, String remoteDir) throws IOException {
+        for (File file : files) {
+            File uploaded = new File(directory, "server/" + remoteDir + "/" + file.getName());
+            Assert.assertTrue(FileUtils.contentEquals(file, uploaded));
+        }
+    }
+}